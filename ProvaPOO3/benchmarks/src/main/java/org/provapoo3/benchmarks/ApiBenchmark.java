@@ -0,0 +1,89 @@
+package org.provapoo3.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.provapoo3.api.ServidorConsultas;
+import org.provapoo3.catalogo.CatalogoMedicamentos;
+import org.provapoo3.model.Medicamento;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Carga na API HTTP local (localhost) com várias conexões simultâneas enquanto outra thread faz o papel da
+// tela, incluindo e excluindo medicamentos a cada milissegundo. Throughput = requisições/s sustentadas;
+// SampleTime traz os percentis (p0.99) da latência.
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 3)
+@Measurement(iterations = 5, time = 5)
+@Threads(16)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx3g", "-Dsun.net.httpserver.nodelay=true"})
+public class ApiBenchmark {
+
+    @Param({"100000"})
+    int tamanho;
+
+    ServidorConsultas servidor;
+    HttpClient cliente;
+    String base;
+    ScheduledExecutorService tela;
+    List<Medicamento> novos;
+    int proximoNovo;
+
+    @State(Scope.Thread)
+    public static class Sequencia {
+        int proximo;
+    }
+
+    @Setup(Level.Trial)
+    public void preparar() throws IOException {
+        CatalogoMedicamentos catalogo = Catalogos.catalogo(tamanho);
+        servidor = new ServidorConsultas(new InetSocketAddress("127.0.0.1", 0), () -> catalogo);
+        base = "http://127.0.0.1:" + servidor.endereco().getPort() + "/api/";
+        cliente = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+
+        // "tela": inclui um item novo e exclui um antigo por milissegundo, em paralelo às consultas
+        novos = Catalogos.medicamentos(tamanho + 100_000).subList(tamanho, tamanho + 100_000);
+        tela = Executors.newSingleThreadScheduledExecutor();
+        tela.scheduleAtFixedRate(() -> {
+            int i = proximoNovo++ % novos.size();
+            catalogo.substituir(novos.get(i));
+            catalogo.remover(Catalogos.codigo(i));
+        }, 1, 1, TimeUnit.MILLISECONDS);
+    }
+
+    @TearDown(Level.Trial)
+    public void encerrar() {
+        tela.shutdownNow();
+        servidor.close();
+    }
+
+    @Benchmark
+    public int buscarPorCodigo(Sequencia s) throws Exception {
+        return get("medicamentos/" + Catalogos.codigo(s.proximo++ % tamanho));
+    }
+
+    @Benchmark
+    public int pesquisar(Sequencia s) throws Exception {
+        return get("pesquisa?q=medicamento%20" + (s.proximo++ % 1_000) + "&limite=20");
+    }
+
+    @Benchmark
+    public int relatorioEstoqueBaixo() throws Exception {
+        return get("relatorios/estoque-baixo?abaixoDe=5&limite=50");
+    }
+
+    private int get(String caminho) throws Exception {
+        HttpResponse<byte[]> r = cliente.send(HttpRequest.newBuilder(URI.create(base + caminho)).build(),
+                HttpResponse.BodyHandlers.ofByteArray());
+        return r.statusCode() + r.body().length;
+    }
+}
@@ -0,0 +1,65 @@
+package org.provapoo3.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.provapoo3.catalogo.CatalogoMedicamentos;
+import org.provapoo3.model.Medicamento;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+// Busca por código (índice hash), consultas pelos índices secundários e pesquisa por trecho (índice de palavras)
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class BuscaBenchmark {
+
+    @Param({"10000", "100000", "1000000"})
+    int tamanho;
+
+    CatalogoMedicamentos catalogo;
+    String cnpj;
+    int proximo;
+
+    @Setup
+    public void preparar() {
+        catalogo = Catalogos.catalogo(tamanho);
+        cnpj = catalogo.fornecedores().todos().iterator().next().getCnpj();
+    }
+
+    @Benchmark
+    public Optional<Medicamento> buscarPorCodigo() {
+        return catalogo.buscarPorCodigo(Catalogos.codigo(proximo++ % tamanho));
+    }
+
+    @Benchmark
+    public boolean checagemDeDuplicidade() {
+        return catalogo.contem(Catalogos.codigo(tamanho + (proximo++ & 1023)));
+    }
+
+    @Benchmark
+    public Collection<Medicamento> doFornecedor() {
+        return catalogo.doFornecedor(cnpj);
+    }
+
+    @Benchmark
+    public Collection<Medicamento> comPrincipioAtivo() {
+        return catalogo.comPrincipioAtivo("Princípio " + (proximo++ % 2_000));
+    }
+
+    // pior caso: começo de palavra presente em todos os itens
+    @Benchmark
+    public List<Medicamento> pesquisarPrefixoAmplo() {
+        return catalogo.pesquisar("medic", 500);
+    }
+
+    // digitação típica: duas palavras, a segunda parcial
+    @Benchmark
+    public List<Medicamento> pesquisarDuasPalavras() {
+        return catalogo.pesquisar("principio " + (proximo++ % 200), 500);
+    }
+}
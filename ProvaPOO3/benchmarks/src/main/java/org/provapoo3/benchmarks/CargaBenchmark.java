@@ -0,0 +1,60 @@
+package org.provapoo3.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.provapoo3.catalogo.CatalogoMedicamentos;
+import org.provapoo3.persistencia.RepositorioCSV;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+// Carga completa para um catálogo novo, com as partes lidas em paralelo das cópias binárias ou só dos CSVs
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class CargaBenchmark {
+
+    @Param({"10000", "100000", "1000000"})
+    int tamanho;
+
+    @Param({"binario", "csv"})
+    String origem;
+
+    Path diretorio;
+
+    @Setup(Level.Trial)
+    public void preparar() throws IOException {
+        diretorio = Files.createTempDirectory("bench-carga");
+        CatalogoMedicamentos c = Catalogos.catalogo(tamanho);
+        new RepositorioCSV(diretorio).salvarTudo(c.todos(), c.fornecedores().todos());
+        if (origem.equals("csv")) {
+            try (DirectoryStream<Path> binarios = Files.newDirectoryStream(diretorio.resolve("medicamentos"), "*.bin")) {
+                for (Path p : binarios) Files.delete(p);
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void limpar() throws IOException {
+        Catalogos.apagar(diretorio);
+    }
+
+    // até a tabela poder aparecer: os índices de pesquisa e relatórios ficam adiados
+    @Benchmark
+    public CatalogoMedicamentos carregar() throws IOException {
+        return new RepositorioCSV(diretorio).carregar();
+    }
+
+    // carga e os índices adiados, que a tela monta numa thread própria depois de mostrar a tabela
+    @Benchmark
+    public CatalogoMedicamentos carregarEMontarIndices() throws IOException {
+        CatalogoMedicamentos c = new RepositorioCSV(diretorio).carregar();
+        c.montarIndices();
+        return c;
+    }
+}
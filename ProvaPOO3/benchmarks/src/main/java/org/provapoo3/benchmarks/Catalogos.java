@@ -0,0 +1,64 @@
+package org.provapoo3.benchmarks;
+
+import org.provapoo3.catalogo.CatalogoMedicamentos;
+import org.provapoo3.model.Fornecedor;
+import org.provapoo3.model.Medicamento;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Comparator;
+import java.util.SplittableRandom;
+import java.util.stream.Stream;
+
+// Catálogos sintéticos reprodutíveis (semente fixa) para os benchmarks
+final class Catalogos {
+
+    static final int FORNECEDORES = 500;
+    private static final String[] ESTADOS = {"GO", "SP", "MG", "RJ", "PR", "BA", "DF"};
+
+    private Catalogos() {}
+
+    static List<Medicamento> medicamentos(int n) {
+        SplittableRandom rnd = new SplittableRandom(42);
+        List<Fornecedor> fornecedores = new ArrayList<>(FORNECEDORES);
+        for (int i = 0; i < FORNECEDORES; i++) {
+            fornecedores.add(new Fornecedor(String.format("%014d", 10_000_000_000_000L + i), "Fornecedor " + i,
+                    "62999990000", "contato" + i + "@forn.com", "Cidade " + (i % 40), ESTADOS[i % ESTADOS.length]));
+        }
+        LocalDate hoje = LocalDate.now();
+        List<Medicamento> meds = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            meds.add(new Medicamento(
+                    codigo(i), "Medicamento " + i, "Descrição do medicamento " + i, "Princípio " + (i % 2_000),
+                    hoje.plusDays(rnd.nextInt(-60, 720)),
+                    rnd.nextInt(0, 200),
+                    BigDecimal.valueOf(rnd.nextLong(100, 50_000), 2),
+                    rnd.nextInt(10) == 0,
+                    fornecedores.get(rnd.nextInt(FORNECEDORES))));
+        }
+        return meds;
+    }
+
+    static CatalogoMedicamentos catalogo(int n) {
+        CatalogoMedicamentos c = new CatalogoMedicamentos();
+        c.adicionarTodos(medicamentos(n));
+        return c;
+    }
+
+    // 7 caracteres alfanuméricos, como exige a validação do formulário
+    static String codigo(int i) {
+        String s = Integer.toString(i, 36).toUpperCase();
+        return "M" + "0".repeat(6 - s.length()) + s;
+    }
+
+    static void apagar(Path diretorio) throws IOException {
+        try (Stream<Path> arquivos = Files.walk(diretorio)) {
+            for (Path p : arquivos.sorted(Comparator.reverseOrder()).toList()) Files.deleteIfExists(p);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package org.provapoo3.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.provapoo3.catalogo.CatalogoMedicamentos;
+import org.provapoo3.catalogo.TabelaColunar;
+import org.provapoo3.model.Medicamento;
+
+import java.time.LocalDate;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// Varredura completa com filtro (sem índice), sobre o grafo de objetos (List<Medicamento>, como os pipelines de
+// streams antigos) e sobre a TabelaColunar. A memória ocupada por cada um é impressa na preparação.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class ColunarBenchmark {
+
+    @Param({"100000", "1000000"})
+    int tamanho;
+
+    List<Medicamento> objetos;
+    TabelaColunar colunas;
+    LocalDate hoje, daqui30;
+
+    @Setup
+    public void preparar() {
+        long antes = usado();
+        objetos = Catalogos.medicamentos(tamanho);
+        long comObjetos = usado();
+        colunas = TabelaColunar.de(objetos);
+        long comColunas = usado();
+        System.out.printf("%n[memória] objetos: %,d bytes (%d por item) | colunas: %,d bytes (%d por item)%n",
+                comObjetos - antes, (comObjetos - antes) / tamanho,
+                comColunas - comObjetos, (comColunas - comObjetos) / tamanho);
+        hoje = LocalDate.now();
+        daqui30 = hoje.plusDays(30);
+    }
+
+    private static long usado() {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) System.gc();
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    @Benchmark
+    public List<Medicamento> vencendoEm30DiasObjetos() {
+        return objetos.stream()
+                .filter(m -> m.getDataValidade() != null
+                        && !m.getDataValidade().isBefore(hoje) && !m.getDataValidade().isAfter(daqui30))
+                .sorted(Comparator.comparing(Medicamento::getDataValidade))
+                .toList();
+    }
+
+    @Benchmark
+    public int[] vencendoEm30DiasColunas() {
+        return colunas.linhasVencendoEntre(hoje, daqui30);
+    }
+
+    @Benchmark
+    public List<Medicamento> estoqueBaixoObjetos() {
+        return objetos.stream()
+                .filter(m -> m.getQuantidadeEstoque() < 5)
+                .sorted(Comparator.comparingInt(Medicamento::getQuantidadeEstoque))
+                .toList();
+    }
+
+    @Benchmark
+    public int[] estoqueBaixoColunas() {
+        return colunas.linhasEstoqueAbaixoDe(5);
+    }
+
+    @Benchmark
+    public List<Medicamento> controladosObjetos() {
+        return objetos.stream()
+                .filter(Medicamento::isControlado)
+                .sorted(Comparator.comparing(Medicamento::getNome, String.CASE_INSENSITIVE_ORDER))
+                .toList();
+    }
+
+    @Benchmark
+    public int[] controladosColunas() {
+        return colunas.linhasControlados(true);
+    }
+
+    @Benchmark
+    public Map<String, Long> valorPorFornecedorObjetos() {
+        Map<String, Long> valores = new HashMap<>();
+        for (Medicamento m : objetos) {
+            if (m.getFornecedor() == null) continue;
+            valores.merge(m.getFornecedor().getCnpj(),
+                    CatalogoMedicamentos.centavos(m.getPreco()) * m.getQuantidadeEstoque(), Long::sum);
+        }
+        return valores;
+    }
+
+    @Benchmark
+    public Map<String, Long> valorPorFornecedorColunas() {
+        return colunas.valorEstoquePorFornecedor();
+    }
+}
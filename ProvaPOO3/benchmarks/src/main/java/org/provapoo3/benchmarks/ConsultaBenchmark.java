@@ -0,0 +1,64 @@
+package org.provapoo3.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.provapoo3.catalogo.CatalogoMedicamentos;
+import org.provapoo3.catalogo.Consulta;
+import org.provapoo3.model.Medicamento;
+
+import java.time.LocalDate;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Relatório combinado "controlados E vencendo em 60 dias E fornecedor de SP", por nome: pipeline de streams sobre
+// todos os itens × Consulta (o catálogo começa pelo índice de validade ou pelo conjunto de controlados)
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class ConsultaBenchmark {
+
+    @Param({"100000", "1000000"})
+    int tamanho;
+
+    CatalogoMedicamentos catalogo;
+    LocalDate hoje, daqui60;
+
+    @Setup
+    public void preparar() {
+        catalogo = Catalogos.catalogo(tamanho);
+        hoje = LocalDate.now();
+        daqui60 = hoje.plusDays(60);
+    }
+
+    @Benchmark
+    public List<Medicamento> streams() {
+        return catalogo.todos().stream()
+                .filter(Medicamento::isControlado)
+                .filter(m -> m.getDataValidade() != null
+                        && !m.getDataValidade().isBefore(hoje) && !m.getDataValidade().isAfter(daqui60))
+                .filter(m -> m.getFornecedor() != null && "SP".equals(m.getFornecedor().getEstado()))
+                .sorted(Comparator.comparing(Medicamento::getNome, String.CASE_INSENSITIVE_ORDER))
+                .toList();
+    }
+
+    @Benchmark
+    public List<Medicamento> consulta() {
+        return catalogo.consultar(new Consulta()
+                .controlado(true)
+                .validadeEntre(hoje, daqui60)
+                .estados(List.of("SP"))
+                .ordenarPor(Consulta.Ordem.NOME, false)).medicamentos();
+    }
+
+    // primeiros 50 a vencer: o índice de validade já entrega na ordem e a leitura para no limite
+    @Benchmark
+    public List<Medicamento> primeirosAVencer() {
+        return catalogo.consultar(new Consulta()
+                .validadeEntre(hoje, null)
+                .ordenarPor(Consulta.Ordem.VALIDADE, false)
+                .limite(50)).medicamentos();
+    }
+}
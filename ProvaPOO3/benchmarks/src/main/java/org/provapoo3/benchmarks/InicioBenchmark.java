@@ -0,0 +1,89 @@
+package org.provapoo3.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.provapoo3.catalogo.CatalogoMedicamentos;
+import org.provapoo3.persistencia.RepositorioCSV;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Abertura da tela num processo novo da imagem do jlink (mvn -Pinicio-rapido package em ProvaPOO3/), até o primeiro
+// quadro e até a tabela preenchida: sem CDS × arquivo CDS só do JDK × arquivo do treino (JDK, JavaFX e aplicação).
+// Precisa de tela (em CI, xvfb-run); outra imagem: -Dprovapoo3.imagem=<diretório>
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 10)
+@Fork(1)
+public class InicioBenchmark {
+
+    @Param({"10000", "100000"})
+    int tamanho;
+
+    @Param({"sem-cds", "cds-jdk", "appcds"})
+    String modo;
+
+    Path imagem, diretorio;
+    Process processo;
+
+    @Setup(Level.Trial)
+    public void preparar() throws IOException {
+        imagem = Path.of(System.getProperty("provapoo3.imagem", "../target/app")).toAbsolutePath();
+        if (Files.notExists(imagem.resolve("lib/server/classes.jsa"))) {
+            throw new IllegalStateException("Imagem sem arquivo CDS em " + imagem + ": rode mvn -Pinicio-rapido package em ProvaPOO3/");
+        }
+        diretorio = Files.createTempDirectory("bench-inicio");
+        CatalogoMedicamentos c = Catalogos.catalogo(tamanho);
+        new RepositorioCSV(Files.createDirectory(diretorio.resolve("dados"))).salvarTudo(c.todos(), c.fornecedores().todos());
+    }
+
+    @TearDown(Level.Invocation)
+    public void esperarSaida() throws Exception {
+        if (processo == null) return;
+        processo.getInputStream().transferTo(OutputStream.nullOutputStream());
+        if (!processo.waitFor(60, TimeUnit.SECONDS)) processo.destroyForcibly().waitFor();
+        processo = null;
+    }
+
+    @TearDown(Level.Trial)
+    public void limpar() throws IOException {
+        Catalogos.apagar(diretorio);
+    }
+
+    @Benchmark
+    public String primeiroQuadro() throws Exception {
+        return abrirAte("inicio;quadro;");
+    }
+
+    @Benchmark
+    public String tabelaPreenchida() throws Exception {
+        return abrirAte("inicio;tabela;");
+    }
+
+    // o tempo medido é o do processo inteiro: partida da JVM, carga de classes, tela e catálogo
+    private String abrirAte(String marco) throws Exception {
+        List<String> cmd = new ArrayList<>(List.of(imagem.resolve("bin/java").toString()));
+        switch (modo) {
+            case "sem-cds" -> cmd.add("-Xshare:off");
+            case "cds-jdk" -> cmd.addAll(List.of("-Xshare:on", "-XX:SharedArchiveFile=" + imagem.resolve("lib/server/classes_jdk.jsa")));
+            default -> cmd.add("-Xshare:on"); // lib/server/classes.jsa, o arquivo padrão da imagem
+        }
+        cmd.addAll(List.of("-Dprovapoo3.inicio=sair", "-m", "org.provapoo3/org.provapoo3.Main"));
+        processo = new ProcessBuilder(cmd).directory(diretorio.toFile())
+                .redirectError(ProcessBuilder.Redirect.INHERIT).start();
+        BufferedReader saida = new BufferedReader(new InputStreamReader(processo.getInputStream(), StandardCharsets.UTF_8));
+        for (String linha; (linha = saida.readLine()) != null; ) {
+            if (linha.startsWith(marco)) return linha;
+        }
+        throw new IOException("A aplicação fechou sem imprimir " + marco + " (saída " + processo.waitFor() + ")");
+    }
+}
@@ -0,0 +1,74 @@
+package org.provapoo3.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.provapoo3.catalogo.CatalogoMedicamentos;
+import org.provapoo3.model.Medicamento;
+import org.provapoo3.model.Movimentacao;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+// Um lote de 1 000 movimentações de estoque (metade saídas, metade entradas, concentradas em 200 itens
+// "de balcão"), aplicado no catálogo: em uma passada (movimentar), item a item com reindexação, e do jeito
+// antigo (excluir e recriar o medicamento com a quantidade nova)
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class MovimentacaoBenchmark {
+
+    private static final int LOTE = 1_000;
+    private static final int ITENS_DE_BALCAO = 200;
+
+    @Param({"100000"})
+    int tamanho;
+
+    CatalogoMedicamentos catalogo;
+    List<Movimentacao> lote;
+
+    @Setup
+    public void preparar() {
+        catalogo = Catalogos.catalogo(tamanho);
+        SplittableRandom r = new SplittableRandom(42);
+        lote = new ArrayList<>(LOTE);
+        for (int i = 0; i < LOTE / 2; i++) {
+            String codigo = Catalogos.codigo(r.nextInt(ITENS_DE_BALCAO));
+            int qtd = 1 + r.nextInt(3);
+            // entrada antes da saída: o estoque nunca fica insuficiente e volta ao que era no fim do lote
+            lote.add(Movimentacao.entrada(codigo, qtd, "NF"));
+            lote.add(Movimentacao.saida(codigo, qtd, "REC"));
+        }
+    }
+
+    @Benchmark
+    public CatalogoMedicamentos.Saldo[] umaPassada() {
+        return catalogo.movimentar(lote);
+    }
+
+    @Benchmark
+    public int itemAItem() {
+        int n = 0;
+        for (Movimentacao mv : lote) {
+            Medicamento m = catalogo.buscarPorCodigo(mv.codigo()).orElseThrow();
+            catalogo.atualizarQuantidade(mv.codigo(), m.getQuantidadeEstoque() + mv.delta());
+            n++;
+        }
+        return n;
+    }
+
+    @Benchmark
+    public int excluirERecriar() {
+        int n = 0;
+        for (Movimentacao mv : lote) {
+            Medicamento m = catalogo.remover(mv.codigo()).orElseThrow();
+            m.setQuantidadeEstoque(m.getQuantidadeEstoque() + mv.delta());
+            catalogo.adicionar(m);
+            n++;
+        }
+        return n;
+    }
+}
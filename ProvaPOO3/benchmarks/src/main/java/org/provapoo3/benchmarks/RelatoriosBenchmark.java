@@ -0,0 +1,71 @@
+package org.provapoo3.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.provapoo3.catalogo.CatalogoMedicamentos;
+import org.provapoo3.model.Fornecedor;
+import org.provapoo3.model.Medicamento;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// Os cinco relatórios da tela e a montagem da tabela de fornecedores
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class RelatoriosBenchmark {
+
+    @Param({"10000", "100000", "1000000"})
+    int tamanho;
+
+    CatalogoMedicamentos catalogo;
+    LocalDate hoje;
+
+    @Setup
+    public void preparar() {
+        catalogo = Catalogos.catalogo(tamanho);
+        hoje = LocalDate.now();
+    }
+
+    @Benchmark
+    public List<Medicamento> vencendoEm30Dias() {
+        return catalogo.vencendoEntre(hoje, hoje.plusDays(30));
+    }
+
+    @Benchmark
+    public List<Medicamento> estoqueBaixo() {
+        return catalogo.estoqueBaixo(5);
+    }
+
+    @Benchmark
+    public Map<String, Long> valorTotalPorFornecedor() {
+        return Map.copyOf(catalogo.valorEstoquePorFornecedor());
+    }
+
+    @Benchmark
+    public List<Medicamento> controlados() {
+        return catalogo.controlados(true);
+    }
+
+    @Benchmark
+    public List<Medicamento> naoControlados() {
+        return catalogo.controlados(false);
+    }
+
+    // tabela de fornecedores da visão completa: direto do registro
+    @Benchmark
+    public List<Fornecedor> fornecedoresDoRegistro() {
+        return new ArrayList<>(catalogo.fornecedores().todos());
+    }
+
+    // tabela de fornecedores deduplicando o catálogo inteiro (como fornecedoresUnicos fazia)
+    @Benchmark
+    public List<Fornecedor> fornecedoresDeduplicados() {
+        return CatalogoMedicamentos.fornecedoresDe(catalogo.todos());
+    }
+}
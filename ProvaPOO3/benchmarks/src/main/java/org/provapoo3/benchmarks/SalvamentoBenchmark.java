@@ -0,0 +1,88 @@
+package org.provapoo3.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.provapoo3.catalogo.CatalogoMedicamentos;
+import org.provapoo3.model.Medicamento;
+import org.provapoo3.persistencia.RepositorioCSV;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Reescrita completa das partes contra a compactação que só reescreve a parte de um código alterado e contra o
+// registro de uma operação no journal
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class SalvamentoBenchmark {
+
+    @Param({"10000", "100000", "1000000"})
+    int tamanho;
+
+    Path diretorio;
+    CatalogoMedicamentos catalogo, carregado;
+    List<Medicamento> amostra;
+    RepositorioCSV repositorio;
+    int proximo;
+
+    @Setup(Level.Trial)
+    public void preparar() throws IOException {
+        diretorio = Files.createTempDirectory("bench-salvar");
+        catalogo = Catalogos.catalogo(tamanho);
+        amostra = new ArrayList<>(List.copyOf(catalogo.todos()).subList(0, Math.min(1_000, tamanho)));
+        new RepositorioCSV(diretorio).salvarTudo(catalogo.todos(), catalogo.fornecedores().todos());
+    }
+
+    @Setup(Level.Iteration)
+    public void abrir() throws IOException {
+        repositorio = new RepositorioCSV(diretorio);
+        carregado = repositorio.carregar();
+    }
+
+    // o journal é descartado a cada iteração para não crescer sem limite
+    @TearDown(Level.Iteration)
+    public void fechar() throws IOException {
+        repositorio.close();
+        Files.deleteIfExists(diretorio.resolve("medicamentos.journal"));
+    }
+
+    @TearDown(Level.Trial)
+    public void limpar() throws IOException {
+        Catalogos.apagar(diretorio);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void salvarCSV() throws IOException {
+        repositorio.salvarTudo(catalogo.todos(), catalogo.fornecedores().todos());
+    }
+
+    // uma alteração no journal e a compactação: reescreve fornecedores.csv, a parte do código e o manifesto
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void compactarUmaParte() throws IOException {
+        gravarAlteracao();
+        repositorio.compactar(carregado);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void registrarInsercaoJournal() throws IOException {
+        gravarAlteracao();
+    }
+
+    // pelo mesmo caminho da tela: a versão seguinte de um item da amostra, gravada com a verificação de conflito
+    private void gravarAlteracao() throws IOException {
+        int i = proximo++ % amostra.size();
+        Medicamento m = new Medicamento(amostra.get(i));
+        m.setVersao(m.getVersao() + 1);
+        if (!repositorio.gravar(List.of(RepositorioCSV.registroInsercao(m)), carregado).conflitos().isEmpty())
+            throw new IllegalStateException("Alteração da amostra em conflito: " + m.getCodigo());
+        amostra.set(i, m);
+    }
+}
@@ -0,0 +1,60 @@
+package org.provapoo3.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.provapoo3.catalogo.CatalogoMedicamentos;
+import org.provapoo3.model.Medicamento;
+
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Relatório "valor total por fornecedor": pipeline de streams com BigDecimal (como era no controller)
+ * contra a leitura das somas em centavos mantidas pelo catálogo.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ValorizacaoBenchmark {
+
+    @Param({"100000", "1000000"})
+    int tamanho;
+
+    CatalogoMedicamentos catalogo;
+    int proximo;
+
+    @Setup
+    public void preparar() {
+        catalogo = Catalogos.catalogo(tamanho);
+    }
+
+    @Benchmark
+    public Map<String, BigDecimal> pipelineStream() {
+        return catalogo.todos().stream()
+                .filter(m -> m.getFornecedor() != null)
+                .collect(Collectors.groupingBy(
+                        m -> m.getFornecedor().getCnpj(),
+                        Collectors.mapping(
+                                m -> m.getPreco() != null
+                                        ? m.getPreco().multiply(new BigDecimal(m.getQuantidadeEstoque()))
+                                        : BigDecimal.ZERO,
+                                Collectors.reducing(BigDecimal.ZERO, BigDecimal::add))));
+    }
+
+    @Benchmark
+    public Map<String, Long> totaisPreAgregados() {
+        return Map.copyOf(catalogo.valorEstoquePorFornecedor());
+    }
+
+    // custo que a pré-agregação adiciona a cada mudança de quantidade (reindexação + ajuste da soma)
+    @Benchmark
+    public Object atualizarQuantidade() {
+        String codigo = Catalogos.codigo(proximo++ % tamanho);
+        Medicamento m = catalogo.buscarPorCodigo(codigo).orElseThrow();
+        return catalogo.atualizarQuantidade(codigo, (m.getQuantidadeEstoque() + 1) % 200);
+    }
+}
@@ -0,0 +1,78 @@
+package org.provapoo3.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.provapoo3.catalogo.CatalogoMedicamentos;
+import org.provapoo3.catalogo.Versao;
+import org.provapoo3.model.Medicamento;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// Versões fixadas do catálogo: o custo de fixar uma, o de uma alteração (cópia do item, dos caminhos no mapa e na
+// lista e publicação da versão nova) e um relatório que varre uma versão inteira enquanto outra thread continua
+// alterando quantidades (grupo "comEdicoes": as duas medidas saem juntas, uma por thread)
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class VersoesBenchmark {
+
+    private static final int ITENS_DE_BALCAO = 200;
+
+    @Param({"100000"})
+    int tamanho;
+
+    CatalogoMedicamentos catalogo;
+
+    @State(Scope.Thread)
+    public static class Sequencia {
+        int proximo;
+    }
+
+    @Setup
+    public void preparar() {
+        catalogo = Catalogos.catalogo(tamanho);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public Versao fixarVersao() {
+        return catalogo.versao();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public Medicamento alteracao(Sequencia s) {
+        return alterar(s);
+    }
+
+    @Benchmark
+    public long varrerVersao() {
+        long total = 0;
+        for (Medicamento m : catalogo.versao().todos()) total += m.getQuantidadeEstoque();
+        return total;
+    }
+
+    @Benchmark
+    @Group("comEdicoes")
+    public Map<String, Long> relatorio() {
+        return catalogo.versao().valorEstoquePorFornecedor();
+    }
+
+    @Benchmark
+    @Group("comEdicoes")
+    public Medicamento edicao(Sequencia s) {
+        return alterar(s);
+    }
+
+    // alterna +1/-1 nos itens "de balcão": o estoque volta ao que era a cada duas voltas
+    private Medicamento alterar(Sequencia s) {
+        int i = s.proximo++;
+        String codigo = Catalogos.codigo(i % ITENS_DE_BALCAO);
+        Medicamento m = catalogo.buscarPorCodigo(codigo).orElseThrow();
+        int delta = (i / ITENS_DE_BALCAO) % 2 == 0 ? 1 : -1;
+        return catalogo.atualizarQuantidade(codigo, m.getQuantidadeEstoque() + delta).orElseThrow();
+    }
+}
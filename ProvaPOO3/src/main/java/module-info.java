@@ -1,6 +1,8 @@
 module org.provapoo3 {
     requires javafx.controls;
     requires javafx.fxml;
+    requires jdk.httpserver;
+    requires jdk.jfr;
 
     exports org.provapoo3;
     exports org.provapoo3.controller;
@@ -0,0 +1,76 @@
+package org.provapoo3;
+
+import org.provapoo3.diagnostico.Metricas;
+import org.provapoo3.service.ImportadorCSV;
+import org.provapoo3.service.MedicamentoService;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Importação em lote sem JavaFX. Com {@code --exportar-csv}, grava no fim o catálogo num único CSV (o formato de
+ * antes das partes); sem arquivo para importar, só exporta.
+ * <pre>
+ * java -cp target/classes org.provapoo3.ImportadorCLI [arquivo.csv] [--dados dados] [--lote 10000] [--metricas]
+ *                                                     [--exportar-csv medicamentos.csv]
+ * </pre>
+ */
+public class ImportadorCLI {
+
+    public static void main(String[] args) throws Exception {
+        Path arquivo = null;
+        Path dados = Path.of("dados");
+        int lote = ImportadorCSV.LOTE_PADRAO;
+        boolean metricas = false;
+        Path exportar = null;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--dados" -> dados = Path.of(valor(args, ++i));
+                case "--lote" -> lote = Integer.parseInt(valor(args, ++i));
+                case "--metricas" -> metricas = true;
+                case "--exportar-csv" -> exportar = Path.of(valor(args, ++i));
+                default -> arquivo = Path.of(args[i]);
+            }
+        }
+        if ((arquivo == null && exportar == null) || (arquivo != null && Files.notExists(arquivo))) {
+            System.err.println("uso: ImportadorCLI [<arquivo.csv>] [--dados <diretório>] [--lote <linhas>] [--metricas]"
+                    + " [--exportar-csv <arquivo>]");
+            System.exit(2);
+        }
+
+        try (MedicamentoService servico = new MedicamentoService(dados)) {
+            long t0 = System.nanoTime();
+            servico.carregar(p -> {});
+            System.out.printf("Catálogo carregado: %d medicamentos em %d ms%n",
+                    servico.catalogo().tamanho(), (System.nanoTime() - t0) / 1_000_000);
+            if (!servico.rejeitadasNaCarga().isEmpty()) {
+                System.out.printf("Linhas inválidas do catálogo deixadas fora da carga: %d (vão para %s na próxima reescrita)%n",
+                        servico.rejeitadasNaCarga().size(), servico.arquivoQuarentena());
+            }
+            servico.compactarSeNecessario(); // migra arquivos no formato antigo, como a tela
+
+            if (arquivo != null) {
+                ImportadorCSV.Resultado r = new ImportadorCSV(servico, lote).importar(arquivo,
+                        (lidas, importadas) -> System.out.printf("  ... %d linhas lidas, %d importadas%n", lidas, importadas));
+
+                System.out.printf("Lidas: %d | Importadas: %d | Rejeitadas: %d%n", r.lidas(), r.importadas(), r.rejeitadas());
+                System.out.printf("Tempo: %.2f s | Throughput: %.0f linhas/s%n", r.nanos() / 1e9, r.linhasPorSegundo());
+                if (r.rejeitadas() > 0) {
+                    r.amostrasRejeicao().forEach(a -> System.out.println("  rejeitada " + a));
+                    System.out.println("Linhas rejeitadas (com motivo): " + r.arquivoRejeitados());
+                }
+            }
+            if (exportar != null) {
+                servico.exportarArquivoUnico(exportar);
+                System.out.printf("Catálogo exportado para %s (%d medicamentos)%n", exportar, servico.catalogo().tamanho());
+            }
+        }
+        // depois do close: inclui a gravação final da fila
+        if (metricas) System.out.print("\n" + Metricas.relatorio());
+    }
+
+    private static String valor(String[] args, int i) {
+        if (i >= args.length) throw new IllegalArgumentException("Faltou o valor de " + args[i - 1]);
+        return args[i];
+    }
+}
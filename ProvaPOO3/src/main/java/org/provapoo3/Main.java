@@ -5,23 +5,38 @@ import javafx.fxml.FXMLLoader;
 import javafx.scene.Parent;
 import javafx.scene.Scene;
 import javafx.stage.Stage;
-import org.provapoo3.utils.PathFXML;
+import org.provapoo3.api.ServidorConsultas;
+import org.provapoo3.controller.MainController;
+import org.provapoo3.diagnostico.Inicio;
 
-import java.io.FileInputStream;
 import java.io.IOException;
 
 public class Main extends Application {
+    private MainController controller;
+
     @Override
     public void start(Stage stage) throws IOException {
-        FXMLLoader fxmlLoader = new FXMLLoader();
-        Parent root = fxmlLoader.load(new FileInputStream(PathFXML.pathBase() + "\\main-view.fxml"));
+        // recurso do próprio módulo: funciona no IDE, no jar e na imagem do jlink
+        FXMLLoader fxmlLoader = new FXMLLoader(Main.class.getResource("view/main-view.fxml"));
+        Parent root = fxmlLoader.load();
+        controller = fxmlLoader.getController();
         Scene scene = new Scene(root, 900, 650);
         stage.setTitle("Gestão de Medicamentos!");
         stage.setScene(scene);
         stage.show();
+        Inicio.noProximoQuadro(scene, Inicio.QUADRO);
+    }
+
+    @Override
+    public void stop() throws IOException {
+        if (controller != null) controller.encerrar();
     }
 
     public static void main(String[] args) {
+        // vale para o processo inteiro e é lido uma vez pelo HttpServer do JDK: liga antes de a API subir
+        if (System.getProperty(ServidorConsultas.PROP_NODELAY) == null) {
+            System.setProperty(ServidorConsultas.PROP_NODELAY, "true");
+        }
         launch();
     }
 }
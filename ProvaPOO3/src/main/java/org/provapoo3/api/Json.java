@@ -0,0 +1,112 @@
+package org.provapoo3.api;
+
+import org.provapoo3.model.Fornecedor;
+import org.provapoo3.model.Medicamento;
+
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Escrita de JSON à mão (sem dependência nova) para as respostas da API: só o que os endpoints devolvem.
+ * A exportação de relatórios em JSON Lines usa os mesmos objetos, uma linha por medicamento.
+ */
+public final class Json {
+
+    private Json() {}
+
+    static String medicamento(Medicamento m) {
+        StringBuilder sb = new StringBuilder(256);
+        medicamento(sb, m, m.getDescricao());
+        return sb.toString();
+    }
+
+    // {"total": n, "itens": [...]} com no máximo 'limite' itens; total é o tamanho do resultado inteiro
+    static String lista(Collection<Medicamento> meds, int limite) {
+        return lista(meds, meds.size(), limite);
+    }
+
+    // resultado já cortado (a pesquisa): o total vem de quem cortou
+    static String lista(Collection<Medicamento> meds, int total, int limite) {
+        StringBuilder sb = new StringBuilder(64 + Math.min(meds.size(), limite) * 256);
+        sb.append("{\"total\":").append(total).append(",\"itens\":[");
+        int n = 0;
+        for (Medicamento m : meds) {
+            if (n == limite) break;
+            if (n++ > 0) sb.append(',');
+            medicamento(sb, m, m.getDescricao());
+        }
+        return sb.append("]}").toString();
+    }
+
+    // valor em centavos por CNPJ, do maior para o menor
+    static String valorPorFornecedor(Map<String, Long> centavosPorCnpj, Map<String, Fornecedor> fornecedores) {
+        StringBuilder sb = new StringBuilder(64 + centavosPorCnpj.size() * 96).append("{\"fornecedores\":[");
+        int n = 0;
+        for (Map.Entry<String, Long> e : centavosPorCnpj.entrySet()) {
+            if (n++ > 0) sb.append(',');
+            Fornecedor f = fornecedores.get(e.getKey());
+            sb.append("{\"cnpj\":");
+            texto(sb, e.getKey());
+            sb.append(",\"razaoSocial\":");
+            texto(sb, f != null ? f.getRazaoSocial() : null);
+            sb.append(",\"valorEstoque\":").append(BigDecimal.valueOf(e.getValue(), 2).toPlainString()).append('}');
+        }
+        return sb.append("]}").toString();
+    }
+
+    static String erro(String mensagem) {
+        StringBuilder sb = new StringBuilder("{\"erro\":");
+        texto(sb, mensagem);
+        return sb.append('}').toString();
+    }
+
+    // mesmo objeto da API, para exportação em massa: a descrição é lida sem passar pelo cache de descrições
+    public static void linhaExportacao(StringBuilder sb, Medicamento m) {
+        medicamento(sb, m, m.lerDescricao());
+    }
+
+    private static void medicamento(StringBuilder sb, Medicamento m, String descricao) {
+        sb.append("{\"codigo\":"); texto(sb, m.getCodigo());
+        sb.append(",\"nome\":"); texto(sb, m.getNome());
+        sb.append(",\"descricao\":"); texto(sb, descricao);
+        sb.append(",\"principioAtivo\":"); texto(sb, m.getPrincipioAtivo());
+        sb.append(",\"dataValidade\":"); texto(sb, m.getDataValidade() != null ? m.getDataValidade().toString() : null);
+        sb.append(",\"quantidadeEstoque\":").append(m.getQuantidadeEstoque());
+        sb.append(",\"preco\":").append(m.getPreco() != null ? m.getPreco().toPlainString() : "null");
+        sb.append(",\"controlado\":").append(m.isControlado());
+        sb.append(",\"versao\":").append(m.getVersao());
+        Fornecedor f = m.getFornecedor();
+        if (f == null) {
+            sb.append(",\"fornecedor\":null}");
+            return;
+        }
+        sb.append(",\"fornecedor\":{\"cnpj\":"); texto(sb, f.getCnpj());
+        sb.append(",\"razaoSocial\":"); texto(sb, f.getRazaoSocial());
+        sb.append("}}");
+    }
+
+    // texto entre aspas com escape (null sem aspas)
+    public static void texto(StringBuilder sb, String s) {
+        if (s == null) {
+            sb.append("null");
+            return;
+        }
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"' -> sb.append("\\\"");
+                case '\\' -> sb.append("\\\\");
+                case '\n' -> sb.append("\\n");
+                case '\r' -> sb.append("\\r");
+                case '\t' -> sb.append("\\t");
+                default -> {
+                    if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+                    else sb.append(c);
+                }
+            }
+        }
+        sb.append('"');
+    }
+}
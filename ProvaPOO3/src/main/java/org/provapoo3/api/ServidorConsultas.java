@@ -0,0 +1,211 @@
+package org.provapoo3.api;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.provapoo3.catalogo.CatalogoMedicamentos;
+import org.provapoo3.diagnostico.Metricas;
+import org.provapoo3.model.Fornecedor;
+import org.provapoo3.service.ValidadorMedicamento;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * API HTTP local, só de consulta, para os terminais de caixa e as impressoras de etiqueta, sobre o mesmo catálogo
+ * em memória da tela (que aceita leituras concorrentes com as alterações feitas nela).
+ * <p>
+ * Usa o {@link HttpServer} do JDK (módulo {@code jdk.httpserver}, sem dependência nova) com uma thread virtual
+ * por requisição quando o Java tem threads virtuais (21+); antes disso, um pool fixo de threads de plataforma.
+ * <pre>
+ * GET /api/medicamentos/{codigo}
+ * GET /api/pesquisa?q=dipirona&amp;limite=50
+ * GET /api/relatorios/vencendo?dias=30
+ * GET /api/relatorios/vencidos
+ * GET /api/relatorios/estoque-baixo?abaixoDe=10
+ * GET /api/relatorios/controlados?controlado=true
+ * GET /api/relatorios/valor-por-fornecedor
+ * </pre>
+ * As listas vêm como {@code {"total": n, "itens": [...]}}, com no máximo {@code limite} itens
+ * (padrão {@link #LIMITE_PADRAO}, até {@link #LIMITE_MAXIMO}); {@code total} é o tamanho do resultado inteiro
+ * (na pesquisa, quantos itens casaram com a consulta).
+ * <p>
+ * Cabeçalho e corpo saem em escritas separadas: com o algoritmo de Nagle, o corpo esperaria o ACK atrasado do
+ * cliente (~40 ms por resposta em conexões keep-alive). O processo que sobe o servidor deve rodar com
+ * {@code -D}{@value #PROP_NODELAY}{@code =true}, lido uma vez pelo {@link HttpServer} do JDK; o {@code Main} da
+ * aplicação já liga a propriedade antes de abrir a tela.
+ */
+public class ServidorConsultas implements Closeable {
+
+    // -Dprovapoo3.http.porta=8080 liga a API junto com a tela; o endereço padrão só aceita conexões locais
+    public static final String PROP_PORTA = "provapoo3.http.porta";
+    public static final String PROP_ENDERECO = "provapoo3.http.endereco";
+    public static final String PROP_NODELAY = "sun.net.httpserver.nodelay";
+    public static final int LIMITE_PADRAO = 100;
+    public static final int LIMITE_MAXIMO = 10_000;
+    private static final String PREFIXO = "/api/";
+
+    private record Resposta(int status, String corpo) {}
+
+    private final HttpServer servidor;
+    private final ExecutorService executor = executorPorRequisicao();
+    private final Supplier<CatalogoMedicamentos> catalogo;
+
+    /** @param catalogo lido a cada requisição (o serviço pode trocá-lo numa releitura) */
+    public ServidorConsultas(InetSocketAddress endereco, Supplier<CatalogoMedicamentos> catalogo) throws IOException {
+        this.catalogo = catalogo;
+        this.servidor = HttpServer.create(endereco, 0);
+        servidor.createContext(PREFIXO, this::atender);
+        servidor.setExecutor(executor);
+        servidor.start();
+    }
+
+    // só inicia se a porta foi configurada
+    public static Optional<ServidorConsultas> iniciarSeConfigurado(Supplier<CatalogoMedicamentos> catalogo)
+            throws IOException {
+        Integer porta = Integer.getInteger(PROP_PORTA);
+        if (porta == null) return Optional.empty();
+        String host = System.getProperty(PROP_ENDERECO, "127.0.0.1");
+        return Optional.of(new ServidorConsultas(new InetSocketAddress(host, porta), catalogo));
+    }
+
+    public InetSocketAddress endereco() {
+        return servidor.getAddress();
+    }
+
+    @Override
+    public void close() {
+        servidor.stop(0);
+        executor.shutdown();
+    }
+
+    /* ===================== ROTAS ===================== */
+
+    private void atender(HttpExchange troca) throws IOException {
+        long inicio = System.nanoTime();
+        try {
+            Resposta r;
+            if (!"GET".equals(troca.getRequestMethod())) {
+                r = new Resposta(405, Json.erro("Somente GET."));
+            } else {
+                try {
+                    r = rotear(troca.getRequestURI().getPath().substring(PREFIXO.length()),
+                            parametros(troca.getRequestURI().getRawQuery()));
+                } catch (IllegalArgumentException e) {
+                    r = new Resposta(400, Json.erro(e.getMessage()));
+                }
+            }
+            byte[] corpo = r.corpo().getBytes(StandardCharsets.UTF_8);
+            troca.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            troca.sendResponseHeaders(r.status(), corpo.length);
+            try (OutputStream out = troca.getResponseBody()) {
+                out.write(corpo);
+            }
+        } finally {
+            troca.close();
+            Metricas.histograma("api.requisicao").registrar(System.nanoTime() - inicio);
+        }
+    }
+
+    private Resposta rotear(String caminho, Map<String, String> p) {
+        CatalogoMedicamentos c = catalogo.get();
+        if (caminho.startsWith("medicamentos/")) {
+            String codigo = caminho.substring("medicamentos/".length());
+            ValidadorMedicamento.validarCodigo7(codigo);
+            return c.buscarPorCodigo(codigo)
+                    .map(m -> new Resposta(200, Json.medicamento(m)))
+                    .orElseGet(() -> new Resposta(404, Json.erro("Medicamento não encontrado.")));
+        }
+        int limite = inteiro(p, "limite", LIMITE_PADRAO);
+        if (limite < 0 || limite > LIMITE_MAXIMO)
+            throw new IllegalArgumentException("limite deve estar entre 0 e " + LIMITE_MAXIMO + ".");
+        LocalDate hoje = LocalDate.now();
+        return switch (caminho) {
+            case "pesquisa" -> {
+                CatalogoMedicamentos.Pesquisa r = c.pesquisarComTotal(obrigatorio(p, "q"), limite);
+                yield new Resposta(200, Json.lista(r.itens(), r.total(), limite));
+            }
+            case "relatorios/vencendo" -> {
+                int dias = inteiro(p, "dias", 30);
+                ValidadorMedicamento.validarQuantidadeNaoNegativa(dias);
+                yield new Resposta(200, Json.lista(c.vencendoEntre(hoje, hoje.plusDays(dias)), limite));
+            }
+            case "relatorios/vencidos" -> new Resposta(200, Json.lista(c.vencidosAntesDe(hoje), limite));
+            case "relatorios/estoque-baixo" -> {
+                int abaixoDe = inteiro(p, "abaixoDe", 10);
+                ValidadorMedicamento.validarQuantidadeNaoNegativa(abaixoDe);
+                yield new Resposta(200, Json.lista(c.estoqueBaixo(abaixoDe), limite));
+            }
+            case "relatorios/controlados" -> new Resposta(200,
+                    Json.lista(c.controlados(!"false".equals(p.getOrDefault("controlado", "true"))), limite));
+            case "relatorios/valor-por-fornecedor" -> new Resposta(200, valorPorFornecedor(c));
+            default -> new Resposta(404, Json.erro("Rota desconhecida: " + PREFIXO + caminho));
+        };
+    }
+
+    private static String valorPorFornecedor(CatalogoMedicamentos c) {
+        Map<String, Long> ordenado = new LinkedHashMap<>();
+        c.valorEstoquePorFornecedor().entrySet().stream()
+                .sorted(Map.Entry.<String, Long>comparingByValue().reversed())
+                .forEach(e -> ordenado.put(e.getKey(), e.getValue()));
+        Map<String, Fornecedor> fornecedores = new HashMap<>();
+        for (Fornecedor f : c.fornecedores().todos()) fornecedores.put(f.getCnpj(), f);
+        return Json.valorPorFornecedor(ordenado, fornecedores);
+    }
+
+    /* ===================== PARÂMETROS ===================== */
+
+    private static Map<String, String> parametros(String query) {
+        if (query == null || query.isEmpty()) return Map.of();
+        Map<String, String> p = new HashMap<>();
+        for (String par : query.split("&")) {
+            int i = par.indexOf('=');
+            String nome = URLDecoder.decode(i < 0 ? par : par.substring(0, i), StandardCharsets.UTF_8);
+            p.put(nome, i < 0 ? "" : URLDecoder.decode(par.substring(i + 1), StandardCharsets.UTF_8));
+        }
+        return p;
+    }
+
+    private static int inteiro(Map<String, String> p, String nome, int padrao) {
+        String v = p.get(nome);
+        if (v == null || v.isBlank()) return padrao;
+        try {
+            return Integer.parseInt(v.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Parâmetro " + nome + " inválido.");
+        }
+    }
+
+    private static String obrigatorio(Map<String, String> p, String nome) {
+        String v = p.get(nome);
+        if (v == null || v.isBlank()) throw new IllegalArgumentException("Parâmetro " + nome + " é obrigatório.");
+        return v;
+    }
+
+    /* ===================== THREADS ===================== */
+
+    // Executors.newVirtualThreadPerTaskExecutor() só existe a partir do Java 21: procurado por reflexão para o
+    // projeto continuar compilando com o 17
+    static ExecutorService executorPorRequisicao() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            AtomicInteger n = new AtomicInteger();
+            int threads = Math.max(8, 4 * Runtime.getRuntime().availableProcessors());
+            return Executors.newFixedThreadPool(threads, r -> {
+                Thread t = new Thread(r, "api-http-" + n.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+}
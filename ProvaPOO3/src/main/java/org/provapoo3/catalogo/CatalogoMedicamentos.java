@@ -0,0 +1,768 @@
+package org.provapoo3.catalogo;
+
+import org.provapoo3.model.Fornecedor;
+import org.provapoo3.model.Medicamento;
+import org.provapoo3.model.Movimentacao;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Cache em memória dos medicamentos com índices.
+ * <p>
+ * Índice primário (hash) por código e índices secundários por CNPJ do fornecedor e por princípio ativo.
+ * Todos são mantidos juntos em {@link #adicionar} e {@link #remover}: busca, checagem de duplicidade e
+ * exclusão são O(1), e "produtos do fornecedor X" / "produtos com princípio Y" não varrem o catálogo.
+ * Um índice ordenado por data de validade (dia epoch) responde "vence entre D1 e D2" como sub-faixa, já em ordem.
+ * Índices ordenados por quantidade (geral e por fornecedor) deixam o estoque baixo em O(k) nos itens encontrados;
+ * por isso a quantidade deve ser alterada por {@link #atualizarQuantidade} ou {@link #movimentar}, que reindexam o item.
+ * O valor do estoque (preço × quantidade) de cada fornecedor é mantido pré-somado em centavos ({@code long});
+ * o preço também só deve mudar por {@link #atualizarPreco}.
+ * Os controlados ficam num conjunto à parte, lido sem varrer os demais.
+ * Um índice invertido de palavras ({@link IndiceTexto}) atende a pesquisa por trecho de nome/princípio/descrição.
+ * Relatórios com filtros combinados ({@link Consulta}) começam pelo índice que entrega menos itens ({@link #consultar}).
+ * Para varrer o catálogo inteiro, {@link #colunas()} entrega os itens em vetores primitivos ({@link TabelaColunar}),
+ * montados uma vez por versão publicada; os relatórios de uma {@link Versao} saem dessas colunas.
+ * <p>
+ * O fornecedor de cada medicamento incluído é trocado pela instância compartilhada do {@link RegistroFornecedores}.
+ * <p>
+ * Uma carga em lote num catálogo vazio ({@link #substituirTodos}, {@link #adicionarTodos}) só preenche o mapa por
+ * código, a lista de inclusão e os totais por fornecedor; os demais índices ficam para {@link #montarIndices}, que a
+ * primeira leitura por índice chama se ninguém chamou antes. As alterações até lá (o journal reaplicado na carga)
+ * também não mexem neles: a montagem lê o estado que houver.
+ * <p>
+ * Thread-safe: mutações tomam a trava de escrita ({@link ReentrantReadWriteLock}) e, ao soltá-la, publicam uma
+ * nova {@link Versao} imutável; as consultas por índice tomam a de leitura e devolvem cópias, nunca visões dos
+ * índices internos. Busca por código, contagem, listagem e {@link #colunas()} leem a última versão publicada, sem
+ * trava. Um item publicado nunca muda: quantidade e preço são alterados numa cópia, que toma o lugar dele em todos
+ * os índices. Para relatórios longos e gravação em segundo plano, {@link #versao()} fixa o estado de agora em O(1)
+ * e a tela continua alterando o catálogo; as versões antigas somem com o coletor de lixo quando ninguém as usa.
+ */
+public class CatalogoMedicamentos {
+
+    // número de inclusão de cada item (ordem da listagem); único entre catálogos, que trocam itens ao recarregar
+    private static final AtomicLong INCLUSOES = new AtomicLong();
+
+    // índice primário do estado em edição, só para as mutações (sob a trava de escrita): o mapa persistente é mais
+    // lento numa busca. As buscas de fora leem a versão publicada, para nunca ver uma mutação pela metade
+    private final Map<String, MapaPorCodigo.Entrada> atuais = new HashMap<>();
+    // os conjuntos dos índices são "baldes" código -> item: a cópia de um item alterado entra no lugar do original
+    private final Map<String, Map<String, Medicamento>> porCnpj = new HashMap<>();
+    private final Map<String, Map<String, Medicamento>> porPrincipioAtivo = new HashMap<>();
+    private final NavigableMap<Long, Map<String, Medicamento>> porValidade = new TreeMap<>();
+    private final NavigableMap<Integer, Map<String, Medicamento>> porQuantidade = new TreeMap<>();
+    private final Map<String, NavigableMap<Integer, Map<String, Medicamento>>> quantidadePorFornecedor = new HashMap<>();
+    private final Map<String, Integer> limitesEstoquePorFornecedor = new HashMap<>();
+    private final Map<String, Long> valorEstoquePorFornecedor = new HashMap<>();
+    private final Map<String, Medicamento> itensControlados = new LinkedHashMap<>();
+    private final RegistroFornecedores fornecedores = new RegistroFornecedores();
+    private final IndiceTexto textos = new IndiceTexto();
+    private final ReentrantReadWriteLock trava = new ReentrantReadWriteLock();
+
+    // estado em edição (só sob a trava de escrita); a versão seguinte é publicada ao soltar a trava
+    private MapaPorCodigo codigos = MapaPorCodigo.VAZIO;
+    private ListaPorInclusao itens = ListaPorInclusao.VAZIA;
+    private Map<String, Integer> limitesPublicados = Map.of();
+    private Object edicao = new Object(); // dono dos nós criados desde a última publicação
+    private boolean editado;
+    // carga em lote num catálogo vazio: os índices secundários ficam para a primeira leitura (ver montarIndices)
+    private volatile boolean indicesAdiados;
+    private volatile Versao publicada = new Versao(0, codigos, itens, limitesPublicados, fornecedores);
+
+    /* ===================== MUTAÇÕES ===================== */
+
+    // retorna false se já existe medicamento com o mesmo código (ou se ele não tem código)
+    public boolean adicionar(Medicamento m) {
+        return alterando(() -> incluir(m));
+    }
+
+    public void adicionarTodos(Collection<Medicamento> meds) {
+        alterando(() -> {
+            if (atuais.isEmpty()) indicesAdiados = true;
+            for (Medicamento m : meds) incluir(m);
+            return null;
+        });
+    }
+
+    // substituir de cada item, numa única versão publicada (carga: o último de um código repetido vale)
+    public void substituirTodos(Collection<Medicamento> meds) {
+        alterando(() -> {
+            if (atuais.isEmpty()) indicesAdiados = true;
+            for (Medicamento m : meds) trocarPor(m);
+            return null;
+        });
+    }
+
+    // inclui ou troca o medicamento de mesmo código (usado ao reaplicar o journal); devolve o anterior
+    public Optional<Medicamento> substituir(Medicamento m) {
+        return alterando(() -> trocarPor(m));
+    }
+
+    private Optional<Medicamento> trocarPor(Medicamento m) {
+        MapaPorCodigo.Entrada e = atual(m.getCodigo());
+        conferirValor(m, e == null ? null : e.medicamento()); // antes de excluir o anterior
+        Optional<Medicamento> anterior = excluir(m.getCodigo());
+        incluir(m);
+        return anterior;
+    }
+
+    public Optional<Medicamento> remover(String codigo) {
+        return alterando(() -> excluir(codigo));
+    }
+
+    // IllegalArgumentException (sem nada alterado) se preço × quantidade não cabe no valor do estoque
+    private boolean incluir(Medicamento m) {
+        if (m.getCodigo() == null || atuais.containsKey(m.getCodigo())) return false;
+        conferirValor(m, null);
+        m.setFornecedor(registrar(m.getFornecedor()));
+        MapaPorCodigo.Entrada e = new MapaPorCodigo.Entrada(INCLUSOES.incrementAndGet(), m);
+        atuais.put(m.getCodigo(), e);
+        codigos = codigos.com(e, edicao);
+        itens = itens.com(e.inclusao(), m, edicao);
+        editado = true;
+        if (!indicesAdiados) indexar(m);
+        somarValor(m, 1);
+        return true;
+    }
+
+    private Optional<Medicamento> excluir(String codigo) {
+        MapaPorCodigo.Entrada e = atual(codigo);
+        if (e == null) return Optional.empty();
+        Medicamento m = e.medicamento();
+        atuais.remove(codigo);
+        codigos = codigos.sem(codigo, edicao);
+        itens = itens.sem(e.inclusao(), edicao);
+        editado = true;
+        if (!indicesAdiados) desindexar(m);
+        somarValor(m, -1);
+        return Optional.of(m);
+    }
+
+    // devolve o item com a nova quantidade (uma cópia: o anterior continua como estava nas versões já fixadas)
+    public Optional<Medicamento> atualizarQuantidade(String codigo, int quantidade) {
+        return alterando(() -> {
+            MapaPorCodigo.Entrada e = atual(codigo);
+            if (e == null) return Optional.empty();
+            return Optional.of(alterarItem(e, m -> m.setQuantidadeEstoque(quantidade)));
+        });
+    }
+
+    // estoque de um medicamento depois de um movimento aceito; inclusao identifica o item (ver inclusao(codigo))
+    public record Saldo(Medicamento medicamento, int quantidade, long inclusao) {}
+
+    /**
+     * Entradas e saídas numa única tomada da trava de escrita: o saldo de cada código corre na ordem da lista e
+     * cada item é trocado uma vez só, no fim, por uma cópia com o saldo final (que é o medicamento dos seus
+     * {@link Saldo}s). Uma saída maior que o saldo (contando os movimentos anteriores da lista), uma entrada que
+     * deixaria o valor do item fora do limite ({@link #valorEstoque}) ou um código inexistente não é aplicado e fica
+     * nulo no resultado.
+     */
+    public Saldo[] movimentar(List<Movimentacao> movs) {
+        return alterando(() -> {
+            Saldo[] saldos = new Saldo[movs.size()];
+            Map<MapaPorCodigo.Entrada, int[]> correntes = new IdentityHashMap<>();
+            for (int i = 0; i < saldos.length; i++) {
+                Movimentacao mv = movs.get(i);
+                MapaPorCodigo.Entrada e = atual(mv.codigo());
+                if (e == null) continue;
+                int[] corrente = correntes.computeIfAbsent(e, x -> new int[] {x.medicamento().getQuantidadeEstoque()});
+                long novo = (long) corrente[0] + mv.delta();
+                if (novo < 0 || novo > Integer.MAX_VALUE || !valorCabe(e.medicamento().getPreco(), (int) novo)) continue;
+                corrente[0] = (int) novo;
+                saldos[i] = new Saldo(e.medicamento(), corrente[0], e.inclusao());
+            }
+            Map<Medicamento, Medicamento> copias = new IdentityHashMap<>();
+            correntes.forEach((e, q) -> {
+                if (q[0] == e.medicamento().getQuantidadeEstoque()) return;
+                try {
+                    copias.put(e.medicamento(), alterarItem(e, m -> m.setQuantidadeEstoque(q[0])));
+                } catch (IllegalArgumentException estouro) {
+                    copias.put(e.medicamento(), null); // total do fornecedor não cabe: nenhum movimento do item vale
+                }
+            });
+            for (int i = 0; i < saldos.length; i++) {
+                Saldo s = saldos[i];
+                if (s == null || !copias.containsKey(s.medicamento())) continue;
+                Medicamento copia = copias.get(s.medicamento());
+                saldos[i] = copia == null ? null : new Saldo(copia, s.quantidade(), s.inclusao());
+            }
+            return saldos;
+        });
+    }
+
+    // movimento já aceito por outra estação (ou desfeito): soma sem checar saldo, só na versão a que ele se refere
+    public Optional<Medicamento> somarQuantidade(String codigo, long versao, int delta) {
+        return alterando(() -> {
+            MapaPorCodigo.Entrada e = atual(codigo);
+            if (e == null || e.medicamento().getVersao() != versao) return Optional.empty();
+            long novo = (long) e.medicamento().getQuantidadeEstoque() + delta;
+            int quantidade = (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, novo));
+            try {
+                return Optional.of(alterarItem(e, m -> m.setQuantidadeEstoque(quantidade)));
+            } catch (IllegalArgumentException estouro) {
+                return Optional.empty();
+            }
+        });
+    }
+
+    public Optional<Medicamento> atualizarPreco(String codigo, BigDecimal preco) {
+        return alterando(() -> {
+            MapaPorCodigo.Entrada e = atual(codigo);
+            if (e == null) return Optional.empty();
+            return Optional.of(alterarItem(e, m -> m.setPreco(preco)));
+        });
+    }
+
+    /**
+     * Registra o fornecedor (ver {@link RegistroFornecedores#registrar}); se os dados de contato mudaram, os itens
+     * dele passam a apontar para a instância nova, cada um numa cópia, e as versões fixadas ficam com a anterior.
+     */
+    public Fornecedor registrarFornecedor(Fornecedor f) {
+        return alterando(() -> registrar(f));
+    }
+
+    private Fornecedor registrar(Fornecedor f) {
+        if (f == null || f.getCnpj() == null || f.getCnpj().isBlank()) return f;
+        Fornecedor antes = fornecedores.buscar(f.getCnpj()).orElse(null);
+        Fornecedor registrado = fornecedores.registrar(f);
+        // os itens do CNPJ apontam todos para a instância registrada: sem troca (ou sem registro antes), nada muda
+        if (antes == null || antes == registrado) return registrado;
+        List<Medicamento> doFornecedor = new ArrayList<>();
+        if (!indicesAdiados) {
+            doFornecedor.addAll(porCnpj.getOrDefault(f.getCnpj(), Map.of()).values());
+        } else {
+            for (Medicamento m : itens) if (f.getCnpj().equals(chaveCnpj(m))) doFornecedor.add(m);
+        }
+        for (Medicamento m : doFornecedor) alterarItem(atual(m.getCodigo()), c -> c.setFornecedor(registrado));
+        return registrado;
+    }
+
+    /**
+     * Aplica {@code alteracao} (só quantidade, preço ou fornecedor) numa cópia do item e põe a cópia
+     * no lugar dele em todos os índices, com o mesmo número de inclusão. O item original, que versões já fixadas
+     * podem estar lendo, não muda. Se o valor da cópia não cabe ({@link #valorEstoque}), nada é alterado.
+     */
+    private Medicamento alterarItem(MapaPorCodigo.Entrada e, Consumer<Medicamento> alteracao) {
+        Medicamento m = e.medicamento();
+        Medicamento copia = new Medicamento(m);
+        alteracao.accept(copia);
+        conferirValor(copia, m);
+        somarValor(m, -1);
+        MapaPorCodigo.Entrada nova = new MapaPorCodigo.Entrada(e.inclusao(), copia);
+        atuais.put(copia.getCodigo(), nova);
+        codigos = codigos.com(nova, edicao);
+        itens = itens.com(e.inclusao(), copia, edicao);
+        editado = true;
+        if (!indicesAdiados) {
+            desindexarQuantidade(m);
+            trocar(porCnpj, chaveCnpj(m), copia);
+            trocar(porPrincipioAtivo, chavePrincipio(m.getPrincipioAtivo()), copia);
+            trocar(porValidade, chaveValidade(m), copia);
+            if (copia.isControlado()) itensControlados.replace(copia.getCodigo(), copia);
+            textos.trocar(copia);
+            indexarQuantidade(copia);
+        }
+        somarValor(copia, 1);
+        return copia;
+    }
+
+    // limite de estoque baixo específico de um fornecedor (null volta ao limite padrão); a chave é o CNPJ só com
+    // os dígitos, então "11.222.333/0001-81" e "11222333000181" são o mesmo fornecedor
+    public void definirLimiteEstoque(String cnpj, Integer limite) {
+        String chave = digitosCnpj(cnpj);
+        alterando(() -> {
+            if (limite == null) limitesEstoquePorFornecedor.remove(chave);
+            else limitesEstoquePorFornecedor.put(chave, limite);
+            limitesPublicados = Map.copyOf(limitesEstoquePorFornecedor);
+            editado = true;
+            return null;
+        });
+    }
+
+    // CNPJ (só dígitos; "" = sem fornecedor) -> limite
+    public Map<String, Integer> limitesEstoque() {
+        return publicada.limitesEstoque();
+    }
+
+    // CNPJ sem a pontuação ("" para nulo): a chave dos limites de estoque
+    public static String digitosCnpj(String cnpj) {
+        if (cnpj == null) return "";
+        StringBuilder sb = new StringBuilder(14);
+        for (int i = 0; i < cnpj.length(); i++) {
+            char c = cnpj.charAt(i);
+            if (c >= '0' && c <= '9') sb.append(c);
+        }
+        return sb.length() == cnpj.length() ? cnpj : sb.toString();
+    }
+
+    public void limpar() {
+        alterando(() -> {
+            limparSemTrava();
+            return null;
+        });
+    }
+
+    private void limparSemTrava() {
+        atuais.clear();
+        codigos = MapaPorCodigo.VAZIO;
+        itens = ListaPorInclusao.VAZIA;
+        editado = true;
+        porCnpj.clear();
+        porPrincipioAtivo.clear();
+        porValidade.clear();
+        porQuantidade.clear();
+        quantidadePorFornecedor.clear();
+        valorEstoquePorFornecedor.clear();
+        itensControlados.clear();
+        fornecedores.limpar();
+        textos.limpar();
+        indicesAdiados = false; // vazios, os índices já estão certos
+    }
+
+    /* ===================== CONSULTAS ===================== */
+
+    public Optional<Medicamento> buscarPorCodigo(String codigo) {
+        return publicada.buscar(codigo);
+    }
+
+    // pesquisa por trecho de nome, princípio ativo ou descrição (sem acento, começo de palavra), mais relevantes primeiro
+    public List<Medicamento> pesquisar(String consulta, int limite) {
+        return pesquisarComTotal(consulta, limite).itens();
+    }
+
+    // os 'limite' mais relevantes da pesquisa e quantos itens casaram com ela ao todo
+    public record Pesquisa(List<Medicamento> itens, int total) {}
+
+    public Pesquisa pesquisarComTotal(String consulta, int limite) {
+        return lendo(() -> textos.pesquisar(consulta, limite));
+    }
+
+    public boolean contem(String codigo) {
+        return publicada.contem(codigo);
+    }
+
+    // número de inclusão do item atual do código (-1 se ausente): muda quando o código é excluído ou substituído,
+    // não quando quantidade ou preço mudam
+    public long inclusao(String codigo) {
+        return publicada.inclusao(codigo);
+    }
+
+    public Collection<Medicamento> doFornecedor(String cnpj) {
+        return lendo(() -> copia(porCnpj.get(cnpj)));
+    }
+
+    public Collection<Medicamento> comPrincipioAtivo(String principioAtivo) {
+        return lendo(() -> copia(porPrincipioAtivo.get(chavePrincipio(principioAtivo))));
+    }
+
+    // validade entre 'de' e 'ate' (inclusive), em ordem crescente de validade
+    public List<Medicamento> vencendoEntre(LocalDate de, LocalDate ate) {
+        if (ate.isBefore(de)) return List.of();
+        return lendo(() -> achatar(porValidade.subMap(de.toEpochDay(), true, ate.toEpochDay(), true)));
+    }
+
+    // validade anterior a 'hoje', do mais antigo para o mais recente
+    public List<Medicamento> vencidosAntesDe(LocalDate hoje) {
+        return lendo(() -> achatar(porValidade.headMap(hoje.toEpochDay(), false)));
+    }
+
+    // quantidade < limite, em ordem crescente de quantidade
+    public List<Medicamento> estoqueAbaixoDe(int limite) {
+        return lendo(() -> achatar(porQuantidade.headMap(limite, false)));
+    }
+
+    /**
+     * Estoque baixo usando o limite de cada fornecedor (ou {@code limitePadrao} quando não definido).
+     * Sem limites por fornecedor é a mesma sub-faixa de {@link #estoqueAbaixoDe}; com eles, lê a sub-faixa
+     * de cada fornecedor e ordena só os itens encontrados.
+     */
+    public List<Medicamento> estoqueBaixo(int limitePadrao) {
+        return lendo(() -> {
+            if (limitesEstoquePorFornecedor.isEmpty()) return achatar(porQuantidade.headMap(limitePadrao, false));
+            List<Medicamento> meds = new ArrayList<>();
+            for (Map.Entry<String, NavigableMap<Integer, Map<String, Medicamento>>> e : quantidadePorFornecedor.entrySet()) {
+                int limite = limitesEstoquePorFornecedor.getOrDefault(digitosCnpj(e.getKey()), limitePadrao);
+                for (Map<String, Medicamento> b : e.getValue().headMap(limite, false).values()) meds.addAll(b.values());
+            }
+            meds.sort(Comparator.comparingInt(Medicamento::getQuantidadeEstoque));
+            return meds;
+        });
+    }
+
+    // CNPJ -> valor total do estoque (preço × quantidade) em centavos; leitura das somas já mantidas
+    public Map<String, Long> valorEstoquePorFornecedor() {
+        return lendo(() -> Map.copyOf(valorEstoquePorFornecedor));
+    }
+
+    // controlados (ou não controlados), por nome; os controlados saem do conjunto próprio, sem varrer o catálogo
+    public List<Medicamento> controlados(boolean controlado) {
+        return lendo(() -> (controlado ? itensControlados.values().stream() : itens.stream())
+                .filter(m -> m.isControlado() == controlado)
+                .sorted(Comparator.comparing(Medicamento::getNome, String.CASE_INSENSITIVE_ORDER))
+                .toList());
+    }
+
+    /**
+     * Executa um relatório montado. O planejador estima quantos itens cada índice que serve a algum filtro entregaria
+     * (fornecedores, fornecedores do estado, controlados, faixa de validade, faixa de quantidade) e começa pelo menor,
+     * testando os demais filtros só nesses itens; se nenhum entrega menos que o catálogo inteiro, varre.
+     * A contagem de uma faixa para assim que passa da melhor estimativa já vista. Só quando a ordem pedida é a
+     * crescente do próprio índice escolhido (validade ou quantidade) e não há agrupamento a leitura para no balde
+     * que completa o limite; sem ordem pedida o resultado sai por código, então todos os candidatos são lidos.
+     */
+    public Consulta.Resultado consultar(Consulta c) {
+        return lendo(() -> {
+            Caminho caminho = planejar(c);
+            return c.executar(caminho.acesso(), caminho.baldes());
+        });
+    }
+
+    /* ===================== VERSÕES ===================== */
+
+    // o estado publicado agora, que não muda mais (O(1), sem trava): ver Versao
+    public Versao versao() {
+        return publicada;
+    }
+
+    /* ===================== LEITURA EM LOTES ===================== */
+
+    /**
+     * Relatório entregue em lotes, para exportar sem juntar o resultado inteiro na memória. Lido de uma
+     * {@link Versao} fixada ({@link Versao#lotes}), então a tela continua alterando o catálogo durante uma
+     * exportação longa e o arquivo sai com o estado de um instante só.
+     */
+    public interface Lotes extends Iterator<List<Medicamento>> {
+
+        // total aproximado de itens (para a barra de progresso)
+        int estimativa();
+
+        // resultado já pronto (relatórios ordenados por um campo sem índice), em fatias da própria lista
+        static Lotes de(List<Medicamento> meds, int tamanhoLote) {
+            return new Lotes() {
+                private int inicio;
+                @Override public int estimativa() { return meds.size(); }
+                @Override public boolean hasNext() { return inicio < meds.size(); }
+                @Override public List<Medicamento> next() {
+                    if (!hasNext()) throw new NoSuchElementException();
+                    int fim = Math.min(meds.size(), inicio + tamanhoLote);
+                    List<Medicamento> lote = meds.subList(inicio, fim);
+                    inicio = fim;
+                    return lote;
+                }
+            };
+        }
+    }
+
+    // fornecedores (sem repetir CNPJ) de um resultado filtrado; a visão completa é o próprio registro
+    public static List<Fornecedor> fornecedoresDe(Collection<Medicamento> meds) {
+        LinkedHashMap<String, Fornecedor> map = new LinkedHashMap<>();
+        for (Medicamento m : meds) {
+            Fornecedor f = m.getFornecedor();
+            if (f != null && f.getCnpj()!=null && !f.getCnpj().isBlank()) {
+                map.putIfAbsent(f.getCnpj(), f);
+            }
+        }
+        return new ArrayList<>(map.values());
+    }
+
+    // todos os medicamentos da versão publicada, na ordem de inclusão (imutável; O(1), sem cópia)
+    public List<Medicamento> todos() {
+        return publicada.todos();
+    }
+
+    // colunas do estado atual, na ordem de inclusão (montadas uma vez por versão publicada, ver Versao#colunas);
+    // os relatórios daqui não as usam: leem os índices e as somas mantidas
+    public TabelaColunar colunas() {
+        return publicada.colunas();
+    }
+
+    public RegistroFornecedores fornecedores() {
+        return fornecedores;
+    }
+
+    public int tamanho() {
+        return publicada.tamanho();
+    }
+
+    private MapaPorCodigo.Entrada atual(String codigo) {
+        return codigo == null ? null : atuais.get(codigo);
+    }
+
+    // as leituras por índice: se uma carga em lote os adiou, monta antes (e confere de novo já sob a trava)
+    private <T> T lendo(Supplier<T> leitura) {
+        while (true) {
+            if (indicesAdiados) montarIndices();
+            trava.readLock().lock();
+            try {
+                if (!indicesAdiados) return leitura.get();
+            } finally {
+                trava.readLock().unlock();
+            }
+        }
+    }
+
+    private <T> T alterando(Supplier<T> alteracao) {
+        trava.writeLock().lock();
+        try {
+            return alteracao.get();
+        } finally {
+            if (editado) publicar();
+            trava.writeLock().unlock();
+        }
+    }
+
+    // daqui em diante os nós da edição são da versão publicada: a próxima alteração copia o caminho
+    private void publicar() {
+        publicada = new Versao(publicada.numero() + 1, codigos, itens, limitesPublicados, fornecedores);
+        edicao = new Object();
+        editado = false;
+    }
+
+    /* ===================== PLANEJAMENTO ===================== */
+
+    // ponto de partida de uma consulta: os conjuntos de um índice a ler e quantos itens eles somam
+    private record Caminho(Consulta.Acesso acesso, Collection<? extends Collection<Medicamento>> baldes, int estimativa) {}
+
+    // os índices de contagem exata (tamanho dos conjuntos) vêm antes das faixas, para a contagem delas parar cedo
+    private Caminho planejar(Consulta c) {
+        Caminho melhor = new Caminho(Consulta.Acesso.VARREDURA, List.of(itens), itens.size());
+        if (c.cnpjs != null) {
+            List<Collection<Medicamento>> baldes = new ArrayList<>();
+            for (String cnpj : c.cnpjs) {
+                Map<String, Medicamento> b = porCnpj.get(cnpj);
+                if (b != null) baldes.add(b.values());
+            }
+            melhor = menor(melhor, Consulta.Acesso.FORNECEDOR, baldes);
+        }
+        if (c.estados != null) {
+            List<Collection<Medicamento>> baldes = new ArrayList<>();
+            for (Fornecedor f : fornecedores.todos()) {
+                if (f.getEstado() == null || !c.estados.contains(Consulta.uf(f.getEstado()))) continue;
+                Map<String, Medicamento> b = porCnpj.get(f.getCnpj());
+                if (b != null) baldes.add(b.values());
+            }
+            melhor = menor(melhor, Consulta.Acesso.ESTADO, baldes);
+        }
+        if (Boolean.TRUE.equals(c.controlado)) {
+            melhor = menor(melhor, Consulta.Acesso.CONTROLADOS, List.of(itensControlados.values()));
+        }
+        if (c.validadeDe != null || c.validadeAte != null) {
+            long de = c.validadeDe == null ? Long.MIN_VALUE : c.validadeDe.toEpochDay();
+            long ate = c.validadeAte == null ? Long.MAX_VALUE : c.validadeAte.toEpochDay();
+            melhor = menor(melhor, Consulta.Acesso.VALIDADE,
+                    de > ate ? List.of() : valores(porValidade.subMap(de, true, ate, true)));
+        }
+        if (c.quantidadeMin != null || c.quantidadeMax != null) {
+            int min = c.quantidadeMin == null ? Integer.MIN_VALUE : c.quantidadeMin;
+            int max = c.quantidadeMax == null ? Integer.MAX_VALUE : c.quantidadeMax;
+            melhor = menor(melhor, Consulta.Acesso.QUANTIDADE,
+                    min > max ? List.of() : valores(porQuantidade.subMap(min, true, max, true)));
+        }
+        return melhor;
+    }
+
+    private static Caminho menor(Caminho melhor, Consulta.Acesso acesso, Collection<? extends Collection<Medicamento>> baldes) {
+        int n = 0;
+        for (Collection<Medicamento> balde : baldes) {
+            n += balde.size();
+            if (n >= melhor.estimativa()) return melhor;
+        }
+        return new Caminho(acesso, baldes, n);
+    }
+
+    /* ===================== ÍNDICES ===================== */
+
+    /**
+     * Monta os índices secundários adiados pela carga em lote ({@link #substituirTodos}/{@link #adicionarTodos} num
+     * catálogo vazio), numa passada pelos itens na ordem de inclusão, sob a trava de escrita. A primeira leitura por
+     * índice chama sozinha; a tela chama numa thread própria logo depois de mostrar a tabela, para que a primeira
+     * pesquisa não espere. Sem índices adiados, não faz nada.
+     */
+    public void montarIndices() {
+        trava.writeLock().lock();
+        try {
+            if (!indicesAdiados) return;
+            for (Medicamento m : itens) indexar(m);
+            // sem os índices, os totais zerados de fornecedor sem itens ficaram no mapa
+            valorEstoquePorFornecedor.keySet().retainAll(porCnpj.keySet());
+            indicesAdiados = false;
+        } finally {
+            trava.writeLock().unlock();
+        }
+    }
+
+    // se ainda há índices à espera de montarIndices
+    boolean indicesAdiados() {
+        return indicesAdiados;
+    }
+
+    private void indexar(Medicamento m) {
+        indexar(porCnpj, chaveCnpj(m), m);
+        indexar(porPrincipioAtivo, chavePrincipio(m.getPrincipioAtivo()), m);
+        indexar(porValidade, chaveValidade(m), m);
+        indexarQuantidade(m);
+        if (m.isControlado()) itensControlados.put(m.getCodigo(), m);
+        textos.adicionar(m);
+    }
+
+    private void desindexar(Medicamento m) {
+        desindexar(porCnpj, chaveCnpj(m), m);
+        desindexar(porPrincipioAtivo, chavePrincipio(m.getPrincipioAtivo()), m);
+        desindexar(porValidade, chaveValidade(m), m);
+        desindexarQuantidade(m);
+        itensControlados.remove(m.getCodigo());
+        textos.remover(m);
+    }
+
+    static String chaveCnpj(Medicamento m) {
+        Fornecedor f = m.getFornecedor();
+        return (f == null || f.getCnpj() == null || f.getCnpj().isBlank()) ? null : f.getCnpj();
+    }
+
+    private void indexarQuantidade(Medicamento m) {
+        indexar(porQuantidade, m.getQuantidadeEstoque(), m);
+        indexar(quantidadePorFornecedor.computeIfAbsent(chaveFornecedor(m), k -> new TreeMap<>()),
+                m.getQuantidadeEstoque(), m);
+    }
+
+    private void desindexarQuantidade(Medicamento m) {
+        desindexar(porQuantidade, m.getQuantidadeEstoque(), m);
+        String cnpj = chaveFornecedor(m);
+        NavigableMap<Integer, Map<String, Medicamento>> doFornecedor = quantidadePorFornecedor.get(cnpj);
+        if (doFornecedor == null) return;
+        desindexar(doFornecedor, m.getQuantidadeEstoque(), m);
+        if (doFornecedor.isEmpty()) quantidadePorFornecedor.remove(cnpj);
+    }
+
+    // só depois de conferirValor: aqui a conta já sabidamente cabe
+    private void somarValor(Medicamento m, int sinal) {
+        String cnpj = chaveCnpj(m);
+        if (cnpj == null) return;
+        long valor = centavos(m.getPreco()) * m.getQuantidadeEstoque();
+        long total = valorEstoquePorFornecedor.merge(cnpj, sinal * valor, Long::sum);
+        // fornecedor sem nenhum item sai do mapa (total zero com itens, ex.: estoque zerado, continua)
+        if (total == 0 && !indicesAdiados && !porCnpj.containsKey(cnpj)) valorEstoquePorFornecedor.remove(cnpj);
+    }
+
+    // preço em centavos (2 casas, HALF_UP, como no CSV); ArithmeticException se não cabe num long
+    public static long centavos(BigDecimal preco) {
+        return preco == null ? 0 : preco.setScale(2, RoundingMode.HALF_UP).unscaledValue().longValueExact();
+    }
+
+    /**
+     * Valor no estoque (preço × quantidade) em centavos. É a conta de todos os totais por fornecedor e relatórios;
+     * quem inclui ou altera um item a confere antes ({@link #valorCabe}), e o catálogo recusa o que não cabe.
+     */
+    public static long valorEstoque(BigDecimal preco, int quantidade) {
+        return valorEstoque(centavosDoItem(preco, quantidade), quantidade);
+    }
+
+    // a mesma conta com o preço já em centavos (as colunas guardam os centavos, não o BigDecimal)
+    static long valorEstoque(long centavos, int quantidade) {
+        try {
+            return Math.multiplyExact(centavos, (long) quantidade);
+        } catch (ArithmeticException e) {
+            throw valorForaDoLimite(BigDecimal.valueOf(centavos, 2), quantidade);
+        }
+    }
+
+    // centavos do preço de um item, com o erro de valorEstoque se o preço sozinho já não cabe
+    static long centavosDoItem(BigDecimal preco, int quantidade) {
+        try {
+            return centavos(preco);
+        } catch (ArithmeticException e) {
+            throw valorForaDoLimite(preco, quantidade);
+        }
+    }
+
+    private static IllegalArgumentException valorForaDoLimite(BigDecimal preco, int quantidade) {
+        return new IllegalArgumentException("Preço × quantidade fora do limite (" + preco + " × " + quantidade + ").");
+    }
+
+    public static boolean valorCabe(BigDecimal preco, int quantidade) {
+        try {
+            valorEstoque(preco, quantidade);
+            return true;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    // o item 'entra' (no lugar de 'sai', se houver) sem estourar o próprio valor nem o total do fornecedor
+    private void conferirValor(Medicamento entra, Medicamento sai) {
+        long valor = valorEstoque(entra.getPreco(), entra.getQuantidadeEstoque());
+        String cnpj = chaveCnpj(entra);
+        if (cnpj == null) return;
+        long total = valorEstoquePorFornecedor.getOrDefault(cnpj, 0L);
+        if (sai != null && cnpj.equals(chaveCnpj(sai))) total -= valorEstoque(sai.getPreco(), sai.getQuantidadeEstoque());
+        try {
+            Math.addExact(total, valor);
+        } catch (ArithmeticException e) {
+            throw new IllegalArgumentException("Valor em estoque do fornecedor " + cnpj + " fora do limite.");
+        }
+    }
+
+    // medicamento sem fornecedor entra no grupo "" (sempre usa o limite padrão)
+    static String chaveFornecedor(Medicamento m) {
+        String cnpj = chaveCnpj(m);
+        return cnpj == null ? "" : cnpj;
+    }
+
+    private static Long chaveValidade(Medicamento m) {
+        return m.getDataValidade() == null ? null : m.getDataValidade().toEpochDay();
+    }
+
+    private static String chavePrincipio(String principioAtivo) {
+        return (principioAtivo == null || principioAtivo.isBlank()) ? null : principioAtivo.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private static <K> void indexar(Map<K, Map<String, Medicamento>> indice, K chave, Medicamento m) {
+        if (chave == null) return;
+        indice.computeIfAbsent(chave, k -> new LinkedHashMap<>()).put(m.getCodigo(), m);
+    }
+
+    private static <K> void desindexar(Map<K, Map<String, Medicamento>> indice, K chave, Medicamento m) {
+        if (chave == null) return;
+        Map<String, Medicamento> b = indice.get(chave);
+        if (b == null) return;
+        b.remove(m.getCodigo());
+        if (b.isEmpty()) indice.remove(chave);
+    }
+
+    // a cópia fica na mesma posição do balde que o original (mesma ordem nos relatórios)
+    private static <K> void trocar(Map<K, Map<String, Medicamento>> indice, K chave, Medicamento copia) {
+        if (chave == null) return;
+        Map<String, Medicamento> b = indice.get(chave);
+        if (b != null) b.replace(copia.getCodigo(), copia);
+    }
+
+    private static List<Medicamento> achatar(Map<?, Map<String, Medicamento>> faixa) {
+        List<Medicamento> meds = new ArrayList<>();
+        for (Map<String, Medicamento> b : faixa.values()) meds.addAll(b.values());
+        return meds;
+    }
+
+    // os baldes de uma faixa, sem copiar (a contagem do planejador para no meio)
+    private static Collection<Collection<Medicamento>> valores(Map<?, Map<String, Medicamento>> faixa) {
+        return new AbstractCollection<>() {
+            @Override public int size() { return faixa.size(); }
+            @Override public Iterator<Collection<Medicamento>> iterator() {
+                Iterator<Map<String, Medicamento>> it = faixa.values().iterator();
+                return new Iterator<>() {
+                    @Override public boolean hasNext() { return it.hasNext(); }
+                    @Override public Collection<Medicamento> next() { return it.next().values(); }
+                };
+            }
+        };
+    }
+
+    private static Collection<Medicamento> copia(Map<String, Medicamento> b) {
+        return b == null ? List.of() : List.copyOf(b.values());
+    }
+}
@@ -0,0 +1,216 @@
+package org.provapoo3.catalogo;
+
+import org.provapoo3.model.Fornecedor;
+import org.provapoo3.model.Medicamento;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.*;
+
+/**
+ * Relatório montado sobre os medicamentos do catálogo ({@link CatalogoMedicamentos#consultar}) ou de uma versão
+ * fixada dele ({@link Versao#consultar}): filtros por validade, quantidade, preço, controlado, fornecedor (CNPJ) e
+ * estado (UF) do fornecedor, combinados com E, mais ordem, limite e agrupamento.
+ * <p>
+ * Montada por encadeamento, ex.: {@code new Consulta().controlado(true).validadeEntre(hoje, hoje.plusDays(60))
+ * .estados(List.of("SP"))}. Filtro não informado aceita tudo; as faixas são inclusivas e qualquer ponta pode ficar
+ * aberta ({@code null}). Item sem validade, sem preço ou sem fornecedor não passa num filtro sobre esse campo.
+ * <p>
+ * O catálogo escolhe por onde começar a leitura ({@link Acesso}); o resultado não depende dessa escolha.
+ * Não é thread-safe: não altere uma consulta enquanto outra thread a executa.
+ */
+public final class Consulta {
+
+    // por onde o catálogo começa: um índice ou a varredura de todos os itens
+    public enum Acesso { VARREDURA, VALIDADE, QUANTIDADE, FORNECEDOR, ESTADO, CONTROLADOS }
+
+    public enum Ordem { NOME, VALIDADE, QUANTIDADE, PRECO, VALOR }
+
+    public enum Agrupamento { FORNECEDOR, ESTADO, CONTROLADO, MES_VALIDADE }
+
+    // um grupo do resultado: itens, unidades em estoque e valor (preço × quantidade) em centavos
+    public record Grupo(String chave, int itens, long quantidade, long valorCentavos) {}
+
+    /**
+     * Medicamentos que passaram nos filtros, já ordenados e cortados no limite; os grupos somam todos os que
+     * passaram (antes do limite). {@code examinados} conta os itens testados a partir do {@code acesso} escolhido.
+     */
+    public record Resultado(List<Medicamento> medicamentos, List<Grupo> grupos, Acesso acesso, int examinados) {}
+
+    private static final Comparator<Medicamento> POR_CODIGO = Comparator.comparing(Medicamento::getCodigo);
+
+    // lidos pelo planejador do catálogo
+    LocalDate validadeDe, validadeAte;
+    Integer quantidadeMin, quantidadeMax;
+    Long precoMin, precoMax; // centavos
+    Boolean controlado;
+    Set<String> cnpjs, estados;
+    Ordem ordem;
+    boolean decrescente;
+    int limite = Integer.MAX_VALUE;
+    Agrupamento agrupamento;
+
+    /* ===================== FILTROS ===================== */
+
+    public Consulta validadeEntre(LocalDate de, LocalDate ate) {
+        validadeDe = de;
+        validadeAte = ate;
+        return this;
+    }
+
+    public Consulta quantidadeEntre(Integer min, Integer max) {
+        quantidadeMin = min;
+        quantidadeMax = max;
+        return this;
+    }
+
+    public Consulta precoEntre(BigDecimal min, BigDecimal max) {
+        precoMin = min == null ? null : CatalogoMedicamentos.centavos(min);
+        precoMax = max == null ? null : CatalogoMedicamentos.centavos(max);
+        return this;
+    }
+
+    // null = controlados e não controlados
+    public Consulta controlado(Boolean sim) {
+        controlado = sim;
+        return this;
+    }
+
+    // qualquer um dos CNPJs (vazio ou null = qualquer fornecedor)
+    public Consulta fornecedores(Collection<String> cnpjs) {
+        this.cnpjs = cnpjs == null || cnpjs.isEmpty() ? null : Set.copyOf(cnpjs);
+        return this;
+    }
+
+    // qualquer uma das UFs, sem diferenciar maiúsculas (vazio ou null = qualquer estado)
+    public Consulta estados(Collection<String> ufs) {
+        if (ufs == null || ufs.isEmpty()) {
+            estados = null;
+        } else {
+            estados = new HashSet<>();
+            for (String uf : ufs) estados.add(uf(uf));
+        }
+        return this;
+    }
+
+    /* ===================== ORDEM, LIMITE E GRUPOS ===================== */
+
+    // null = por código; empates também saem por código; vazios (sem validade, sem preço) sempre no fim
+    public Consulta ordenarPor(Ordem ordem, boolean decrescente) {
+        this.ordem = ordem;
+        this.decrescente = decrescente;
+        return this;
+    }
+
+    public Consulta limite(int limite) {
+        if (limite <= 0) throw new IllegalArgumentException("O limite deve ser maior que zero.");
+        this.limite = limite;
+        return this;
+    }
+
+    public Consulta agruparPor(Agrupamento agrupamento) {
+        this.agrupamento = agrupamento;
+        return this;
+    }
+
+    /* ===================== AVALIAÇÃO (usada pelo catálogo) ===================== */
+
+    boolean aceita(Medicamento m) {
+        if (controlado != null && m.isControlado() != controlado) return false;
+        int q = m.getQuantidadeEstoque();
+        if (quantidadeMin != null && q < quantidadeMin) return false;
+        if (quantidadeMax != null && q > quantidadeMax) return false;
+        if (validadeDe != null || validadeAte != null) {
+            LocalDate v = m.getDataValidade();
+            if (v == null || (validadeDe != null && v.isBefore(validadeDe))
+                    || (validadeAte != null && v.isAfter(validadeAte))) return false;
+        }
+        if (precoMin != null || precoMax != null) {
+            if (m.getPreco() == null) return false;
+            long p = CatalogoMedicamentos.centavos(m.getPreco());
+            if ((precoMin != null && p < precoMin) || (precoMax != null && p > precoMax)) return false;
+        }
+        Fornecedor f = m.getFornecedor();
+        if (cnpjs != null && (f == null || !cnpjs.contains(f.getCnpj()))) return false;
+        return estados == null || (f != null && f.getEstado() != null && estados.contains(uf(f.getEstado())));
+    }
+
+    // lê os conjuntos do acesso escolhido (pelo catálogo ou a versão inteira) e monta o resultado
+    Resultado executar(Acesso acesso, Collection<? extends Collection<Medicamento>> baldes) {
+        boolean ordenada = ordenadaPor(acesso);
+        List<Medicamento> meds = new ArrayList<>();
+        int examinados = 0;
+        for (Collection<Medicamento> balde : baldes) {
+            // cada balde do índice é uma chave só: termina o balde, e o desempate por código escolhe quem fica
+            if (ordenada && meds.size() >= limite) break;
+            for (Medicamento m : balde) {
+                examinados++;
+                if (aceita(m)) meds.add(m);
+            }
+        }
+        List<Grupo> grupos = agrupar(meds);
+        meds.sort(comparador());
+        if (meds.size() > limite) meds = new ArrayList<>(meds.subList(0, limite));
+        return new Resultado(meds, grupos, acesso, examinados);
+    }
+
+    // o acesso já entrega os baldes na ordem pedida: dá para parar de ler depois do balde que completa o limite
+    boolean ordenadaPor(Acesso acesso) {
+        if (agrupamento != null || ordem == null) return false;
+        return !decrescente && (ordem == Ordem.VALIDADE && acesso == Acesso.VALIDADE
+                || ordem == Ordem.QUANTIDADE && acesso == Acesso.QUANTIDADE);
+    }
+
+    Comparator<Medicamento> comparador() {
+        if (ordem == null) return POR_CODIGO;
+        Comparator<Medicamento> c = switch (ordem) {
+            case NOME -> Comparator.comparing(Medicamento::getNome,
+                    Comparator.nullsLast(sentido(String.CASE_INSENSITIVE_ORDER)));
+            case VALIDADE -> Comparator.comparing(Medicamento::getDataValidade,
+                    Comparator.nullsLast(sentido(Comparator.<LocalDate>naturalOrder())));
+            case PRECO -> Comparator.comparing(Medicamento::getPreco,
+                    Comparator.nullsLast(sentido(Comparator.<BigDecimal>naturalOrder())));
+            case QUANTIDADE -> sentido(Comparator.comparingInt(Medicamento::getQuantidadeEstoque));
+            case VALOR -> sentido(Comparator.comparingLong(Consulta::valor));
+        };
+        return c.thenComparing(POR_CODIGO);
+    }
+
+    private <T> Comparator<T> sentido(Comparator<T> c) {
+        return decrescente ? c.reversed() : c;
+    }
+
+    // grupos em ordem de chave; "" reúne os itens sem o campo (sem fornecedor, sem UF, sem validade)
+    List<Grupo> agrupar(List<Medicamento> meds) {
+        if (agrupamento == null) return List.of();
+        Map<String, long[]> somas = new TreeMap<>();
+        for (Medicamento m : meds) {
+            long[] s = somas.computeIfAbsent(chaveGrupo(m), k -> new long[3]);
+            s[0]++;
+            s[1] += m.getQuantidadeEstoque();
+            s[2] += valor(m);
+        }
+        List<Grupo> grupos = new ArrayList<>(somas.size());
+        somas.forEach((chave, s) -> grupos.add(new Grupo(chave, (int) s[0], s[1], s[2])));
+        return grupos;
+    }
+
+    private String chaveGrupo(Medicamento m) {
+        Fornecedor f = m.getFornecedor();
+        return switch (agrupamento) {
+            case FORNECEDOR -> f == null || f.getCnpj() == null ? "" : f.getCnpj();
+            case ESTADO -> f == null || f.getEstado() == null ? "" : uf(f.getEstado());
+            case CONTROLADO -> m.isControlado() ? "controlado" : "não controlado";
+            case MES_VALIDADE -> m.getDataValidade() == null ? "" : YearMonth.from(m.getDataValidade()).toString();
+        };
+    }
+
+    private static long valor(Medicamento m) {
+        return CatalogoMedicamentos.valorEstoque(m.getPreco(), m.getQuantidadeEstoque());
+    }
+
+    static String uf(String estado) {
+        return estado.trim().toUpperCase(Locale.ROOT);
+    }
+}
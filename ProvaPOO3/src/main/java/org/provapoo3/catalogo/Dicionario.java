@@ -0,0 +1,113 @@
+package org.provapoo3.catalogo;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Textos de uma coluna da {@link TabelaColunar}, cada valor distinto guardado uma vez só: os valores ficam
+ * concatenados em UTF-8 num único {@code byte[]} e cada linha da tabela guarda só o número do seu ({@code -1} para
+ * nulo). Sem um objeto {@code String} por valor, o custo de cada um é o dos bytes mais dois {@code int}
+ * (o início e a vaga na tabela de hash).
+ */
+final class Dicionario {
+
+    private final byte[] bytes;
+    private final int[] inicio;  // valor n ocupa bytes[inicio[n] .. inicio[n + 1])
+    private final int[] vagas;   // hash aberto: número + 1 (0 = livre)
+    private final int[] ordem;   // posição de cada número na ordem alfabética sem diferenciar maiúsculas (ou null)
+
+    private Dicionario(byte[] bytes, int[] inicio, int[] vagas, int[] ordem) {
+        this.bytes = bytes;
+        this.inicio = inicio;
+        this.vagas = vagas;
+        this.ordem = ordem;
+    }
+
+    static final class Construtor {
+        private final Map<String, Integer> numeros = new HashMap<>();
+        private final List<String> valores = new ArrayList<>();
+
+        int numero(String s) {
+            if (s == null) return -1;
+            Integer n = numeros.putIfAbsent(s, valores.size());
+            if (n != null) return n;
+            valores.add(s);
+            return valores.size() - 1;
+        }
+
+        int tamanho() {
+            return valores.size();
+        }
+
+        // ordenar: guarda a posição alfabética de cada valor (para ordenar linhas sem comparar textos)
+        Dicionario construir(boolean ordenar) {
+            int n = valores.size();
+            int[] inicio = new int[n + 1];
+            byte[] bytes = new byte[Math.max(16, n * 8)];
+            int fim = 0;
+            for (int i = 0; i < n; i++) {
+                byte[] b = valores.get(i).getBytes(StandardCharsets.UTF_8);
+                if (fim + b.length > bytes.length) bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, fim + b.length));
+                System.arraycopy(b, 0, bytes, fim, b.length);
+                fim += b.length;
+                inicio[i + 1] = fim;
+            }
+            bytes = Arrays.copyOf(bytes, fim);
+
+            int[] vagas = new int[Integer.highestOneBit(Math.max(1, n) * 2) * 2];
+            int mascara = vagas.length - 1;
+            for (int i = 0; i < n; i++) {
+                int v = hash(bytes, inicio[i], inicio[i + 1]) & mascara;
+                while (vagas[v] != 0) v = (v + 1) & mascara;
+                vagas[v] = i + 1;
+            }
+
+            int[] ordem = null;
+            if (ordenar) {
+                Integer[] porNome = new Integer[n];
+                for (int i = 0; i < n; i++) porNome[i] = i;
+                Arrays.sort(porNome, (a, b) -> String.CASE_INSENSITIVE_ORDER.compare(valores.get(a), valores.get(b)));
+                ordem = new int[n];
+                for (int i = 0; i < n; i++) ordem[porNome[i]] = i;
+            }
+            return new Dicionario(bytes, inicio, vagas, ordem);
+        }
+    }
+
+    int tamanho() {
+        return inicio.length - 1;
+    }
+
+    String valor(int numero) {
+        return numero < 0 ? null
+                : new String(bytes, inicio[numero], inicio[numero + 1] - inicio[numero], StandardCharsets.UTF_8);
+    }
+
+    // número do valor, ou -1 se ele não está no dicionário
+    int numero(String s) {
+        if (s == null) return -1;
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        int mascara = vagas.length - 1;
+        for (int v = hash(b, 0, b.length) & mascara; vagas[v] != 0; v = (v + 1) & mascara) {
+            int n = vagas[v] - 1;
+            if (Arrays.equals(bytes, inicio[n], inicio[n + 1], b, 0, b.length)) return n;
+        }
+        return -1;
+    }
+
+    // posição alfabética (nulo antes de todos); só em dicionários construídos com ordenar
+    int ordem(int numero) {
+        return numero < 0 ? -1 : ordem[numero];
+    }
+
+    // bytes de texto mais os vetores de apoio
+    long bytesOcupados() {
+        return bytes.length + 4L * (inicio.length + vagas.length + (ordem != null ? ordem.length : 0));
+    }
+
+    private static int hash(byte[] b, int de, int ate) {
+        int h = 1;
+        for (int i = de; i < ate; i++) h = 31 * h + b[i];
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,275 @@
+package org.provapoo3.catalogo;
+
+import org.provapoo3.model.Medicamento;
+
+import java.text.Normalizer;
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Índice invertido de palavras de {@code nome}, {@code principioAtivo} e {@code descricao}, sem acento e
+ * em minúsculas, para a pesquisa por trecho (digitação parcial) com resultados ordenados por relevância.
+ * <p>
+ * Cada medicamento recebe um número interno; cada palavra guarda um {@code int[]} com
+ * {@code número << 3 | campos}, o que mantém o índice compacto mesmo com 1 milhão de itens. Exclusões só
+ * liberam o número (a entrada fica nas listas e é ignorada) e o índice se reconstrói quando elas acumulam.
+ * <p>
+ * Nome e princípio ativo entram na inclusão; as descrições só na primeira pesquisa depois dela, para a carga
+ * não decodificar todas (elas ficam na cópia binária até serem pedidas, ver {@code BlocoDescricoes}).
+ */
+class IndiceTexto {
+
+    private static final int CAMPO_NOME = 1, CAMPO_PRINCIPIO = 2, CAMPO_DESCRICAO = 4;
+    private static final int MIN_RECONSTRUCAO = 10_000;
+    private static final int PONTO_MAXIMO = 6; // por palavra da consulta: nome (3) × palavra exata (2)
+    private static final CatalogoMedicamentos.Pesquisa NADA = new CatalogoMedicamentos.Pesquisa(List.of(), 0);
+    private static final char[] SEM_ACENTO = new char[0x250];
+
+    static {
+        for (char c = 0; c < SEM_ACENTO.length; c++) {
+            String d = Normalizer.normalize(String.valueOf(c), Normalizer.Form.NFD);
+            SEM_ACENTO[c] = Character.toLowerCase(d.charAt(0));
+        }
+    }
+
+    // a árvore atende a pesquisa por começo de palavra; o hash, a inclusão (a palavra quase sempre já existe)
+    private final NavigableMap<String, Postagens> porPalavra = new TreeMap<>();
+    private final Map<String, Postagens> porPalavraExata = new HashMap<>();
+    // palavras do item sendo incluído (poucas: busca linear em vez de um mapa por item)
+    private String[] palavrasDoItem = new String[16];
+    private int[] camposDoItem = new int[16];
+    private int nPalavras;
+    private final Map<String, Integer> numeroPorCodigo = new HashMap<>();
+    private Medicamento[] porNumero = new Medicamento[1024];
+    private int proximoNumero, removidos;
+    // números abaixo deste já têm a descrição no índice
+    private int descricoesAte;
+    // reaproveitados entre pesquisas: quantas palavras da consulta o número já casou, pontos acumulados
+    // e o ponto da palavra atual
+    private int[] rodada = new int[0], pontos = new int[0], atual = new int[0];
+
+    private static final class Postagens {
+        int[] itens = new int[2];
+        int tamanho;
+
+        void add(int v) {
+            if (tamanho == itens.length) itens = Arrays.copyOf(itens, tamanho * 2);
+            itens[tamanho++] = v;
+        }
+    }
+
+    /* ===================== MUTAÇÕES ===================== */
+
+    void adicionar(Medicamento m) {
+        if (proximoNumero == porNumero.length) porNumero = Arrays.copyOf(porNumero, porNumero.length * 2);
+        int numero = proximoNumero++;
+        porNumero[numero] = m;
+        Integer anterior = numeroPorCodigo.put(m.getCodigo(), numero);
+        if (anterior != null) liberar(anterior);
+
+        nPalavras = 0;
+        palavras(m.getNome(), p -> marcar(p, CAMPO_NOME));
+        palavras(m.getPrincipioAtivo(), p -> marcar(p, CAMPO_PRINCIPIO));
+        postar(numero, 0);
+    }
+
+    // descrições dos incluídos desde a última pesquisa; a palavra que já está no nome ou no princípio ativo
+    // do item fica só na entrada de lá (o peso é o do melhor campo)
+    private void indexarDescricoes() {
+        for (int numero = descricoesAte; numero < proximoNumero; numero++) {
+            Medicamento m = porNumero[numero];
+            if (m == null) continue;
+            nPalavras = 0;
+            palavras(m.getNome(), p -> marcar(p, CAMPO_NOME));
+            palavras(m.getPrincipioAtivo(), p -> marcar(p, CAMPO_PRINCIPIO));
+            int jaPostadas = nPalavras;
+            palavras(m.lerDescricao(), p -> marcar(p, CAMPO_DESCRICAO));
+            for (int i = 0; i < jaPostadas; i++) palavrasDoItem[i] = null;
+            postar(numero, jaPostadas);
+        }
+        descricoesAte = proximoNumero;
+    }
+
+    // grava as palavras marcadas a partir de 'desde' nas listas de postagens
+    private void postar(int numero, int desde) {
+        for (int i = desde; i < nPalavras; i++) {
+            Postagens p = porPalavraExata.get(palavrasDoItem[i]);
+            if (p == null) {
+                p = new Postagens();
+                porPalavraExata.put(palavrasDoItem[i], p);
+                porPalavra.put(palavrasDoItem[i], p);
+            }
+            p.add(numero << 3 | camposDoItem[i]);
+            palavrasDoItem[i] = null;
+        }
+    }
+
+    private void marcar(String palavra, int campo) {
+        for (int i = 0; i < nPalavras; i++) {
+            if (palavrasDoItem[i].equals(palavra)) {
+                camposDoItem[i] |= campo;
+                return;
+            }
+        }
+        if (nPalavras == palavrasDoItem.length) {
+            palavrasDoItem = Arrays.copyOf(palavrasDoItem, nPalavras * 2);
+            camposDoItem = Arrays.copyOf(camposDoItem, nPalavras * 2);
+        }
+        palavrasDoItem[nPalavras] = palavra;
+        camposDoItem[nPalavras++] = campo;
+    }
+
+    void remover(Medicamento m) {
+        Integer numero = numeroPorCodigo.get(m.getCodigo());
+        if (numero == null || porNumero[numero] != m) return;
+        numeroPorCodigo.remove(m.getCodigo());
+        liberar(numero);
+    }
+
+    // mesma chave numa instância nova (cópia com outra quantidade ou preço): as palavras não mudam
+    void trocar(Medicamento m) {
+        Integer numero = numeroPorCodigo.get(m.getCodigo());
+        if (numero != null) porNumero[numero] = m;
+    }
+
+    void limpar() {
+        porPalavra.clear();
+        porPalavraExata.clear();
+        numeroPorCodigo.clear();
+        porNumero = new Medicamento[1024];
+        proximoNumero = removidos = descricoesAte = 0;
+    }
+
+    private void liberar(int numero) {
+        porNumero[numero] = null;
+        if (++removidos >= MIN_RECONSTRUCAO && removidos > proximoNumero / 2) reconstruir();
+    }
+
+    private void reconstruir() {
+        List<Medicamento> vivos = new ArrayList<>(proximoNumero - removidos);
+        for (int i = 0; i < proximoNumero; i++) if (porNumero[i] != null) vivos.add(porNumero[i]);
+        limpar();
+        for (Medicamento m : vivos) adicionar(m);
+    }
+
+    /* ===================== PESQUISA ===================== */
+
+    /**
+     * Medicamentos que têm, para cada palavra da consulta, alguma palavra que começa com ela (E entre as palavras).
+     * Pontuação: campo (nome 3, princípio ativo 2, descrição 1) × 2 se a palavra é exata, 1 se só o começo bate;
+     * soma-se o melhor ponto de cada palavra da consulta. Devolve os {@code limite} melhores, do mais relevante
+     * para o menos, e quantos casaram ao todo (a contagem sai do histograma de notas, sem custo a mais).
+     */
+    // synchronized: os vetores reaproveitados e a indexação das descrições pendentes não podem ser usados por duas
+    // pesquisas (leituras) ao mesmo tempo
+    synchronized CatalogoMedicamentos.Pesquisa pesquisar(String consulta, int limite) {
+        Set<String> termos = new LinkedHashSet<>();
+        palavras(consulta, termos::add);
+        if (termos.isEmpty()) return NADA;
+        if (descricoesAte < proximoNumero) indexarDescricoes();
+
+        List<Faixa> faixas = new ArrayList<>(termos.size());
+        for (String t : termos) {
+            Faixa f = new Faixa(t, porPalavra.subMap(t, true, t + Character.MAX_VALUE, false));
+            if (f.entradas == 0) return NADA;
+            faixas.add(f);
+        }
+        // começa pela faixa com menos entradas: nas seguintes só conta quem já casou com todas as anteriores
+        faixas.sort(Comparator.comparingLong(f -> f.entradas));
+
+        if (rodada.length < proximoNumero) {
+            rodada = new int[porNumero.length];
+            pontos = new int[porNumero.length];
+            atual = new int[porNumero.length];
+        } else {
+            Arrays.fill(rodada, 0, proximoNumero, 0);
+        }
+        for (int r = 0; r < faixas.size(); r++) {
+            Faixa faixa = faixas.get(r);
+            for (Map.Entry<String, Postagens> e : faixa.palavras.entrySet()) {
+                int fator = e.getKey().equals(faixa.termo) ? 2 : 1;
+                Postagens p = e.getValue();
+                for (int i = 0; i < p.tamanho; i++) {
+                    int numero = p.itens[i] >>> 3;
+                    if (rodada[numero] < r) continue;
+                    int ponto = fator * peso(p.itens[i] & 7);
+                    if (rodada[numero] == r) {
+                        rodada[numero] = r + 1;
+                        pontos[numero] = (r == 0 ? 0 : pontos[numero]) + ponto;
+                        atual[numero] = ponto;
+                    } else if (ponto > atual[numero]) {
+                        // outra palavra da mesma faixa casou melhor: vale a melhor
+                        pontos[numero] += ponto - atual[numero];
+                        atual[numero] = ponto;
+                    }
+                }
+            }
+        }
+
+        // pontos são inteiros pequenos: um histograma acha a nota de corte dos 'limite' melhores sem ordenar
+        // todos os que casaram (empates na nota de corte ficam com os incluídos primeiro)
+        int alvo = faixas.size();
+        int[] porNota = new int[PONTO_MAXIMO * alvo + 1];
+        int total = 0;
+        for (int n = 0; n < proximoNumero; n++) {
+            if (rodada[n] == alvo && porNumero[n] != null) {
+                porNota[pontos[n]]++;
+                total++;
+            }
+        }
+        if (limite <= 0) return new CatalogoMedicamentos.Pesquisa(List.of(), total);
+        int corte = porNota.length - 1, acima = 0;
+        while (corte > 0 && acima + porNota[corte] < limite) acima += porNota[corte--];
+        int vagasNoCorte = limite - acima;
+
+        List<Integer> escolhidos = new ArrayList<>(Math.min(limite, acima + porNota[corte]));
+        for (int n = 0; n < proximoNumero; n++) {
+            if (rodada[n] != alvo || porNumero[n] == null || pontos[n] < corte) continue;
+            if (pontos[n] == corte && vagasNoCorte-- <= 0) continue;
+            escolhidos.add(n);
+        }
+        escolhidos.sort(Comparator.<Integer>comparingInt(n -> -pontos[n])
+                .thenComparing(n -> porNumero[n].getNome(), Comparator.nullsLast(String.CASE_INSENSITIVE_ORDER)));
+        List<Medicamento> resultado = new ArrayList<>(escolhidos.size());
+        for (int n : escolhidos) resultado.add(porNumero[n]);
+        return new CatalogoMedicamentos.Pesquisa(resultado, total);
+    }
+
+    private static final class Faixa {
+        final String termo;
+        final NavigableMap<String, Postagens> palavras;
+        final long entradas;
+
+        Faixa(String termo, NavigableMap<String, Postagens> palavras) {
+            this.termo = termo;
+            this.palavras = palavras;
+            long n = 0;
+            for (Postagens p : palavras.values()) n += p.tamanho;
+            this.entradas = n;
+        }
+    }
+
+    private static int peso(int campos) {
+        if ((campos & CAMPO_NOME) != 0) return 3;
+        if ((campos & CAMPO_PRINCIPIO) != 0) return 2;
+        return 1;
+    }
+
+    /* ===================== PALAVRAS ===================== */
+
+    // separa em letras/dígitos, sem acento e em minúsculas ("Dipirona Sódica 500mg" -> dipirona, sodica, 500mg)
+    static void palavras(String texto, Consumer<String> destino) {
+        if (texto == null) return;
+        char[] buf = new char[texto.length()];
+        int n = 0;
+        for (int i = 0, fim = texto.length(); i <= fim; i++) {
+            char c = i < fim ? texto.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                buf[n++] = c < SEM_ACENTO.length ? SEM_ACENTO[c] : Character.toLowerCase(c);
+            } else if (n > 0) {
+                destino.accept(new String(buf, 0, n));
+                n = 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package org.provapoo3.catalogo;
+
+import org.provapoo3.model.Medicamento;
+
+import java.util.AbstractList;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Lista persistente dos itens de uma versão do catálogo ({@link Versao}), na ordem de inclusão: árvore de 32 ramos
+ * por nível indexada pelo número de inclusão de cada item ({@code long} crescente, com buracos deixados pelas
+ * exclusões). Cada nó guarda quantos itens tem abaixo dele, para {@link #get} descer sem varrer.
+ * <p>
+ * Como em {@link MapaPorCodigo}, incluir, trocar ou remover copia só o caminho até a folha (4 nós com 1 milhão de
+ * itens) e deixa a lista anterior intacta; nós da edição em curso ({@code dono}) são alterados no lugar.
+ */
+final class ListaPorInclusao extends AbstractList<Medicamento> {
+
+    static final ListaPorInclusao VAZIA = new ListaPorInclusao(null, 0);
+
+    // filhos: No nos níveis de cima, Medicamento nas folhas (nível 0); nulo onde não há item
+    private static final class No {
+        final Object[] filhos;
+        int tamanho;
+        final Object dono;
+
+        No(Object[] filhos, int tamanho, Object dono) {
+            this.filhos = filhos;
+            this.tamanho = tamanho;
+            this.dono = dono;
+        }
+    }
+
+    private final No raiz;
+    private final int nivel; // deslocamento (em bits) do número de inclusão no nível da raiz
+
+    private ListaPorInclusao(No raiz, int nivel) {
+        this.raiz = raiz;
+        this.nivel = nivel;
+    }
+
+    @Override
+    public int size() {
+        return raiz == null ? 0 : raiz.tamanho;
+    }
+
+    @Override
+    public Medicamento get(int i) {
+        if (i < 0 || i >= size()) throw new IndexOutOfBoundsException(i);
+        No no = raiz;
+        for (int n = nivel; ; n -= 5) {
+            for (Object f : no.filhos) {
+                if (f == null) continue;
+                if (n == 0) {
+                    if (i-- == 0) return (Medicamento) f;
+                    continue;
+                }
+                No filho = (No) f;
+                if (i < filho.tamanho) {
+                    no = filho;
+                    break;
+                }
+                i -= filho.tamanho;
+            }
+        }
+    }
+
+    @Override
+    public Iterator<Medicamento> iterator() {
+        return new Iterator<>() {
+            // caminho da raiz até a folha atual e a próxima posição em cada nível
+            private final No[] nos = new No[nivel / 5 + 1];
+            private final int[] posicoes = new int[nivel / 5 + 1];
+            private int topo = raiz == null ? -1 : 0;
+            private Medicamento proximo;
+
+            {
+                if (raiz != null) nos[0] = raiz;
+                avancar();
+            }
+
+            private void avancar() {
+                proximo = null;
+                while (topo >= 0) {
+                    No no = nos[topo];
+                    if (posicoes[topo] == 32) {
+                        topo--;
+                        continue;
+                    }
+                    Object f = no.filhos[posicoes[topo]++];
+                    if (f == null) continue;
+                    if (topo == nos.length - 1) {
+                        proximo = (Medicamento) f;
+                        return;
+                    }
+                    nos[++topo] = (No) f;
+                    posicoes[topo] = 0;
+                }
+            }
+
+            @Override public boolean hasNext() {
+                return proximo != null;
+            }
+
+            @Override public Medicamento next() {
+                if (proximo == null) throw new NoSuchElementException();
+                Medicamento m = proximo;
+                avancar();
+                return m;
+            }
+        };
+    }
+
+    /* ===================== EDIÇÃO ===================== */
+
+    // inclui o item no número dado, ou troca o que já está nele
+    ListaPorInclusao com(long inclusao, Medicamento m, Object dono) {
+        No r = raiz == null ? new No(new Object[32], 0, dono) : raiz;
+        int n = nivel;
+        while ((inclusao >>> n >>> 5) != 0) { // a raiz sobe um nível
+            No nova = new No(new Object[32], r.tamanho, dono);
+            nova.filhos[0] = r;
+            r = nova;
+            n += 5;
+        }
+        return new ListaPorInclusao(com(r, n, inclusao, m, dono), n);
+    }
+
+    private static No com(No no, int n, long inclusao, Medicamento m, Object dono) {
+        int i = (int) (inclusao >>> n) & 31;
+        No copia = editavel(no, dono);
+        if (n == 0) {
+            if (copia.filhos[i] == null) copia.tamanho++;
+            copia.filhos[i] = m;
+            return copia;
+        }
+        No filho = (No) no.filhos[i];
+        int antes = filho == null ? 0 : filho.tamanho;
+        No novo = com(filho == null ? new No(new Object[32], 0, dono) : filho, n - 5, inclusao, m, dono);
+        copia.filhos[i] = novo;
+        copia.tamanho += novo.tamanho - antes;
+        return copia;
+    }
+
+    ListaPorInclusao sem(long inclusao, Object dono) {
+        if (raiz == null || (inclusao >>> nivel >>> 5) != 0) return this;
+        No novo = sem(raiz, nivel, inclusao, dono);
+        if (novo == raiz) return this;
+        return novo == null ? VAZIA : new ListaPorInclusao(novo, nivel);
+    }
+
+    // null quando o nó fica vazio
+    private static No sem(No no, int n, long inclusao, Object dono) {
+        int i = (int) (inclusao >>> n) & 31;
+        Object f = no.filhos[i];
+        if (f == null) return no;
+        No novo = null;
+        if (n > 0) {
+            int antes = ((No) f).tamanho; // o filho pode ter sido alterado no lugar: compara o tamanho
+            novo = sem((No) f, n - 5, inclusao, dono);
+            if (novo != null && novo.tamanho == antes) return no;
+        }
+        if (no.tamanho == 1) return null;
+        No copia = editavel(no, dono);
+        copia.filhos[i] = novo;
+        copia.tamanho--;
+        return copia;
+    }
+
+    private static No editavel(No no, Object dono) {
+        return no.dono == dono ? no : new No(no.filhos.clone(), no.tamanho, dono);
+    }
+}
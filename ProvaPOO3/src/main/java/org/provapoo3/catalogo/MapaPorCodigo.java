@@ -0,0 +1,181 @@
+package org.provapoo3.catalogo;
+
+import org.provapoo3.model.Medicamento;
+
+import java.util.Objects;
+
+/**
+ * Mapa persistente código → item das versões do catálogo ({@link Versao}): árvore de hash de 32 ramos por nível,
+ * escolhidos por 5 bits do hash do código de cada vez. Incluir, trocar ou remover copia só os nós do caminho
+ * (no máximo 7 com 1 milhão de itens, em geral 4) e devolve um mapa novo; o resto é compartilhado com o anterior,
+ * que continua válido e nunca muda.
+ * <p>
+ * Nós criados pela edição em curso ({@code dono}) são alterados no lugar: uma carga de 1 milhão de itens numa
+ * edição só não copia o caminho a cada inclusão. O catálogo troca de dono ao publicar a versão, então nenhum nó
+ * alcançável por uma versão publicada volta a ser alterado.
+ */
+final class MapaPorCodigo {
+
+    // o item e o número da sua inclusão (posição na ordem de inclusão, ListaPorInclusao)
+    record Entrada(long inclusao, Medicamento medicamento) {}
+
+    static final MapaPorCodigo VAZIO = new MapaPorCodigo(null);
+
+    private static final int ULTIMO_NIVEL = 30; // depois dele os 32 bits do hash acabaram: nó de colisão
+
+    // mapa: bit i ligado = há algo no ramo i; itens: Entrada ou No, na ordem dos bits ligados.
+    // Num nó de colisão (mesmo hash inteiro) não há mapa e os itens são só Entradas.
+    private static final class No {
+        int mapa;
+        Object[] itens;
+        final boolean colisao;
+        final Object dono;
+
+        No(int mapa, Object[] itens, boolean colisao, Object dono) {
+            this.mapa = mapa;
+            this.itens = itens;
+            this.colisao = colisao;
+            this.dono = dono;
+        }
+    }
+
+    private final No raiz;
+
+    private MapaPorCodigo(No raiz) {
+        this.raiz = raiz;
+    }
+
+    Entrada buscar(String codigo) {
+        int h = hash(codigo);
+        No no = raiz;
+        for (int nivel = 0; no != null; nivel += 5) {
+            if (no.colisao) return naColisao(no, codigo);
+            int bit = 1 << ((h >>> nivel) & 31);
+            if ((no.mapa & bit) == 0) return null;
+            Object o = no.itens[Integer.bitCount(no.mapa & (bit - 1))];
+            if (o instanceof Entrada e) return Objects.equals(codigo, e.medicamento().getCodigo()) ? e : null;
+            no = (No) o;
+        }
+        return null;
+    }
+
+    // inclui ou troca a entrada do mesmo código
+    MapaPorCodigo com(Entrada e, Object dono) {
+        String codigo = e.medicamento().getCodigo();
+        No novo = raiz == null
+                ? new No(1 << (hash(codigo) & 31), new Object[] {e}, false, dono)
+                : com(raiz, hash(codigo), 0, codigo, e, dono);
+        return novo == raiz ? this : new MapaPorCodigo(novo);
+    }
+
+    MapaPorCodigo sem(String codigo, Object dono) {
+        if (raiz == null) return this;
+        No novo = sem(raiz, hash(codigo), 0, codigo, dono);
+        if (novo == raiz) return this;
+        return novo == null ? VAZIO : new MapaPorCodigo(novo);
+    }
+
+    /* ===================== NÓS ===================== */
+
+    private static No com(No no, int h, int nivel, String codigo, Entrada e, Object dono) {
+        if (no.colisao) {
+            for (int i = 0; i < no.itens.length; i++) {
+                if (Objects.equals(codigo, ((Entrada) no.itens[i]).medicamento().getCodigo())) return trocar(no, i, e, dono);
+            }
+            return inserir(no, no.itens.length, 0, e, dono);
+        }
+        int bit = 1 << ((h >>> nivel) & 31);
+        int i = Integer.bitCount(no.mapa & (bit - 1));
+        if ((no.mapa & bit) == 0) return inserir(no, i, bit, e, dono);
+        Object o = no.itens[i];
+        if (o instanceof No filho) {
+            No novo = com(filho, h, nivel + 5, codigo, e, dono);
+            return novo == filho ? no : trocar(no, i, novo, dono);
+        }
+        Entrada atual = (Entrada) o;
+        if (Objects.equals(codigo, atual.medicamento().getCodigo())) return trocar(no, i, e, dono);
+        // dois códigos no mesmo ramo: desce um nível com os dois
+        return trocar(no, i, juntar(atual, hash(atual.medicamento().getCodigo()), e, h, nivel + 5, dono), dono);
+    }
+
+    private static No juntar(Entrada a, int ha, Entrada b, int hb, int nivel, Object dono) {
+        if (nivel > ULTIMO_NIVEL) return new No(0, new Object[] {a, b}, true, dono);
+        int ra = (ha >>> nivel) & 31, rb = (hb >>> nivel) & 31;
+        if (ra == rb) return new No(1 << ra, new Object[] {juntar(a, ha, b, hb, nivel + 5, dono)}, false, dono);
+        return new No((1 << ra) | (1 << rb), ra < rb ? new Object[] {a, b} : new Object[] {b, a}, false, dono);
+    }
+
+    // null quando o nó fica vazio
+    private static No sem(No no, int h, int nivel, String codigo, Object dono) {
+        if (no.colisao) {
+            for (int i = 0; i < no.itens.length; i++) {
+                if (Objects.equals(codigo, ((Entrada) no.itens[i]).medicamento().getCodigo())) {
+                    return no.itens.length == 1 ? null : retirar(no, i, 0, dono);
+                }
+            }
+            return no;
+        }
+        int bit = 1 << ((h >>> nivel) & 31);
+        if ((no.mapa & bit) == 0) return no;
+        int i = Integer.bitCount(no.mapa & (bit - 1));
+        Object o = no.itens[i];
+        if (o instanceof No filho) {
+            No novo = sem(filho, h, nivel + 5, codigo, dono);
+            if (novo == filho) return no;
+            if (novo == null) return no.mapa == bit ? null : retirar(no, i, bit, dono);
+            // ramo que ficou com uma entrada só sobe para cá
+            Entrada unica = unica(novo);
+            return trocar(no, i, unica != null ? unica : novo, dono);
+        }
+        if (!Objects.equals(codigo, ((Entrada) o).medicamento().getCodigo())) return no;
+        return no.mapa == bit ? null : retirar(no, i, bit, dono);
+    }
+
+    private static Entrada unica(No no) {
+        return no.itens.length == 1 && no.itens[0] instanceof Entrada e ? e : null;
+    }
+
+    private static Entrada naColisao(No no, String codigo) {
+        for (Object o : no.itens) {
+            Entrada e = (Entrada) o;
+            if (Objects.equals(codigo, e.medicamento().getCodigo())) return e;
+        }
+        return null;
+    }
+
+    private static No trocar(No no, int i, Object item, Object dono) {
+        if (no.dono == dono) {
+            no.itens[i] = item;
+            return no;
+        }
+        Object[] itens = no.itens.clone();
+        itens[i] = item;
+        return new No(no.mapa, itens, no.colisao, dono);
+    }
+
+    private static No inserir(No no, int i, int bit, Object item, Object dono) {
+        Object[] itens = new Object[no.itens.length + 1];
+        System.arraycopy(no.itens, 0, itens, 0, i);
+        itens[i] = item;
+        System.arraycopy(no.itens, i, itens, i + 1, no.itens.length - i);
+        if (no.dono != dono) return new No(no.mapa | bit, itens, no.colisao, dono);
+        no.mapa |= bit;
+        no.itens = itens;
+        return no;
+    }
+
+    private static No retirar(No no, int i, int bit, Object dono) {
+        Object[] itens = new Object[no.itens.length - 1];
+        System.arraycopy(no.itens, 0, itens, 0, i);
+        System.arraycopy(no.itens, i + 1, itens, i, itens.length - i);
+        if (no.dono != dono) return new No(no.mapa & ~bit, itens, no.colisao, dono);
+        no.mapa &= ~bit;
+        no.itens = itens;
+        return no;
+    }
+
+    // o hash da String, sem espalhar: códigos vizinhos ficam em ramos vizinhos dos mesmos nós (como num HashMap)
+    private static int hash(String codigo) {
+        return Objects.hashCode(codigo);
+    }
+}
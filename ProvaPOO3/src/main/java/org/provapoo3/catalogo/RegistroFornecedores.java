@@ -0,0 +1,53 @@
+package org.provapoo3.catalogo;
+
+import org.provapoo3.model.Fornecedor;
+
+import java.util.*;
+
+/**
+ * Tabela normalizada de fornecedores, uma instância por CNPJ.
+ * <p>
+ * Os medicamentos apontam para a instância registrada aqui, então 10 mil produtos do mesmo
+ * distribuidor compartilham um único {@link Fornecedor}. Uma instância registrada não muda: dados de contato
+ * novos entram como outra instância, e quem ainda lê a anterior (uma versão já fixada do catálogo) continua
+ * vendo os dados de antes. Thread-safe (métodos sincronizados); {@link #todos()} devolve uma cópia.
+ */
+public class RegistroFornecedores {
+
+    private final Map<String, Fornecedor> porCnpj = new LinkedHashMap<>();
+
+    /**
+     * Devolve a instância registrada para o CNPJ de {@code f}: a atual, se os dados de contato são os mesmos; se
+     * não (ou se o CNPJ é novo), {@code f} passa a ser a instância registrada, no lugar da anterior, que fica como
+     * estava. Fornecedor sem CNPJ não é registrado.
+     */
+    public synchronized Fornecedor registrar(Fornecedor f) {
+        if (f == null || f.getCnpj() == null || f.getCnpj().isBlank()) return f;
+        Fornecedor atual = porCnpj.get(f.getCnpj());
+        if (atual != null && (atual == f || mesmoContato(atual, f))) return atual;
+        porCnpj.put(f.getCnpj(), f);
+        return f;
+    }
+
+    public synchronized Optional<Fornecedor> buscar(String cnpj) {
+        return Optional.ofNullable(porCnpj.get(cnpj));
+    }
+
+    public synchronized Collection<Fornecedor> todos() {
+        return List.copyOf(porCnpj.values());
+    }
+
+    public synchronized int tamanho() {
+        return porCnpj.size();
+    }
+
+    public synchronized void limpar() {
+        porCnpj.clear();
+    }
+
+    private static boolean mesmoContato(Fornecedor a, Fornecedor b) {
+        return Objects.equals(a.getRazaoSocial(), b.getRazaoSocial())
+                && Objects.equals(a.getTelefone(), b.getTelefone()) && Objects.equals(a.getEmail(), b.getEmail())
+                && Objects.equals(a.getCidade(), b.getCidade()) && Objects.equals(a.getEstado(), b.getEstado());
+    }
+}
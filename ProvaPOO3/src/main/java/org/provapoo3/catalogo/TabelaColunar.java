@@ -0,0 +1,380 @@
+package org.provapoo3.catalogo;
+
+import org.provapoo3.model.Fornecedor;
+import org.provapoo3.model.Medicamento;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.function.IntPredicate;
+
+/**
+ * Cópia do catálogo em colunas (struct-of-arrays), só de leitura, para relatórios que varrem todos os itens.
+ * <p>
+ * Cada campo quente é um vetor primitivo indexado pela linha: validade em dia epoch ({@code int}), quantidade
+ * ({@code int}), preço em centavos ({@code long}), controlado num {@link BitSet} e o fornecedor como número na
+ * tabela de fornecedores ({@code int}). Os textos ficam em {@link Dicionario}s (código, nome, princípio ativo e
+ * descrição), e a linha guarda só o número do valor. Um filtro lê um ou dois vetores contíguos em vez de seguir
+ * referências de objeto em objeto, e a ordenação do resultado compara {@code long}s, não {@code String}s.
+ * <p>
+ * As linhas guardam o que os objetos tinham na hora da cópia; alterações posteriores no catálogo não aparecem aqui.
+ * {@link #de} copia tudo e {@link #medicamento(int)} monta um {@link Medicamento} novo a partir das colunas, com a
+ * mesma API do modelo. A tabela de uma {@link Versao} ({@link Versao#colunas()}) é montada sobre itens publicados,
+ * que nunca mudam: ela guarda as referências e devolve os próprios objetos, sem copiar as descrições.
+ * <p>
+ * Só os relatórios de uma {@link Versao} varrem estas colunas; os do {@link CatalogoMedicamentos} respondem pelos
+ * índices e somas que ele mantém. O valor em estoque (preço × quantidade) é conferido na montagem pela mesma conta
+ * do catálogo ({@link CatalogoMedicamentos#valorEstoque}): um item que não cabe é recusado com
+ * {@link IllegalArgumentException}, e as somas por fornecedor já não precisam conferir item a item.
+ */
+public final class TabelaColunar {
+
+    private static final int SEM_DATA = Integer.MIN_VALUE;
+    private static final long SEM_PRECO = Long.MIN_VALUE;
+
+    private final int tamanho;
+    private final Dicionario codigos; // código único: o número do código é a própria linha
+    private final Dicionario nomes, principios, descricoes; // descricoes: null com os itens de origem
+    private final int[] nome, principio, descricao;
+    private final int[] validade;
+    private final int[] quantidade;
+    private final long[] centavos;
+    private final BitSet controlado;
+    private final int[] fornecedor; // -1 sem fornecedor
+    private final Fornecedor[] fornecedores;
+    private final long[] versao;
+    private final Medicamento[] origem; // itens publicados de uma versão, ou null numa cópia completa
+
+    private TabelaColunar(Collection<Medicamento> meds, boolean guardarOrigem) {
+        int n = meds.size();
+        tamanho = n;
+        origem = guardarOrigem ? new Medicamento[n] : null;
+        nome = new int[n]; principio = new int[n]; descricao = guardarOrigem ? null : new int[n];
+        validade = new int[n]; quantidade = new int[n]; centavos = new long[n];
+        controlado = new BitSet(n); fornecedor = new int[n]; versao = new long[n];
+
+        Dicionario.Construtor cod = new Dicionario.Construtor(), nom = new Dicionario.Construtor(),
+                pri = new Dicionario.Construtor(), des = new Dicionario.Construtor();
+        Map<String, Integer> porCnpj = new HashMap<>();
+        List<Fornecedor> tabela = new ArrayList<>();
+        int i = 0;
+        for (Medicamento m : meds) {
+            if (cod.numero(m.getCodigo()) != i) throw new IllegalArgumentException("Código repetido: " + m.getCodigo());
+            nome[i] = nom.numero(m.getNome());
+            principio[i] = pri.numero(m.getPrincipioAtivo());
+            if (origem != null) origem[i] = m;
+            else descricao[i] = des.numero(m.lerDescricao());
+            validade[i] = m.getDataValidade() != null ? (int) m.getDataValidade().toEpochDay() : SEM_DATA;
+            quantidade[i] = m.getQuantidadeEstoque();
+            if (m.getPreco() == null) {
+                centavos[i] = SEM_PRECO;
+            } else {
+                centavos[i] = CatalogoMedicamentos.centavosDoItem(m.getPreco(), quantidade[i]);
+                CatalogoMedicamentos.valorEstoque(centavos[i], quantidade[i]);
+            }
+            if (m.isControlado()) controlado.set(i);
+            Fornecedor f = m.getFornecedor();
+            if (f == null) {
+                fornecedor[i] = -1;
+            } else {
+                Integer num = porCnpj.putIfAbsent(f.getCnpj() == null ? "" : f.getCnpj(), tabela.size());
+                if (num == null) tabela.add(f);
+                fornecedor[i] = num != null ? num : tabela.size() - 1;
+            }
+            versao[i] = m.getVersao();
+            i++;
+        }
+        codigos = cod.construir(false);
+        nomes = nom.construir(true);
+        principios = pri.construir(false);
+        descricoes = origem == null ? des.construir(false) : null;
+        fornecedores = tabela.toArray(new Fornecedor[0]);
+    }
+
+    // cópia das linhas na ordem da coleção; os códigos não podem se repetir
+    public static TabelaColunar de(Collection<Medicamento> meds) {
+        return new TabelaColunar(meds, false);
+    }
+
+    // sobre itens que nunca mudam (os de uma versão): guarda as referências no lugar das descrições
+    static TabelaColunar sobre(Collection<Medicamento> publicados) {
+        return new TabelaColunar(publicados, true);
+    }
+
+    public int tamanho() {
+        return tamanho;
+    }
+
+    /* ===================== LINHAS ===================== */
+
+    public OptionalInt linhaDoCodigo(String codigo) {
+        int linha = codigos.numero(codigo);
+        return linha < 0 ? OptionalInt.empty() : OptionalInt.of(linha);
+    }
+
+    public String codigo(int linha) {
+        return codigos.valor(linha);
+    }
+
+    public Medicamento medicamento(int linha) {
+        Objects.checkIndex(linha, tamanho);
+        if (origem != null) return origem[linha];
+        Medicamento m = new Medicamento(codigos.valor(linha), nomes.valor(nome[linha]),
+                descricoes.valor(descricao[linha]), principios.valor(principio[linha]),
+                validade[linha] == SEM_DATA ? null : LocalDate.ofEpochDay(validade[linha]),
+                quantidade[linha],
+                centavos[linha] == SEM_PRECO ? null : BigDecimal.valueOf(centavos[linha], 2),
+                controlado.get(linha),
+                fornecedor[linha] < 0 ? null : fornecedores[fornecedor[linha]]);
+        m.setVersao(versao[linha]);
+        return m;
+    }
+
+    public List<Medicamento> medicamentos(int[] linhas) {
+        List<Medicamento> meds = new ArrayList<>(linhas.length);
+        for (int linha : linhas) meds.add(medicamento(linha));
+        return meds;
+    }
+
+    public Optional<Medicamento> buscarPorCodigo(String codigo) {
+        int linha = codigos.numero(codigo);
+        return linha < 0 ? Optional.empty() : Optional.of(medicamento(linha));
+    }
+
+    /* ===================== RELATÓRIOS ===================== */
+    // mesmos filtros e ordens dos relatórios do CatalogoMedicamentos; os linhas* devolvem só os números das linhas
+
+    // validade entre 'de' e 'ate' (inclusive), em ordem crescente de validade
+    public int[] linhasVencendoEntre(LocalDate de, LocalDate ate) {
+        long min = de.toEpochDay(), max = ate.toEpochDay();
+        Selecao s = new Selecao();
+        for (int i = 0; i < tamanho; i++) {
+            int d = validade[i];
+            if (d != SEM_DATA && d >= min && d <= max) s.add(d, i);
+        }
+        return s.ordenadas();
+    }
+
+    // validade anterior a 'hoje', do mais antigo para o mais recente
+    public int[] linhasVencidosAntesDe(LocalDate hoje) {
+        long limite = hoje.toEpochDay();
+        Selecao s = new Selecao();
+        for (int i = 0; i < tamanho; i++) {
+            int d = validade[i];
+            if (d != SEM_DATA && d < limite) s.add(d, i);
+        }
+        return s.ordenadas();
+    }
+
+    // quantidade < limite, em ordem crescente de quantidade
+    public int[] linhasEstoqueAbaixoDe(int limite) {
+        Selecao s = new Selecao();
+        for (int i = 0; i < tamanho; i++) if (quantidade[i] < limite) s.add(quantidade[i], i);
+        return s.ordenadas();
+    }
+
+    // estoque baixo com o limite de cada fornecedor (CNPJ só dígitos -> limite) ou o padrão; sem fornecedor é a chave ""
+    public int[] linhasEstoqueBaixo(int limitePadrao, Map<String, Integer> limitesPorCnpj) {
+        IntPredicate baixo = estoqueBaixo(limitePadrao, limitesPorCnpj);
+        Selecao s = new Selecao();
+        for (int i = 0; i < tamanho; i++) if (baixo.test(i)) s.add(quantidade[i], i);
+        return s.ordenadas();
+    }
+
+    // limite de cada fornecedor da tabela decidido uma vez; a linha compara só a quantidade
+    private IntPredicate estoqueBaixo(int limitePadrao, Map<String, Integer> limitesPorCnpj) {
+        int semFornecedor = limitesPorCnpj.getOrDefault("", limitePadrao);
+        int[] limites = new int[fornecedores.length];
+        for (int f = 0; f < limites.length; f++) {
+            String cnpj = fornecedores[f].getCnpj();
+            boolean semCnpj = cnpj == null || cnpj.isBlank();
+            limites[f] = semCnpj ? semFornecedor
+                    : limitesPorCnpj.getOrDefault(CatalogoMedicamentos.digitosCnpj(cnpj), limitePadrao);
+        }
+        return i -> quantidade[i] < (fornecedor[i] < 0 ? semFornecedor : limites[fornecedor[i]]);
+    }
+
+    // controlados (ou não controlados), por nome
+    public int[] linhasControlados(boolean sim) {
+        Selecao s = new Selecao();
+        int i = sim ? controlado.nextSetBit(0) : controlado.nextClearBit(0);
+        while (i >= 0 && i < tamanho) {
+            s.add(nomes.ordem(nome[i]), i);
+            i = sim ? controlado.nextSetBit(i + 1) : controlado.nextClearBit(i + 1);
+        }
+        return s.ordenadas();
+    }
+
+    // candidatas da consulta, na ordem da tabela: os filtros de validade, quantidade, preço, controlado e CNPJ saem
+    // das colunas; o estado e o teste completo ficam com a Consulta, sobre os itens que sobram
+    int[] linhas(Consulta c) {
+        long vMin = c.validadeDe == null ? Long.MIN_VALUE : c.validadeDe.toEpochDay();
+        long vMax = c.validadeAte == null ? Long.MAX_VALUE : c.validadeAte.toEpochDay();
+        boolean porValidade = c.validadeDe != null || c.validadeAte != null;
+        int qMin = c.quantidadeMin == null ? Integer.MIN_VALUE : c.quantidadeMin;
+        int qMax = c.quantidadeMax == null ? Integer.MAX_VALUE : c.quantidadeMax;
+        long pMin = c.precoMin == null ? Long.MIN_VALUE + 1 : c.precoMin;
+        long pMax = c.precoMax == null ? Long.MAX_VALUE : c.precoMax;
+        boolean porPreco = c.precoMin != null || c.precoMax != null;
+        // CNPJ: decidido uma vez por fornecedor da tabela; sem CNPJ (agrupados juntos) fica para o teste completo
+        boolean[] fornecedorAceito = new boolean[fornecedores.length];
+        for (int f = 0; f < fornecedores.length; f++) {
+            String cnpj = fornecedores[f].getCnpj();
+            fornecedorAceito[f] = c.cnpjs == null || cnpj == null || cnpj.isBlank() || c.cnpjs.contains(cnpj);
+        }
+
+        int[] linhas = new int[64];
+        int n = 0;
+        for (int i = 0; i < tamanho; i++) {
+            if (c.controlado != null && controlado.get(i) != c.controlado) continue;
+            if (quantidade[i] < qMin || quantidade[i] > qMax) continue;
+            if (porValidade && (validade[i] == SEM_DATA || validade[i] < vMin || validade[i] > vMax)) continue;
+            if (porPreco && (centavos[i] == SEM_PRECO || centavos[i] < pMin || centavos[i] > pMax)) continue;
+            if (fornecedor[i] < 0 ? c.cnpjs != null : !fornecedorAceito[fornecedor[i]]) continue;
+            if (n == linhas.length) linhas = Arrays.copyOf(linhas, n * 2);
+            linhas[n++] = i;
+        }
+        return Arrays.copyOf(linhas, n);
+    }
+
+    public List<Medicamento> vencendoEntre(LocalDate de, LocalDate ate) {
+        return ate.isBefore(de) ? List.of() : medicamentos(linhasVencendoEntre(de, ate));
+    }
+
+    public List<Medicamento> vencidosAntesDe(LocalDate hoje) {
+        return medicamentos(linhasVencidosAntesDe(hoje));
+    }
+
+    public List<Medicamento> estoqueAbaixoDe(int limite) {
+        return medicamentos(linhasEstoqueAbaixoDe(limite));
+    }
+
+    public List<Medicamento> controlados(boolean sim) {
+        return medicamentos(linhasControlados(sim));
+    }
+
+    // CNPJ -> valor total do estoque (preço × quantidade) em centavos, somado numa passada pelos dois vetores
+    public Map<String, Long> valorEstoquePorFornecedor() {
+        long[] soma = new long[fornecedores.length];
+        boolean[] comItens = new boolean[fornecedores.length];
+        for (int i = 0; i < tamanho; i++) {
+            int f = fornecedor[i];
+            if (f < 0) continue;
+            comItens[f] = true;
+            if (centavos[i] != SEM_PRECO) soma[f] += CatalogoMedicamentos.valorEstoque(centavos[i], quantidade[i]);
+        }
+        Map<String, Long> valores = new HashMap<>();
+        for (int f = 0; f < fornecedores.length; f++) {
+            String cnpj = fornecedores[f].getCnpj();
+            if (comItens[f] && cnpj != null && !cnpj.isBlank()) valores.put(cnpj, soma[f]);
+        }
+        return valores;
+    }
+
+    /* ===================== LOTES ===================== */
+    // os relatórios por validade e por quantidade em lotes, para exportar, na mesma ordem dos linhas*: cada
+    // passada pelas colunas separa só as próximas linhas, sem juntar o resultado inteiro
+
+    public CatalogoMedicamentos.Lotes lotesVencendoEntre(LocalDate de, LocalDate ate, int tamanhoLote) {
+        long min = de.toEpochDay(), max = ate.toEpochDay();
+        return new LotesDaColuna(validade, i -> validade[i] != SEM_DATA && validade[i] >= min && validade[i] <= max,
+                tamanhoLote);
+    }
+
+    public CatalogoMedicamentos.Lotes lotesVencidosAntesDe(LocalDate hoje, int tamanhoLote) {
+        long limite = hoje.toEpochDay();
+        return new LotesDaColuna(validade, i -> validade[i] != SEM_DATA && validade[i] < limite, tamanhoLote);
+    }
+
+    public CatalogoMedicamentos.Lotes lotesEstoqueBaixo(int limitePadrao, Map<String, Integer> limitesPorCnpj,
+                                                       int tamanhoLote) {
+        return new LotesDaColuna(quantidade, estoqueBaixo(limitePadrao, limitesPorCnpj), tamanhoLote);
+    }
+
+    // memória das colunas e dicionários (sem os objetos Fornecedor e os de origem, compartilhados com o catálogo)
+    public long bytesOcupados() {
+        return 4L * tamanho * (descricoes == null ? 5 : 6) + 8L * tamanho * 2 + controlado.size() / 8
+                + codigos.bytesOcupados() + nomes.bytesOcupados() + principios.bytesOcupados()
+                + (descricoes == null ? 4L * tamanho : descricoes.bytesOcupados());
+    }
+
+    // linhas aceitas em ordem de chave (no empate, de linha), no formato da Selecao: cada passada guarda só as
+    // PASSADA menores depois da última entregue, então a memória fica em PASSADA longs qualquer que seja o resultado
+    private final class LotesDaColuna implements CatalogoMedicamentos.Lotes {
+        private static final int PASSADA = 1 << 16;
+
+        private final int[] chave;
+        private final IntPredicate aceita;
+        private final int tamanhoLote;
+        private final int total;
+        private final long[] separadas;
+        private int n, lida, entregues;
+
+        LotesDaColuna(int[] chave, IntPredicate aceita, int tamanhoLote) {
+            if (tamanhoLote <= 0) throw new IllegalArgumentException("Tamanho de lote deve ser positivo.");
+            this.chave = chave;
+            this.aceita = aceita;
+            this.tamanhoLote = tamanhoLote;
+            int t = 0;
+            for (int i = 0; i < tamanho; i++) if (aceita.test(i)) t++;
+            total = t;
+            // com até PASSADA linhas tudo cabe numa passada; acima disso, metade do vetor é folga para descartar
+            separadas = new long[total <= PASSADA ? total : 2 * PASSADA];
+        }
+
+        @Override public int estimativa() { return total; }
+        @Override public boolean hasNext() { return entregues < total; }
+
+        @Override public List<Medicamento> next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            List<Medicamento> lote = new ArrayList<>(Math.min(tamanhoLote, total - entregues));
+            while (lote.size() < tamanhoLote && entregues < total) {
+                if (lida == n) passada();
+                lote.add(medicamento((int) separadas[lida++]));
+                entregues++;
+            }
+            return lote;
+        }
+
+        private void passada() {
+            boolean primeira = n == 0;
+            long ultima = primeira ? 0 : separadas[n - 1];
+            long teto = Long.MAX_VALUE;
+            int k = 0;
+            for (int i = 0; i < tamanho; i++) {
+                if (!aceita.test(i)) continue;
+                long item = (long) chave[i] << 32 | i;
+                if (!primeira && item <= ultima || item >= teto) continue;
+                if (k == separadas.length) { // cheio: fica com as PASSADA menores e descarta o que vier acima
+                    Arrays.sort(separadas, 0, k);
+                    k = PASSADA;
+                    teto = separadas[k - 1];
+                    if (item >= teto) continue;
+                }
+                separadas[k++] = item;
+            }
+            Arrays.sort(separadas, 0, k);
+            n = Math.min(k, PASSADA);
+            lida = 0;
+        }
+    }
+
+    // linhas selecionadas com a chave de ordenação no alto de um long: ordenar os longs ordena por chave e,
+    // no empate, pela linha (ordem da cópia)
+    private static final class Selecao {
+        private long[] itens = new long[64];
+        private int n;
+
+        void add(long chave, int linha) {
+            if (n == itens.length) itens = Arrays.copyOf(itens, n * 2);
+            itens[n++] = chave << 32 | linha;
+        }
+
+        int[] ordenadas() {
+            Arrays.sort(itens, 0, n);
+            int[] linhas = new int[n];
+            for (int i = 0; i < n; i++) linhas[i] = (int) itens[i];
+            return linhas;
+        }
+    }
+}
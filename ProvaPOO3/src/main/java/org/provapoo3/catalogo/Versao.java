@@ -0,0 +1,135 @@
+package org.provapoo3.catalogo;
+
+import org.provapoo3.model.Medicamento;
+
+import java.time.LocalDate;
+import java.util.*;
+
+/**
+ * Estado do catálogo numa alteração, fixado por {@link CatalogoMedicamentos#versao()} em O(1) e que nunca muda
+ * depois disso: um relatório longo ou uma gravação lê uma versão inteira e coerente enquanto a tela continua
+ * alterando o catálogo, sem trava nenhuma.
+ * <p>
+ * Os itens ficam num mapa e numa lista persistentes ({@link MapaPorCodigo}, {@link ListaPorInclusao}), que cada
+ * alteração copia só no caminho do item alterado; o resto é compartilhado entre as versões. Os próprios
+ * {@link Medicamento}s também não mudam depois de publicados (o catálogo troca quantidade, preço e fornecedor numa
+ * cópia).
+ * Uma versão que ninguém mais referencia é recolhida pelo coletor de lixo, junto com o que só ela usava.
+ * <p>
+ * Os itens e os limites de estoque por fornecedor são versionados. Cada item aponta para o fornecedor registrado na
+ * sua época (contato novo entra como outra instância, ver {@link RegistroFornecedores}); {@link #fornecedores()} é
+ * o registro do catálogo, com o valor de agora. As consultas aqui varrem a versão (os índices ordenados são só do
+ * estado atual do catálogo) pela sua {@link TabelaColunar}, montada no primeiro relatório e reaproveitada pelos
+ * seguintes: os filtros leem vetores primitivos e o resultado traz os próprios itens da versão.
+ */
+public final class Versao {
+
+    private final long numero;
+    private final MapaPorCodigo codigos;
+    private final ListaPorInclusao itens;
+    private final Map<String, Integer> limitesEstoque;
+    private final RegistroFornecedores fornecedores;
+    private volatile TabelaColunar colunas;
+
+    Versao(long numero, MapaPorCodigo codigos, ListaPorInclusao itens, Map<String, Integer> limitesEstoque,
+           RegistroFornecedores fornecedores) {
+        this.numero = numero;
+        this.codigos = codigos;
+        this.itens = itens;
+        this.limitesEstoque = limitesEstoque;
+        this.fornecedores = fornecedores;
+    }
+
+    // cresce a cada alteração publicada pelo catálogo
+    public long numero() {
+        return numero;
+    }
+
+    public int tamanho() {
+        return itens.size();
+    }
+
+    // todos os medicamentos na ordem de inclusão (imutável, sem cópia)
+    public List<Medicamento> todos() {
+        return itens;
+    }
+
+    public Optional<Medicamento> buscar(String codigo) {
+        MapaPorCodigo.Entrada e = codigos.buscar(codigo);
+        return e == null ? Optional.empty() : Optional.of(e.medicamento());
+    }
+
+    public boolean contem(String codigo) {
+        return codigos.buscar(codigo) != null;
+    }
+
+    // número de inclusão do item (-1 se ausente): só muda quando o código é excluído ou substituído
+    long inclusao(String codigo) {
+        MapaPorCodigo.Entrada e = codigos.buscar(codigo);
+        return e == null ? -1 : e.inclusao();
+    }
+
+    public Map<String, Integer> limitesEstoque() {
+        return limitesEstoque;
+    }
+
+    public RegistroFornecedores fornecedores() {
+        return fornecedores;
+    }
+
+    // itens em colunas, na ordem de inclusão; montada uma vez (duas threads ao mesmo tempo montam a mesma tabela)
+    public TabelaColunar colunas() {
+        TabelaColunar t = colunas;
+        if (t == null) colunas = t = TabelaColunar.sobre(itens);
+        return t;
+    }
+
+    /* ===================== RELATÓRIOS ===================== */
+
+    // as colunas separam as candidatas; a consulta testa o resto (estado), ordena, corta e agrupa
+    public Consulta.Resultado consultar(Consulta c) {
+        TabelaColunar t = colunas();
+        return c.executar(Consulta.Acesso.VARREDURA, List.of(t.medicamentos(t.linhas(c))));
+    }
+
+    // mesmos itens e ordem de CatalogoMedicamentos.estoqueBaixo, com os limites desta versão
+    public List<Medicamento> estoqueBaixo(int limitePadrao) {
+        TabelaColunar t = colunas();
+        return t.medicamentos(t.linhasEstoqueBaixo(limitePadrao, limitesEstoque));
+    }
+
+    // CNPJ -> valor total do estoque (preço × quantidade) em centavos
+    public Map<String, Long> valorEstoquePorFornecedor() {
+        return colunas().valorEstoquePorFornecedor();
+    }
+
+    // os relatórios de validade e de estoque baixo em lotes, para exportar: saem das colunas em passadas, sem montar
+    // o resultado inteiro; ordem da chave e, no empate, de inclusão
+    public CatalogoMedicamentos.Lotes lotesVencendoEntre(LocalDate de, LocalDate ate, int tamanhoLote) {
+        return colunas().lotesVencendoEntre(de, ate, tamanhoLote);
+    }
+
+    public CatalogoMedicamentos.Lotes lotesVencidosAntesDe(LocalDate hoje, int tamanhoLote) {
+        return colunas().lotesVencidosAntesDe(hoje, tamanhoLote);
+    }
+
+    public CatalogoMedicamentos.Lotes lotesEstoqueBaixo(int limitePadrao, int tamanhoLote) {
+        return colunas().lotesEstoqueBaixo(limitePadrao, limitesEstoque, tamanhoLote);
+    }
+
+    // todos os itens em lotes, para exportar sem juntar cópias (os lotes são novos; os itens, os da versão)
+    public CatalogoMedicamentos.Lotes lotes(int tamanhoLote) {
+        if (tamanhoLote <= 0) throw new IllegalArgumentException("Tamanho de lote deve ser positivo.");
+        Iterator<Medicamento> it = itens.iterator();
+        return new CatalogoMedicamentos.Lotes() {
+            @Override public int estimativa() { return itens.size(); }
+            @Override public boolean hasNext() { return it.hasNext(); }
+            @Override public List<Medicamento> next() {
+                if (!it.hasNext()) throw new NoSuchElementException();
+                List<Medicamento> lote = new ArrayList<>(tamanhoLote);
+                while (lote.size() < tamanhoLote && it.hasNext()) lote.add(it.next());
+                return lote;
+            }
+        };
+    }
+}
@@ -1,19 +1,38 @@
 package org.provapoo3.controller;
 
-import javafx.collections.FXCollections;
+import javafx.animation.PauseTransition;
+import javafx.application.Platform;
+import javafx.concurrent.Task;
 import javafx.fxml.FXML;
 import javafx.scene.control.*;
-import javafx.scene.control.cell.PropertyValueFactory;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.VBox;
+import javafx.stage.FileChooser;
+import javafx.util.Duration;
+import org.provapoo3.api.ServidorConsultas;
+import org.provapoo3.catalogo.CatalogoMedicamentos;
+import org.provapoo3.catalogo.Consulta;
+import org.provapoo3.catalogo.Versao;
+import org.provapoo3.diagnostico.Eventos;
+import org.provapoo3.diagnostico.Inicio;
+import org.provapoo3.diagnostico.Metricas;
 import org.provapoo3.model.Fornecedor;
 import org.provapoo3.model.Medicamento;
-
-import java.io.BufferedWriter;
+import org.provapoo3.model.Movimentacao;
+import org.provapoo3.persistencia.RepositorioCSV;
+import org.provapoo3.service.ExportadorRelatorio;
+import org.provapoo3.service.GravadorAssincrono;
+import org.provapoo3.service.MedicamentoService;
+import org.provapoo3.service.ValidadorMedicamento;
+
+import java.io.File;
 import java.io.IOException;
 import java.math.BigDecimal;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.*;
+import java.nio.file.Path;
 import java.time.LocalDate;
 import java.util.*;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 public class MainController {
 
@@ -22,6 +41,9 @@ public class MainController {
     @FXML private DatePicker dateValidade;
     @FXML private CheckBox chkControlado;
 
+    // ================= ESTOQUE =================
+    @FXML private TextField txtMovQuantidade, txtMovDocumento;
+
     // ================= FORNECEDOR  =================
     @FXML private TextField txtCnpj, txtRazao, txtTelefone, txtEmail, txtCidade, txtEstado;
 
@@ -37,56 +59,139 @@ public class MainController {
     @FXML private TableView<Fornecedor> tblFornecedores;
     @FXML private TableColumn<Fornecedor, String> colFCnpj, colFRazao, colFTelefone, colFEmail, colFCidade, colFEstado;
 
-    // ================= CSVs e cache =================
-    private final Path arquivoCSV = Path.of("dados/medicamentos.csv");
-    private final Path arquivoFornecedoresCSV = Path.of("dados/fornecedores.csv");
-    private final List<Medicamento> cache = new ArrayList<>();
+    // ================= RELATÓRIOS =================
+    @FXML private TextField txtDiasValidade, txtLimiteEstoque;
+    @FXML private TextField txtPesquisa;
+
+    // ================= RELATÓRIO MONTADO =================
+    @FXML private ChoiceBox<String> cbConsControlado, cbConsOrdem, cbConsGrupo;
+    @FXML private TextField txtConsDias, txtConsQtdMin, txtConsQtdMax, txtConsPrecoMin, txtConsPrecoMax;
+    @FXML private TextField txtConsCnpjs, txtConsEstados, txtConsLimite;
+    @FXML private CheckBox chkConsDecrescente;
+    @FXML private Label lblConsPlano;
+
+    // ================= EXPORTAÇÃO =================
+    @FXML private HBox boxExportacao;
+    @FXML private ProgressBar barExportacao;
+    @FXML private Label lblExportacao;
+
+    // ================= CARGA INICIAL =================
+    @FXML private HBox boxCarga;
+    @FXML private ProgressBar barCarga;
+    @FXML private Label lblCarga;
+    @FXML private VBox boxAcoes;
+    @FXML private TitledPane paneRelatorios;
+    @FXML private Label lblGravacao;
 
-    private static final String HEADER_MED =
-            "codigo;nome;descricao;principioAtivo;dataValidade;quantidadeEstoque;preco;controlado;" +
-                    "forn_cnpj;forn_razao;forn_telefone;forn_email;forn_cidade;forn_estado";
-    private static final String HEADER_FORN =
-            "cnpj;razaoSocial;telefone;email;cidade;estado";
+    // ================= CSVs e cache =================
+    private final MedicamentoService servico = new MedicamentoService(Path.of("dados"));
+    private CatalogoMedicamentos catalogo = servico.catalogo();
+    private VisaoTabela<Medicamento> visaoMedicamentos;
+    private VisaoTabela<Fornecedor> visaoFornecedores;
+    private ServidorConsultas servidorConsultas; // só com -Dprovapoo3.http.porta
+    private final VigiaFxThread vigiaFx = new VigiaFxThread();
+
+    // pesquisa roda só depois de uma pausa na digitação; mostra os mais relevantes
+    private static final int LIMITE_PESQUISA = 500;
+    private final PauseTransition pausaPesquisa = new PauseTransition(Duration.millis(250));
+
+    // relatório mostrado nas tabelas, refeito ao exportar sobre a versão do catálogo fixada no clique
+    private interface Exportacao {
+        ExportadorRelatorio.Resultado gravar(Versao v, ExportadorRelatorio.Formato formato, Path destino,
+                                             ExportadorRelatorio.Progresso progresso) throws IOException;
+    }
+    private String nomeExportacao = "todos";
+    private Exportacao exportacaoAtual = emLotes(v -> v.lotes(ExportadorRelatorio.LOTE_PADRAO));
+    private Task<ExportadorRelatorio.Resultado> exportacao; // em andamento (ou null)
+
+    // opções das caixas do relatório montado, na ordem dos itens (posição 0: null = por código / sem grupos)
+    private static final Consulta.Ordem[] ORDENS = {null, Consulta.Ordem.NOME, Consulta.Ordem.VALIDADE,
+            Consulta.Ordem.QUANTIDADE, Consulta.Ordem.PRECO, Consulta.Ordem.VALOR};
+    private static final Consulta.Agrupamento[] GRUPOS = {null, Consulta.Agrupamento.FORNECEDOR,
+            Consulta.Agrupamento.ESTADO, Consulta.Agrupamento.CONTROLADO, Consulta.Agrupamento.MES_VALIDADE};
 
     @FXML
     public void initialize() {
         // Colunas dos medicamentos
-        colCodigo.setCellValueFactory(new PropertyValueFactory<>("codigo"));
-        colNome.setCellValueFactory(new PropertyValueFactory<>("nome"));
-        colPrincipio.setCellValueFactory(new PropertyValueFactory<>("principioAtivo"));
-        colValidade.setCellValueFactory(new PropertyValueFactory<>("dataValidade"));
-        colQtd.setCellValueFactory(new PropertyValueFactory<>("quantidadeEstoque"));
-        colPreco.setCellValueFactory(new PropertyValueFactory<>("preco"));
-        colControlado.setCellValueFactory(new PropertyValueFactory<>("controlado"));
-        colFornecedor.setCellValueFactory(c ->
-                new javafx.beans.property.SimpleStringProperty(
-                        c.getValue().getFornecedor()!=null ? c.getValue().getFornecedor().getRazaoSocial() : ""
-                ));
+        colCodigo.setCellValueFactory(VisaoTabela.valor(Medicamento::getCodigo));
+        colNome.setCellValueFactory(VisaoTabela.valor(Medicamento::getNome));
+        colPrincipio.setCellValueFactory(VisaoTabela.valor(Medicamento::getPrincipioAtivo));
+        colValidade.setCellValueFactory(VisaoTabela.valor(Medicamento::getDataValidade));
+        colQtd.setCellValueFactory(VisaoTabela.valor(Medicamento::getQuantidadeEstoque));
+        colPreco.setCellValueFactory(VisaoTabela.valor(Medicamento::getPreco));
+        colControlado.setCellValueFactory(VisaoTabela.valor(Medicamento::isControlado));
+        colFornecedor.setCellValueFactory(VisaoTabela.valor(m ->
+                m.getFornecedor()!=null ? m.getFornecedor().getRazaoSocial() : ""));
 
         // Colunas dos fornecedores
-        colFCnpj.setCellValueFactory(new PropertyValueFactory<>("cnpj"));
-        colFRazao.setCellValueFactory(new PropertyValueFactory<>("razaoSocial"));
-        colFTelefone.setCellValueFactory(new PropertyValueFactory<>("telefone"));
-        colFEmail.setCellValueFactory(new PropertyValueFactory<>("email"));
-        colFCidade.setCellValueFactory(new PropertyValueFactory<>("cidade"));
-        colFEstado.setCellValueFactory(new PropertyValueFactory<>("estado"));
-
+        colFCnpj.setCellValueFactory(VisaoTabela.valor(Fornecedor::getCnpj));
+        colFRazao.setCellValueFactory(VisaoTabela.valor(Fornecedor::getRazaoSocial));
+        colFTelefone.setCellValueFactory(VisaoTabela.valor(Fornecedor::getTelefone));
+        colFEmail.setCellValueFactory(VisaoTabela.valor(Fornecedor::getEmail));
+        colFCidade.setCellValueFactory(VisaoTabela.valor(Fornecedor::getCidade));
+        colFEstado.setCellValueFactory(VisaoTabela.valor(Fornecedor::getEstado));
+
+        visaoMedicamentos = new VisaoTabela<>(tblMedicamentos, Medicamento::getCodigo);
+        visaoFornecedores = new VisaoTabela<>(tblFornecedores, Fornecedor::getCnpj);
+
+        cbConsControlado.getItems().setAll("Todos", "Controlados", "Não controlados");
+        cbConsOrdem.getItems().setAll("Código", "Nome", "Validade", "Quantidade", "Preço", "Valor em estoque");
+        cbConsGrupo.getItems().setAll("Sem grupos", "Por fornecedor", "Por estado", "Por controlado", "Por mês de validade");
+        cbConsControlado.getSelectionModel().selectFirst();
+        cbConsOrdem.getSelectionModel().selectFirst();
+        cbConsGrupo.getSelectionModel().selectFirst();
+
+        pausaPesquisa.setOnFinished(e -> pesquisar());
+        txtPesquisa.textProperty().addListener((obs, antes, agora) -> pausaPesquisa.playFromStart());
+
+        servico.setOuvinteGravacao(new OuvinteGravacao());
+        vigiaFx.iniciar();
         carregarCSV();
-        mostrarTodos();
     }
 
     /* ===================== VISÕES DA TABELA ===================== */
 
-    // Restaura a visão completa nas duas tabelas
+    // Restaura a visão completa nas duas tabelas (só remove o filtro; as listas não são copiadas)
     private void mostrarTodos() {
-        tblMedicamentos.setItems(FXCollections.observableArrayList(cache));
-        tblFornecedores.setItems(FXCollections.observableArrayList(fornecedoresUnicos(cache)));
+        visaoMedicamentos.mostrarTudo();
+        visaoFornecedores.mostrarTudo();
+        exportavel("todos", emLotes(v -> v.lotes(ExportadorRelatorio.LOTE_PADRAO)));
     }
 
     // Mostra somente o resultado da busca (1 medicamento) nas duas tabelas
     private void mostrarResultadoBusca(Medicamento m) {
-        tblMedicamentos.setItems(FXCollections.observableArrayList(List.of(m)));
-        tblFornecedores.setItems(FXCollections.observableArrayList(fornecedoresUnicos(List.of(m))));
+        visaoMedicamentos.mostrarSomente(List.of(m));
+        visaoFornecedores.mostrarSomente(CatalogoMedicamentos.fornecedoresDe(List.of(m)));
+        exportavel("medicamento-" + m.getCodigo(), emLista(v -> v.buscar(m.getCodigo()).stream().toList()));
+    }
+
+    // Filtra a tabela pela pesquisa por trecho (índice de palavras do catálogo); campo vazio volta a mostrar tudo
+    private void pesquisar() {
+        String texto = txtPesquisa.getText();
+        if (texto == null || texto.isBlank()) {
+            mostrarTodos();
+            return;
+        }
+        Eventos.AtualizacaoTabela evento = new Eventos.AtualizacaoTabela();
+        evento.iniciar();
+        List<Medicamento> meds = catalogo.pesquisar(texto, LIMITE_PESQUISA);
+        visaoMedicamentos.mostrarSomente(meds);
+        visaoFornecedores.mostrarSomente(CatalogoMedicamentos.fornecedoresDe(meds));
+        exportavel("pesquisa", emLista(v -> naVersao(v, meds)));
+        evento.motivo = "pesquisa";
+        evento.itens = meds.size();
+        evento.encerrar(Metricas.histograma("tabela.pesquisa"));
+    }
+
+    // Carga completa: a única vez em que as fontes das tabelas são preenchidas inteiras
+    private void preencherTabelas() {
+        Eventos.AtualizacaoTabela evento = new Eventos.AtualizacaoTabela();
+        evento.iniciar();
+        visaoMedicamentos.definir(catalogo.todos());
+        visaoFornecedores.definir(catalogo.fornecedores().todos());
+        evento.motivo = "carga";
+        evento.itens = visaoMedicamentos.tamanho();
+        evento.encerrar(Metricas.histograma("tabela.carga"));
     }
 
     /* ========================= AÇÕES ========================= */
@@ -97,18 +202,12 @@ public class MainController {
             Fornecedor fornecedor = montarFornecedorDosCampos();
             Medicamento med = montarMedicamentoDosCampos(fornecedor);
 
-            validarFornecedor(fornecedor);
-            validarMedicamento(med);
-
-            if (buscarPorCodigo(med.getCodigo()).isPresent())
-                throw new IllegalArgumentException("Já existe medicamento com esse código.");
-
-            cache.add(med);
-            salvarCSV();
-            salvarFornecedoresCSV();
+            servico.cadastrar(med);
+            visaoMedicamentos.adicionar(med);
+            mostrarFornecedor(med.getFornecedor());
 
             limparCampos();
-            mostrarTodos(); // mantém visão completa após salvar
+            pesquisar(); // mantém a pesquisa digitada (ou a visão completa) após salvar
             info("Sucesso", "Medicamento cadastrado.");
         } catch (IllegalArgumentException e) {
             erro("Validação", e.getMessage());
@@ -120,12 +219,10 @@ public class MainController {
     @FXML
     private void onExcluir() {
         try {
-            validarCodigo7(txtCodigo.getText());
-            boolean removed = cache.removeIf(x -> x.getCodigo().equals(txtCodigo.getText()));
-            if (removed) {
-                salvarCSV();
-                salvarFornecedoresCSV();
-                mostrarTodos(); // restaura visão completa
+            Optional<Medicamento> removido = servico.excluir(txtCodigo.getText());
+            if (removido.isPresent()) {
+                visaoMedicamentos.remover(removido.get());
+                pesquisar(); // mantém a pesquisa digitada (ou a visão completa)
                 info("Sucesso", "Medicamento excluído.");
             } else {
                 info("Aviso", "Código não encontrado.");
@@ -140,8 +237,7 @@ public class MainController {
     @FXML
     private void onBuscar() {
         try {
-            validarCodigo7(txtCodigo.getText());
-            Optional<Medicamento> med = buscarPorCodigo(txtCodigo.getText());
+            Optional<Medicamento> med = servico.buscar(txtCodigo.getText());
             if (med.isEmpty()) {
                 info("Aviso", "Medicamento não encontrado.");
                 return;
@@ -157,123 +253,354 @@ public class MainController {
 
     @FXML
     private void onListar() {
+        txtPesquisa.clear();
         mostrarTodos(); // volta a exibir tudo
     }
 
-    /* ===================== RELATÓRIOS ===================== */
+    /* ===================== ESTOQUE ===================== */
 
-    // 1) Próximos 30 dias
     @FXML
-    private void onRelProximos30() {
-        LocalDate hoje = LocalDate.now();
-        LocalDate limite = hoje.plusDays(30);
+    private void onEntrada() {
+        movimentar(Movimentacao.Tipo.ENTRADA);
+    }
+
+    @FXML
+    private void onSaida() {
+        movimentar(Movimentacao.Tipo.SAIDA);
+    }
 
-        List<Medicamento> meds = cache.stream()
-                .filter(m -> m.getDataValidade() != null)
-                .filter(m -> !m.getDataValidade().isBefore(hoje) && !m.getDataValidade().isAfter(limite))
-                .sorted(Comparator.comparing(Medicamento::getDataValidade))
-                .toList();
+    // entrada/saída do código do formulário; o catálogo devolve o item numa cópia, que toma o lugar da linha
+    private void movimentar(Movimentacao.Tipo tipo) {
+        try {
+            int qtd = parseInt(txtMovQuantidade.getText(), "Quantidade da movimentação inválida.");
+            var r = servico.movimentar(List.of(new Movimentacao(txtCodigo.getText(), tipo, qtd, txtMovDocumento.getText())));
+            if (r.motivos()[0] != null) {
+                erro("Estoque", r.motivos()[0]);
+                return;
+            }
+            visaoMedicamentos.substituir(List.of(r.saldos()[0].medicamento()));
+            txtMovQuantidade.clear();
+            txtMovDocumento.clear();
+            txtQuantidade.setText(String.valueOf(r.saldos()[0].quantidade()));
+            lblGravacao.setText((tipo == Movimentacao.Tipo.ENTRADA ? "Entrada" : "Saída") + " de " + qtd
+                    + " em " + txtCodigo.getText() + ". Saldo: " + r.saldos()[0].quantidade());
+            lblGravacao.setStyle("-fx-text-fill: gray;");
+        } catch (IllegalArgumentException e) {
+            erro("Validação", e.getMessage());
+        }
+    }
 
-        aplicarResultadoMedicamentos(meds, "Nenhum medicamento vence nos próximos 30 dias.");
+    // histórico do código (auditoria): o log de movimentações é lido fora da FX thread
+    @FXML
+    private void onMovimentacoes() {
+        String codigo = txtCodigo.getText();
+        Task<List<String>> leitura = new Task<>() {
+            @Override protected List<String> call() throws IOException {
+                return servico.movimentacoes(codigo);
+            }
+        };
+        leitura.setOnSucceeded(e -> {
+            List<String> linhas = leitura.getValue();
+            if (linhas.isEmpty()) {
+                info("Movimentações", "Nenhuma movimentação gravada para " + codigo + ".");
+                return;
+            }
+            StringBuilder sb = new StringBuilder("instante | usuário | código | nome | tipo | qtd | saldo | controlado | documento\n");
+            for (String l : linhas) sb.append(l.replace(";", " | ")).append('\n');
+            TextArea texto = new TextArea(sb.toString());
+            texto.setEditable(false);
+            texto.setStyle("-fx-font-family: monospace;");
+            texto.setPrefSize(860, 420);
+            Alert alerta = new Alert(Alert.AlertType.INFORMATION);
+            alerta.setTitle("Movimentações");
+            alerta.setHeaderText(linhas.size() + " movimentação(ões) de " + codigo);
+            alerta.getDialogPane().setContent(texto);
+            alerta.setResizable(true);
+            alerta.show();
+        });
+        leitura.setOnFailed(e -> erro("Erro", leitura.getException().getMessage()));
+        Thread t = new Thread(leitura, "leitura-movimentacoes");
+        t.setDaemon(true);
+        t.start();
     }
 
-    // 2) Estoque baixo (<5)
+    /* ===================== RELATÓRIOS ===================== */
+
+    // 1) Vencendo nos próximos N dias (sub-faixa do índice de validade, já ordenada)
+    @FXML
+    private void onRelVencimento() {
+        try {
+            int dias = parseInt(txtDiasValidade.getText(), "Quantidade de dias inválida.");
+            ValidadorMedicamento.validarQuantidadeNaoNegativa(dias);
+            LocalDate hoje = LocalDate.now();
+            relatorio("vencendo", () -> catalogo.vencendoEntre(hoje, hoje.plusDays(dias)),
+                    "Nenhum medicamento vence nos próximos " + dias + " dias.");
+            exportavel("vencendo-" + dias + "-dias", emLotes(v -> v.lotesVencendoEntre(hoje, hoje.plusDays(dias),
+                    ExportadorRelatorio.LOTE_PADRAO)));
+        } catch (IllegalArgumentException e) {
+            erro("Validação", e.getMessage());
+        }
+    }
+
+    // 1b) Já vencidos
+    @FXML
+    private void onRelVencidos() {
+        LocalDate hoje = LocalDate.now();
+        relatorio("vencidos", () -> catalogo.vencidosAntesDe(hoje), "Nenhum medicamento vencido.");
+        exportavel("vencidos", emLotes(v -> v.lotesVencidosAntesDe(hoje, ExportadorRelatorio.LOTE_PADRAO)));
+    }
+
+    // 2) Estoque baixo (< limite; fornecedores podem ter limite próprio) – sub-faixa do índice por quantidade
     @FXML
     private void onRelEstoqueBaixo() {
-        List<Medicamento> meds = cache.stream()
-                .filter(m -> m.getQuantidadeEstoque() < 5)
-                .sorted(Comparator.comparingInt(Medicamento::getQuantidadeEstoque))
-                .toList();
+        try {
+            int limite = parseInt(txtLimiteEstoque.getText(), "Limite de estoque inválido.");
+            ValidadorMedicamento.validarQuantidadeNaoNegativa(limite);
+            relatorio("estoque-baixo", () -> catalogo.estoqueBaixo(limite),
+                    "Nenhum medicamento com estoque baixo (<" + limite + ").");
+            exportavel("estoque-baixo", emLotes(v -> v.lotesEstoqueBaixo(limite, ExportadorRelatorio.LOTE_PADRAO)));
+        } catch (IllegalArgumentException e) {
+            erro("Validação", e.getMessage());
+        }
+    }
 
-        aplicarResultadoMedicamentos(meds, "Nenhum medicamento com estoque baixo (<5).");
+    // usa o CNPJ do formulário (com ou sem pontuação); limite vazio volta o fornecedor ao limite padrão
+    @FXML
+    private void onDefinirLimiteFornecedor() {
+        try {
+            String texto = txtLimiteEstoque.getText();
+            Integer limite = (texto == null || texto.isBlank()) ? null : parseInt(texto, "Limite de estoque inválido.");
+            servico.definirLimiteEstoque(txtCnpj.getText(), limite);
+            info("Sucesso", limite == null
+                    ? "Fornecedor " + txtCnpj.getText() + " voltou ao limite padrão."
+                    : "Limite de estoque do fornecedor " + txtCnpj.getText() + ": < " + limite + ".");
+        } catch (IllegalArgumentException e) {
+            erro("Validação", e.getMessage());
+        }
     }
 
-    // 3) Valor total do estoque por fornecedor (soma: preço * qtd) – mostra em diálogo e filtra tabelas
+    // 3) Valor total do estoque por fornecedor (por CNPJ) – lê as somas em centavos já mantidas pelo catálogo
     @FXML
     private void onRelValorTotalPorFornecedor() {
-        Map<String, BigDecimal> totalPorFornecedor = cache.stream()
-                .filter(m -> m.getFornecedor() != null)
-                .collect(
-                        java.util.stream.Collectors.groupingBy(
-                                m -> m.getFornecedor().getRazaoSocial(),
-                                java.util.stream.Collectors.mapping(
-                                        m -> m.getPreco()!=null ?
-                                                m.getPreco().multiply(new BigDecimal(m.getQuantidadeEstoque()))
-                                                : BigDecimal.ZERO,
-                                        java.util.stream.Collectors.reducing(BigDecimal.ZERO, BigDecimal::add)
-                                )
-                        )
-                );
-
-        if (totalPorFornecedor.isEmpty()) {
+        Eventos.Relatorio evento = new Eventos.Relatorio();
+        evento.iniciar();
+        evento.nome = "valor-por-fornecedor";
+        Map<String, Long> totalPorCnpj = catalogo.valorEstoquePorFornecedor();
+
+        if (totalPorCnpj.isEmpty()) {
             info("Relatório", "Não há dados para calcular.");
+            evento.encerrar(Metricas.histograma("relatorio.valor-por-fornecedor"));
             return;
         }
 
         StringBuilder sb = new StringBuilder("Valor total do estoque por fornecedor:\n\n");
-        totalPorFornecedor.entrySet().stream()
-                .sorted(Map.Entry.<String, BigDecimal>comparingByValue().reversed())
-                .forEach(e -> sb.append(String.format("%s: R$ %s%n",
-                        e.getKey(),
-                        e.getValue().setScale(2, java.math.RoundingMode.HALF_UP).toPlainString()
-                )));
+        List<Fornecedor> fornecedores = new ArrayList<>(totalPorCnpj.size());
+        porValor(totalPorCnpj).forEach((cnpj, centavos) -> {
+            Fornecedor f = catalogo.fornecedores().buscar(cnpj).orElse(null);
+            if (f != null) fornecedores.add(f);
+            sb.append(String.format("%s (%s): R$ %s%n",
+                    f != null ? f.getRazaoSocial() : "", cnpj, BigDecimal.valueOf(centavos, 2).toPlainString()));
+        });
         info("Relatório", sb.toString());
 
-        Set<String> fornecedoresComValor = totalPorFornecedor.keySet();
-        List<Medicamento> meds = cache.stream()
-                .filter(m -> m.getFornecedor()!=null && fornecedoresComValor.contains(m.getFornecedor().getRazaoSocial()))
-                .toList();
-        tblMedicamentos.setItems(FXCollections.observableArrayList(meds));
-        tblFornecedores.setItems(FXCollections.observableArrayList(fornecedoresUnicos(meds)));
+        List<Medicamento> meds = new ArrayList<>();
+        for (String cnpj : totalPorCnpj.keySet()) meds.addAll(catalogo.doFornecedor(cnpj));
+        visaoMedicamentos.mostrarSomente(meds);
+        visaoFornecedores.mostrarSomente(fornecedores);
+        exportavel("valor-por-fornecedor", (v, formato, destino, progresso) ->
+                ExportadorRelatorio.exportarValorPorFornecedor(porValor(v.valorEstoquePorFornecedor()),
+                        v.fornecedores(), formato, destino));
+        evento.itens = meds.size();
+        evento.encerrar(Metricas.histograma("relatorio.valor-por-fornecedor"));
     }
 
     // 4) Controlados
     @FXML
     private void onRelControlados() {
-        List<Medicamento> meds = cache.stream()
-                .filter(Medicamento::isControlado)
-                .sorted(Comparator.comparing(Medicamento::getNome, String.CASE_INSENSITIVE_ORDER))
-                .toList();
-
-        aplicarResultadoMedicamentos(meds, "Nenhum medicamento controlado.");
+        relatorio("controlados", () -> catalogo.controlados(true), "Nenhum medicamento controlado.");
+        exportavel("controlados", emLista(v -> controladosPorNome(v, true)));
     }
 
     // 5) Não controlados
     @FXML
     private void onRelNaoControlados() {
-        List<Medicamento> meds = cache.stream()
-                .filter(m -> !m.isControlado())
-                .sorted(Comparator.comparing(Medicamento::getNome, String.CASE_INSENSITIVE_ORDER))
-                .toList();
-
-        aplicarResultadoMedicamentos(meds, "Nenhum medicamento não controlado.");
+        relatorio("nao-controlados", () -> catalogo.controlados(false), "Nenhum medicamento não controlado.");
+        exportavel("nao-controlados", emLista(v -> controladosPorNome(v, false)));
     }
 
-    // aplica a lista filtrada nas duas tabelas (meds e fornecedores correspondentes)
-    private void aplicarResultadoMedicamentos(List<Medicamento> meds, String msgVazio) {
-        if (meds.isEmpty()) {
-            info("Relatório", msgVazio);
+    // 6) Relatório montado: filtros combinados, ordem, limite e grupos; o catálogo escolhe o índice por onde começar
+    @FXML
+    private void onRelConsulta() {
+        Consulta consulta;
+        try {
+            consulta = montarConsultaDosCampos();
+        } catch (IllegalArgumentException e) {
+            erro("Validação", e.getMessage());
+            return;
         }
-        tblMedicamentos.setItems(FXCollections.observableArrayList(meds));
-        tblFornecedores.setItems(FXCollections.observableArrayList(fornecedoresUnicos(meds)));
+        Eventos.Relatorio evento = new Eventos.Relatorio();
+        evento.iniciar();
+        Consulta.Resultado r = catalogo.consultar(consulta);
+        aplicarResultadoMedicamentos(r.medicamentos(), "Nenhum medicamento atende aos filtros.");
+        Metricas.contador("consulta.acesso." + r.acesso().name().toLowerCase(Locale.ROOT)).increment();
+        lblConsPlano.setText(String.format("%s: %d examinado(s), %d no resultado",
+                descricaoAcesso(r.acesso()), r.examinados(), r.medicamentos().size()));
+        if (!r.grupos().isEmpty()) mostrarGrupos(GRUPOS[cbConsGrupo.getSelectionModel().getSelectedIndex()], r.grupos());
+        exportavel("consulta", emLista(v -> v.consultar(consulta).medicamentos()));
+        evento.nome = "consulta";
+        evento.itens = r.medicamentos().size();
+        evento.encerrar(Metricas.histograma("relatorio.consulta"));
+    }
+
+    private void mostrarGrupos(Consulta.Agrupamento agrupamento, List<Consulta.Grupo> grupos) {
+        StringBuilder sb = new StringBuilder("grupo | itens | unidades | valor em estoque\n");
+        for (Consulta.Grupo g : grupos) {
+            String chave = g.chave().isEmpty() ? "(sem)" : g.chave();
+            if (agrupamento == Consulta.Agrupamento.FORNECEDOR && !g.chave().isEmpty()) {
+                chave += catalogo.fornecedores().buscar(g.chave()).map(f -> " " + f.getRazaoSocial()).orElse("");
+            }
+            sb.append(String.format("%s | %d | %d | R$ %s%n", chave, g.itens(), g.quantidade(),
+                    BigDecimal.valueOf(g.valorCentavos(), 2).toPlainString()));
+        }
+        TextArea texto = new TextArea(sb.toString());
+        texto.setEditable(false);
+        texto.setStyle("-fx-font-family: monospace;");
+        texto.setPrefSize(640, 360);
+        Alert alerta = new Alert(Alert.AlertType.INFORMATION);
+        alerta.setTitle("Relatório");
+        alerta.setHeaderText(grupos.size() + " grupo(s); os itens estão filtrados nas tabelas");
+        alerta.getDialogPane().setContent(texto);
+        alerta.setResizable(true);
+        alerta.show();
+    }
+
+    private static String descricaoAcesso(Consulta.Acesso acesso) {
+        return switch (acesso) {
+            case VARREDURA -> "Varredura completa";
+            case VALIDADE -> "Índice de validade";
+            case QUANTIDADE -> "Índice de quantidade";
+            case FORNECEDOR -> "Índice por CNPJ";
+            case ESTADO -> "Fornecedores do estado";
+            case CONTROLADOS -> "Conjunto de controlados";
+        };
+    }
+
+    /* ===================== EXPORTAÇÃO ===================== */
+
+    // exporta o relatório mostrado (refeito sobre o estado atual do catálogo) em segundo plano, com progresso
+    @FXML
+    private void onExportar() {
+        if (exportacao != null) {
+            info("Exportação", "Já há uma exportação em andamento.");
+            return;
+        }
+        FileChooser escolha = new FileChooser();
+        escolha.setTitle("Exportar relatório");
+        escolha.setInitialFileName(nomeExportacao + ".csv");
+        FileChooser.ExtensionFilter jsonl = new FileChooser.ExtensionFilter("JSON Lines (*.jsonl)", "*.jsonl");
+        escolha.getExtensionFilters().addAll(new FileChooser.ExtensionFilter("CSV (*.csv)", "*.csv"), jsonl);
+        File arquivo = escolha.showSaveDialog(tblMedicamentos.getScene().getWindow());
+        if (arquivo == null) return;
+
+        Path destino = arquivo.toPath();
+        ExportadorRelatorio.Formato formato = escolha.getSelectedExtensionFilter() == jsonl
+                ? ExportadorRelatorio.Formato.JSONL : ExportadorRelatorio.Formato.doArquivo(destino);
+        Exportacao relatorio = exportacaoAtual;
+        Versao origem = catalogo.versao(); // o arquivo sai com o estado deste clique, mesmo que a tela continue alterando
+        exportacao = new Task<>() {
+            @Override protected ExportadorRelatorio.Resultado call() throws IOException {
+                return relatorio.gravar(origem, formato, destino, (escritas, estimativa) -> {
+                    updateProgress(escritas, Math.max(escritas, estimativa));
+                    updateMessage(String.format("Exportando %s: %,d linha(s)", destino.getFileName(), escritas));
+                    return !isCancelled();
+                });
+            }
+        };
+        barExportacao.progressProperty().bind(exportacao.progressProperty());
+        lblExportacao.textProperty().bind(exportacao.messageProperty());
+        boxExportacao.setVisible(true);
+        boxExportacao.setManaged(true);
+
+        exportacao.setOnSucceeded(e -> {
+            ExportadorRelatorio.Resultado r = exportacao.getValue();
+            fimDaExportacao(String.format("Exportado: %,d linha(s) em %s (%d ms)",
+                    r.linhas(), r.arquivo(), r.nanos() / 1_000_000), false);
+        });
+        exportacao.setOnCancelled(e -> fimDaExportacao("Exportação cancelada; nenhum arquivo foi gravado.", false));
+        exportacao.setOnFailed(e -> fimDaExportacao("Falha na exportação: " + exportacao.getException().getMessage(), true));
+
+        Thread t = new Thread(exportacao, "exportacao");
+        t.setDaemon(true);
+        t.start();
     }
 
-    /* =================== Cache & utilitários =================== */
+    @FXML
+    private void onCancelarExportacao() {
+        if (exportacao != null) exportacao.cancel();
+    }
 
-    private Optional<Medicamento> buscarPorCodigo(String codigo) {
-        return cache.stream().filter(m -> m.getCodigo().equals(codigo)).findFirst();
+    private void fimDaExportacao(String texto, boolean falha) {
+        barExportacao.progressProperty().unbind();
+        lblExportacao.textProperty().unbind();
+        boxExportacao.setVisible(false);
+        boxExportacao.setManaged(false);
+        exportacao = null;
+        lblGravacao.setText(texto);
+        lblGravacao.setStyle(falha ? "-fx-text-fill: red;" : "-fx-text-fill: gray;");
     }
 
-    // dedup por CNPJ; usa a lista passada (permite filtrar)
-    private List<Fornecedor> fornecedoresUnicos(List<Medicamento> meds) {
-        LinkedHashMap<String, Fornecedor> map = new LinkedHashMap<>();
-        for (Medicamento m : meds) {
-            Fornecedor f = m.getFornecedor();
-            if (f != null && f.getCnpj()!=null && !f.getCnpj().isBlank()) {
-                map.putIfAbsent(f.getCnpj(), f);
-            }
+    private void exportavel(String nome, Exportacao e) {
+        nomeExportacao = nome;
+        exportacaoAtual = e;
+    }
+
+    private static Exportacao emLotes(Function<Versao, CatalogoMedicamentos.Lotes> lotes) {
+        return (v, formato, destino, progresso) -> ExportadorRelatorio.exportar(lotes.apply(v), formato, destino, progresso);
+    }
+
+    // relatório montado inteiro na thread da exportação (varre a versão) e gravado em fatias
+    private static Exportacao emLista(Function<Versao, List<Medicamento>> relatorio) {
+        return emLotes(v -> CatalogoMedicamentos.Lotes.de(relatorio.apply(v), ExportadorRelatorio.LOTE_PADRAO));
+    }
+
+    // os itens de um resultado já mostrado como estão na versão (quantidade e preço podem ter mudado desde então)
+    private static List<Medicamento> naVersao(Versao v, List<Medicamento> meds) {
+        List<Medicamento> atuais = new ArrayList<>(meds.size());
+        for (Medicamento m : meds) v.buscar(m.getCodigo()).ifPresent(atuais::add);
+        return atuais;
+    }
+
+    private static List<Medicamento> controladosPorNome(Versao v, boolean controlado) {
+        return v.consultar(new Consulta().controlado(controlado).ordenarPor(Consulta.Ordem.NOME, false)).medicamentos();
+    }
+
+    // CNPJ -> centavos do maior para o menor valor, como no diálogo do relatório
+    private static Map<String, Long> porValor(Map<String, Long> totalPorCnpj) {
+        Map<String, Long> ordenado = new LinkedHashMap<>();
+        totalPorCnpj.entrySet().stream()
+                .sorted(Map.Entry.<String, Long>comparingByValue().reversed())
+                .forEach(e -> ordenado.put(e.getKey(), e.getValue()));
+        return ordenado;
+    }
+
+    // consulta + atualização das tabelas, medidas juntas (histograma "relatorio.<nome>" e evento JFR)
+    private void relatorio(String nome, Supplier<List<Medicamento>> consulta, String msgVazio) {
+        Eventos.Relatorio evento = new Eventos.Relatorio();
+        evento.iniciar();
+        List<Medicamento> meds = consulta.get();
+        aplicarResultadoMedicamentos(meds, msgVazio);
+        evento.nome = nome;
+        evento.itens = meds.size();
+        evento.encerrar(Metricas.histograma("relatorio." + nome));
+    }
+
+    // aplica a lista filtrada nas duas tabelas (meds e fornecedores correspondentes)
+    private void aplicarResultadoMedicamentos(List<Medicamento> meds, String msgVazio) {
+        if (meds.isEmpty()) {
+            info("Relatório", msgVazio);
         }
-        return new ArrayList<>(map.values());
+        visaoMedicamentos.mostrarSomente(meds);
+        visaoFornecedores.mostrarSomente(CatalogoMedicamentos.fornecedoresDe(meds));
     }
 
     /* ================= Montagem e Validação ================= */
@@ -294,50 +621,41 @@ public class MainController {
         );
     }
 
-    private void validarMedicamento(Medicamento m) {
-        validarCodigo7(m.getCodigo());
-        validarNaoVazioMin(m.getNome(), 2, "Nome inválido (mín. 2).");
-        validarValidadeFutura(m.getDataValidade());
-        validarQuantidadeNaoNegativa(m.getQuantidadeEstoque());
-        validarPrecoPositivo(m.getPreco());
-        if (m.getFornecedor()==null) throw new IllegalArgumentException("Fornecedor é obrigatório.");
-    }
-    private void validarFornecedor(Fornecedor f) {
-        validarCnpj(f.getCnpj());
-        validarNaoVazioMin(f.getRazaoSocial(), 2, "Razão social inválida (mín. 2).");
+    // campo vazio = filtro não usado; "vence em até N dias" vai de hoje a hoje + N
+    private Consulta montarConsultaDosCampos() {
+        Consulta c = new Consulta();
+        int controlado = cbConsControlado.getSelectionModel().getSelectedIndex();
+        c.controlado(controlado == 1 ? Boolean.TRUE : controlado == 2 ? Boolean.FALSE : null);
+        Integer dias = inteiroOpcional(txtConsDias, "Quantidade de dias inválida.");
+        if (dias != null) {
+            ValidadorMedicamento.validarQuantidadeNaoNegativa(dias);
+            LocalDate hoje = LocalDate.now();
+            c.validadeEntre(hoje, hoje.plusDays(dias));
+        }
+        c.quantidadeEntre(inteiroOpcional(txtConsQtdMin, "Quantidade mínima inválida."),
+                inteiroOpcional(txtConsQtdMax, "Quantidade máxima inválida."));
+        c.precoEntre(precoOpcional(txtConsPrecoMin, "Preço mínimo inválido."),
+                precoOpcional(txtConsPrecoMax, "Preço máximo inválido."));
+        c.fornecedores(itens(txtConsCnpjs));
+        c.estados(itens(txtConsEstados));
+        c.ordenarPor(ORDENS[Math.max(0, cbConsOrdem.getSelectionModel().getSelectedIndex())],
+                chkConsDecrescente.isSelected());
+        c.agruparPor(GRUPOS[Math.max(0, cbConsGrupo.getSelectionModel().getSelectedIndex())]);
+        Integer limite = inteiroOpcional(txtConsLimite, "Limite inválido.");
+        if (limite != null) c.limite(limite);
+        return c;
     }
 
-    private void validarCodigo7(String codigo) {
-        if (codigo==null || !codigo.matches("^[A-Za-z0-9]{7}$"))
-            throw new IllegalArgumentException("Código inválido (7 caracteres alfanuméricos).");
+    private Integer inteiroOpcional(TextField t, String msgErro) {
+        return t.getText() == null || t.getText().isBlank() ? null : parseInt(t.getText(), msgErro);
     }
-    private void validarNaoVazioMin(String s, int min, String msg) {
-        if (s==null || s.trim().length()<min) throw new IllegalArgumentException(msg);
+    private BigDecimal precoOpcional(TextField t, String msgErro) {
+        return t.getText() == null || t.getText().isBlank() ? null : parsePreco(t.getText(), msgErro);
     }
-    private void validarValidadeFutura(LocalDate data) {
-        if (data==null || data.isBefore(LocalDate.now()))
-            throw new IllegalArgumentException("Data de validade no passado.");
-    }
-    private void validarQuantidadeNaoNegativa(int qtd) {
-        if (qtd<0) throw new IllegalArgumentException("Quantidade não pode ser negativa.");
-    }
-    private void validarPrecoPositivo(BigDecimal preco) {
-        if (preco==null || preco.signum()<=0)
-            throw new IllegalArgumentException("Preço deve ser positivo.");
-    }
-    private void validarCnpj(String cnpj) {
-        if (cnpj==null) throw new IllegalArgumentException("CNPJ inválido.");
-        String n = cnpj.replaceAll("\\D","");
-        if (!n.matches("\\d{14}")) throw new IllegalArgumentException("CNPJ precisa ter 14 dígitos.");
-        if (n.chars().distinct().count()==1) throw new IllegalArgumentException("CNPJ inválido.");
-        int dv1 = dv(n.substring(0,12), new int[]{5,4,3,2,9,8,7,6,5,4,3,2});
-        int dv2 = dv(n.substring(0,12)+dv1, new int[]{6,5,4,3,2,9,8,7,6,5,4,3,2});
-        if (n.charAt(12)-'0'!=dv1 || n.charAt(13)-'0'!=dv2)
-            throw new IllegalArgumentException("CNPJ com dígitos verificadores inválidos.");
-    }
-    private int dv(String base, int[] pesos){
-        int s=0; for(int i=0;i<pesos.length;i++) s+=(base.charAt(i)-'0')*pesos[i];
-        int r=s%11; return (r<2)?0:11-r;
+    // valores separados por vírgula, ponto e vírgula ou espaço
+    private static List<String> itens(TextField t) {
+        if (t.getText() == null || t.getText().isBlank()) return List.of();
+        return Arrays.stream(t.getText().trim().split("[,;\\s]+")).filter(s -> !s.isEmpty()).toList();
     }
 
     private int parseInt(String s, String msgErro) {
@@ -379,87 +697,168 @@ public class MainController {
 
     /* ========================= CSV ========================= */
 
+    // carrega fora da FX thread; a janela já aparece com a barra de progresso
     private void carregarCSV() {
-        try {
-            Files.createDirectories(arquivoCSV.getParent());
-            if (Files.notExists(arquivoCSV)) {
-                Files.writeString(arquivoCSV, HEADER_MED + System.lineSeparator());
+        Task<CatalogoMedicamentos> carga = new Task<>() {
+            @Override protected CatalogoMedicamentos call() throws IOException {
+                return servico.carregar(p -> updateProgress(p, 1.0));
             }
-            cache.clear();
-            List<String> linhas = Files.readAllLines(arquivoCSV, StandardCharsets.UTF_8);
-            for (int i=1;i<linhas.size();i++) {
-                String linha = linhas.get(i);
-                if (linha.isBlank()) continue;
-                String[] t = linha.split(";", -1);
-                Fornecedor f = new Fornecedor(t[8], t[9], t[10], t[11], t[12], t[13]);
-                Medicamento m = new Medicamento(
-                        t[0], t[1], t[2], t[3],
-                        LocalDate.parse(t[4]),
-                        Integer.parseInt(t[5]),
-                        new BigDecimal(t[6]),
-                        Boolean.parseBoolean(t[7]),
-                        f
-                );
-                cache.add(m);
+        };
+        barCarga.progressProperty().bind(carga.progressProperty());
+        boxAcoes.setDisable(true);
+        paneRelatorios.setDisable(true);
+
+        carga.setOnSucceeded(e -> {
+            catalogo = carga.getValue();
+            fimDaCarga();
+            preencherTabelas();
+            Inicio.noProximoQuadro(tblMedicamentos.getScene(), Inicio.TABELA);
+            // a carga deixou os índices de pesquisa e relatórios para depois: monta agora, com a tabela já na tela
+            Thread indices = new Thread(catalogo::montarIndices, "indices-catalogo");
+            indices.setDaemon(true);
+            indices.start();
+            int rejeitadas = servico.rejeitadasNaCarga().size();
+            if (rejeitadas > 0) {
+                lblGravacao.setText(rejeitadas + " linha(s) inválida(s) dos CSVs do catálogo ficaram fora da carga (motivos em "
+                        + servico.arquivoQuarentena() + ").");
+                lblGravacao.setStyle("-fx-text-fill: red;");
             }
-        } catch (IOException e) {
-            erro("Erro ao carregar CSV", e.getMessage());
-        }
+            servico.compactarSeNecessario(); // migra arquivos no formato antigo
+            try {
+                servico.acompanharAlteracoesExternas();
+            } catch (IOException ex) {
+                erro("Erro", "Alterações de outras estações não serão acompanhadas: " + ex.getMessage());
+            }
+            iniciarApiConsultas();
+        });
+        carga.setOnFailed(e -> {
+            fimDaCarga();
+            erro("Erro ao carregar CSV", carga.getException().getMessage());
+        });
+
+        Thread t = new Thread(carga, "carga-csv");
+        t.setDaemon(true);
+        t.start();
     }
 
-    private void salvarCSV() {
-        try (BufferedWriter bw = Files.newBufferedWriter(
-                arquivoCSV, StandardCharsets.UTF_8,
-                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.CREATE)
-        ) {
-            bw.write(HEADER_MED); bw.newLine();
-
-            // salva ordenado por nome, depois código (opcional, deixa organizado)
-            List<Medicamento> sorted = new ArrayList<>(cache);
-            sorted.sort(Comparator
-                    .comparing(Medicamento::getNome, String.CASE_INSENSITIVE_ORDER)
-                    .thenComparing(Medicamento::getCodigo, String.CASE_INSENSITIVE_ORDER));
-
-            for (Medicamento m : sorted) {
-                var f = m.getFornecedor();
-                bw.write(String.join(";",
-                        nz(m.getCodigo()), nz(m.getNome()), nz(m.getDescricao()), nz(m.getPrincipioAtivo()),
-                        m.getDataValidade()!=null ? m.getDataValidade().toString() : "",
-                        Integer.toString(m.getQuantidadeEstoque()),
-                        m.getPreco()!=null ? m.getPreco().setScale(2, java.math.RoundingMode.HALF_UP).toPlainString() : "",
-                        Boolean.toString(m.isControlado()),
-                        nz(f!=null?f.getCnpj():""), nz(f!=null?f.getRazaoSocial():""),
-                        nz(f!=null?f.getTelefone():""), nz(f!=null?f.getEmail():""),
-                        nz(f!=null?f.getCidade():""), nz(f!=null?f.getEstado():"")
-                ));
-                bw.newLine();
+    private void fimDaCarga() {
+        barCarga.progressProperty().unbind();
+        boxCarga.setVisible(false);
+        boxCarga.setManaged(false);
+        boxAcoes.setDisable(false);
+        paneRelatorios.setDisable(false);
+    }
+
+    // API HTTP de consultas (caixas, impressoras de etiqueta) sobre o mesmo catálogo, se configurada
+    private void iniciarApiConsultas() {
+        try {
+            servidorConsultas = ServidorConsultas.iniciarSeConfigurado(servico::catalogo).orElse(null);
+            if (servidorConsultas != null) {
+                var e = servidorConsultas.endereco();
+                lblGravacao.setText("API de consultas em http://" + e.getHostString() + ":" + e.getPort() + "/api/");
             }
-        } catch (IOException e) {
-            erro("Erro ao salvar medicamentos.csv", e.getMessage());
+        } catch (IOException | RuntimeException ex) {
+            erro("Erro", "API de consultas não iniciada: " + ex.getMessage());
         }
     }
 
-    private void salvarFornecedoresCSV() {
-        try (BufferedWriter bw = Files.newBufferedWriter(
-                arquivoFornecedoresCSV, StandardCharsets.UTF_8,
-                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.CREATE)
-        ) {
-            bw.write(HEADER_FORN); bw.newLine();
+    // grava o que ainda estiver na fila antes de a aplicação fechar (chamado por Main.stop)
+    public void encerrar() throws IOException {
+        vigiaFx.close();
+        if (servidorConsultas != null) servidorConsultas.close();
+        servico.close();
+    }
+
+    /* ===================== OUTRAS ESTAÇÕES ===================== */
 
-            List<Fornecedor> fornecedores = fornecedoresUnicos(cache);
-            fornecedores.sort(Comparator.comparing(Fornecedor::getRazaoSocial, String.CASE_INSENSITIVE_ORDER));
+    // o catálogo já foi atualizado pela thread de gravação; aqui só as fontes das tabelas acompanham
+    private void aplicarAlteracoesExternas(List<Medicamento> incluidos, List<Medicamento> removidos) {
+        Eventos.AtualizacaoTabela evento = new Eventos.AtualizacaoTabela();
+        evento.iniciar();
+        visaoMedicamentos.removerTodos(removidos); // por código: a linha pode ser de uma cópia mais antiga
+        visaoMedicamentos.adicionarTodos(incluidos);
 
-            for (Fornecedor f : fornecedores) {
-                bw.write(String.join(";",
-                        nz(f.getCnpj()), nz(f.getRazaoSocial()), nz(f.getTelefone()),
-                        nz(f.getEmail()), nz(f.getCidade()), nz(f.getEstado())
-                ));
-                bw.newLine();
-            }
-        } catch (IOException e) {
-            erro("Erro ao salvar fornecedores.csv", e.getMessage());
+        for (Medicamento m : incluidos) mostrarFornecedor(m.getFornecedor());
+        evento.motivo = "outras estações";
+        evento.itens = incluidos.size() + removidos.size();
+        evento.encerrar(Metricas.histograma("tabela.outras-estacoes"));
+        repetirPesquisa();
+    }
+
+    // refaz a pesquisa digitada (sem ela, mantém o relatório que estiver na tela)
+    private void repetirPesquisa() {
+        if (txtPesquisa.getText() != null && !txtPesquisa.getText().isBlank()) pesquisar();
+    }
+
+    /* ===================== DIAGNÓSTICO ===================== */
+
+    // contadores, medidores e histogramas do processo (os mesmos pontos geram eventos JFR)
+    @FXML
+    private void onDiagnostico() {
+        TextArea texto = new TextArea(Metricas.relatorio());
+        texto.setEditable(false);
+        texto.setStyle("-fx-font-family: monospace;");
+        texto.setPrefSize(760, 420);
+        Alert alerta = new Alert(Alert.AlertType.INFORMATION);
+        alerta.setTitle("Diagnóstico");
+        alerta.setHeaderText("Métricas desde o início do programa");
+        alerta.getDialogPane().setContent(texto);
+        alerta.setResizable(true);
+        alerta.show();
+    }
+
+    /* ===================== STATUS DA GRAVAÇÃO ===================== */
+
+    // fornecedor registrado de um item incluído: linha nova, ou, se o contato mudou, a instância nova no lugar da
+    // antiga e os itens dele trocados pelas cópias que o catálogo pôs no lugar (ver registrarFornecedor)
+    private void mostrarFornecedor(Fornecedor f) {
+        if (f == null || f.getCnpj() == null || f.getCnpj().isBlank()) return;
+        if (!visaoFornecedores.contem(f)) {
+            visaoFornecedores.adicionar(f);
+        } else if (visaoFornecedores.substituir(List.of(f)) > 0) {
+            visaoMedicamentos.substituir(catalogo.consultar(new Consulta().fornecedores(List.of(f.getCnpj())))
+                    .medicamentos());
         }
     }
 
-    private String nz(String s){ return (s==null) ? "" : s; }
+    // chamado na thread de gravação: só repassa para a FX thread, sem Alert bloqueante
+    private class OuvinteGravacao implements GravadorAssincrono.Ouvinte {
+        @Override public void gravado(int registros, long nanos) {
+            status(String.format("Gravado: %d registro(s) em %.1f ms", registros, nanos / 1e6), false);
+        }
+        @Override public void compactado(long nanos) {
+            status(String.format("medicamentos.csv reescrito em %d ms", nanos / 1_000_000), false);
+        }
+        @Override public void falhou(String operacao, Throwable erro) {
+            status("Falha ao " + operacao + ": " + erro.getMessage() + " (nova tentativa automática)", true);
+        }
+        @Override public void alterado(List<Medicamento> incluidos, List<Medicamento> removidos) {
+            Platform.runLater(() -> aplicarAlteracoesExternas(incluidos, removidos));
+        }
+        @Override public void estoqueAlterado(List<Medicamento> movimentados) {
+            Platform.runLater(() -> visaoMedicamentos.substituir(movimentados));
+        }
+        @Override public void recarregado(CatalogoMedicamentos novo) {
+            Platform.runLater(() -> {
+                catalogo = novo;
+                preencherTabelas();
+                pesquisar(); // os filtros de relatório apontavam para as instâncias antigas
+            });
+        }
+        @Override public void conflito(RepositorioCSV.Registro descartado) {
+            if (descartado.movimentacao()) {
+                status("Movimentação descartada: o estoque do medicamento " + descartado.codigo()
+                        + " foi alterado por outra estação antes (saldo insuficiente ou item trocado).", true);
+                return;
+            }
+            status("Conflito: o medicamento " + descartado.codigo()
+                    + " foi alterado por outra estação antes; a alteração desta estação foi descartada.", true);
+        }
+        private void status(String texto, boolean falha) {
+            Platform.runLater(() -> {
+                lblGravacao.setText(texto);
+                lblGravacao.setStyle(falha ? "-fx-text-fill: red;" : "-fx-text-fill: gray;");
+            });
+        }
+    }
 }
@@ -0,0 +1,54 @@
+package org.provapoo3.controller;
+
+import javafx.application.Platform;
+import org.provapoo3.diagnostico.Eventos;
+import org.provapoo3.diagnostico.Metricas;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Mede quanto a FX thread demora a atender: a cada {@link #INTERVALO_MS} ms pede uma tarefa vazia com
+ * {@code Platform.runLater} e registra a espera no histograma {@code fx.espera}. Esperas acima de
+ * {@link #LIMITE_MS} ms (E/S, ordenação ou layout pesado na FX thread) viram um evento {@link Eventos.BloqueioFx}.
+ * Só uma sonda fica pendente por vez, então uma FX thread travada não acumula tarefas.
+ */
+final class VigiaFxThread implements AutoCloseable {
+
+    static final long INTERVALO_MS = 100;
+    static final long LIMITE_MS = 50;
+
+    private final ScheduledExecutorService agendador = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "vigia-fx");
+        t.setDaemon(true);
+        return t;
+    });
+    private final AtomicBoolean sondaPendente = new AtomicBoolean();
+
+    void iniciar() {
+        agendador.scheduleWithFixedDelay(this::sondar, INTERVALO_MS, INTERVALO_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private void sondar() {
+        if (!sondaPendente.compareAndSet(false, true)) return; // a anterior ainda espera: a espera dela conta
+        long pedido = System.nanoTime();
+        Platform.runLater(() -> {
+            long espera = System.nanoTime() - pedido;
+            sondaPendente.set(false);
+            Metricas.histograma("fx.espera").registrar(espera);
+            if (espera >= TimeUnit.MILLISECONDS.toNanos(LIMITE_MS)) {
+                Metricas.contador("fx.bloqueios").increment();
+                Eventos.BloqueioFx e = new Eventos.BloqueioFx();
+                e.espera = espera;
+                e.commit();
+            }
+        });
+    }
+
+    @Override
+    public void close() {
+        agendador.shutdownNow();
+    }
+}
@@ -0,0 +1,151 @@
+package org.provapoo3.controller;
+
+import javafx.beans.binding.Bindings;
+import javafx.beans.property.ObjectProperty;
+import javafx.beans.property.ReadOnlyObjectWrapper;
+import javafx.beans.property.SimpleObjectProperty;
+import javafx.beans.value.ObservableValue;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import javafx.collections.transformation.FilteredList;
+import javafx.collections.transformation.SortedList;
+import javafx.scene.control.TableColumn;
+import javafx.scene.control.TableView;
+import javafx.util.Callback;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Modelo de uma {@link TableView} sobre uma única fonte observável, criada uma vez e mantida pelas mutações.
+ * <p>
+ * Inclusões/exclusões viram eventos de mudança pontuais na fonte; trocar de relatório só troca o
+ * predicado do {@link FilteredList} e a ordem do relatório no {@link SortedList}, sem copiar a lista.
+ * A ordenação pelo cabeçalho da coluna, quando existe, tem precedência sobre a ordem do relatório.
+ * <p>
+ * As mutações passam pelos métodos daqui, que mantêm a posição de cada chave (o código, o CNPJ) na fonte: trocar
+ * um item pela sua cópia e achar o item de uma exclusão não varrem a lista.
+ */
+class VisaoTabela<T> {
+
+    private final ObservableList<T> fonte = FXCollections.observableArrayList();
+    private final FilteredList<T> filtrada = new FilteredList<>(fonte);
+    private final ObjectProperty<Comparator<T>> ordemRelatorio = new SimpleObjectProperty<>();
+    private final Function<T, ?> chave;
+    // chave -> posição na fonte; null depois de uma exclusão no meio (as seguintes andam), refeito quando preciso
+    private Map<Object, Integer> posicoes = new HashMap<>();
+
+    VisaoTabela(TableView<T> tabela, Function<T, ?> chave) {
+        this.chave = chave;
+        SortedList<T> ordenada = new SortedList<>(filtrada);
+        ordenada.comparatorProperty().bind(Bindings.createObjectBinding(
+                () -> tabela.getComparator() != null ? tabela.getComparator() : ordemRelatorio.get(),
+                tabela.comparatorProperty(), ordemRelatorio));
+        // quem ordena é o SortedList (ligado ao comparador da tabela acima)
+        tabela.setSortPolicy(t -> true);
+        tabela.setItems(ordenada);
+    }
+
+    /* ===================== FONTE ===================== */
+    // a tabela acompanha as mutações pelos eventos de mudança da fonte
+
+    List<T> itens() {
+        return Collections.unmodifiableList(fonte);
+    }
+
+    int tamanho() {
+        return fonte.size();
+    }
+
+    void definir(Collection<? extends T> itens) {
+        fonte.setAll(itens);
+        posicoes = null;
+    }
+
+    void adicionar(T t) {
+        if (posicoes != null) posicoes.put(chave.apply(t), fonte.size());
+        fonte.add(t);
+    }
+
+    void adicionarTodos(Collection<? extends T> itens) {
+        int i = fonte.size();
+        if (posicoes != null) for (T t : itens) posicoes.put(chave.apply(t), i++);
+        fonte.addAll(itens);
+    }
+
+    boolean contem(T t) {
+        return posicoes().containsKey(chave.apply(t));
+    }
+
+    // pela chave: a linha pode ser de uma cópia mais antiga do item
+    boolean remover(T t) {
+        Integer i = posicoes().remove(chave.apply(t));
+        if (i == null) return false;
+        fonte.remove((int) i);
+        if (i < fonte.size()) posicoes = null;
+        return true;
+    }
+
+    // as linhas que saem são achadas pelo mapa e tiradas num evento só
+    void removerTodos(Collection<? extends T> itens) {
+        Map<Object, Integer> pos = posicoes();
+        Set<T> saem = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (T t : itens) {
+            Integer i = pos.get(chave.apply(t));
+            if (i != null) saem.add(fonte.get(i));
+        }
+        if (saem.isEmpty()) return;
+        fonte.removeAll(saem);
+        posicoes = null;
+    }
+
+    private Map<Object, Integer> posicoes() {
+        if (posicoes == null) {
+            posicoes = new HashMap<>(fonte.size() * 2);
+            for (int i = 0; i < fonte.size(); i++) posicoes.put(chave.apply(fonte.get(i)), i);
+        }
+        return posicoes;
+    }
+
+    void mostrarTudo() {
+        ordemRelatorio.set(null);
+        if (filtrada.getPredicate() != null) filtrada.setPredicate(null);
+    }
+
+    // troca na fonte o item de mesma chave de cada um dos novos pela nova instância, na posição guardada
+    // (ex.: a cópia com outra quantidade que o catálogo devolve numa movimentação); devolve quantos trocou
+    int substituir(Collection<? extends T> novos) {
+        Map<Object, Integer> pos = posicoes();
+        int trocados = 0;
+        for (T novo : novos) {
+            Integer i = pos.get(chave.apply(novo));
+            if (i != null && fonte.get(i) != novo) {
+                fonte.set(i, novo);
+                trocados++;
+            }
+        }
+        return trocados;
+    }
+
+    // só os itens do resultado, na ordem em que vieram (a ordem do índice usado pelo relatório); por equals,
+    // para a linha continuar no relatório quando o item é trocado por uma cópia (substituir)
+    void mostrarSomente(List<? extends T> resultado) {
+        Map<T, Integer> posicao = new HashMap<>(resultado.size() * 2);
+        for (T t : resultado) posicao.putIfAbsent(t, posicao.size());
+        filtrada.setPredicate(posicao::containsKey);
+        // itens fora do resultado (ex.: incluídos depois) vão para o fim em vez de quebrar a ordenação
+        ordemRelatorio.set(Comparator.comparingInt(t -> posicao.getOrDefault(t, Integer.MAX_VALUE)));
+    }
+
+    // valor de célula lido pelo getter, sem a reflexão do PropertyValueFactory
+    static <S, V> Callback<TableColumn.CellDataFeatures<S, V>, ObservableValue<V>> valor(Function<S, V> getter) {
+        return c -> new ReadOnlyObjectWrapper<>(getter.apply(c.getValue()));
+    }
+}
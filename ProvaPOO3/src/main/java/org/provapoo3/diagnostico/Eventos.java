@@ -0,0 +1,101 @@
+package org.provapoo3.diagnostico;
+
+import jdk.jfr.*;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Eventos do JDK Flight Recorder dos caminhos quentes. Sem gravação ativa, custam só a checagem do
+ * {@code shouldCommit}; com {@code -XX:StartFlightRecording=filename=provapoo3.jfr} (ou {@code jcmd <pid> JFR.start})
+ * aparecem na categoria "ProvaPOO3" do JDK Mission Control, ao lado das pausas de GC e da E/S do próprio JDK.
+ * <p>
+ * Cada evento medido também alimenta um histograma de {@link Metricas}, gravando ou não.
+ */
+public final class Eventos {
+
+    private Eventos() {}
+
+    // duração medida uma vez só, para o evento e para o histograma
+    public abstract static class Medido extends Event {
+        private transient long inicio;
+
+        public void iniciar() {
+            inicio = System.nanoTime();
+            begin();
+        }
+
+        public long encerrar(Metricas.Histograma histograma) {
+            long nanos = System.nanoTime() - inicio;
+            histograma.registrar(nanos);
+            end();
+            if (shouldCommit()) commit();
+            return nanos;
+        }
+    }
+
+    @Name("org.provapoo3.Carga")
+    @Label("Carga do catálogo")
+    @Category("ProvaPOO3")
+    public static final class Carga extends Medido {
+        @Label("Origem") public String origem;
+        @Label("Medicamentos") public int medicamentos;
+        @Label("Bytes lidos") @DataAmount public long bytes;
+    }
+
+    @Name("org.provapoo3.Gravacao")
+    @Label("Gravação em disco")
+    @Category("ProvaPOO3")
+    public static final class Gravacao extends Medido {
+        @Label("Operação") public String operacao;
+        @Label("Registros") public int registros;
+        @Label("Bytes escritos") @DataAmount public long bytes;
+    }
+
+    @Name("org.provapoo3.Relatorio")
+    @Label("Relatório")
+    @Category("ProvaPOO3")
+    public static final class Relatorio extends Medido {
+        @Label("Nome") public String nome;
+        @Label("Itens") public int itens;
+    }
+
+    @Name("org.provapoo3.AtualizacaoTabela")
+    @Label("Atualização das tabelas")
+    @Category("ProvaPOO3")
+    public static final class AtualizacaoTabela extends Medido {
+        @Label("Motivo") public String motivo;
+        @Label("Itens") public int itens;
+    }
+
+    @Name("org.provapoo3.BloqueioFx")
+    @Label("FX thread bloqueada")
+    @Description("Tempo entre pedir uma tarefa à FX thread e ela rodar, quando passa do limite do vigia")
+    @Category("ProvaPOO3")
+    public static final class BloqueioFx extends Event {
+        @Label("Espera") @Timespan public long espera;
+    }
+
+    @Name("org.provapoo3.Catalogo")
+    @Label("Tamanho do catálogo")
+    @Category("ProvaPOO3")
+    @Period("5 s")
+    public static final class Catalogo extends Event {
+        @Label("Medicamentos") public long medicamentos;
+        @Label("Fornecedores") public long fornecedores;
+        @Label("Registros na fila de gravação") public long pendentes;
+    }
+
+    private static final AtomicBoolean PERIODICOS = new AtomicBoolean();
+
+    // o evento periódico lê os mesmos medidores do painel; registrado uma vez por processo
+    public static void registrarPeriodicos() {
+        if (!PERIODICOS.compareAndSet(false, true)) return;
+        FlightRecorder.addPeriodicEvent(Catalogo.class, () -> {
+            Catalogo e = new Catalogo();
+            e.medicamentos = Metricas.valor(Metricas.CATALOGO_MEDICAMENTOS);
+            e.fornecedores = Metricas.valor(Metricas.CATALOGO_FORNECEDORES);
+            e.pendentes = Metricas.valor(Metricas.GRAVADOR_PENDENTES);
+            e.commit();
+        });
+    }
+}
@@ -0,0 +1,49 @@
+package org.provapoo3.diagnostico;
+
+import javafx.application.Platform;
+import javafx.scene.Scene;
+
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * Marcos da abertura da tela, contados desde o início do processo (não do {@code main}, para incluir a partida da
+ * JVM e a carga de classes): o primeiro quadro da janela ({@code inicio.quadro}) e a tabela de medicamentos já
+ * preenchida com o catálogo ({@code inicio.tabela}). Vão para os histogramas de {@link Metricas}.
+ * <p>
+ * Com {@code -Dprovapoo3.inicio=sair}, cada marco também é impresso como {@code inicio;<marco>;<ms>} e a aplicação
+ * fecha logo depois da tabela preenchida: é o modo usado pela execução de treino do arquivo CDS e pelo
+ * {@code InicioBenchmark}.
+ */
+public final class Inicio {
+
+    public static final String PROP_MODO = "provapoo3.inicio";
+    public static final String QUADRO = "quadro", TABELA = "tabela";
+
+    private static final Instant PARTIDA = ProcessHandle.current().info().startInstant().orElse(Instant.now());
+    private static final boolean SAIR = "sair".equals(System.getProperty(PROP_MODO));
+
+    private Inicio() {}
+
+    /**
+     * Marca {@code marco} no próximo pulso da cena, logo depois do layout (o quadro é desenhado em seguida, no mesmo
+     * pulso). Chamar na FX thread, depois da alteração que o marco espera ver na tela.
+     */
+    public static void noProximoQuadro(Scene cena, String marco) {
+        Runnable[] ouvinte = new Runnable[1];
+        ouvinte[0] = () -> {
+            cena.removePostLayoutPulseListener(ouvinte[0]);
+            marcar(marco);
+        };
+        cena.addPostLayoutPulseListener(ouvinte[0]);
+        Platform.requestNextPulse();
+    }
+
+    private static void marcar(String marco) {
+        long nanos = Duration.between(PARTIDA, Instant.now()).toNanos();
+        Metricas.histograma("inicio." + marco).registrar(nanos);
+        if (!SAIR) return;
+        System.out.println("inicio;" + marco + ";" + nanos / 1_000_000);
+        if (TABELA.equals(marco)) Platform.exit();
+    }
+}
@@ -0,0 +1,113 @@
+package org.provapoo3.diagnostico;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Contadores, histogramas de duração e medidores do processo, por nome, para o painel de diagnóstico.
+ * <p>
+ * Tudo é seguro para várias threads e sem trava no registro (só {@link LongAdder} e vetores atômicos), então pode
+ * ficar nos caminhos quentes. Os mesmos pontos também emitem eventos do JDK Flight Recorder ({@link Eventos}), para
+ * análise com linha do tempo no JDK Mission Control.
+ */
+public final class Metricas {
+
+    public static final String CATALOGO_MEDICAMENTOS = "catalogo.medicamentos";
+    public static final String CATALOGO_FORNECEDORES = "catalogo.fornecedores";
+    public static final String CATALOGO_VERSAO = "catalogo.versao";
+    public static final String GRAVADOR_PENDENTES = "gravador.pendentes";
+
+    private static final Map<String, LongAdder> CONTADORES = new ConcurrentHashMap<>();
+    private static final Map<String, Histograma> HISTOGRAMAS = new ConcurrentHashMap<>();
+    private static final Map<String, LongSupplier> MEDIDORES = new ConcurrentHashMap<>();
+
+    private Metricas() {}
+
+    public static LongAdder contador(String nome) {
+        return CONTADORES.computeIfAbsent(nome, n -> new LongAdder());
+    }
+
+    public static Histograma histograma(String nome) {
+        return HISTOGRAMAS.computeIfAbsent(nome, n -> new Histograma());
+    }
+
+    // valor lido na hora do relatório (ex.: tamanho do catálogo)
+    public static void medidor(String nome, LongSupplier valor) {
+        MEDIDORES.put(nome, valor);
+    }
+
+    public static long valor(String medidor) {
+        LongSupplier v = MEDIDORES.get(medidor);
+        return v != null ? v.getAsLong() : 0;
+    }
+
+    /** Texto com todas as métricas, em ordem alfabética: o que o painel de diagnóstico mostra. */
+    public static String relatorio() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("MEDIDORES\n");
+        new TreeMap<>(MEDIDORES).forEach((n, v) -> sb.append(String.format("  %-28s %,d%n", n, v.getAsLong())));
+        sb.append("\nCONTADORES\n");
+        new TreeMap<>(CONTADORES).forEach((n, c) -> sb.append(String.format("  %-28s %,d%n", n, c.sum())));
+        sb.append("\nDURAÇÕES (ms)                     n      média    p50      p99      máx\n");
+        new TreeMap<>(HISTOGRAMAS).forEach((n, h) -> {
+            long total = h.total();
+            if (total == 0) return;
+            sb.append(String.format("  %-28s %7d %8.2f %8.2f %8.2f %8.2f%n", n, total,
+                    h.soma() / 1e6 / total, h.percentil(0.50) / 1e6, h.percentil(0.99) / 1e6, h.maximo() / 1e6));
+        });
+        return sb.toString();
+    }
+
+    /**
+     * Histograma de durações em nanossegundos com baldes log-lineares (8 por potência de 2, erro de até ~12%
+     * nos percentis), de tamanho fixo: registrar não aloca.
+     */
+    public static final class Histograma {
+        private static final int SUB = 8;
+        private final AtomicLongArray baldes = new AtomicLongArray(64 * SUB);
+        private final LongAdder total = new LongAdder();
+        private final LongAdder soma = new LongAdder();
+        private final LongAccumulator maximo = new LongAccumulator(Math::max, 0);
+
+        public void registrar(long nanos) {
+            long v = Math.max(nanos, 1);
+            baldes.incrementAndGet(balde(v));
+            total.increment();
+            soma.add(v);
+            maximo.accumulate(v);
+        }
+
+        public long total() { return total.sum(); }
+        public long soma() { return soma.sum(); }
+        public long maximo() { return maximo.get(); }
+
+        // limite superior do balde onde cai o percentil p (0..1)
+        public long percentil(double p) {
+            long alvo = (long) Math.ceil(p * total());
+            long acumulado = 0;
+            for (int i = 0; i < baldes.length(); i++) {
+                acumulado += baldes.get(i);
+                if (acumulado >= alvo && acumulado > 0) return Math.min(limiteSuperior(i), maximo());
+            }
+            return maximo();
+        }
+
+        private static int balde(long v) {
+            int potencia = 63 - Long.numberOfLeadingZeros(v);
+            if (potencia < 3) return (int) v; // 1..7 exatos
+            int fracao = (int) (v >>> (potencia - 3)) & (SUB - 1);
+            return potencia * SUB + fracao;
+        }
+
+        private static long limiteSuperior(int balde) {
+            if (balde < SUB) return balde;
+            int potencia = balde / SUB, fracao = balde % SUB;
+            return ((long) (SUB + fracao + 1) << (potencia - 3)) - 1;
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package org.provapoo3.model;
+
+/**
+ * Origem das descrições guardadas fora dos objetos {@link Medicamento} (só uma referência fica no objeto).
+ */
+public interface FonteDescricoes {
+
+    // texto da referência, mantido entre os vistos recentemente
+    String descricao(long referencia);
+
+    // texto da referência sem passar pelo cache
+    String lerSemGuardar(long referencia);
+}
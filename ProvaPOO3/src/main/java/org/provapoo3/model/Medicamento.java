@@ -8,12 +8,17 @@ public class Medicamento {
     private String codigo;
     private String nome;
     private String descricao;
+    // descrição guardada fora do objeto (na cópia binária): lida só quando pedida
+    private FonteDescricoes fonteDescricao;
+    private long refDescricao;
     private String principioAtivo;
     private LocalDate dataValidade;
     private int quantidadeEstoque;
     private BigDecimal preco;
     private boolean controlado;
     private Fornecedor fornecedor;
+    // carimbo de versão para detectar conflito entre estações (0 na inclusão; cada alteração soma 1)
+    private long versao;
 
     public Medicamento() {}
 
@@ -29,6 +34,22 @@ public class Medicamento {
         this.fornecedor = fornecedor;
     }
 
+    // cópia de todos os campos (o catálogo altera quantidade e preço numa cópia, sem mexer no item já publicado)
+    public Medicamento(Medicamento m) {
+        this.codigo = m.codigo;
+        this.nome = m.nome;
+        this.descricao = m.descricao;
+        this.fonteDescricao = m.fonteDescricao;
+        this.refDescricao = m.refDescricao;
+        this.principioAtivo = m.principioAtivo;
+        this.dataValidade = m.dataValidade;
+        this.quantidadeEstoque = m.quantidadeEstoque;
+        this.preco = m.preco;
+        this.controlado = m.controlado;
+        this.fornecedor = m.fornecedor;
+        this.versao = m.versao;
+    }
+
     public String getCodigo() {
         return codigo;
     }
@@ -46,11 +67,23 @@ public class Medicamento {
     }
 
     public String getDescricao() {
-        return descricao;
+        return fonteDescricao == null ? descricao : fonteDescricao.descricao(refDescricao);
+    }
+
+    // para quem percorre o catálogo inteiro (índice, gravação): não passa pelo cache de recentes
+    public String lerDescricao() {
+        return fonteDescricao == null ? descricao : fonteDescricao.lerSemGuardar(refDescricao);
     }
 
     public void setDescricao(String descricao) {
         this.descricao = descricao;
+        this.fonteDescricao = null;
+    }
+
+    public void setDescricao(FonteDescricoes fonte, long referencia) {
+        this.descricao = null;
+        this.fonteDescricao = fonte;
+        this.refDescricao = referencia;
     }
 
     public String getPrincipioAtivo() {
@@ -101,6 +134,14 @@ public class Medicamento {
         this.fornecedor = fornecedor;
     }
 
+    public long getVersao() {
+        return versao;
+    }
+
+    public void setVersao(long versao) {
+        this.versao = versao;
+    }
+
     @Override public boolean equals(Object o) {
         if (this == o) return true;
         if (!(o instanceof Medicamento)) return false;
@@ -0,0 +1,21 @@
+package org.provapoo3.model;
+
+// entrada (recebimento) ou saída (venda/dispensação) de estoque de um medicamento, pelo código
+public record Movimentacao(String codigo, Tipo tipo, int quantidade, String documento) {
+
+    public enum Tipo { ENTRADA, SAIDA }
+
+    public static Movimentacao entrada(String codigo, int quantidade, String documento) {
+        return new Movimentacao(codigo, Tipo.ENTRADA, quantidade, documento);
+    }
+
+    // documento = número da receita (obrigatório na saída de controlado) ou do cupom
+    public static Movimentacao saida(String codigo, int quantidade, String documento) {
+        return new Movimentacao(codigo, Tipo.SAIDA, quantidade, documento);
+    }
+
+    // quanto soma ao estoque (negativo na saída)
+    public int delta() {
+        return tipo == Tipo.ENTRADA ? quantidade : -quantidade;
+    }
+}
@@ -0,0 +1,69 @@
+package org.provapoo3.persistencia;
+
+import org.provapoo3.diagnostico.Metricas;
+import org.provapoo3.model.FonteDescricoes;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Descrições de uma carga da cópia binária, em UTF-8, lidas direto do arquivo mapeado (fatia da região do fim
+ * do arquivo: nada é copiado para o heap nem para outro buffer). Cada medicamento guarda só a referência
+ * {@code posição << 32 | tamanho}; o texto vira {@code String} quando pedido, e os {@link #CAPACIDADE_CACHE}
+ * pedidos mais recentes ficam guardados (a tela e a API costumam voltar aos mesmos itens).
+ * <p>
+ * O mapeamento vale até o último medicamento que o referencia ser coletado. O arquivo nunca é reescrito no
+ * lugar: cada gravação de parte usa um nome novo, e a troca de nome de um arquivo mapeado mantém o conteúdo
+ * antigo para quem já o mapeou. No Windows, apagar um arquivo mapeado falha; quem apaga tenta de novo depois.
+ */
+final class BlocoDescricoes implements FonteDescricoes {
+
+    static final int CAPACIDADE_CACHE = 256;
+
+    private final ByteBuffer bloco;
+    private final Map<Long, String> recentes = new LinkedHashMap<>(CAPACIDADE_CACHE * 2, 0.75f, true) {
+        @Override protected boolean removeEldestEntry(Map.Entry<Long, String> maisAntiga) {
+            return size() > CAPACIDADE_CACHE;
+        }
+    };
+
+    // regiao: fatia do arquivo mapeado, só leitura
+    BlocoDescricoes(ByteBuffer regiao) {
+        bloco = regiao;
+    }
+
+    int tamanho() {
+        return bloco.capacity();
+    }
+
+    static long referencia(int posicao, int tamanho) {
+        return (long) posicao << 32 | tamanho;
+    }
+
+    @Override
+    public String descricao(long referencia) {
+        synchronized (recentes) {
+            String s = recentes.get(referencia);
+            if (s != null) {
+                Metricas.contador("descricoes.cache.acertos").increment();
+                return s;
+            }
+        }
+        Metricas.contador("descricoes.cache.falhas").increment();
+        String s = lerSemGuardar(referencia);
+        synchronized (recentes) {
+            recentes.put(referencia, s);
+        }
+        return s;
+    }
+
+    // leitura absoluta: várias threads podem ler ao mesmo tempo
+    @Override
+    public String lerSemGuardar(long referencia) {
+        byte[] b = new byte[(int) referencia];
+        bloco.get((int) (referencia >>> 32), b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+}
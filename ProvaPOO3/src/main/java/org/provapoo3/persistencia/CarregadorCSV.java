@@ -0,0 +1,337 @@
+package org.provapoo3.persistencia;
+
+import org.provapoo3.catalogo.CatalogoMedicamentos;
+import org.provapoo3.diagnostico.Metricas;
+import org.provapoo3.model.Fornecedor;
+import org.provapoo3.model.Medicamento;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.DoubleConsumer;
+import java.util.function.Function;
+
+/**
+ * Carga paralela de um CSV de medicamentos (uma parte do catálogo ou o antigo {@code medicamentos.csv}).
+ * <p>
+ * O arquivo é mapeado em memória e dividido em blocos alinhados em fim de linha; cada bloco é
+ * interpretado em paralelo por um tokenizador de {@code ;} feito à mão sobre os bytes, sem
+ * {@code readAllLines} nem {@code split}. O progresso (0..1) é informado conforme os blocos avançam.
+ * <p>
+ * Aceita o formato normalizado (fornecedor só pelo CNPJ, resolvido por {@code fornecedorPorCnpj}) e o
+ * formato antigo com as seis colunas do fornecedor repetidas em cada linha. A coluna {@code versao} (última do
+ * formato normalizado) é opcional: arquivos gravados antes dela carregam com versão 0.
+ * <p>
+ * Cada linha é validada no mesmo passo, direto sobre os bytes (colunas, código, datas, números, formato do CNPJ e a
+ * faixa que o catálogo aceita: quantidade não negativa e preço × quantidade em centavos cabendo num {@code long}).
+ * Uma linha inválida não interrompe a carga: vai para {@link Carga#rejeitadas()} com o número da linha e o motivo,
+ * e as demais carregam normalmente.
+ */
+public class CarregadorCSV {
+
+    private static final int MIN_BLOCO = 1 << 20;        // 1 MB
+    private static final int MAX_BLOCO = 64 << 20;       // 64 MB (limite de um mapeamento por bloco)
+    static final int COLUNAS = 10;
+    static final int COLUNAS_SEM_VERSAO = 9;
+    static final int COLUNAS_LEGADO = 14;
+
+    private CarregadorCSV() {}
+
+    public record Rejeicao(long linha, String motivo, String conteudo) {}
+
+    public record Carga(List<Medicamento> medicamentos, List<Rejeicao> rejeitadas) {}
+
+    // resultado de um bloco: as rejeições têm o número da linha dentro do bloco (1 = primeira)
+    private record Bloco(List<Medicamento> medicamentos, List<Rejeicao> rejeitadas, long linhas) {}
+
+    /**
+     * @param fornecedorPorCnpj consulta somente leitura ao registro de fornecedores (chamada em paralelo);
+     *                          pode devolver {@code null} para CNPJ desconhecido
+     */
+    public static Carga carregar(Path arquivo, Function<String, Fornecedor> fornecedorPorCnpj,
+                                 DoubleConsumer progresso) throws IOException {
+        try (FileChannel canal = FileChannel.open(arquivo, StandardOpenOption.READ)) {
+            long tamanho = canal.size();
+            long inicio = proximaLinha(canal, 0, tamanho); // pula o cabeçalho
+            int colunas = colunasDoCabecalho(canal, inicio);
+            if (inicio >= tamanho) {
+                progresso.accept(1.0);
+                return new Carga(new ArrayList<>(), List.of());
+            }
+
+            List<long[]> blocos = dividir(canal, inicio, tamanho);
+            long totalBytes = tamanho - inicio;
+            AtomicLong lidos = new AtomicLong();
+
+            List<CompletableFuture<Bloco>> tarefas = new ArrayList<>(blocos.size());
+            for (long[] b : blocos) {
+                tarefas.add(CompletableFuture.supplyAsync(() -> {
+                    try {
+                        Bloco bloco = interpretar(
+                                canal.map(FileChannel.MapMode.READ_ONLY, b[0], b[1] - b[0]), colunas, fornecedorPorCnpj);
+                        progresso.accept((double) lidos.addAndGet(b[1] - b[0]) / totalBytes);
+                        return bloco;
+                    } catch (IOException e) {
+                        throw new CompletionException(e);
+                    }
+                }));
+            }
+
+            List<Medicamento> todos = new ArrayList<>();
+            List<Rejeicao> rejeitadas = new ArrayList<>();
+            long linhasAntes = 1; // cabeçalho
+            try {
+                for (CompletableFuture<Bloco> t : tarefas) {
+                    Bloco b = t.join();
+                    todos.addAll(b.medicamentos());
+                    for (Rejeicao r : b.rejeitadas()) {
+                        rejeitadas.add(new Rejeicao(linhasAntes + r.linha(), r.motivo(), r.conteudo()));
+                    }
+                    linhasAntes += b.linhas();
+                }
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof IOException io) throw io;
+                if (e.getCause() instanceof RuntimeException re) throw re;
+                throw e;
+            }
+            Metricas.contador("csv.linhas.interpretadas").add(todos.size());
+            Metricas.contador("csv.linhas.rejeitadas").add(rejeitadas.size());
+            return new Carga(todos, rejeitadas);
+        }
+    }
+
+    private static int colunasDoCabecalho(FileChannel canal, long fimCabecalho) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate((int) Math.min(fimCabecalho, 4096));
+        canal.read(buf, 0);
+        int colunas = 1;
+        for (int i = 0; i < buf.position(); i++) if (buf.get(i) == ';') colunas++;
+        if (colunas >= COLUNAS_LEGADO) return COLUNAS_LEGADO;
+        return colunas >= COLUNAS ? COLUNAS : COLUNAS_SEM_VERSAO;
+    }
+
+    /* ===================== BLOCOS ===================== */
+
+    // fronteiras [inicio, fim) de cada bloco, sempre começando logo após um '\n'
+    private static List<long[]> dividir(FileChannel canal, long inicio, long tamanho) throws IOException {
+        int partes = Runtime.getRuntime().availableProcessors() * 4;
+        long alvo = Math.max(MIN_BLOCO, Math.min(MAX_BLOCO, (tamanho - inicio) / partes));
+        List<long[]> blocos = new ArrayList<>();
+        long pos = inicio;
+        while (pos < tamanho) {
+            long fim = pos + alvo >= tamanho ? tamanho : proximaLinha(canal, pos + alvo, tamanho);
+            blocos.add(new long[]{pos, fim});
+            pos = fim;
+        }
+        return blocos;
+    }
+
+    // posição logo após o próximo '\n' a partir de 'pos' (ou o fim do arquivo)
+    private static long proximaLinha(FileChannel canal, long pos, long tamanho) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(8192);
+        while (pos < tamanho) {
+            buf.clear();
+            int n = canal.read(buf, pos);
+            if (n <= 0) break;
+            for (int i = 0; i < n; i++) {
+                if (buf.get(i) == '\n') return pos + i + 1;
+            }
+            pos += n;
+        }
+        return tamanho;
+    }
+
+    /* ===================== TOKENIZADOR ===================== */
+
+    private static Bloco interpretar(MappedByteBuffer bloco, int colunas,
+                                     Function<String, Fornecedor> fornecedorPorCnpj) {
+        List<Medicamento> meds = new ArrayList<>();
+        List<Rejeicao> rejeitadas = new ArrayList<>(0);
+        byte[] linha = new byte[512];
+        int[] inicios = new int[colunas + 1];
+        int limite = bloco.limit();
+        int pos = 0;
+        long numero = 0;
+        while (pos < limite) {
+            numero++;
+            int fim = pos;
+            while (fim < limite && bloco.get(fim) != '\n') fim++;
+            int tam = fim - pos;
+            if (tam > 0 && bloco.get(fim - 1) == '\r') tam--;
+            if (tam > linha.length) linha = new byte[Math.max(tam, linha.length * 2)];
+            bloco.get(pos, linha, 0, tam);
+            pos = fim + 1;
+            if (emBranco(linha, tam)) continue;
+            try {
+                meds.add(medicamento(linha, tam, inicios, fornecedorPorCnpj));
+            } catch (IllegalArgumentException e) {
+                rejeitadas.add(new Rejeicao(numero, e.getMessage(), new String(linha, 0, tam, StandardCharsets.UTF_8)));
+            }
+        }
+        return new Bloco(meds, rejeitadas, numero);
+    }
+
+    private static Medicamento medicamento(byte[] b, int tam, int[] ini, Function<String, Fornecedor> fornecedorPorCnpj) {
+        int colunas = ini.length - 1;
+        int col = 0;
+        ini[0] = 0;
+        // conta todas: um ';' a mais (no nome, por exemplo) deslocaria as colunas seguintes
+        for (int i = 0; i < tam; i++) {
+            if (b[i] == ';' && ++col < colunas) ini[col] = i + 1;
+        }
+        if (col != colunas - 1)
+            throw new IllegalArgumentException("Linha com " + (col + 1) + " colunas (esperado " + colunas + ").");
+        ini[colunas] = tam + 1; // fim virtual da última coluna
+
+        // validação antes de criar qualquer objeto da linha
+        if (!codigo7(b, ini[0], ini[1] - 1)) throw new IllegalArgumentException(MOTIVO_CODIGO);
+        if (!cnpjVazioOu14Digitos(b, ini[8], ini[9] - 1)) throw new IllegalArgumentException(MOTIVO_CNPJ);
+        LocalDate validade;
+        int quantidade;
+        BigDecimal preco;
+        try {
+            validade = ini[5] - 1 == ini[4] ? null : data(b, ini[4], ini[5] - 1);
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException(MOTIVO_DATA);
+        }
+        try {
+            quantidade = inteiro(b, ini[5], ini[6] - 1);
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException(MOTIVO_QUANTIDADE);
+        }
+        try {
+            preco = ini[7] - 1 == ini[6] ? null : decimal(b, ini[6], ini[7] - 1);
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException(MOTIVO_PRECO);
+        }
+        conferirEstoque(quantidade, preco);
+        long versao = 0;
+        if (colunas == COLUNAS) {
+            try {
+                versao = longo(b, ini[9], ini[10] - 1);
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException(MOTIVO_VERSAO);
+            }
+        }
+
+        Fornecedor f;
+        String cnpj = texto(b, ini, 8);
+        if (colunas == COLUNAS_LEGADO) {
+            f = new Fornecedor(cnpj, texto(b, ini, 9), texto(b, ini, 10),
+                    texto(b, ini, 11), texto(b, ini, 12), texto(b, ini, 13));
+        } else {
+            f = fornecedorPorCnpj.apply(cnpj);
+            if (f == null) f = new Fornecedor(cnpj, "", "", "", "", "");
+        }
+        Medicamento m = new Medicamento(
+                texto(b, ini, 0), texto(b, ini, 1), texto(b, ini, 2), texto(b, ini, 3),
+                validade, quantidade, preco,
+                ehTrue(b, ini[7], ini[8] - 1),
+                f
+        );
+        m.setVersao(versao);
+        return m;
+    }
+
+    private static String texto(byte[] b, int[] ini, int col) {
+        return new String(b, ini[col], ini[col + 1] - 1 - ini[col], StandardCharsets.UTF_8);
+    }
+
+    private static boolean emBranco(byte[] b, int tam) {
+        for (int i = 0; i < tam; i++) if (b[i] != ' ' && b[i] != '\t') return false;
+        return true;
+    }
+
+    /* ===================== CAMPOS ===================== */
+
+    private static final String MOTIVO_CODIGO = "Código inválido (7 caracteres alfanuméricos).";
+    private static final String MOTIVO_CNPJ = "CNPJ do fornecedor precisa ter 14 dígitos.";
+    private static final String MOTIVO_DATA = "Data de validade inválida (aaaa-mm-dd).";
+    private static final String MOTIVO_QUANTIDADE = "Quantidade inválida.";
+    private static final String MOTIVO_PRECO = "Preço inválido.";
+    private static final String MOTIVO_VERSAO = "Versão inválida.";
+    private static final String MOTIVO_NEGATIVA = "Quantidade negativa.";
+    private static final String MOTIVO_VALOR = "Preço × quantidade fora do limite do valor em estoque.";
+
+    // faixa aceita pelo catálogo: a linha fora dela vai para a quarentena em vez de derrubar a carga inteira
+    static void conferirEstoque(int quantidade, BigDecimal preco) {
+        if (quantidade < 0) throw new IllegalArgumentException(MOTIVO_NEGATIVA);
+        if (preco != null && preco.signum() < 0) throw new IllegalArgumentException(MOTIVO_PRECO);
+        if (!CatalogoMedicamentos.valorCabe(preco, quantidade)) throw new IllegalArgumentException(MOTIVO_VALOR);
+    }
+
+    private static boolean codigo7(byte[] b, int ini, int fim) {
+        if (fim - ini != 7) return false;
+        for (int i = ini; i < fim; i++) {
+            byte c = b[i];
+            if (!(c >= '0' && c <= '9' || c >= 'A' && c <= 'Z' || c >= 'a' && c <= 'z')) return false;
+        }
+        return true;
+    }
+
+    // os dígitos verificadores são conferidos no cadastro e na importação; aqui só o formato (pontuação ignorada)
+    private static boolean cnpjVazioOu14Digitos(byte[] b, int ini, int fim) {
+        int digitos = 0;
+        for (int i = ini; i < fim; i++) if (b[i] >= '0' && b[i] <= '9') digitos++;
+        return digitos == 14 || fim == ini;
+    }
+
+    // yyyy-MM-dd
+    private static LocalDate data(byte[] b, int ini, int fim) {
+        if (fim - ini != 10 || b[ini + 4] != '-' || b[ini + 7] != '-')
+            return LocalDate.parse(new String(b, ini, fim - ini, StandardCharsets.UTF_8));
+        return LocalDate.of(inteiro(b, ini, ini + 4), inteiro(b, ini + 5, ini + 7), inteiro(b, ini + 8, ini + 10));
+    }
+
+    private static int inteiro(byte[] b, int ini, int fim) {
+        return Math.toIntExact(longo(b, ini, fim));
+    }
+
+    // a versão é long: cresce a cada gravação do código, sem teto de int
+    private static long longo(byte[] b, int ini, int fim) {
+        if (ini >= fim) throw new NumberFormatException("Número vazio.");
+        boolean neg = b[ini] == '-';
+        if (neg || b[ini] == '+') ini++;
+        if (ini >= fim) throw new NumberFormatException("Número inválido.");
+        long v = 0;
+        for (int i = ini; i < fim; i++) {
+            int d = b[i] - '0';
+            if (d < 0 || d > 9) throw new NumberFormatException(new String(b, ini, fim - ini, StandardCharsets.UTF_8));
+            if (v > (Long.MAX_VALUE - d) / 10) throw new NumberFormatException("Número fora do intervalo.");
+            v = v * 10 + d;
+        }
+        return neg ? -v : v;
+    }
+
+    // "24.50" -> BigDecimal.valueOf(2450, 2); só dígitos e um ponto, até 18 dígitos (sem sinal nem expoente)
+    private static BigDecimal decimal(byte[] b, int ini, int fim) {
+        long v = 0;
+        int escala = -1, digitos = 0;
+        for (int i = ini; i < fim; i++) {
+            byte c = b[i];
+            if (c == '.' && escala < 0) { escala = 0; continue; }
+            if (c < '0' || c > '9' || ++digitos > 18)
+                throw new NumberFormatException(new String(b, ini, fim - ini, StandardCharsets.UTF_8));
+            v = v * 10 + (c - '0');
+            if (escala >= 0) escala++;
+        }
+        if (digitos == 0) throw new NumberFormatException("Preço vazio.");
+        return BigDecimal.valueOf(v, Math.max(escala, 0));
+    }
+
+    private static boolean ehTrue(byte[] b, int ini, int fim) {
+        return fim - ini == 4
+                && (b[ini] | 0x20) == 't' && (b[ini + 1] | 0x20) == 'r'
+                && (b[ini + 2] | 0x20) == 'u' && (b[ini + 3] | 0x20) == 'e';
+    }
+}
@@ -0,0 +1,162 @@
+package org.provapoo3.persistencia;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * O {@code medicamentos.journal} como esta estação o conhece: a geração (primeira linha, {@code G;geração;tamanho
+ * anterior}, trocada a cada compactação) e até onde ela já leu. Anexa linhas com um único write, lê o que foi
+ * anexado desde a última leitura e diz se o arquivo recomeçou por uma compactação de outra estação.
+ * <p>
+ * Não trava nada: é usado sob a {@link TravaDiretorio} pelo {@link RepositorioCSV}, que interpreta as linhas.
+ */
+final class Journal {
+
+    static final String REG_GERACAO = "G;";
+
+    // o que aconteceu com o arquivo desde a última leitura desta estação
+    enum Situacao {
+        EM_DIA,        // mesma geração: basta ler o que foi anexado
+        NOVA_GERACAO,  // compactado a partir exatamente do que esta estação já leu: continua no novo
+        TROCADO        // compactado sem esta estação ter lido tudo, ou substituído por fora: o catálogo é relido
+    }
+
+    // linhas completas lidas; 'fim' é o byte seguinte à última
+    record Leitura(List<String> linhas, long fim) {}
+
+    private final Path arquivo;
+    private long geracao, lidoAte;
+
+    Journal(Path arquivo) {
+        this.arquivo = arquivo;
+    }
+
+    Path arquivo() {
+        return arquivo;
+    }
+
+    long tamanho() throws IOException {
+        return Files.exists(arquivo) ? Files.size(arquivo) : 0;
+    }
+
+    long geracao() {
+        return geracao;
+    }
+
+    long lidoAte() {
+        return lidoAte;
+    }
+
+    long geracaoNoDisco() throws IOException {
+        return geracao(ler(arquivo, 0, 1).linhas());
+    }
+
+    // (re)começa a acompanhar o arquivo: lê a partir de 'inicio' na geração que está no disco
+    Leitura lerDesde(long inicio) throws IOException {
+        geracao = geracaoNoDisco();
+        Leitura l = ler(arquivo, inicio);
+        lidoAte = l.fim();
+        return l;
+    }
+
+    Situacao situacao() throws IOException {
+        Leitura cabecalho = ler(arquivo, 0, 1);
+        long noDisco = geracao(cabecalho.linhas());
+        if (noDisco != geracao) {
+            if (noDisco == geracao + 1 && Long.parseLong(cabecalho.linhas().get(0).split(";")[2]) == lidoAte) {
+                geracao = noDisco;
+                lidoAte = cabecalho.fim();
+                return Situacao.NOVA_GERACAO;
+            }
+            return Situacao.TROCADO;
+        }
+        boolean trocado = Files.exists(arquivo) ? Files.size(arquivo) < lidoAte : lidoAte > 0; // substituído por fora
+        return trocado ? Situacao.TROCADO : Situacao.EM_DIA;
+    }
+
+    // o que foi anexado desde a última leitura (uma linha ainda sem '\n' fica para a próxima)
+    List<String> lerNovos() throws IOException {
+        Leitura l = ler(arquivo, lidoAte);
+        lidoAte = l.fim();
+        return l.linhas();
+    }
+
+    // devolve {início, fim} do trecho gravado
+    long[] anexar(List<String> linhas) throws IOException {
+        long[] faixa = acrescentar(arquivo, linhas);
+        // quem já estava em dia com o journal continua em dia (só estas linhas foram acrescentadas)
+        if (faixa[0] == lidoAte) lidoAte = faixa[1];
+        return faixa;
+    }
+
+    // depois de a base incorporar tudo o que foi lido: o journal recomeça vazio na geração seguinte
+    void recomecar() throws IOException {
+        Path tmp = arquivo.resolveSibling(arquivo.getFileName() + ".tmp");
+        Files.writeString(tmp, REG_GERACAO + (geracao + 1) + ";" + lidoAte + "\n", StandardCharsets.UTF_8);
+        RepositorioCSV.moverAtomico(tmp, arquivo);
+        geracao++;
+        lidoAte = Files.size(arquivo);
+    }
+
+    /* ===================== ARQUIVOS ===================== */
+
+    // grava as linhas no fim do arquivo com um único write; uma falha no meio desfaz a parte escrita (a fila
+    // tenta de novo). Devolve {início, fim} do trecho gravado
+    static long[] acrescentar(Path arquivo, List<String> linhas) throws IOException {
+        StringBuilder sb = new StringBuilder(linhas.size() * 96);
+        for (String l : linhas) sb.append(l).append('\n');
+        ByteBuffer buf = StandardCharsets.UTF_8.encode(CharBuffer.wrap(sb));
+        try (FileChannel canal = FileChannel.open(arquivo, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            long inicio = canal.size();
+            try {
+                while (buf.hasRemaining()) canal.write(buf, inicio + buf.position());
+            } catch (IOException e) {
+                canal.truncate(inicio);
+                throw e;
+            }
+            return new long[] {inicio, inicio + buf.limit()};
+        }
+    }
+
+    // linhas completas do arquivo a partir de 'desde'
+    static Leitura ler(Path arquivo, long desde) throws IOException {
+        return ler(arquivo, desde, Integer.MAX_VALUE);
+    }
+
+    // no máximo 'max' linhas
+    static Leitura ler(Path arquivo, long desde, int max) throws IOException {
+        if (Files.notExists(arquivo)) return new Leitura(List.of(), desde);
+        try (FileChannel canal = FileChannel.open(arquivo, StandardOpenOption.READ)) {
+            long tamanho = canal.size();
+            if (tamanho <= desde) return new Leitura(List.of(), desde);
+            // o journal é compactado ao passar de alguns MB: cabe num buffer
+            ByteBuffer buf = ByteBuffer.allocate((int) Math.min(tamanho - desde, max == 1 ? 256 : Integer.MAX_VALUE - 8));
+            while (buf.hasRemaining() && canal.read(buf, desde + buf.position()) > 0) {}
+            byte[] b = buf.array();
+            List<String> linhas = new ArrayList<>();
+            int inicio = 0;
+            for (int i = 0; i < buf.position() && linhas.size() < max; i++) {
+                if (b[i] != '\n') continue;
+                int fim = i > inicio && b[i - 1] == '\r' ? i - 1 : i;
+                linhas.add(new String(b, inicio, fim - inicio, StandardCharsets.UTF_8));
+                inicio = i + 1;
+            }
+            // uma linha sem '\n' no fim ainda está sendo escrita (ou ficou de uma queda): fica para a próxima
+            return new Leitura(linhas, desde + inicio);
+        }
+    }
+
+    // geração pela primeira linha ("G;n;..."); journal antigo, sem ela, é a geração 0
+    private static long geracao(List<String> linhas) {
+        if (linhas.isEmpty() || !linhas.get(0).startsWith(REG_GERACAO)) return 0;
+        return Long.parseLong(linhas.get(0).split(";")[1]);
+    }
+}
@@ -0,0 +1,290 @@
+package org.provapoo3.persistencia;
+
+import org.provapoo3.catalogo.RegistroFornecedores;
+import org.provapoo3.model.Medicamento;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.DoubleConsumer;
+
+/**
+ * CSV base dos medicamentos dividido em partes ({@code dados/medicamentos/}), para que a compactação reescreva só
+ * as partes com itens alterados desde a anterior.
+ * <p>
+ * Cada medicamento fica na parte {@code hash(código) mod partes} ({@link String#hashCode} é especificado, então a
+ * divisão é a mesma em todas as estações). Cada parte é um CSV no formato do antigo {@code medicamentos.csv}
+ * (ordenado por nome) com a sua cópia binária ao lado ({@link SnapshotBinario}, assinada só com o CSV da parte).
+ * <p>
+ * O {@code manifesto.csv} lista os arquivos de cada parte e até onde o journal já está incorporado nelas. As
+ * partes reescritas ganham nomes novos ({@code parte-03.<série>.csv}) e o manifesto é trocado por último, com move
+ * atômico: numa queda antes disso, a carga continua lendo as partes antigas, e os arquivos que nenhum manifesto
+ * referencia são apagados na gravação seguinte.
+ * <p>
+ * Na carga as partes são lidas em paralelo (da cópia binária ou, sem ela, do CSV) e intercaladas por nome.
+ */
+final class PartesCSV {
+
+    static final String DIRETORIO = "medicamentos";
+    static final String MANIFESTO = "manifesto.csv";
+    static final int PARTES_PADRAO = 16;
+
+    private static final String SERIE = "serie;";
+    private static final String JOURNAL = "journal;";
+    private static final String PARTE = "parte;";
+
+    /**
+     * Conteúdo do manifesto: a série da última gravação (nomes dos arquivos), a geração e o byte do journal até
+     * onde as partes já incluem os registros ({@code fimJournal} -1: nenhum) e, por parte, o CSV e os itens.
+     */
+    record Manifesto(long serie, long geracao, long fimJournal, List<String> arquivos, List<Integer> itens) {
+        int partes() {
+            return arquivos.size();
+        }
+
+        int total() {
+            int n = 0;
+            for (int i : itens) n += i;
+            return n;
+        }
+    }
+
+    /**
+     * Resultado da carga: medicamentos em ordem de nome, linhas inválidas por arquivo (caminho relativo ao
+     * diretório de dados) e as partes que a próxima compactação deve reescrever (sem cópia binária válida, com
+     * linhas inválidas ou com itens que pertencem a outra parte).
+     */
+    record Carga(List<Medicamento> medicamentos, Map<String, List<CarregadorCSV.Rejeicao>> rejeitadas,
+                 BitSet regravar, long bytes) {}
+
+    // o que uma gravação reescreveu
+    record Gravacao(int partes, int itens, long bytes) {}
+
+    private record Parte(List<Medicamento> medicamentos, List<CarregadorCSV.Rejeicao> rejeitadas,
+                         boolean doBinario, long bytes) {}
+
+    private PartesCSV() {}
+
+    static int parte(String codigo, int partes) {
+        return Math.floorMod(codigo.hashCode(), partes);
+    }
+
+    /* ===================== MANIFESTO ===================== */
+
+    // null quando o diretório ainda não tem partes (arquivo único ou diretório novo)
+    static Manifesto lerManifesto(Path diretorio) throws IOException {
+        Path arquivo = diretorio.resolve(MANIFESTO);
+        if (Files.notExists(arquivo)) return null;
+        long serie = -1, geracao = 0, fimJournal = -1;
+        List<String> arquivos = new ArrayList<>();
+        List<Integer> itens = new ArrayList<>();
+        try {
+            for (String linha : Files.readAllLines(arquivo, StandardCharsets.UTF_8)) {
+                String[] t = linha.split(";", -1);
+                if (linha.startsWith(SERIE)) {
+                    serie = Long.parseLong(t[1]);
+                } else if (linha.startsWith(JOURNAL)) {
+                    geracao = Long.parseLong(t[1]);
+                    fimJournal = Long.parseLong(t[2]);
+                } else if (linha.startsWith(PARTE)) {
+                    if (Integer.parseInt(t[1]) != arquivos.size()) throw new IllegalArgumentException("fora de ordem");
+                    arquivos.add(t[2]);
+                    itens.add(Integer.parseInt(t[3]));
+                }
+            }
+        } catch (RuntimeException e) {
+            throw new IOException("Manifesto inválido: " + arquivo, e);
+        }
+        if (serie < 0 || arquivos.isEmpty()) throw new IOException("Manifesto inválido: " + arquivo);
+        return new Manifesto(serie, geracao, fimJournal, arquivos, itens);
+    }
+
+    private static void gravarManifesto(Path diretorio, Manifesto m) throws IOException {
+        StringBuilder sb = new StringBuilder(64 + m.partes() * 32);
+        sb.append(SERIE).append(m.serie()).append('\n');
+        sb.append(JOURNAL).append(m.geracao()).append(';').append(m.fimJournal()).append('\n');
+        for (int i = 0; i < m.partes(); i++) {
+            sb.append(PARTE).append(i).append(';').append(m.arquivos().get(i)).append(';').append(m.itens().get(i)).append('\n');
+        }
+        Path arquivo = diretorio.resolve(MANIFESTO);
+        Path tmp = arquivo.resolveSibling(MANIFESTO + ".tmp");
+        Files.writeString(tmp, sb, StandardCharsets.UTF_8);
+        RepositorioCSV.moverAtomico(tmp, arquivo);
+    }
+
+    /* ===================== CARGA ===================== */
+
+    /**
+     * Lê as partes do manifesto em paralelo. Os fornecedores já devem estar no registro (vindos do
+     * {@code fornecedores.csv}): as partes só os referenciam pelo CNPJ.
+     */
+    static Carga carregar(Path diretorio, Manifesto manifesto, RegistroFornecedores fornecedores,
+                          DoubleConsumer progresso) throws IOException {
+        int n = manifesto.partes();
+        Path[] csvs = new Path[n];
+        long[] pesos = new long[n];
+        long total = 0;
+        for (int i = 0; i < n; i++) {
+            csvs[i] = diretorio.resolve(manifesto.arquivos().get(i));
+            if (Files.notExists(csvs[i])) throw new NoSuchFileException(csvs[i].toString(), null, "parte listada no manifesto");
+            pesos[i] = Files.size(csvs[i]);
+            total += pesos[i];
+        }
+        double[] feito = new double[n];
+        long soma = Math.max(1, total);
+
+        List<CompletableFuture<Parte>> tarefas = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            int p = i;
+            DoubleConsumer progressoDaParte = f -> {
+                synchronized (feito) {
+                    feito[p] = f;
+                    double lidos = 0;
+                    for (int j = 0; j < n; j++) lidos += feito[j] * pesos[j];
+                    progresso.accept(lidos / soma);
+                }
+            };
+            tarefas.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    return carregarParte(csvs[p], fornecedores, progressoDaParte);
+                } catch (IOException e) {
+                    throw new CompletionException(e);
+                }
+            }));
+        }
+
+        List<List<Medicamento>> listas = new ArrayList<>(n);
+        Map<String, List<CarregadorCSV.Rejeicao>> rejeitadas = new LinkedHashMap<>();
+        BitSet regravar = new BitSet(n);
+        long bytes = 0;
+        try {
+            for (int i = 0; i < n; i++) {
+                Parte parte = tarefas.get(i).join();
+                listas.add(parte.medicamentos());
+                bytes += parte.bytes();
+                if (!parte.doBinario()) regravar.set(i);
+                if (!parte.rejeitadas().isEmpty()) {
+                    rejeitadas.put(DIRETORIO + "/" + manifesto.arquivos().get(i), parte.rejeitadas());
+                }
+                // item editado à mão na parte errada: as duas são reescritas, senão ele se perderia na seguinte
+                for (Medicamento m : parte.medicamentos()) {
+                    int certa = parte(m.getCodigo(), n);
+                    if (certa != i) {
+                        regravar.set(certa);
+                        regravar.set(i);
+                    }
+                }
+            }
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException io) throw io;
+            if (e.getCause() instanceof RuntimeException re) throw re;
+            throw e;
+        }
+        progresso.accept(1.0);
+        return new Carga(intercalar(listas, manifesto.total()), rejeitadas, regravar, bytes);
+    }
+
+    private static Parte carregarParte(Path csv, RegistroFornecedores fornecedores, DoubleConsumer progresso)
+            throws IOException {
+        Path bin = binario(csv);
+        Optional<List<Medicamento>> copia = SnapshotBinario.carregar(bin, SnapshotBinario.Assinatura.de(csv),
+                fornecedores, progresso);
+        if (copia.isPresent()) return new Parte(copia.get(), List.of(), true, Files.size(bin));
+        CarregadorCSV.Carga carga = CarregadorCSV.carregar(csv, c -> fornecedores.buscar(c).orElse(null), progresso);
+        return new Parte(carga.medicamentos(), carga.rejeitadas(), false, Files.size(csv));
+    }
+
+    // cada parte vem em ordem de nome: a intercalação devolve o catálogo na ordem do antigo arquivo único
+    private static List<Medicamento> intercalar(List<List<Medicamento>> listas, int estimativa) {
+        List<Medicamento> todos = new ArrayList<>(estimativa);
+        int[] pos = new int[listas.size()];
+        PriorityQueue<Integer> fila = new PriorityQueue<>(Math.max(1, listas.size()),
+                (a, b) -> RepositorioCSV.ORDEM_ARQUIVO.compare(listas.get(a).get(pos[a]), listas.get(b).get(pos[b])));
+        for (int i = 0; i < listas.size(); i++) if (!listas.get(i).isEmpty()) fila.add(i);
+        while (!fila.isEmpty()) {
+            int i = fila.poll();
+            todos.add(listas.get(i).get(pos[i]++));
+            if (pos[i] < listas.get(i).size()) fila.add(i);
+        }
+        return todos;
+    }
+
+    /* ===================== GRAVAÇÃO ===================== */
+
+    /**
+     * Reescreve as partes {@code alteradas} ({@code null} = todas) a partir de {@code meds} (o catálogo inteiro)
+     * e troca o manifesto. Sem manifesto {@code atual}, cria {@link #PARTES_PADRAO} partes.
+     */
+    static Gravacao gravar(Path diretorio, Manifesto atual, Collection<Medicamento> meds, BitSet alteradas,
+                       long geracao, long fimJournal) throws IOException {
+        Files.createDirectories(diretorio);
+        int n = atual != null ? atual.partes() : PARTES_PADRAO;
+        long serie = atual != null ? atual.serie() + 1 : 0;
+        boolean todas = atual == null || alteradas == null;
+
+        List<List<Medicamento>> porParte = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) porParte.add(todas || alteradas.get(i) ? new ArrayList<>() : null);
+        for (Medicamento m : meds) {
+            List<Medicamento> lista = porParte.get(parte(m.getCodigo(), n));
+            if (lista != null) lista.add(m);
+        }
+
+        List<String> arquivos = new ArrayList<>(n);
+        List<Integer> itens = new ArrayList<>(n);
+        int reescritas = 0, itensReescritos = 0;
+        long bytes = 0;
+        for (int i = 0; i < n; i++) {
+            List<Medicamento> lista = porParte.get(i);
+            if (lista == null) {
+                arquivos.add(atual.arquivos().get(i));
+                itens.add(atual.itens().get(i));
+                continue;
+            }
+            lista.sort(RepositorioCSV.ORDEM_ARQUIVO); // a cópia binária na mesma ordem do CSV
+            String nome = String.format("parte-%02d.%d.csv", i, serie);
+            Path csv = diretorio.resolve(nome);
+            // nome novo: um arquivo pela metade numa queda não é referenciado por nenhum manifesto
+            RepositorioCSV.gravarMedicamentosCSV(csv, lista);
+            SnapshotBinario.gravar(binario(csv), lista, List.of(), SnapshotBinario.Assinatura.de(csv));
+            bytes += Files.size(csv) + Files.size(binario(csv));
+            reescritas++;
+            itensReescritos += lista.size();
+            arquivos.add(nome);
+            itens.add(lista.size());
+        }
+        Manifesto novo = new Manifesto(serie, geracao, fimJournal, arquivos, itens);
+        gravarManifesto(diretorio, novo);
+        apagarNaoReferenciados(diretorio, novo);
+        return new Gravacao(reescritas, itensReescritos, bytes);
+    }
+
+    // partes substituídas e sobras de gravações interrompidas; no Windows um arquivo em uso fica para a próxima
+    private static void apagarNaoReferenciados(Path diretorio, Manifesto manifesto) throws IOException {
+        Set<String> referenciados = new HashSet<>();
+        for (String a : manifesto.arquivos()) {
+            referenciados.add(a);
+            referenciados.add(binario(diretorio.resolve(a)).getFileName().toString());
+        }
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(diretorio, "parte-*")) {
+            for (Path p : ds) {
+                if (referenciados.contains(p.getFileName().toString())) continue;
+                try {
+                    Files.deleteIfExists(p);
+                } catch (IOException e) {
+                    // tenta de novo na próxima gravação
+                }
+            }
+        }
+    }
+
+    private static Path binario(Path csv) {
+        String nome = csv.getFileName().toString();
+        return csv.resolveSibling(nome.substring(0, nome.length() - ".csv".length()) + ".bin");
+    }
+}
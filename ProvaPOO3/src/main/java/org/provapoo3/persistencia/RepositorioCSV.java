@@ -0,0 +1,847 @@
+package org.provapoo3.persistencia;
+
+import org.provapoo3.catalogo.CatalogoMedicamentos;
+import org.provapoo3.catalogo.RegistroFornecedores;
+import org.provapoo3.diagnostico.Eventos;
+import org.provapoo3.diagnostico.Metricas;
+import org.provapoo3.model.Fornecedor;
+import org.provapoo3.model.Medicamento;
+import org.provapoo3.model.Movimentacao;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.function.DoubleConsumer;
+
+/**
+ * Persistência dos medicamentos em CSV com journal append-only, compartilhável entre estações.
+ * <p>
+ * Cada inclusão/exclusão/movimentação de estoque gera uma linha no {@code medicamentos.journal} (custo O(1) de I/O).
+ * Na carga, o CSV base é lido e o journal é reaplicado por cima. Quando o journal passa de
+ * {@link #LIMITE_COMPACTACAO} bytes, o CSV base é atualizado e o journal recomeça.
+ * <p>
+ * O CSV base fica dividido em partes ({@code medicamentos/}, ver {@link PartesCSV}), cada uma com a sua cópia
+ * binária ({@link SnapshotBinario}): a compactação reescreve só as partes dos códigos que aparecem no journal, e a
+ * carga lê as partes em paralelo, de cada cópia binária enquanto ela corresponder ao CSV da parte.
+ * <p>
+ * Formato normalizado: cada fornecedor aparece uma única vez no {@code fornecedores.csv} e as linhas dos
+ * medicamentos o referenciam só pelo CNPJ. O formato anterior, num arquivo só ({@code medicamentos.csv} e
+ * {@code medicamentos.bin}, inclusive com as seis colunas de fornecedor por linha), é lido normalmente e migrado
+ * para as partes na primeira compactação, feita logo após a carga; {@link #exportarArquivoUnico} gera de novo
+ * o arquivo único.
+ * <p>
+ * Várias estações podem usar o mesmo diretório: toda escrita acontece sob a trava exclusiva do diretório
+ * ({@link TravaDiretorio}) e toda leitura sob a compartilhada. Antes de escrever, a estação lê o que as outras
+ * anexaram ao journal desde a sua última leitura ({@link Journal}) e aplica ao catálogo. Cada medicamento
+ * tem um carimbo de versão: um registro só é gravado se partiu da versão que está no disco; caso contrário
+ * outra estação alterou o mesmo código antes e o registro é descartado como conflito. A primeira linha do
+ * journal ({@code G;geração;tamanho anterior}) muda a cada compactação, para que as outras estações saibam
+ * que o journal recomeçou.
+ * <p>
+ * Entradas e saídas de estoque ({@code Q;código;versão;delta}) não mudam a versão: somam à quantidade da versão
+ * a que se referem, em qualquer ordem, então duas estações vendendo o mesmo item não conflitam. Só são
+ * descartadas se aquela versão foi excluída/trocada por outra estação ou se a saída deixaria o estoque negativo
+ * depois de somadas as das outras. Cada movimentação gravada vai também para o {@code movimentacoes.log}, que
+ * nunca é compactado (auditoria, principalmente dos controlados).
+ * <p>
+ * Os limites de estoque baixo por fornecedor ({@code L;cnpj;limite}, limite vazio volta ao padrão) também passam
+ * pelo journal, com o CNPJ só com os dígitos; a compactação os grava no {@code limites.csv}.
+ * <p>
+ * Linhas inválidas do CSV (colunas faltando ou a mais, data, número ou preço que não se lê, quantidade negativa, preço
+ * × quantidade fora do limite) não impedem a carga: as demais carregam e elas vão, com o motivo, para o
+ * {@code quarentena.csv} na reescrita que as tira do CSV.
+ */
+public class RepositorioCSV implements Closeable {
+
+    public static final String HEADER_MED =
+            "codigo;nome;descricao;principioAtivo;dataValidade;quantidadeEstoque;preco;controlado;forn_cnpj;versao";
+    public static final String HEADER_FORN =
+            "cnpj;razaoSocial;telefone;email;cidade;estado";
+    public static final String HEADER_LIMITES = "cnpj;limite";
+    public static final String HEADER_MOV =
+            "id;instante;usuario;codigo;nome;tipo;quantidade;saldo;controlado;documento";
+    public static final String HEADER_QUARENTENA = "instante;arquivo;linha;motivo;conteudo";
+
+    // journal maior que isso dispara a compactação (reescrita das partes alteradas do CSV base)
+    public static final long LIMITE_COMPACTACAO = 4L * 1024 * 1024;
+
+    // ordem das linhas nos CSVs de medicamentos
+    static final Comparator<Medicamento> ORDEM_ARQUIVO = Comparator
+            .comparing(Medicamento::getNome, String.CASE_INSENSITIVE_ORDER)
+            .thenComparing(Medicamento::getCodigo, String.CASE_INSENSITIVE_ORDER);
+
+    private static final String REG_INSERCAO = "+;";
+    private static final String REG_EXCLUSAO = "-;";
+    private static final String REG_FORNECEDOR = "F;";
+    private static final String REG_MOVIMENTACAO = "Q;";
+    private static final String REG_LIMITE = "L;";
+    // versão de um código ausente (nunca incluído ou excluído): a inclusão parte dela e grava a versão 0
+    private static final long AUSENTE = -1;
+
+    /**
+     * Uma mutação pronta para o journal: as linhas já formatadas (na thread que fez a mutação) e o código e a
+     * versão gravada, usados na detecção de conflito. {@code medicamento} é nulo na exclusão. Numa movimentação
+     * de estoque, {@code delta} é o que ela somou à quantidade, {@code auditoria} a linha do
+     * {@code movimentacoes.log} e {@code inclusao} o número de inclusão do item movimentado
+     * ({@link CatalogoMedicamentos#inclusao}), que diz se o catálogo ainda tem o mesmo item. Num limite de estoque
+     * de fornecedor não há código: vale o último gravado, sem detecção de conflito.
+     */
+    public record Registro(String codigo, long versao, Medicamento medicamento, List<String> linhas,
+                           int delta, String auditoria, long inclusao) {
+        public boolean exclusao() {
+            return medicamento == null && codigo != null;
+        }
+
+        public boolean limite() {
+            return codigo == null;
+        }
+
+        public boolean movimentacao() {
+            return delta != 0;
+        }
+    }
+
+    /**
+     * O que uma leitura do journal mudou no catálogo. Se o diretório foi compactado por outra estação sem que
+     * esta tivesse lido o journal anterior até o fim, o catálogo inteiro é relido e vem em {@code recarregado}
+     * (as listas de incluídos/removidos ficam vazias). {@code conflitos} são os registros desta estação
+     * descartados porque outra gravou o mesmo código antes (ou, numa saída, vendeu o estoque antes).
+     * {@code movimentados} tiveram só a quantidade alterada (são as cópias que o catálogo pôs no lugar).
+     */
+    public record Sincronizacao(CatalogoMedicamentos recarregado, List<Medicamento> incluidos,
+                                List<Medicamento> removidos, List<Medicamento> movimentados,
+                                List<Registro> conflitos, int gravados) {
+        public boolean alterou() {
+            return recarregado != null || !incluidos.isEmpty() || !removidos.isEmpty() || !movimentados.isEmpty();
+        }
+    }
+
+    private final Path arquivoCSV;
+    private final Path arquivoFornecedoresCSV;
+    private final Path arquivoLimitesCSV;
+    private final Path arquivoJournalCompactando;
+    private final Path arquivoSnapshot;
+    private final Path arquivoMovimentacoes;
+    private final Path arquivoQuarentena;
+    private final Path diretorioPartes;
+
+    private final TravaDiretorio trava;
+    // o journal e o que esta estação sabe do disco (protegidos pela trava)
+    private final Journal journal;
+    private final Map<String, Long> versoesNoDisco = new HashMap<>();     // códigos gravados desde a carga
+    private final Map<String, Medicamento> gravadosPorOutras = new HashMap<>(); // nulo = excluído
+    // partes do CSV base e as que a próxima compactação reescreve: as dos códigos lidos ou gravados no journal
+    // e as marcadas na carga (protegidas pela trava)
+    private int partes = PartesCSV.PARTES_PADRAO;
+    private final BitSet partesAlteradas = new BitSet();
+    private volatile boolean migracaoPendente;  // ainda no arquivo único
+    private volatile boolean snapshotPendente;  // parte sem cópia binária válida (ou com linhas inválidas)
+    // linhas inválidas da última carga pelo CSV, ainda no CSV lido (com a assinatura dele)
+    private volatile List<CarregadorCSV.Rejeicao> rejeitadasNaCarga = List.of();
+    private List<String> quarentenaPendente = List.of();
+    private SnapshotBinario.Assinatura assinaturaQuarentena;
+
+    public RepositorioCSV(Path diretorio) {
+        this.arquivoCSV = diretorio.resolve("medicamentos.csv");
+        this.arquivoFornecedoresCSV = diretorio.resolve("fornecedores.csv");
+        this.arquivoLimitesCSV = diretorio.resolve("limites.csv");
+        this.journal = new Journal(diretorio.resolve("medicamentos.journal"));
+        this.arquivoJournalCompactando = diretorio.resolve("medicamentos.journal.compactando");
+        this.arquivoSnapshot = diretorio.resolve("medicamentos.bin");
+        this.arquivoMovimentacoes = diretorio.resolve("movimentacoes.log");
+        this.arquivoQuarentena = diretorio.resolve("quarentena.csv");
+        this.trava = new TravaDiretorio(diretorio.resolve(".trava"));
+        this.diretorioPartes = diretorio.resolve(PartesCSV.DIRETORIO);
+    }
+
+    public Path diretorio() {
+        return arquivoCSV.getParent();
+    }
+
+    public Path arquivoQuarentena() {
+        return arquivoQuarentena;
+    }
+
+    // linhas do CSV que a última carga deixou de fora (vazia quando ela veio da cópia binária)
+    public List<CarregadorCSV.Rejeicao> rejeitadasNaCarga() {
+        return rejeitadasNaCarga;
+    }
+
+    /* ========================= CARGA ========================= */
+
+    public CatalogoMedicamentos carregar() throws IOException {
+        return carregar(p -> {});
+    }
+
+    /**
+     * Lê fornecedores e medicamentos (as partes em paralelo, cada uma da cópia binária ou, sem ela, do CSV) e
+     * reaplica os journals pendentes, inclusive o de uma compactação interrompida. Monta um catálogo novo, então
+     * pode rodar fora da FX thread.
+     */
+    public CatalogoMedicamentos carregar(DoubleConsumer progresso) throws IOException {
+        Files.createDirectories(arquivoCSV.getParent());
+        return trava.compartilhada(() -> carregarSemTrava(progresso));
+    }
+
+    private CatalogoMedicamentos carregarSemTrava(DoubleConsumer progresso) throws IOException {
+        Eventos.Carga evento = new Eventos.Carga();
+        evento.iniciar();
+        CatalogoMedicamentos catalogo = new CatalogoMedicamentos();
+        RegistroFornecedores fornecedores = catalogo.fornecedores();
+        rejeitadasNaCarga = List.of();
+        quarentenaPendente = List.of();
+        partesAlteradas.clear();
+        PartesCSV.Manifesto manifesto = PartesCSV.lerManifesto(diretorioPartes);
+        // sem partes (arquivo único ou diretório novo): a compactação logo após a carga as cria
+        migracaoPendente = manifesto == null;
+        snapshotPendente = false;
+        partes = manifesto != null ? manifesto.partes() : PartesCSV.PARTES_PADRAO;
+        List<Medicamento> meds = manifesto != null
+                ? carregarPartes(manifesto, fornecedores, progresso, evento)
+                : carregarArquivoUnico(fornecedores, progresso, evento);
+        catalogo.substituirTodos(meds);
+        carregarLimitesCSV(catalogo);
+
+        versoesNoDisco.clear();
+        gravadosPorOutras.clear();
+        reaplicarJournal(Journal.ler(arquivoJournalCompactando, 0).linhas(), catalogo, null);
+        // uma compactação interrompida depois de trocar o manifesto já pôs nas partes o início deste journal
+        long geracao = journal.geracaoNoDisco();
+        long inicio = manifesto != null && manifesto.geracao() == geracao && manifesto.fimJournal() > 0
+                && manifesto.fimJournal() <= journal.tamanho() ? manifesto.fimJournal() : 0;
+        Journal.Leitura lidas = journal.lerDesde(inicio);
+        reaplicarJournal(lidas.linhas(), catalogo, null);
+
+        evento.medicamentos = catalogo.tamanho();
+        evento.bytes += lidas.fim() - inicio;
+        evento.encerrar(Metricas.histograma("disco.carga"));
+        Metricas.contador("disco.bytes.lidos").add(evento.bytes);
+        return catalogo;
+    }
+
+    private List<Medicamento> carregarPartes(PartesCSV.Manifesto manifesto, RegistroFornecedores fornecedores,
+                                             DoubleConsumer progresso, Eventos.Carga evento) throws IOException {
+        List<String> quarentena = new ArrayList<>();
+        String agora = Instant.now().toString();
+        carregarFornecedoresCSV(fornecedores, quarentena, agora);
+        PartesCSV.Carga carga = PartesCSV.carregar(diretorioPartes, manifesto, fornecedores, progresso);
+        List<CarregadorCSV.Rejeicao> rejeitadas = new ArrayList<>();
+        carga.rejeitadas().forEach((arquivo, lista) -> {
+            for (CarregadorCSV.Rejeicao r : lista) {
+                quarentena.add(String.join(";", agora, arquivo, Long.toString(r.linha()), limpo(r.motivo()), r.conteudo()));
+            }
+            rejeitadas.addAll(lista);
+        });
+        partesAlteradas.or(carga.regravar());
+        snapshotPendente = !carga.regravar().isEmpty() || !quarentena.isEmpty();
+        rejeitadasNaCarga = List.copyOf(rejeitadas);
+        quarentenaPendente = quarentena;
+        assinaturaQuarentena = assinaturaBase();
+        evento.origem = PartesCSV.DIRETORIO + "/ (" + manifesto.partes() + " partes)";
+        evento.bytes = carga.bytes() + tamanho(arquivoFornecedoresCSV);
+        return carga.medicamentos();
+    }
+
+    // formato anterior às partes, lido como antes: da cópia binária ou do CSV em paralelo
+    private List<Medicamento> carregarArquivoUnico(RegistroFornecedores fornecedores, DoubleConsumer progresso,
+                                                   Eventos.Carga evento) throws IOException {
+        if (Files.notExists(arquivoCSV)) {
+            evento.origem = "(vazio)";
+            progresso.accept(1.0);
+            return List.of();
+        }
+        Optional<List<Medicamento>> snapshot = SnapshotBinario.carregar(arquivoSnapshot,
+                SnapshotBinario.Assinatura.de(arquivoCSV, arquivoFornecedoresCSV), fornecedores, progresso);
+        evento.origem = snapshot.isPresent() ? "medicamentos.bin" : "medicamentos.csv";
+        evento.bytes = tamanho(snapshot.isPresent() ? arquivoSnapshot : arquivoCSV);
+        return snapshot.isPresent() ? snapshot.get() : carregarCSV(fornecedores, progresso);
+    }
+
+    private List<Medicamento> carregarCSV(RegistroFornecedores fornecedores, DoubleConsumer progresso)
+            throws IOException {
+        List<String> quarentena = new ArrayList<>();
+        String agora = Instant.now().toString();
+        carregarFornecedoresCSV(fornecedores, quarentena, agora);
+        CarregadorCSV.Carga carga = CarregadorCSV.carregar(arquivoCSV, c -> fornecedores.buscar(c).orElse(null), progresso);
+        for (CarregadorCSV.Rejeicao r : carga.rejeitadas()) {
+            quarentena.add(String.join(";", agora, arquivoCSV.getFileName().toString(),
+                    Long.toString(r.linha()), limpo(r.motivo()), r.conteudo()));
+        }
+        rejeitadasNaCarga = List.copyOf(carga.rejeitadas());
+        quarentenaPendente = quarentena;
+        assinaturaQuarentena = assinaturaBase();
+        return carga.medicamentos();
+    }
+
+    private void carregarFornecedoresCSV(RegistroFornecedores fornecedores, List<String> quarentena, String agora)
+            throws IOException {
+        if (Files.exists(arquivoFornecedoresCSV)) {
+            List<String> linhas = Files.readAllLines(arquivoFornecedoresCSV, StandardCharsets.UTF_8);
+            for (int i=1;i<linhas.size();i++) {
+                if (linhas.get(i).isBlank()) continue;
+                try {
+                    fornecedores.registrar(parseFornecedor(linhas.get(i)));
+                } catch (IllegalArgumentException e) {
+                    quarentena.add(String.join(";", agora, arquivoFornecedoresCSV.getFileName().toString(),
+                            Integer.toString(i + 1), limpo(e.getMessage()), linhas.get(i)));
+                }
+            }
+        }
+    }
+
+    // limites de estoque por fornecedor da última compactação (os posteriores estão no journal); uma linha
+    // inválida é ignorada e o fornecedor fica no limite padrão
+    private void carregarLimitesCSV(CatalogoMedicamentos catalogo) throws IOException {
+        if (Files.notExists(arquivoLimitesCSV)) return;
+        List<String> linhas = Files.readAllLines(arquivoLimitesCSV, StandardCharsets.UTF_8);
+        for (int i = 1; i < linhas.size(); i++) {
+            String[] t = linhas.get(i).split(";", -1);
+            try {
+                if (t.length == 2) catalogo.definirLimiteEstoque(t[0], Integer.parseInt(t[1]));
+            } catch (NumberFormatException e) {
+                // fica no limite padrão
+            }
+        }
+    }
+
+    // o CSV base que a carga leu: o manifesto (trocado a cada compactação) ou o arquivo único
+    private SnapshotBinario.Assinatura assinaturaBase() throws IOException {
+        Path manifesto = diretorioPartes.resolve(PartesCSV.MANIFESTO);
+        return SnapshotBinario.Assinatura.de(Files.exists(manifesto) ? manifesto : arquivoCSV, arquivoFornecedoresCSV);
+    }
+
+    /**
+     * Aplica os registros na ordem do journal. Uma inclusão só vale se não for mais antiga que o que o catálogo
+     * tem (registros repetidos após uma compactação interrompida não voltam versões); uma exclusão só vale para
+     * a versão em que ela se baseou ou anteriores; uma movimentação, só na versão a que se refere.
+     */
+    private void reaplicarJournal(List<String> linhas, CatalogoMedicamentos catalogo, Mudancas mudancas) {
+        RegistroFornecedores fornecedores = catalogo.fornecedores();
+        for (String linha : linhas) {
+            try {
+                if (linha.startsWith(REG_FORNECEDOR)) {
+                    catalogo.registrarFornecedor(parseFornecedor(linha.substring(REG_FORNECEDOR.length())));
+                } else if (linha.startsWith(REG_INSERCAO)) {
+                    Medicamento m = parseMedicamento(linha.substring(REG_INSERCAO.length()), fornecedores);
+                    marcarAlterado(m.getCodigo());
+                    lembrarExterno(m.getCodigo(), m.getVersao(), m, mudancas);
+                    Medicamento atual = catalogo.buscarPorCodigo(m.getCodigo()).orElse(null);
+                    if (atual == null || atual.getVersao() <= m.getVersao()) {
+                        catalogo.substituir(m).ifPresent(a -> { if (mudancas != null) mudancas.removidos.add(a); });
+                        if (mudancas != null) mudancas.incluidos.add(m);
+                    }
+                } else if (linha.startsWith(REG_EXCLUSAO)) {
+                    String[] t = linha.split(";", -1);
+                    // exclusão sem versão (journal antigo) vale sempre
+                    long versao = t.length > 2 ? Long.parseLong(t[2]) : Long.MAX_VALUE;
+                    marcarAlterado(t[1]);
+                    lembrarExterno(t[1], versao, null, mudancas);
+                    Medicamento atual = catalogo.buscarPorCodigo(t[1]).orElse(null);
+                    if (atual != null && atual.getVersao() < versao) {
+                        catalogo.remover(t[1]);
+                        if (mudancas != null) mudancas.removidos.add(atual);
+                    }
+                } else if (linha.startsWith(REG_MOVIMENTACAO)) {
+                    String[] t = linha.split(";", -1);
+                    marcarAlterado(t[1]);
+                    catalogo.somarQuantidade(t[1], Long.parseLong(t[2]), Integer.parseInt(t[3]))
+                            .ifPresent(m -> { if (mudancas != null) mudancas.movimentados.add(m); });
+                } else if (linha.startsWith(REG_LIMITE)) {
+                    String[] t = linha.split(";", -1);
+                    catalogo.definirLimiteEstoque(t[1], t[2].isEmpty() ? null : Integer.parseInt(t[2]));
+                }
+            } catch (RuntimeException e) {
+                // linha incompleta (queda no meio da escrita) é ignorada
+            }
+        }
+    }
+
+    private void marcarAlterado(String codigo) {
+        partesAlteradas.set(PartesCSV.parte(codigo, partes));
+    }
+
+    // na carga o disco é o próprio catálogo; depois dela, guarda o que outras estações gravaram
+    private void lembrarExterno(String codigo, long versao, Medicamento m, Mudancas mudancas) {
+        if (mudancas == null) return;
+        versoesNoDisco.put(codigo, m == null ? AUSENTE : versao);
+        gravadosPorOutras.put(codigo, m);
+    }
+
+    /* ========================= JOURNAL ========================= */
+
+    public static Registro registroInsercao(Medicamento m) {
+        // grava também o fornecedor, cujos dados de contato podem ter mudado no formulário
+        List<String> linhas = m.getFornecedor() == null
+                ? List.of(REG_INSERCAO + linhaMedicamento(m))
+                : List.of(REG_FORNECEDOR + linhaFornecedor(m.getFornecedor()), REG_INSERCAO + linhaMedicamento(m));
+        return new Registro(m.getCodigo(), m.getVersao(), m, linhas, 0, null, -1);
+    }
+
+    // a exclusão leva a versão seguinte à do medicamento excluído
+    public static Registro registroExclusao(Medicamento excluido) {
+        long versao = excluido.getVersao() + 1;
+        return new Registro(excluido.getCodigo(), versao, null,
+                List.of(REG_EXCLUSAO + excluido.getCodigo() + ";" + versao), 0, null, -1);
+    }
+
+    // movimentação já aplicada no catálogo (saldo: a quantidade depois dela, nesta estação)
+    public static Registro registroMovimentacao(CatalogoMedicamentos.Saldo saldo, Movimentacao mv, Instant quando) {
+        Medicamento m = saldo.medicamento();
+        String auditoria = String.join(";",
+                UUID.randomUUID().toString(), quando.toString(), limpo(System.getProperty("user.name")),
+                m.getCodigo(), limpo(m.getNome()), mv.tipo().name(), Integer.toString(mv.quantidade()),
+                Integer.toString(saldo.quantidade()), Boolean.toString(m.isControlado()), limpo(mv.documento()));
+        return new Registro(m.getCodigo(), m.getVersao(), m,
+                List.of(REG_MOVIMENTACAO + m.getCodigo() + ";" + m.getVersao() + ";" + mv.delta()),
+                mv.delta(), auditoria, saldo.inclusao());
+    }
+
+    // limite de estoque baixo de um fornecedor (null volta ao padrão), gravado com o CNPJ só com os dígitos
+    public static Registro registroLimite(String cnpj, Integer limite) {
+        String linha = REG_LIMITE + CatalogoMedicamentos.digitosCnpj(cnpj) + ";" + (limite == null ? "" : limite);
+        return new Registro(null, 0, null, List.of(linha), 0, null, -1);
+    }
+
+    /**
+     * Lê o que outras estações anexaram ao journal desde a última leitura e aplica ao catálogo
+     * (ou relê tudo, se o diretório foi compactado nesse meio tempo).
+     */
+    public Sincronizacao sincronizar(CatalogoMedicamentos catalogo) throws IOException {
+        return trava.compartilhada(() -> {
+            Mudancas mudancas = new Mudancas(catalogo);
+            acompanhar(mudancas);
+            return mudancas.resultado();
+        });
+    }
+
+    /**
+     * Grava os registros desta estação sob a trava exclusiva. Antes, aplica o que as outras gravaram; depois,
+     * descarta os registros que não partiram da versão que está no disco (e os seguintes do mesmo código) e
+     * devolve esses códigos ao estado gravado pela outra estação.
+     */
+    public Sincronizacao gravar(List<Registro> registros, CatalogoMedicamentos catalogo) throws IOException {
+        return trava.exclusiva(() -> {
+            Mudancas mudancas = new Mudancas(catalogo);
+            acompanhar(mudancas);
+            CatalogoMedicamentos atual = mudancas.catalogo();
+            if (mudancas.recarregado != null) {
+                // relido do disco: as versões de lá são as do catálogo novo
+                for (Registro r : registros) {
+                    if (r.limite()) continue;
+                    versoesNoDisco.putIfAbsent(r.codigo(),
+                            atual.buscarPorCodigo(r.codigo()).map(Medicamento::getVersao).orElse(AUSENTE));
+                }
+            }
+
+            List<String> linhas = new ArrayList<>(), auditoria = new ArrayList<>();
+            Map<String, Long> aceitos = new HashMap<>();
+            Set<String> emConflito = new LinkedHashSet<>();
+            Set<String> incluidosOuExcluidos = new HashSet<>();
+            for (Registro r : registros) if (!r.movimentacao() && !r.limite()) incluidosOuExcluidos.add(r.codigo());
+            for (Registro r : registros) {
+                if (r.limite()) {
+                    linhas.addAll(r.linhas());
+                    mudancas.gravados++;
+                    // relido do disco sem este registro: aplica no catálogo novo
+                    if (mudancas.recarregado != null) reaplicarJournal(r.linhas(), atual, null);
+                    continue;
+                }
+                Long disco = aceitos.containsKey(r.codigo()) ? aceitos.get(r.codigo()) : versoesNoDisco.get(r.codigo());
+                if (r.movimentacao()) {
+                    if (!aceitarMovimentacao(r, disco, emConflito, incluidosOuExcluidos.contains(r.codigo()), mudancas)) {
+                        mudancas.conflitos.add(r);
+                        continue;
+                    }
+                    linhas.addAll(r.linhas());
+                    auditoria.add(r.auditoria());
+                    marcarAlterado(r.codigo());
+                    mudancas.gravados++;
+                    continue;
+                }
+                long base = r.exclusao() ? r.versao() - 1 : r.versao() == 0 ? AUSENTE : r.versao() - 1;
+                if (emConflito.contains(r.codigo()) || (disco != null && disco != base)) {
+                    emConflito.add(r.codigo());
+                    mudancas.conflitos.add(r);
+                    continue;
+                }
+                aceitos.put(r.codigo(), r.exclusao() ? AUSENTE : r.versao());
+                linhas.addAll(r.linhas());
+                marcarAlterado(r.codigo());
+                mudancas.gravados++;
+                // relido do disco sem estes registros: aplica no catálogo novo
+                if (mudancas.recarregado != null) aplicarProprio(r, atual);
+            }
+            anexarAuditoria(auditoria); // antes do journal: uma nova tentativa só repete linhas de mesmo id
+            anexar(linhas);
+            versoesNoDisco.putAll(aceitos);
+            for (String codigo : emConflito) restaurar(codigo, mudancas);
+            return mudancas.resultado();
+        });
+    }
+
+    /**
+     * Uma movimentação desta estação só vai para o disco se a versão a que ela se refere ainda é a de lá e se o
+     * catálogo ainda tem o delta aplicado (o item não foi trocado por um registro de outra estação). Uma saída
+     * que, somada às das outras estações, deixa o estoque negativo é desfeita.
+     */
+    private boolean aceitarMovimentacao(Registro r, Long disco, Set<String> emConflito, boolean registrosProprios,
+                                        Mudancas mudancas) {
+        CatalogoMedicamentos catalogo = mudancas.catalogo();
+        Medicamento atual = catalogo.buscarPorCodigo(r.codigo()).orElse(null);
+        boolean mesmoItem = catalogo.inclusao(r.codigo()) == r.inclusao();
+        boolean valida = !emConflito.contains(r.codigo()) && (disco == null || disco == r.versao());
+        if (valida && mudancas.recarregado != null) {
+            // relido do disco sem esta movimentação: aplica no catálogo novo
+            valida = catalogo.somarQuantidade(r.codigo(), r.versao(), r.delta()).isPresent();
+        } else if (valida && !mesmoItem && !registrosProprios) {
+            valida = false; // o delta se perdeu junto com o item substituído
+        }
+        boolean semSaldo = valida && r.delta() < 0 && atual != null && atual.getVersao() == r.versao()
+                && atual.getQuantidadeEstoque() < 0;
+        if (valida && !semSaldo) return true;
+        // descartada: tira o delta se ele ainda está no catálogo
+        if (semSaldo || (mudancas.recarregado == null && atual != null && mesmoItem)) {
+            mudancas.movimentados.add(catalogo.somarQuantidade(r.codigo(), r.versao(), -r.delta()).orElse(atual));
+        }
+        return false;
+    }
+
+    private void aplicarProprio(Registro r, CatalogoMedicamentos catalogo) {
+        if (r.exclusao()) catalogo.remover(r.codigo());
+        else catalogo.substituir(r.medicamento());
+    }
+
+    // volta o código ao último estado gravado por outra estação (se veio de uma releitura, o catálogo já está nele)
+    private void restaurar(String codigo, Mudancas mudancas) {
+        if (!gravadosPorOutras.containsKey(codigo)) return;
+        Medicamento doDisco = gravadosPorOutras.get(codigo);
+        CatalogoMedicamentos catalogo = mudancas.catalogo();
+        Medicamento atual = catalogo.buscarPorCodigo(codigo).orElse(null);
+        if (atual == doDisco) return;
+        if (atual != null) {
+            catalogo.remover(codigo);
+            mudancas.removidos.add(atual);
+        }
+        if (doDisco != null) {
+            catalogo.substituir(doDisco);
+            mudancas.incluidos.add(doDisco);
+        }
+    }
+
+    // lê o journal a partir de onde parou; se ele recomeçou (compactação de outra estação), relê tudo
+    private void acompanhar(Mudancas mudancas) throws IOException {
+        switch (journal.situacao()) {
+            case TROCADO -> {
+                mudancas.recarregado = carregarSemTrava(p -> {});
+                return;
+            }
+            case NOVA_GERACAO -> {
+                // o que esta estação sabia do journal anterior já está na base
+                versoesNoDisco.clear();
+                gravadosPorOutras.clear();
+                partesAlteradas.clear();
+            }
+            case EM_DIA -> {}
+        }
+        reaplicarJournal(journal.lerNovos(), mudancas.catalogo(), mudancas);
+    }
+
+    private void anexar(List<String> linhas) throws IOException {
+        if (linhas.isEmpty()) return;
+        Eventos.Gravacao evento = new Eventos.Gravacao();
+        evento.iniciar();
+        long[] faixa = journal.anexar(linhas);
+        evento.operacao = "journal";
+        evento.registros = linhas.size();
+        evento.bytes = faixa[1] - faixa[0];
+        evento.encerrar(Metricas.histograma("disco.journal"));
+        Metricas.contador("disco.bytes.escritos").add(evento.bytes);
+    }
+
+    private void anexarAuditoria(List<String> linhas) throws IOException {
+        if (linhas.isEmpty()) return;
+        if (Files.notExists(arquivoMovimentacoes)) Journal.acrescentar(arquivoMovimentacoes, List.of(HEADER_MOV));
+        long[] faixa = Journal.acrescentar(arquivoMovimentacoes, linhas);
+        Metricas.contador("disco.bytes.escritos").add(faixa[1] - faixa[0]);
+    }
+
+    /**
+     * Movimentações gravadas de um código, da mais antiga para a mais recente (linhas do {@code movimentacoes.log}
+     * sem a coluna id; uma linha repetida por nova tentativa de gravação aparece uma vez só).
+     */
+    public List<String> movimentacoes(String codigo) throws IOException {
+        return trava.compartilhada(() -> {
+            if (Files.notExists(arquivoMovimentacoes)) return List.of();
+            Set<String> ids = new HashSet<>();
+            List<String> linhas = new ArrayList<>();
+            String marca = ";" + codigo + ";";
+            try (BufferedReader br = Files.newBufferedReader(arquivoMovimentacoes, StandardCharsets.UTF_8)) {
+                br.readLine(); // cabeçalho
+                for (String l; (l = br.readLine()) != null; ) {
+                    if (!l.contains(marca)) continue;
+                    String[] c = l.split(";", 5);
+                    if (c.length == 5 && c[3].equals(codigo) && ids.add(c[0])) linhas.add(l.substring(c[0].length() + 1));
+                }
+            }
+            return linhas;
+        });
+    }
+
+    public boolean precisaCompactar() throws IOException {
+        return migracaoPendente || snapshotPendente || journal.tamanho() > LIMITE_COMPACTACAO;
+    }
+
+    /* ======================= COMPACTAÇÃO ======================= */
+
+    /**
+     * Sob a trava exclusiva: aplica o que as outras estações gravaram, reescreve o {@code fornecedores.csv}, o
+     * {@code limites.csv} e as partes com códigos do journal (todas, na migração do arquivo único) a partir do catálogo e recomeça o journal
+     * na geração seguinte. Os registros desta estação ainda na fila devem ter sido gravados antes; os que chegarem
+     * depois vão para o journal novo.
+     */
+    public Sincronizacao compactar(CatalogoMedicamentos catalogo) throws IOException {
+        return trava.exclusiva(() -> {
+            Mudancas mudancas = new Mudancas(catalogo);
+            acompanhar(mudancas);
+            CatalogoMedicamentos atual = mudancas.catalogo();
+            gravarBase(atual.todos(), atual.fornecedores().todos(), atual.limitesEstoque(),
+                    migracaoPendente ? null : partesAlteradas, journal.lidoAte());
+
+            journal.recomecar();
+            versoesNoDisco.clear();
+            gravadosPorOutras.clear();
+            partesAlteradas.clear();
+            Files.deleteIfExists(arquivoJournalCompactando); // sobra de uma versão anterior do programa
+            migracaoPendente = false;
+            snapshotPendente = false;
+            return mudancas.resultado();
+        });
+    }
+
+    // reescrita completa (fornecedores + todas as partes, cada uma com a sua cópia binária); o journal não é tocado
+    public void salvarTudo(Collection<Medicamento> meds, Collection<Fornecedor> fornecedores) throws IOException {
+        salvarTudo(meds, fornecedores, Map.of());
+    }
+
+    public void salvarTudo(Collection<Medicamento> meds, Collection<Fornecedor> fornecedores,
+                           Map<String, Integer> limites) throws IOException {
+        gravarBase(meds, fornecedores, limites, null, -1);
+    }
+
+    /**
+     * Reescreve o {@code fornecedores.csv}, o {@code limites.csv} e as partes {@code alteradas} ({@code null} =
+     * todas) a partir de {@code meds}, o catálogo inteiro. Fornecedores primeiro: um medicamento nunca fica apontando para CNPJ
+     * ausente do fornecedores.csv. {@code fimJournal} é até onde o journal atual já está em {@code meds}
+     * (-1 se não está).
+     */
+    private void gravarBase(Collection<Medicamento> meds, Collection<Fornecedor> fornecedores,
+                            Map<String, Integer> limites, BitSet alteradas, long fimJournal) throws IOException {
+        Eventos.Gravacao evento = new Eventos.Gravacao();
+        evento.iniciar();
+        PartesCSV.Gravacao gravadas = trava.exclusiva(() -> {
+            gravarQuarentena();
+            salvarFornecedoresCSV(fornecedores);
+            salvarLimitesCSV(limites);
+            PartesCSV.Manifesto manifesto = PartesCSV.lerManifesto(diretorioPartes);
+            // partes marcadas com outra divisão não valem para a do disco
+            BitSet aGravar = manifesto != null && manifesto.partes() != partes ? null : alteradas;
+            PartesCSV.Gravacao g = PartesCSV.gravar(diretorioPartes, manifesto, meds, aGravar, journal.geracao(),
+                    fimJournal);
+            evento.operacao = aGravar == null ? "reescrita" : "reescrita de " + g.partes() + " parte(s)";
+            if (manifesto == null) {
+                // migrado: o arquivo único sai do diretório (exportarArquivoUnico gera outro quando preciso)
+                partes = PartesCSV.PARTES_PADRAO;
+                Files.deleteIfExists(arquivoCSV);
+            } else {
+                partes = manifesto.partes();
+            }
+            // a cópia antiga pode estar mapeada (descrições da carga): no Windows fica para a próxima gravação
+            try {
+                Files.deleteIfExists(arquivoSnapshot);
+            } catch (IOException e) {
+                // tenta de novo na próxima gravação
+            }
+            return g;
+        });
+        evento.registros = gravadas.itens();
+        evento.bytes = tamanho(arquivoFornecedoresCSV) + gravadas.bytes();
+        evento.encerrar(Metricas.histograma("disco.reescrita"));
+        Metricas.contador("disco.bytes.escritos").add(evento.bytes);
+    }
+
+    /**
+     * O catálogo num único CSV no formato de antes das partes ({@link #HEADER_MED}, ordenado por nome). Colocado
+     * como {@code medicamentos.csv} num diretório sem {@code medicamentos/} (junto com o {@code fornecedores.csv},
+     * que já é um arquivo só), volta a ser a base e é migrado de novo na carga seguinte.
+     */
+    public void exportarArquivoUnico(Collection<Medicamento> meds, Path destino) throws IOException {
+        Path tmp = destino.resolveSibling(destino.getFileName() + ".tmp");
+        try {
+            gravarMedicamentosCSV(tmp, meds);
+            moverAtomico(tmp, destino);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+    }
+
+    // as linhas inválidas saem do CSV nesta reescrita: antes, vão para a quarentena. Se o CSV não é mais o que
+    // foi lido, outra estação já o reescreveu (e guardou as mesmas linhas)
+    private void gravarQuarentena() throws IOException {
+        List<String> linhas = quarentenaPendente;
+        if (linhas.isEmpty()) return;
+        quarentenaPendente = List.of();
+        if (!assinaturaBase().equals(assinaturaQuarentena)) return;
+        if (Files.notExists(arquivoQuarentena)) Journal.acrescentar(arquivoQuarentena, List.of(HEADER_QUARENTENA));
+        Journal.acrescentar(arquivoQuarentena, linhas);
+    }
+
+    static void gravarMedicamentosCSV(Path arquivo, Collection<Medicamento> meds) throws IOException {
+        try (BufferedWriter bw = Files.newBufferedWriter(arquivo, StandardCharsets.UTF_8)) {
+            bw.write(HEADER_MED); bw.newLine();
+
+            // salva ordenado por nome, depois código (opcional, deixa organizado)
+            List<Medicamento> sorted = new ArrayList<>(meds);
+            sorted.sort(ORDEM_ARQUIVO);
+
+            for (Medicamento m : sorted) {
+                bw.write(linhaMedicamento(m));
+                bw.newLine();
+            }
+        }
+    }
+
+    private void salvarFornecedoresCSV(Collection<Fornecedor> registrados) throws IOException {
+        List<Fornecedor> fornecedores = new ArrayList<>(registrados);
+        fornecedores.sort(Comparator.comparing(Fornecedor::getRazaoSocial, String.CASE_INSENSITIVE_ORDER));
+
+        Path tmp = arquivoFornecedoresCSV.resolveSibling(arquivoFornecedoresCSV.getFileName() + ".tmp");
+        try (BufferedWriter bw = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            bw.write(HEADER_FORN); bw.newLine();
+            for (Fornecedor f : fornecedores) {
+                bw.write(linhaFornecedor(f));
+                bw.newLine();
+            }
+        }
+        moverAtomico(tmp, arquivoFornecedoresCSV);
+    }
+
+    private void salvarLimitesCSV(Map<String, Integer> limites) throws IOException {
+        Path tmp = arquivoLimitesCSV.resolveSibling(arquivoLimitesCSV.getFileName() + ".tmp");
+        try (BufferedWriter bw = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            bw.write(HEADER_LIMITES); bw.newLine();
+            for (Map.Entry<String, Integer> e : new TreeMap<>(limites).entrySet()) {
+                bw.write(e.getKey() + ";" + e.getValue());
+                bw.newLine();
+            }
+        }
+        moverAtomico(tmp, arquivoLimitesCSV);
+    }
+
+    private static long tamanho(Path arquivo) throws IOException {
+        return Files.exists(arquivo) ? Files.size(arquivo) : 0;
+    }
+
+    static void moverAtomico(Path origem, Path destino) throws IOException {
+        try {
+            Files.move(origem, destino, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(origem, destino, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        trava.close();
+    }
+
+    // acumula o efeito de uma sincronização no catálogo
+    private static final class Mudancas {
+        final CatalogoMedicamentos original;
+        CatalogoMedicamentos recarregado;
+        final List<Medicamento> incluidos = new ArrayList<>(), removidos = new ArrayList<>();
+        final List<Medicamento> movimentados = new ArrayList<>();
+        final List<Registro> conflitos = new ArrayList<>();
+        int gravados;
+
+        Mudancas(CatalogoMedicamentos original) {
+            this.original = original;
+        }
+
+        CatalogoMedicamentos catalogo() {
+            return recarregado != null ? recarregado : original;
+        }
+
+        Sincronizacao resultado() {
+            // releitura: a tela remonta a partir do catálogo novo, as listas não importam
+            return recarregado != null
+                    ? new Sincronizacao(recarregado, List.of(), List.of(), List.of(), conflitos, gravados)
+                    : new Sincronizacao(null, incluidos, removidos, movimentados, conflitos, gravados);
+        }
+    }
+
+    /* ========================= LINHAS ========================= */
+
+    public static String linhaMedicamento(Medicamento m) {
+        var f = m.getFornecedor();
+        return String.join(";",
+                nz(m.getCodigo()), limpo(m.getNome()), limpo(m.lerDescricao()), limpo(m.getPrincipioAtivo()),
+                m.getDataValidade()!=null ? m.getDataValidade().toString() : "",
+                Integer.toString(m.getQuantidadeEstoque()),
+                m.getPreco()!=null ? m.getPreco().setScale(2, RoundingMode.HALF_UP).toPlainString() : "",
+                Boolean.toString(m.isControlado()),
+                nz(f!=null?f.getCnpj():""),
+                Long.toString(m.getVersao())
+        );
+    }
+
+    public static String linhaFornecedor(Fornecedor f) {
+        return String.join(";",
+                nz(f.getCnpj()), limpo(f.getRazaoSocial()), limpo(f.getTelefone()),
+                limpo(f.getEmail()), limpo(f.getCidade()), limpo(f.getEstado())
+        );
+    }
+
+    // aceita a linha normalizada (só o CNPJ, com ou sem a versão) e a antiga (com as seis colunas do fornecedor)
+    public static Medicamento parseMedicamento(String linha, RegistroFornecedores fornecedores) {
+        String[] t = linha.split(";", -1);
+        if (t.length != CarregadorCSV.COLUNAS && t.length != CarregadorCSV.COLUNAS_SEM_VERSAO
+                && t.length != CarregadorCSV.COLUNAS_LEGADO)
+            throw new IllegalArgumentException("Linha com " + t.length + " colunas (esperado "
+                    + CarregadorCSV.COLUNAS_SEM_VERSAO + ", " + CarregadorCSV.COLUNAS + " ou "
+                    + CarregadorCSV.COLUNAS_LEGADO + ").");
+        boolean legado = t.length >= CarregadorCSV.COLUNAS_LEGADO;
+        Fornecedor f = legado
+                ? new Fornecedor(t[8], t[9], t[10], t[11], t[12], t[13])
+                : fornecedores.buscar(t[8]).orElseGet(() -> new Fornecedor(t[8], "", "", "", "", ""));
+        Medicamento m = new Medicamento(
+                t[0], t[1], t[2], t[3],
+                LocalDate.parse(t[4]),
+                Integer.parseInt(t[5]),
+                new BigDecimal(t[6]),
+                Boolean.parseBoolean(t[7]),
+                f
+        );
+        CarregadorCSV.conferirEstoque(m.getQuantidadeEstoque(), m.getPreco());
+        if (t.length == CarregadorCSV.COLUNAS) m.setVersao(Long.parseLong(t[9]));
+        return m;
+    }
+
+    public static Fornecedor parseFornecedor(String linha) {
+        String[] t = linha.split(";", -1);
+        if (t.length != 6) throw new IllegalArgumentException("Linha com " + t.length + " colunas (esperado 6).");
+        return new Fornecedor(t[0], t[1], t[2], t[3], t[4], t[5]);
+    }
+
+    private static String nz(String s){ return (s==null) ? "" : s; }
+    // texto livre numa coluna do log: sem o separador nem quebra de linha
+    private static String limpo(String s){ return nz(s).replace(';', ',').replace('\n', ' ').replace('\r', ' '); }
+}
@@ -0,0 +1,246 @@
+package org.provapoo3.persistencia;
+
+import org.provapoo3.catalogo.CatalogoMedicamentos;
+import org.provapoo3.catalogo.RegistroFornecedores;
+import org.provapoo3.diagnostico.Metricas;
+import org.provapoo3.model.Fornecedor;
+import org.provapoo3.model.Medicamento;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.function.DoubleConsumer;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Cópia binária de um CSV de medicamentos (cada parte de {@link PartesCSV} tem a sua; no formato de arquivo único,
+ * o {@code medicamentos.bin}) para a carga rápida na abertura.
+ * <p>
+ * É gravada junto com o CSV e guarda o tamanho e a data de modificação dos CSVs de origem: se algum deles mudar
+ * (ex.: editado à mão), a cópia é descartada e a carga volta ao CSV, que continua sendo o formato de intercâmbio.
+ * <p>
+ * Formato: cabeçalho fixo (versão, assinatura dos CSVs, contagens, CRC32 do conteúdo), tabela de fornecedores
+ * e medicamentos com textos prefixados pelo tamanho, validade em dia epoch, preço em centavos, um byte de flags
+ * e o carimbo de versão. As descrições (o campo maior) ficam numa região no fim do arquivo, na ordem dos
+ * medicamentos, e a linha guarda só o tamanho: a carga não cria as strings, só entrega a fatia mapeada a um
+ * {@link BlocoDescricoes} de onde cada uma é lida quando pedida.
+ */
+public class SnapshotBinario {
+
+    private static final int MAGICO = 0x504D4544; // "PMED"
+    private static final int VERSAO = 3;
+    private static final int TAMANHO_CABECALHO = 4 + 4 + 4 * 8 + 4 + 4 + 8 + 8 + 4;
+    private static final int SEM_DATA = Integer.MIN_VALUE;
+    private static final long SEM_PRECO = Long.MIN_VALUE;
+    private static final int FLAG_CONTROLADO = 1;
+
+    // tamanho e data de modificação dos CSVs que a cópia representa
+    public record Assinatura(long tamanhoMed, long modificacaoMed, long tamanhoForn, long modificacaoForn) {
+        // só o CSV de medicamentos: os fornecedores vêm do registro (ver carregar)
+        public static Assinatura de(Path csvMedicamentos) throws IOException {
+            return new Assinatura(Files.size(csvMedicamentos), Files.getLastModifiedTime(csvMedicamentos).toMillis(), -1, -1);
+        }
+
+        public static Assinatura de(Path csvMedicamentos, Path csvFornecedores) throws IOException {
+            return new Assinatura(
+                    Files.size(csvMedicamentos), Files.getLastModifiedTime(csvMedicamentos).toMillis(),
+                    Files.exists(csvFornecedores) ? Files.size(csvFornecedores) : -1,
+                    Files.exists(csvFornecedores) ? Files.getLastModifiedTime(csvFornecedores).toMillis() : -1);
+        }
+    }
+
+    private SnapshotBinario() {}
+
+    /* ===================== GRAVAÇÃO ===================== */
+
+    public static void gravar(Path arquivo, Collection<Medicamento> meds, Collection<Fornecedor> registrados,
+                              Assinatura origem) throws IOException {
+        // tabela de fornecedores: os registrados e, depois, CNPJs que só aparecem nos medicamentos
+        Map<String, Integer> indice = new HashMap<>();
+        List<Fornecedor> tabela = new ArrayList<>(registrados.size());
+        for (Fornecedor f : registrados) {
+            if (indice.putIfAbsent(nz(f.getCnpj()), tabela.size()) == null) tabela.add(f);
+        }
+        for (Medicamento m : meds) {
+            Fornecedor f = m.getFornecedor();
+            if (f != null && indice.putIfAbsent(nz(f.getCnpj()), tabela.size()) == null) tabela.add(f);
+        }
+
+        Path tmp = arquivo.resolveSibling(arquivo.getFileName() + ".tmp");
+        CRC32 crc = new CRC32();
+        ByteArrayOutputStream descricoes = new ByteArrayOutputStream(1 << 16);
+        try (DataOutputStream out = new DataOutputStream(new CheckedOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(tmp), 1 << 16), crc))) {
+            out.write(new byte[TAMANHO_CABECALHO]); // preenchido no fim
+            crc.reset();
+            for (Fornecedor f : tabela) {
+                texto(out, f.getCnpj()); texto(out, f.getRazaoSocial()); texto(out, f.getTelefone());
+                texto(out, f.getEmail()); texto(out, f.getCidade()); texto(out, f.getEstado());
+            }
+            for (Medicamento m : meds) {
+                texto(out, m.getCodigo()); texto(out, m.getNome());
+                byte[] d = nz(m.lerDescricao()).getBytes(StandardCharsets.UTF_8);
+                tamanho(out, d.length);
+                descricoes.write(d);
+                texto(out, m.getPrincipioAtivo());
+                out.writeInt(m.getDataValidade() != null ? (int) m.getDataValidade().toEpochDay() : SEM_DATA);
+                out.writeInt(m.getQuantidadeEstoque());
+                out.writeLong(m.getPreco() != null ? CatalogoMedicamentos.centavos(m.getPreco()) : SEM_PRECO);
+                out.writeByte(m.isControlado() ? FLAG_CONTROLADO : 0);
+                out.writeInt(m.getFornecedor() != null ? indice.get(nz(m.getFornecedor().getCnpj())) : -1);
+                out.writeLong(m.getVersao());
+            }
+            descricoes.writeTo(out);
+        }
+
+        ByteBuffer cab = ByteBuffer.allocate(TAMANHO_CABECALHO);
+        cab.putInt(MAGICO).putInt(VERSAO)
+                .putLong(origem.tamanhoMed()).putLong(origem.modificacaoMed())
+                .putLong(origem.tamanhoForn()).putLong(origem.modificacaoForn())
+                .putInt(tabela.size()).putInt(meds.size())
+                .putLong(Files.size(tmp) - TAMANHO_CABECALHO)
+                .putLong(descricoes.size())
+                .putInt((int) crc.getValue())
+                .flip();
+        try (FileChannel canal = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+            while (cab.hasRemaining()) canal.write(cab, cab.position());
+            canal.force(false);
+        }
+        RepositorioCSV.moverAtomico(tmp, arquivo);
+    }
+
+    private static void texto(DataOutputStream out, String s) throws IOException {
+        byte[] b = nz(s).getBytes(StandardCharsets.UTF_8);
+        tamanho(out, b.length);
+        out.write(b);
+    }
+
+    private static void tamanho(DataOutputStream out, int n) throws IOException {
+        while (n >= 0x80) { out.writeByte(n & 0x7F | 0x80); n >>>= 7; }
+        out.writeByte(n);
+    }
+
+    /* ===================== LEITURA ===================== */
+
+    /**
+     * Lê a cópia se ela existir, for desta versão, bater com a assinatura dos CSVs e passar no CRC.
+     * Um CNPJ da tabela que já está em {@code fornecedores} usa a instância de lá (carregada do CSV, mais nova);
+     * os demais são registrados. Se a cópia não serve, nada é alterado.
+     */
+    public static Optional<List<Medicamento>> carregar(Path arquivo, Assinatura origem,
+                                                      RegistroFornecedores fornecedores,
+                                                      DoubleConsumer progresso) throws IOException {
+        if (Files.notExists(arquivo)) return Optional.empty();
+        try (FileChannel canal = FileChannel.open(arquivo, StandardOpenOption.READ)) {
+            long tamanho = canal.size();
+            if (tamanho < TAMANHO_CABECALHO || tamanho > Integer.MAX_VALUE) return Optional.empty();
+            MappedByteBuffer buf = canal.map(FileChannel.MapMode.READ_ONLY, 0, tamanho);
+
+            if (buf.getInt() != MAGICO || buf.getInt() != VERSAO) return Optional.empty();
+            Assinatura gravada = new Assinatura(buf.getLong(), buf.getLong(), buf.getLong(), buf.getLong());
+            if (!gravada.equals(origem)) return Optional.empty();
+            int nFornecedores = buf.getInt();
+            int nMedicamentos = buf.getInt();
+            long tamanhoConteudo = buf.getLong();
+            long tamanhoDescricoes = buf.getLong();
+            int crcGravado = buf.getInt();
+            if (tamanhoConteudo != tamanho - TAMANHO_CABECALHO
+                    || tamanhoDescricoes < 0 || tamanhoDescricoes > tamanhoConteudo) return Optional.empty();
+
+            CRC32 crc = new CRC32();
+            crc.update(buf.slice(TAMANHO_CABECALHO, (int) tamanhoConteudo));
+            if ((int) crc.getValue() != crcGravado) return Optional.empty();
+
+            int inicioDescricoes = (int) (tamanho - tamanhoDescricoes);
+            BlocoDescricoes descricoes = new BlocoDescricoes(buf.slice(inicioDescricoes, (int) tamanhoDescricoes));
+            buf.limit(inicioDescricoes);
+            try {
+                return Optional.of(decodificar(buf, descricoes, nFornecedores, nMedicamentos, fornecedores,
+                        progresso));
+            } catch (RuntimeException e) {
+                return Optional.empty(); // contagens incoerentes com o conteúdo: volta ao CSV
+            }
+        }
+    }
+
+    private static List<Medicamento> decodificar(ByteBuffer buf, BlocoDescricoes descricoes, int nFornecedores,
+                                                 int nMedicamentos, RegistroFornecedores fornecedores,
+                                                 DoubleConsumer progresso) {
+        byte[] tmp = new byte[256];
+        Fornecedor[] tabela = new Fornecedor[nFornecedores];
+        List<Fornecedor> novos = new ArrayList<>();
+        for (int i = 0; i < nFornecedores; i++) {
+            Fornecedor lido = new Fornecedor(texto(buf, tmp), texto(buf, tmp), texto(buf, tmp),
+                    texto(buf, tmp), texto(buf, tmp), texto(buf, tmp));
+            tabela[i] = fornecedores.buscar(lido.getCnpj()).orElse(null);
+            if (tabela[i] == null) {
+                tabela[i] = lido;
+                novos.add(lido);
+            }
+        }
+
+        List<Medicamento> meds = new ArrayList<>(nMedicamentos);
+        int passo = Math.max(1, nMedicamentos / 100);
+        int posicao = 0; // na região de descrições
+        for (int i = 0; i < nMedicamentos; i++) {
+            String codigo = texto(buf, tmp), nome = texto(buf, tmp);
+            int tamanhoDescricao = tamanho(buf);
+            String principio = texto(buf, tmp);
+            int dia = buf.getInt();
+            int quantidade = buf.getInt();
+            long centavos = buf.getLong();
+            byte flags = buf.get();
+            int forn = buf.getInt();
+            Medicamento m = new Medicamento(codigo, nome, "", principio,
+                    dia == SEM_DATA ? null : LocalDate.ofEpochDay(dia),
+                    quantidade,
+                    centavos == SEM_PRECO ? null : BigDecimal.valueOf(centavos, 2),
+                    (flags & FLAG_CONTROLADO) != 0,
+                    forn < 0 ? null : tabela[forn]);
+            m.setVersao(buf.getLong());
+            if (tamanhoDescricao > 0) {
+                if (tamanhoDescricao > descricoes.tamanho() - posicao) throw new IndexOutOfBoundsException();
+                m.setDescricao(descricoes, BlocoDescricoes.referencia(posicao, tamanhoDescricao));
+                posicao += tamanhoDescricao;
+            }
+            meds.add(m);
+            if (i % passo == 0) progresso.accept((double) i / nMedicamentos);
+        }
+        for (Fornecedor f : novos) fornecedores.registrar(f);
+        progresso.accept(1.0);
+        Metricas.contador("snapshot.linhas.lidas").add(nMedicamentos);
+        return meds;
+    }
+
+    private static String texto(ByteBuffer buf, byte[] tmp) {
+        int n = tamanho(buf);
+        if (n > tmp.length) tmp = new byte[n];
+        buf.get(tmp, 0, n);
+        return new String(tmp, 0, n, StandardCharsets.UTF_8);
+    }
+
+    private static int tamanho(ByteBuffer buf) {
+        int n = 0, desloc = 0, b;
+        do {
+            b = buf.get();
+            n |= (b & 0x7F) << desloc;
+            desloc += 7;
+        } while ((b & 0x80) != 0);
+        if (n < 0) throw new IllegalStateException("tamanho inválido");
+        return n;
+    }
+
+    private static String nz(String s) { return s == null ? "" : s; }
+}
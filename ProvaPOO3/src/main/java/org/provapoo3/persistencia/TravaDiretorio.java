@@ -0,0 +1,80 @@
+package org.provapoo3.persistencia;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Trava do diretório de dados compartilhado entre estações: {@link FileChannel#lock} no arquivo {@code .trava}
+ * (exclusiva para escrever, compartilhada para ler) por cima de uma trava local, que serializa as threads deste
+ * processo.
+ * <p>
+ * A trava de arquivo do Java vale para a JVM inteira (uma segunda trava sobreposta no mesmo processo dá
+ * {@code OverlappingFileLockException} em vez de esperar), então a trava local é uma só por arquivo no processo:
+ * dois repositórios sobre o mesmo diretório (a tela e um teste, por exemplo) esperam um pelo outro.
+ * Dentro de uma trava já obtida pela mesma thread, a operação só conta a local (uma exclusiva nunca é pedida
+ * dentro de uma compartilhada).
+ */
+final class TravaDiretorio implements Closeable {
+
+    // trabalho feito sob a trava
+    @FunctionalInterface
+    interface Operacao<T> {
+        T executar() throws IOException;
+    }
+
+    private static final Map<Path, ReentrantLock> LOCAIS = new ConcurrentHashMap<>();
+
+    private final Path arquivo;
+    private final ReentrantLock local;
+    private FileChannel canal; // aberto na primeira trava (protegido pela local)
+
+    TravaDiretorio(Path arquivo) {
+        this.arquivo = arquivo;
+        this.local = LOCAIS.computeIfAbsent(arquivo.toAbsolutePath().normalize(), k -> new ReentrantLock());
+    }
+
+    <T> T compartilhada(Operacao<T> operacao) throws IOException {
+        return sob(false, operacao);
+    }
+
+    <T> T exclusiva(Operacao<T> operacao) throws IOException {
+        return sob(true, operacao);
+    }
+
+    private <T> T sob(boolean exclusiva, Operacao<T> operacao) throws IOException {
+        local.lock();
+        try {
+            if (local.getHoldCount() > 1) return operacao.executar();
+            if (canal == null) {
+                canal = FileChannel.open(arquivo, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                        StandardOpenOption.WRITE);
+            }
+            FileLock lock = canal.lock(0, Long.MAX_VALUE, !exclusiva);
+            try {
+                return operacao.executar();
+            } finally {
+                lock.release();
+            }
+        } finally {
+            local.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        local.lock();
+        try {
+            if (canal != null) canal.close();
+            canal = null;
+        } finally {
+            local.unlock();
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package org.provapoo3.service;
+
+import org.provapoo3.api.Json;
+import org.provapoo3.catalogo.CatalogoMedicamentos;
+import org.provapoo3.catalogo.RegistroFornecedores;
+import org.provapoo3.diagnostico.Metricas;
+import org.provapoo3.model.Fornecedor;
+import org.provapoo3.model.Medicamento;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Exportação de relatórios para arquivo, em CSV ou JSON Lines (um objeto JSON por linha, como os da API).
+ * <p>
+ * Os itens chegam em {@link CatalogoMedicamentos.Lotes} e cada um vira uma linha num único {@link StringBuilder}
+ * reaproveitado, escrita direto no {@link BufferedWriter} do arquivo: a memória usada não cresce com o relatório
+ * (além do que a fonte dos lotes já guarda), e as descrições são lidas sem passar pelo cache de descrições.
+ * O arquivo é escrito ao lado do destino ({@code .tmp}) e só substitui o destino no fim; numa falha ou
+ * cancelamento o parcial é apagado.
+ * <p>
+ * O CSV usa {@code ;} como o resto do sistema, mas, por ir para fora, põe entre aspas os campos com {@code ;},
+ * aspas ou quebra de linha.
+ */
+public final class ExportadorRelatorio {
+
+    public static final int LOTE_PADRAO = 1_000;
+    public static final String HEADER_CSV =
+            "codigo;nome;descricao;principioAtivo;dataValidade;quantidadeEstoque;preco;controlado;forn_cnpj;forn_razaoSocial;forn_estado";
+    public static final String HEADER_CSV_VALOR = "cnpj;razaoSocial;estado;valorEstoque";
+
+    public enum Formato {
+        CSV, JSONL;
+
+        // pela extensão do arquivo: .jsonl / .json → JSON Lines; o resto, CSV
+        public static Formato doArquivo(Path arquivo) {
+            String nome = arquivo.getFileName().toString().toLowerCase(Locale.ROOT);
+            return nome.endsWith(".jsonl") || nome.endsWith(".json") ? JSONL : CSV;
+        }
+    }
+
+    public record Resultado(long linhas, Path arquivo, long nanos) {}
+
+    // chamado depois de cada lote com as linhas escritas até agora e o total estimado; false cancela a exportação
+    public interface Progresso {
+        boolean lote(long escritas, long estimativa);
+    }
+
+    private ExportadorRelatorio() {}
+
+    /** Medicamentos dos lotes, na ordem em que chegam. Cancelado pelo {@code progresso}: {@link CancellationException}. */
+    public static Resultado exportar(CatalogoMedicamentos.Lotes lotes, Formato formato, Path destino,
+                                     Progresso progresso) throws IOException {
+        return escrever(destino, formato == Formato.CSV ? HEADER_CSV : null, (bw, sb) -> {
+            long n = 0;
+            while (lotes.hasNext()) {
+                for (Medicamento m : lotes.next()) {
+                    sb.setLength(0);
+                    if (formato == Formato.CSV) linhaCsv(sb, m);
+                    else Json.linhaExportacao(sb, m);
+                    bw.append(sb).write('\n');
+                    n++;
+                }
+                if (!progresso.lote(n, lotes.estimativa())) throw new CancellationException("Exportação cancelada.");
+            }
+            return n;
+        });
+    }
+
+    /** Valor do estoque por fornecedor (CNPJ → centavos), na ordem do mapa. */
+    public static Resultado exportarValorPorFornecedor(Map<String, Long> centavosPorCnpj, RegistroFornecedores fornecedores,
+                                                       Formato formato, Path destino) throws IOException {
+        return escrever(destino, formato == Formato.CSV ? HEADER_CSV_VALOR : null, (bw, sb) -> {
+            for (Map.Entry<String, Long> e : centavosPorCnpj.entrySet()) {
+                Fornecedor f = fornecedores.buscar(e.getKey()).orElse(null);
+                String razao = f != null ? f.getRazaoSocial() : null, estado = f != null ? f.getEstado() : null;
+                String valor = BigDecimal.valueOf(e.getValue(), 2).toPlainString();
+                sb.setLength(0);
+                if (formato == Formato.CSV) {
+                    campo(sb, e.getKey()); sb.append(';');
+                    campo(sb, razao); sb.append(';');
+                    campo(sb, estado); sb.append(';').append(valor);
+                } else {
+                    sb.append("{\"cnpj\":"); Json.texto(sb, e.getKey());
+                    sb.append(",\"razaoSocial\":"); Json.texto(sb, razao);
+                    sb.append(",\"estado\":"); Json.texto(sb, estado);
+                    sb.append(",\"valorEstoque\":").append(valor).append('}');
+                }
+                bw.append(sb).write('\n');
+            }
+            return centavosPorCnpj.size();
+        });
+    }
+
+    /* ===================== ARQUIVO ===================== */
+
+    private interface Corpo {
+        long escrever(BufferedWriter bw, StringBuilder sb) throws IOException;
+    }
+
+    private static Resultado escrever(Path destino, String cabecalho, Corpo corpo) throws IOException {
+        long inicio = System.nanoTime();
+        Path tmp = destino.resolveSibling(destino.getFileName() + ".tmp");
+        long linhas;
+        try {
+            try (BufferedWriter bw = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                if (cabecalho != null) bw.write(cabecalho + "\n");
+                linhas = corpo.escrever(bw, new StringBuilder(512));
+            }
+            try {
+                Files.move(tmp, destino, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, destino, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        long nanos = System.nanoTime() - inicio;
+        Metricas.histograma("exportacao").registrar(nanos);
+        Metricas.contador("exportacao.linhas").add(linhas);
+        return new Resultado(linhas, destino, nanos);
+    }
+
+    /* ===================== CSV ===================== */
+
+    private static void linhaCsv(StringBuilder sb, Medicamento m) {
+        Fornecedor f = m.getFornecedor();
+        campo(sb, m.getCodigo()); sb.append(';');
+        campo(sb, m.getNome()); sb.append(';');
+        campo(sb, m.lerDescricao()); sb.append(';');
+        campo(sb, m.getPrincipioAtivo()); sb.append(';');
+        if (m.getDataValidade() != null) sb.append(m.getDataValidade());
+        sb.append(';').append(m.getQuantidadeEstoque()).append(';');
+        if (m.getPreco() != null) sb.append(m.getPreco().setScale(2, RoundingMode.HALF_UP).toPlainString());
+        sb.append(';').append(m.isControlado()).append(';');
+        campo(sb, f != null ? f.getCnpj() : null); sb.append(';');
+        campo(sb, f != null ? f.getRazaoSocial() : null); sb.append(';');
+        campo(sb, f != null ? f.getEstado() : null);
+    }
+
+    // entre aspas (dobradas por dentro) só quando o valor tem ; " ou quebra de linha
+    private static void campo(StringBuilder sb, String s) {
+        if (s == null) return;
+        boolean aspas = false;
+        for (int i = 0; i < s.length() && !aspas; i++) {
+            char c = s.charAt(i);
+            aspas = c == ';' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!aspas) {
+            sb.append(s);
+            return;
+        }
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"') sb.append('"');
+            sb.append(c);
+        }
+        sb.append('"');
+    }
+}
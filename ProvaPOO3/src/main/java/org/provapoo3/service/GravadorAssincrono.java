@@ -0,0 +1,232 @@
+package org.provapoo3.service;
+
+import org.provapoo3.catalogo.CatalogoMedicamentos;
+import org.provapoo3.diagnostico.Metricas;
+import org.provapoo3.model.Medicamento;
+import org.provapoo3.persistencia.RepositorioCSV;
+import org.provapoo3.persistencia.RepositorioCSV.Registro;
+import org.provapoo3.persistencia.RepositorioCSV.Sincronizacao;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Gravação em segundo plano do journal e das compactações, fora da thread das mutações (a FX thread, na tela).
+ * <p>
+ * Cada mutação só enfileira seu registro já formatado. Rajadas viram um único flush, feito
+ * {@link #ATRASO_MS} ms depois da primeira mutação pendente ou assim que {@link #MAX_PENDENTES} registros
+ * se acumulam. Depois do flush, se o journal cresceu demais, a compactação roda na mesma thread (o catálogo
+ * aceita leituras concorrentes, então a cópia é tirada aqui).
+ * <p>
+ * Com {@link #acompanharAlteracoesExternas()}, o journal também é relido quando outra estação grava no
+ * diretório (aviso do {@link ObservadorDiretorio} e, como garantia em compartilhamentos de rede, onde o aviso pode
+ * não vir, a cada {@link #INTERVALO_SINCRONIZACAO_MS} ms). Latência, falhas, alterações externas e conflitos
+ * são informados ao {@link Ouvinte}, fora da thread das mutações.
+ */
+public class GravadorAssincrono implements Closeable {
+
+    public static final long ATRASO_MS = 250;
+    public static final int MAX_PENDENTES = 512;
+    public static final long INTERVALO_SINCRONIZACAO_MS = 2_000;
+    private static final long ATRASO_NOVA_TENTATIVA_MS = 2_000;
+
+    public interface Ouvinte {
+        default void gravado(int registros, long nanos) {}
+        default void compactado(long nanos) {}
+        default void falhou(String operacao, Throwable erro) {}
+        // outra estação incluiu/alterou/excluiu: o catálogo já foi atualizado (alteração = removido + incluído)
+        default void alterado(List<Medicamento> incluidos, List<Medicamento> removidos) {}
+        // entradas/saídas (desta estação descartadas ou de outras): só a quantidade mudou (recebe as cópias novas)
+        default void estoqueAlterado(List<Medicamento> movimentados) {}
+        // o diretório foi compactado por outra estação e o catálogo foi relido por inteiro
+        default void recarregado(CatalogoMedicamentos catalogo) {}
+        // registro desta estação descartado: outra gravou o mesmo código antes
+        default void conflito(Registro descartado) {}
+    }
+
+    private final RepositorioCSV repositorio;
+    private final Supplier<CatalogoMedicamentos> catalogo;
+    private final Consumer<CatalogoMedicamentos> aoRecarregar;
+    private final ScheduledExecutorService gravador = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "gravador-csv");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final LinkedBlockingQueue<Registro> pendentes = new LinkedBlockingQueue<>();
+    private final AtomicBoolean flushAgendado = new AtomicBoolean();
+    private final AtomicBoolean flushImediato = new AtomicBoolean();
+    private final AtomicBoolean sincronizacaoAgendada = new AtomicBoolean();
+    // registros de um flush que falhou; só a thread de gravação mexe, e sempre grava estes primeiro
+    private final List<Registro> naoGravados = new ArrayList<>();
+    private volatile Ouvinte ouvinte = new Ouvinte() {};
+    private ObservadorDiretorio observador;
+
+    /** @param aoRecarregar recebe o catálogo relido quando outra estação compacta o diretório */
+    public GravadorAssincrono(RepositorioCSV repositorio, Supplier<CatalogoMedicamentos> catalogo,
+                              Consumer<CatalogoMedicamentos> aoRecarregar) {
+        this.repositorio = repositorio;
+        this.catalogo = catalogo;
+        this.aoRecarregar = aoRecarregar;
+    }
+
+    public void setOuvinte(Ouvinte ouvinte) {
+        this.ouvinte = ouvinte;
+    }
+
+    /* ===================== THREAD DAS MUTAÇÕES ===================== */
+
+    // só enfileira: nenhuma E/S acontece aqui
+    public void anexar(Registro registro) {
+        pendentes.add(registro);
+        if (pendentes.size() >= MAX_PENDENTES) {
+            if (flushImediato.compareAndSet(false, true)) gravador.execute(this::flush);
+        } else if (flushAgendado.compareAndSet(false, true)) {
+            gravador.schedule(this::flush, ATRASO_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // registros ainda não gravados (fila + flush que falhou), para o painel de diagnóstico; aproximado fora da
+    // thread de gravação
+    public int pendentes() {
+        return pendentes.size() + naoGravados.size();
+    }
+
+    // reescrita completa com o estado atual (ex.: fim de uma importação em lote)
+    public CompletableFuture<Void> compactarAgora() {
+        CompletableFuture<Void> c = new CompletableFuture<>();
+        gravador.execute(() -> {
+            try {
+                compactar();
+                c.complete(null);
+            } catch (IOException e) {
+                c.completeExceptionally(e);
+            }
+        });
+        return c;
+    }
+
+    // journal grande demais ou arquivo no formato antigo: a verificação (E/S) roda na thread de gravação
+    public void compactarSeNecessario() {
+        gravador.execute(this::verificarCompactacao);
+    }
+
+    // passa a aplicar no catálogo o que outras estações gravarem no diretório de dados
+    public void acompanharAlteracoesExternas() throws IOException {
+        // nossas próprias gravações também avisam, e a leitura delas não acha nada novo
+        observador = ObservadorDiretorio.iniciar(repositorio.diretorio(), "medicamentos.journal",
+                this::agendarSincronizacao);
+        gravador.scheduleWithFixedDelay(this::agendarSincronizacao,
+                INTERVALO_SINCRONIZACAO_MS, INTERVALO_SINCRONIZACAO_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /* ===================== THREAD DE GRAVAÇÃO ===================== */
+
+    private void flush() {
+        flushAgendado.set(false);
+        flushImediato.set(false);
+        if (gravar(drenar())) verificarCompactacao();
+    }
+
+    private boolean gravar(List<Registro> lote) {
+        naoGravados.addAll(lote);
+        if (naoGravados.isEmpty()) return true;
+        long inicio = System.nanoTime();
+        try {
+            Sincronizacao s = repositorio.gravar(naoGravados, catalogo.get());
+            naoGravados.clear();
+            publicar(s);
+            ouvinte.gravado(s.gravados(), System.nanoTime() - inicio);
+            return true;
+        } catch (IOException e) {
+            ouvinte.falhou("gravar o journal", e);
+            if (flushAgendado.compareAndSet(false, true))
+                gravador.schedule(this::flush, ATRASO_NOVA_TENTATIVA_MS, TimeUnit.MILLISECONDS);
+            return false;
+        }
+    }
+
+    private void verificarCompactacao() {
+        try {
+            if (!repositorio.precisaCompactar()) return;
+        } catch (IOException e) {
+            ouvinte.falhou("verificar o journal", e);
+            return;
+        }
+        try {
+            compactar();
+        } catch (IOException e) {
+            // já informado ao ouvinte; a próxima verificação tenta de novo
+        }
+    }
+
+    // o que ainda está na fila vai para o journal atual; o que chegar durante a reescrita, para o novo
+    private void compactar() throws IOException {
+        long inicio = System.nanoTime();
+        if (!gravar(drenar())) throw new IOException("Journal não gravado; compactação adiada.");
+        try {
+            publicar(repositorio.compactar(catalogo.get()));
+            ouvinte.compactado(System.nanoTime() - inicio);
+        } catch (IOException e) {
+            ouvinte.falhou("compactar medicamentos.csv", e);
+            throw e;
+        }
+    }
+
+    private void agendarSincronizacao() {
+        if (sincronizacaoAgendada.compareAndSet(false, true)) gravador.execute(this::sincronizar);
+    }
+
+    private void sincronizar() {
+        sincronizacaoAgendada.set(false);
+        try {
+            publicar(repositorio.sincronizar(catalogo.get()));
+        } catch (IOException e) {
+            ouvinte.falhou("ler alterações de outras estações", e);
+        }
+    }
+
+    private void publicar(Sincronizacao s) {
+        if (s.recarregado() != null) {
+            aoRecarregar.accept(s.recarregado());
+            ouvinte.recarregado(s.recarregado());
+        } else {
+            if (!s.incluidos().isEmpty() || !s.removidos().isEmpty()) ouvinte.alterado(s.incluidos(), s.removidos());
+            if (!s.movimentados().isEmpty()) ouvinte.estoqueAlterado(s.movimentados());
+        }
+        Metricas.contador("sincronizacao.incluidos").add(s.incluidos().size());
+        Metricas.contador("sincronizacao.removidos").add(s.removidos().size());
+        Metricas.contador("sincronizacao.movimentados").add(s.movimentados().size());
+        Metricas.contador("sincronizacao.conflitos").add(s.conflitos().size());
+        for (Registro r : s.conflitos()) ouvinte.conflito(r);
+    }
+
+    private List<Registro> drenar() {
+        List<Registro> lote = new ArrayList<>(pendentes.size());
+        pendentes.drainTo(lote);
+        return lote;
+    }
+
+    // grava o que estiver na fila e para de acompanhar o diretório
+    @Override
+    public void close() throws IOException {
+        try {
+            if (observador != null) observador.close();
+            boolean gravou = gravador.submit(() -> gravar(drenar())).get();
+            if (!gravou) throw new IOException(naoGravados.size() + " registro(s) do journal não gravado(s).");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        } finally {
+            gravador.shutdown();
+            repositorio.close();
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package org.provapoo3.service;
+
+import org.provapoo3.catalogo.CatalogoMedicamentos;
+import org.provapoo3.model.Medicamento;
+import org.provapoo3.persistencia.RepositorioCSV;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Importação em lote de um CSV de distribuidor para o catálogo.
+ * <p>
+ * O arquivo é lido em lotes de {@code tamanhoLote} linhas; cada lote é interpretado e validado em paralelo e
+ * depois incluído em sequência (deduplicando por código). Nada é gravado por item: o CSV base é reescrito
+ * uma única vez no fim. Linhas rejeitadas vão, com o motivo, para {@code <arquivo>.rejeitados.csv}.
+ * Aceita linhas no formato antigo (fornecedor completo) ou normalizado (fornecedor já cadastrado, pelo CNPJ).
+ */
+public class ImportadorCSV {
+
+    public static final int LOTE_PADRAO = 10_000;
+    private static final int AMOSTRAS_REJEICAO = 10;
+
+    public record Resultado(long lidas, long importadas, long rejeitadas, List<String> amostrasRejeicao,
+                            Path arquivoRejeitados, long nanos) {
+        public double linhasPorSegundo() {
+            return nanos == 0 ? 0 : lidas * 1_000_000_000.0 / nanos;
+        }
+    }
+
+    // progresso por lote: linhas lidas até agora, importadas até agora
+    public interface Progresso {
+        void lote(long lidas, long importadas);
+    }
+
+    private record Linha(long numero, String texto) {}
+    private record Item(long numero, String linha, Medicamento med, String motivo) {}
+
+    private final MedicamentoService servico;
+    private final int tamanhoLote;
+
+    public ImportadorCSV(MedicamentoService servico, int tamanhoLote) {
+        if (tamanhoLote <= 0) throw new IllegalArgumentException("Tamanho de lote deve ser positivo.");
+        this.servico = servico;
+        this.tamanhoLote = tamanhoLote;
+    }
+
+    public Resultado importar(Path arquivo, Progresso progresso) throws IOException {
+        long inicio = System.nanoTime();
+        CatalogoMedicamentos catalogo = servico.catalogo();
+        Path arquivoRejeitados = arquivo.resolveSibling(arquivo.getFileName() + ".rejeitados.csv");
+        Set<String> codigosDoArquivo = new HashSet<>();
+        List<String> amostras = new ArrayList<>();
+        long lidas = 0, importadas = 0, rejeitadas = 0;
+
+        try (BufferedReader br = Files.newBufferedReader(arquivo, StandardCharsets.UTF_8);
+             BufferedWriter rej = Files.newBufferedWriter(arquivoRejeitados, StandardCharsets.UTF_8)) {
+            rej.write("linha;motivo;conteudo"); rej.newLine();
+
+            List<Linha> lote = new ArrayList<>(tamanhoLote);
+            long numero = 0;
+            String linha;
+            while (true) {
+                linha = br.readLine();
+                if (linha != null) {
+                    numero++;
+                    if (numero == 1 && linha.startsWith("codigo;")) continue; // cabeçalho
+                    if (!linha.isBlank()) lote.add(new Linha(numero, linha));
+                    if (lote.size() < tamanhoLote) continue;
+                }
+                if (lote.isEmpty()) break;
+
+                for (Item item : validar(lote, catalogo)) {
+                    lidas++;
+                    String motivo = item.motivo();
+                    if (motivo == null && !codigosDoArquivo.add(item.med().getCodigo()))
+                        motivo = "Código repetido no arquivo.";
+                    if (motivo == null && !catalogo.adicionar(item.med()))
+                        motivo = "Já existe medicamento com esse código.";
+                    if (motivo == null) {
+                        importadas++;
+                        continue;
+                    }
+                    rejeitadas++;
+                    if (amostras.size() < AMOSTRAS_REJEICAO) amostras.add("linha " + item.numero() + ": " + motivo);
+                    rej.write(item.numero() + ";" + motivo.replace(';', ',') + ";" + item.linha());
+                    rej.newLine();
+                }
+                lote.clear();
+                progresso.lote(lidas, importadas);
+                if (linha == null) break;
+            }
+        }
+
+        if (importadas > 0) servico.salvarTudo();
+        return new Resultado(lidas, importadas, rejeitadas, amostras, arquivoRejeitados, System.nanoTime() - inicio);
+    }
+
+    // interpreta e valida o lote em paralelo; só lê o catálogo (nenhuma inclusão acontece durante esta fase)
+    private static List<Item> validar(List<Linha> lote, CatalogoMedicamentos catalogo) {
+        return lote.parallelStream().map(l -> {
+            long numero = l.numero();
+            String linha = l.texto();
+            try {
+                Medicamento m = RepositorioCSV.parseMedicamento(linha, catalogo.fornecedores());
+                ValidadorMedicamento.validarFornecedor(m.getFornecedor());
+                ValidadorMedicamento.validarMedicamento(m);
+                return new Item(numero, linha, m, null);
+            } catch (IllegalArgumentException e) {
+                return new Item(numero, linha, null, e.getMessage());
+            } catch (RuntimeException e) {
+                return new Item(numero, linha, null, "Linha mal formada (" + e.getClass().getSimpleName() + ").");
+            }
+        }).toList();
+    }
+}
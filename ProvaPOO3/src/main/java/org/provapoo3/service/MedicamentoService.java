@@ -0,0 +1,193 @@
+package org.provapoo3.service;
+
+import org.provapoo3.catalogo.CatalogoMedicamentos;
+import org.provapoo3.diagnostico.Eventos;
+import org.provapoo3.diagnostico.Metricas;
+import org.provapoo3.model.Medicamento;
+import org.provapoo3.model.Movimentacao;
+import org.provapoo3.persistencia.CarregadorCSV;
+import org.provapoo3.persistencia.RepositorioCSV;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletionException;
+import java.util.function.DoubleConsumer;
+
+/**
+ * Regras de cadastro/exclusão/movimentação de estoque sobre o catálogo em memória e a persistência em CSV, sem dependência de JavaFX.
+ * Usado pela tela ({@code MainController}) e pela importação em lote ({@code ImportadorCLI}).
+ * Cadastro e exclusão não são thread-safe: devem vir sempre da mesma thread (a FX thread, na tela);
+ * as movimentações de estoque podem vir de qualquer uma.
+ * A gravação em disco fica com o {@link GravadorAssincrono}; as mutações só enfileiram registros, com o carimbo
+ * de versão que permite detectar quando outra estação alterou o mesmo medicamento antes.
+ */
+public class MedicamentoService implements Closeable {
+
+    private final RepositorioCSV repositorio;
+    private final GravadorAssincrono gravador;
+    private volatile CatalogoMedicamentos catalogo = new CatalogoMedicamentos();
+
+    public MedicamentoService(Path diretorioDados) {
+        this.repositorio = new RepositorioCSV(diretorioDados);
+        this.gravador = new GravadorAssincrono(repositorio, () -> catalogo, c -> catalogo = c);
+        Metricas.medidor(Metricas.CATALOGO_MEDICAMENTOS, () -> catalogo.tamanho());
+        Metricas.medidor(Metricas.CATALOGO_FORNECEDORES, () -> catalogo.fornecedores().tamanho());
+        Metricas.medidor(Metricas.CATALOGO_VERSAO, () -> catalogo.versao().numero());
+        Metricas.medidor(Metricas.GRAVADOR_PENDENTES, gravador::pendentes);
+        Eventos.registrarPeriodicos();
+    }
+
+    public void setOuvinteGravacao(GravadorAssincrono.Ouvinte ouvinte) {
+        gravador.setOuvinte(ouvinte);
+    }
+
+    // pode rodar fora da thread das mutações: o catálogo montado só é publicado no fim
+    public CatalogoMedicamentos carregar(DoubleConsumer progresso) throws IOException {
+        catalogo = repositorio.carregar(progresso);
+        return catalogo;
+    }
+
+    // linhas inválidas do CSV deixadas fora da última carga; vão para o quarentena.csv na reescrita seguinte
+    public List<CarregadorCSV.Rejeicao> rejeitadasNaCarga() {
+        return repositorio.rejeitadasNaCarga();
+    }
+
+    public Path arquivoQuarentena() {
+        return repositorio.arquivoQuarentena();
+    }
+
+    // outra estação pode trocá-lo (releitura após compactar o diretório): o ouvinte recebe o novo
+    public CatalogoMedicamentos catalogo() {
+        return catalogo;
+    }
+
+    // depois da carga: aplica no catálogo o que outras estações gravarem no mesmo diretório
+    public void acompanharAlteracoesExternas() throws IOException {
+        gravador.acompanharAlteracoesExternas();
+    }
+
+    /* ===================== CADASTRO ===================== */
+
+    // valida, inclui e enfileira o registro do journal; IllegalArgumentException para erro de validação/duplicidade
+    public void cadastrar(Medicamento med) {
+        ValidadorMedicamento.validarFornecedor(med.getFornecedor());
+        ValidadorMedicamento.validarMedicamento(med);
+
+        med.setVersao(0); // inclusão: primeira versão do código (mesmo que ele já tenha sido excluído antes)
+        if (!catalogo.adicionar(med))
+            throw new IllegalArgumentException("Já existe medicamento com esse código.");
+
+        gravador.anexar(RepositorioCSV.registroInsercao(med));
+    }
+
+    // limite de estoque baixo de um fornecedor (null volta ao limite padrão), gravado no journal como as inclusões
+    public void definirLimiteEstoque(String cnpj, Integer limite) {
+        ValidadorMedicamento.validarCnpj(cnpj);
+        if (limite != null) ValidadorMedicamento.validarQuantidadeNaoNegativa(limite);
+        catalogo.definirLimiteEstoque(cnpj, limite);
+        gravador.anexar(RepositorioCSV.registroLimite(cnpj, limite));
+    }
+
+    // devolve o medicamento removido (vazio se o código não existe)
+    public Optional<Medicamento> excluir(String codigo) {
+        ValidadorMedicamento.validarCodigo7(codigo);
+        Optional<Medicamento> removido = catalogo.remover(codigo);
+        removido.ifPresent(m -> gravador.anexar(RepositorioCSV.registroExclusao(m)));
+        return removido;
+    }
+
+    // por movimento, na ordem do lote: o saldo depois dele ou, se rejeitado, o motivo (o outro fica nulo)
+    public record ResultadoMovimentacao(CatalogoMedicamentos.Saldo[] saldos, String[] motivos) {
+        public int rejeitadas() {
+            int n = 0;
+            for (String m : motivos) if (m != null) n++;
+            return n;
+        }
+    }
+
+    /**
+     * Entradas e saídas de estoque em lote: valida cada uma, aplica todas numa única passada pelo catálogo (saída
+     * maior que o saldo e entrada que estoura o valor do item são rejeitadas) e enfileira as aceitas para o journal e o log de movimentações. Não reescreve
+     * o CSV; pode ser chamado de qualquer thread.
+     */
+    public ResultadoMovimentacao movimentar(List<Movimentacao> movs) {
+        CatalogoMedicamentos c = catalogo;
+        String[] motivos = new String[movs.size()];
+        List<Movimentacao> validas = new ArrayList<>(movs.size());
+        int[] posicoes = new int[movs.size()];
+        for (int i = 0; i < movs.size(); i++) {
+            Movimentacao mv = movs.get(i);
+            try {
+                ValidadorMedicamento.validarMovimentacao(mv, c.buscarPorCodigo(mv.codigo()).orElse(null));
+                posicoes[validas.size()] = i;
+                validas.add(mv);
+            } catch (IllegalArgumentException e) {
+                motivos[i] = e.getMessage();
+            }
+        }
+
+        CatalogoMedicamentos.Saldo[] aplicados = c.movimentar(validas);
+        CatalogoMedicamentos.Saldo[] saldos = new CatalogoMedicamentos.Saldo[movs.size()];
+        Instant agora = Instant.now();
+        for (int j = 0; j < aplicados.length; j++) {
+            int i = posicoes[j];
+            CatalogoMedicamentos.Saldo s = aplicados[j];
+            if (s == null) {
+                Movimentacao mv = validas.get(j);
+                motivos[i] = !c.contem(mv.codigo()) ? "Medicamento não encontrado."
+                        : mv.delta() > 0 ? "Valor em estoque fora do limite." : "Estoque insuficiente.";
+                continue;
+            }
+            saldos[i] = s;
+            gravador.anexar(RepositorioCSV.registroMovimentacao(s, validas.get(j), agora));
+        }
+
+        ResultadoMovimentacao r = new ResultadoMovimentacao(saldos, motivos);
+        Metricas.contador("estoque.movimentacoes").add(movs.size() - r.rejeitadas());
+        Metricas.contador("estoque.rejeitadas").add(r.rejeitadas());
+        return r;
+    }
+
+    // histórico gravado de entradas/saídas do código (auditoria; lê o log inteiro, fora da FX thread)
+    public List<String> movimentacoes(String codigo) throws IOException {
+        ValidadorMedicamento.validarCodigo7(codigo);
+        return repositorio.movimentacoes(codigo);
+    }
+
+    public Optional<Medicamento> buscar(String codigo) {
+        ValidadorMedicamento.validarCodigo7(codigo);
+        return catalogo.buscarPorCodigo(codigo);
+    }
+
+    /* ===================== PERSISTÊNCIA ===================== */
+
+    // journal grande demais (ou arquivo no formato antigo): reescreve o CSV base em segundo plano
+    public void compactarSeNecessario() {
+        gravador.compactarSeNecessario();
+    }
+
+    // reescrita completa imediata (ex.: fim de uma importação em lote)
+    public void salvarTudo() throws IOException {
+        try {
+            gravador.compactarAgora().join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException io) throw io;
+            throw e;
+        }
+    }
+
+    // o catálogo num único medicamentos.csv, no formato de antes das partes
+    public void exportarArquivoUnico(Path destino) throws IOException {
+        repositorio.exportarArquivoUnico(catalogo.todos(), destino);
+    }
+
+    @Override
+    public void close() throws IOException {
+        gravador.close();
+    }
+}
@@ -0,0 +1,50 @@
+package org.provapoo3.service;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.*;
+
+/**
+ * Avisos do {@link WatchService} para os arquivos de um diretório cujo nome começa com um prefixo, numa thread
+ * própria. Em compartilhamentos de rede o aviso pode não vir: quem usa também relê de tempos em tempos.
+ */
+final class ObservadorDiretorio implements Closeable {
+
+    private final WatchService observador;
+
+    private ObservadorDiretorio(WatchService observador) {
+        this.observador = observador;
+    }
+
+    // 'aoAlterar' roda na thread do observador a cada criação/alteração (as nossas próprias gravações também)
+    static ObservadorDiretorio iniciar(Path diretorio, String prefixo, Runnable aoAlterar) throws IOException {
+        WatchService ws = diretorio.getFileSystem().newWatchService();
+        diretorio.register(ws, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        ObservadorDiretorio o = new ObservadorDiretorio(ws);
+        Thread t = new Thread(() -> o.observar(prefixo, aoAlterar), "observador-dados");
+        t.setDaemon(true);
+        t.start();
+        return o;
+    }
+
+    private void observar(String prefixo, Runnable aoAlterar) {
+        try {
+            while (true) {
+                WatchKey chave = observador.take();
+                boolean alterado = false;
+                for (WatchEvent<?> e : chave.pollEvents()) {
+                    alterado |= String.valueOf(e.context()).startsWith(prefixo);
+                }
+                if (alterado) aoAlterar.run();
+                if (!chave.reset()) return;
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // encerrado
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        observador.close();
+    }
+}
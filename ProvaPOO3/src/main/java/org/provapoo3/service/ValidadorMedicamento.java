@@ -0,0 +1,101 @@
+package org.provapoo3.service;
+
+import org.provapoo3.catalogo.CatalogoMedicamentos;
+import org.provapoo3.model.Fornecedor;
+import org.provapoo3.model.Medicamento;
+import org.provapoo3.model.Movimentacao;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+
+// Regras de validação de medicamento e fornecedor (formulário e importação em lote)
+public final class ValidadorMedicamento {
+
+    private ValidadorMedicamento() {}
+
+    public static void validarMedicamento(Medicamento m) {
+        validarCodigo7(m.getCodigo());
+        validarNaoVazioMin(m.getNome(), 2, "Nome inválido (mín. 2).");
+        validarValidadeFutura(m.getDataValidade());
+        validarQuantidadeNaoNegativa(m.getQuantidadeEstoque());
+        validarPrecoPositivo(m.getPreco());
+        validarValorEstoque(m.getPreco(), m.getQuantidadeEstoque());
+        if (m.getFornecedor()==null) throw new IllegalArgumentException("Fornecedor é obrigatório.");
+    }
+    public static void validarFornecedor(Fornecedor f) {
+        validarCnpj(f.getCnpj());
+        validarNaoVazioMin(f.getRazaoSocial(), 2, "Razão social inválida (mín. 2).");
+    }
+
+    // controlado só sai com o número da receita, que fica no log de movimentações
+    public static void validarMovimentacao(Movimentacao mv, Medicamento m) {
+        validarCodigo7(mv.codigo());
+        if (mv.tipo()==null) throw new IllegalArgumentException("Tipo de movimentação inválido.");
+        if (mv.quantidade()<=0) throw new IllegalArgumentException("Quantidade da movimentação deve ser positiva.");
+        if (m==null) throw new IllegalArgumentException("Medicamento não encontrado.");
+        if (m.isControlado() && mv.tipo()==Movimentacao.Tipo.SAIDA
+                && (mv.documento()==null || mv.documento().isBlank()))
+            throw new IllegalArgumentException("Saída de medicamento controlado exige o número da receita.");
+    }
+
+    public static void validarCodigo7(String codigo) {
+        if (!codigo7Valido(codigo))
+            throw new IllegalArgumentException("Código inválido (7 caracteres alfanuméricos).");
+    }
+    // sem regex nem cópia: roda em cada linha da importação
+    public static boolean codigo7Valido(CharSequence codigo) {
+        if (codigo==null || codigo.length()!=7) return false;
+        for (int i=0;i<7;i++) {
+            char c = codigo.charAt(i);
+            if (!(c>='0' && c<='9' || c>='A' && c<='Z' || c>='a' && c<='z')) return false;
+        }
+        return true;
+    }
+    public static void validarNaoVazioMin(String s, int min, String msg) {
+        if (s==null || s.trim().length()<min) throw new IllegalArgumentException(msg);
+    }
+    public static void validarValidadeFutura(LocalDate data) {
+        if (data==null || data.isBefore(LocalDate.now()))
+            throw new IllegalArgumentException("Data de validade no passado.");
+    }
+    public static void validarQuantidadeNaoNegativa(int qtd) {
+        if (qtd<0) throw new IllegalArgumentException("Quantidade não pode ser negativa.");
+    }
+    public static void validarPrecoPositivo(BigDecimal preco) {
+        if (preco==null || preco.signum()<=0)
+            throw new IllegalArgumentException("Preço deve ser positivo.");
+    }
+    // preço × quantidade em centavos precisa caber num long (totais por fornecedor, relatórios)
+    public static void validarValorEstoque(BigDecimal preco, int qtd) {
+        if (!CatalogoMedicamentos.valorCabe(preco, qtd))
+            throw new IllegalArgumentException("Preço × quantidade excede o limite do valor em estoque.");
+    }
+    // dígitos lidos direto da string (pontuação ignorada), sem replaceAll/substring por chamada
+    public static void validarCnpj(String cnpj) {
+        if (cnpj==null) throw new IllegalArgumentException("CNPJ inválido.");
+        int digitos=0, s1=0, s2=0, dv1=0, dv2=0;
+        boolean repetido=true;
+        char primeiro=0;
+        for (int i=0;i<cnpj.length();i++) {
+            char c = cnpj.charAt(i);
+            if (c<'0' || c>'9') continue;
+            if (digitos==14) throw new IllegalArgumentException("CNPJ precisa ter 14 dígitos.");
+            int d = c-'0';
+            if (digitos==0) primeiro=c; else if (c!=primeiro) repetido=false;
+            if (digitos<12) { s1+=d*PESOS_DV1[digitos]; s2+=d*PESOS_DV2[digitos]; }
+            else if (digitos==12) dv1=d;
+            else dv2=d;
+            digitos++;
+        }
+        if (digitos!=14) throw new IllegalArgumentException("CNPJ precisa ter 14 dígitos.");
+        if (repetido) throw new IllegalArgumentException("CNPJ inválido.");
+        int esperado1 = dv(s1);
+        if (dv1!=esperado1 || dv2!=dv(s2+esperado1*PESOS_DV2[12]))
+            throw new IllegalArgumentException("CNPJ com dígitos verificadores inválidos.");
+    }
+    private static final int[] PESOS_DV1 = {5,4,3,2,9,8,7,6,5,4,3,2};
+    private static final int[] PESOS_DV2 = {6,5,4,3,2,9,8,7,6,5,4,3,2};
+    private static int dv(int soma){
+        int r=soma%11; return (r<2)?0:11-r;
+    }
+}
@@ -0,0 +1,50 @@
+package org.provapoo3;
+
+import org.provapoo3.model.Fornecedor;
+import org.provapoo3.model.Medicamento;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+
+/**
+ * Fornecedor e medicamentos de exemplo dos testes. {@link #medicamento} monta um item que o serviço aceita (validade
+ * futura, preço, fornecedor com CNPJ válido); {@link #item} só tem código, nome e quantidade, para as estruturas do
+ * catálogo que não olham o resto. Os itens são novos a cada chamada; o fornecedor é compartilhado e não muda.
+ */
+public final class Amostras {
+
+    // dígitos verificadores conferem; a forma pontuada é o mesmo CNPJ
+    public static final String CNPJ = "11222333000181";
+    public static final String CNPJ_PONTUADO = "11.222.333/0001-81";
+    public static final Fornecedor FORNECEDOR =
+            new Fornecedor(CNPJ, "Distribuidora", "1133334444", "contato@dist.com", "Campinas", "SP");
+    public static final BigDecimal PRECO = new BigDecimal("9.90");
+
+    private Amostras() {}
+
+    // validade um ano à frente: o cadastro recusa item vencido
+    public static LocalDate validade() {
+        return LocalDate.now().plusYears(1);
+    }
+
+    public static Medicamento medicamento(String codigo) {
+        return medicamento(codigo, 10);
+    }
+
+    public static Medicamento medicamento(String codigo, int quantidade) {
+        return medicamento(codigo, PRECO, quantidade);
+    }
+
+    public static Medicamento medicamento(String codigo, BigDecimal preco, int quantidade) {
+        return new Medicamento(codigo, "Medicamento " + codigo, "", "principio", validade(), quantidade, preco, false,
+                FORNECEDOR);
+    }
+
+    public static Medicamento item(String codigo) {
+        return item(codigo, 0);
+    }
+
+    public static Medicamento item(String codigo, int quantidade) {
+        return new Medicamento(codigo, "Item " + codigo, "", "", null, quantidade, null, false, null);
+    }
+}
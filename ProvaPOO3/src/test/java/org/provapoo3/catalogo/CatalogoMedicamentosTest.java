@@ -0,0 +1,203 @@
+package org.provapoo3.catalogo;
+
+import org.junit.jupiter.api.Test;
+import org.provapoo3.model.Fornecedor;
+import org.provapoo3.model.Medicamento;
+import org.provapoo3.model.Movimentacao;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.provapoo3.Amostras.*;
+
+class CatalogoMedicamentosTest {
+
+    private static final BigDecimal CARO = new BigDecimal("10000000000000.00");
+
+    @Test
+    void inclusaoComValorForaDoLimiteNaoAlteraNada() {
+        CatalogoMedicamentos c = new CatalogoMedicamentos();
+        c.adicionar(medicamento("BASE001", new BigDecimal("2.00"), 10));
+        long numero = c.versao().numero();
+
+        assertThrows(IllegalArgumentException.class, () -> c.adicionar(caro(100_000)));
+
+        assertEquals(numero, c.versao().numero());
+        assertFalse(c.buscarPorCodigo("CARO001").isPresent());
+        assertTrue(c.controlados(true).isEmpty());
+        assertTrue(c.pesquisar("caro001", 10).isEmpty());
+        assertEquals(2_000, c.valorEstoquePorFornecedor().get(FORNECEDOR.getCnpj()));
+        // o código continua livre
+        assertTrue(c.adicionar(caro(1)));
+        assertEquals(1, c.controlados(true).size());
+        assertEquals(1, c.pesquisar("caro001", 10).size());
+    }
+
+    @Test
+    void alteracaoComValorForaDoLimiteDeixaOItemComoEstava() {
+        CatalogoMedicamentos c = new CatalogoMedicamentos();
+        c.adicionar(caro(1));
+        Medicamento antes = c.buscarPorCodigo("CARO001").orElseThrow();
+
+        assertThrows(IllegalArgumentException.class, () -> c.atualizarQuantidade("CARO001", 100_000));
+        assertThrows(IllegalArgumentException.class,
+                () -> c.atualizarPreco("CARO001", new BigDecimal("100000000000000000000")));
+        assertThrows(IllegalArgumentException.class,
+                () -> c.substituir(caro(100_000)));
+
+        assertSame(antes, c.buscarPorCodigo("CARO001").orElseThrow());
+        assertEquals(List.of(antes), c.estoqueAbaixoDe(2));
+        assertEquals(List.of(antes), c.controlados(true));
+        assertEquals(CatalogoMedicamentos.centavos(CARO), c.valorEstoquePorFornecedor().get(FORNECEDOR.getCnpj()));
+    }
+
+    @Test
+    void entradaQueEstouraOValorFicaDeFora() {
+        CatalogoMedicamentos c = new CatalogoMedicamentos();
+        c.adicionar(caro(1));
+
+        CatalogoMedicamentos.Saldo[] saldos = c.movimentar(List.of(
+                new Movimentacao("CARO001", Movimentacao.Tipo.ENTRADA, 100_000, ""),
+                new Movimentacao("CARO001", Movimentacao.Tipo.ENTRADA, 2, "")));
+
+        assertNull(saldos[0]);
+        assertEquals(3, saldos[1].quantidade());
+        assertEquals(3, c.buscarPorCodigo("CARO001").orElseThrow().getQuantidadeEstoque());
+    }
+
+    @Test
+    void contatoNovoDoFornecedorEntraComoOutraInstancia() {
+        CatalogoMedicamentos c = new CatalogoMedicamentos();
+        c.adicionar(medicamento("BASE001", new BigDecimal("2.00"), 10));
+        c.adicionar(medicamento("BASE002", new BigDecimal("2.00"), 10));
+        Versao antes = c.versao();
+
+        Fornecedor mudou = new Fornecedor(FORNECEDOR.getCnpj(), "Distribuidora Nova", "", "", "", "RJ");
+        Medicamento outroContato = medicamento("BASE003", BigDecimal.ONE, 1);
+        outroContato.setFornecedor(mudou);
+        c.adicionar(outroContato);
+
+        assertEquals("Distribuidora", FORNECEDOR.getRazaoSocial()); // a instância registrada antes não muda
+        assertSame(mudou, c.fornecedores().buscar(FORNECEDOR.getCnpj()).orElseThrow());
+        for (Medicamento m : c.todos()) assertSame(mudou, m.getFornecedor());
+        for (Medicamento m : antes.todos()) assertSame(FORNECEDOR, m.getFornecedor());
+        assertEquals(3, c.consultar(new Consulta().estados(List.of("RJ"))).medicamentos().size());
+        assertEquals(2, antes.consultar(new Consulta().estados(List.of("SP"))).medicamentos().size());
+        // mesmos dados de contato: fica a instância registrada
+        Fornecedor igual = new Fornecedor(FORNECEDOR.getCnpj(), "Distribuidora Nova", "", "", "", "RJ");
+        assertSame(mudou, c.registrarFornecedor(igual));
+    }
+
+    @Test
+    void precoCujosCentavosNaoCabemFicaDeFora() {
+        CatalogoMedicamentos c = new CatalogoMedicamentos();
+        BigDecimal enorme = new BigDecimal("1e17"); // 10^19 centavos
+
+        assertFalse(CatalogoMedicamentos.valorCabe(enorme, 0));
+        assertThrows(IllegalArgumentException.class, () -> c.adicionar(medicamento("ENOR001", enorme, 0)));
+        assertEquals(0, c.tamanho());
+        assertTrue(c.valorEstoquePorFornecedor().isEmpty());
+    }
+
+    @Test
+    void quantidadeNegativaEntraNoEstoqueBaixoEDescontaDoValor() {
+        CatalogoMedicamentos c = new CatalogoMedicamentos();
+        c.adicionar(medicamento("BASE001", new BigDecimal("2.00"), 10));
+        c.adicionar(medicamento("NEGA001", new BigDecimal("2.50"), -4));
+
+        assertEquals(List.of("NEGA001"), c.estoqueBaixo(0).stream().map(Medicamento::getCodigo).toList());
+        assertEquals(1_000L, c.valorEstoquePorFornecedor().get(CNPJ)); // 2 000 - 1 000
+        assertEquals(c.estoqueBaixo(0), c.versao().estoqueBaixo(0));
+        assertEquals(c.valorEstoquePorFornecedor(), c.versao().valorEstoquePorFornecedor());
+    }
+
+    @Test
+    void limiteValeParaOCnpjComOuSemPontuacao() {
+        CatalogoMedicamentos c = new CatalogoMedicamentos();
+        Medicamento pontuado = medicamento("PONT001", 20);
+        pontuado.setFornecedor(new Fornecedor("33.333.333/0001-33", "Mineira", "", "", "", "MG"));
+        c.adicionar(pontuado);
+        c.adicionar(medicamento("BASE001", 20));
+
+        c.definirLimiteEstoque(CNPJ_PONTUADO, 50);
+        c.definirLimiteEstoque("33333333000133", 30);
+
+        assertEquals(Map.of(CNPJ, 50, "33333333000133", 30), c.limitesEstoque());
+        assertEquals(2, c.estoqueBaixo(10).size());
+        assertEquals(Set.copyOf(c.estoqueBaixo(10)), Set.copyOf(c.versao().estoqueBaixo(10)));
+        c.definirLimiteEstoque(CNPJ, null);
+        assertEquals(List.of(pontuado), c.estoqueBaixo(10));
+    }
+
+    @Test
+    void cargaEmLoteAdiaOsIndicesSemMudarAsRespostas() {
+        Fornecedor outro = new Fornecedor("33333333000133", "Mineira", "", "", "", "MG");
+        Fornecedor some = new Fornecedor("44444444000144", "Baiana", "", "", "", "BA");
+        Fornecedor[] fornecedores = {FORNECEDOR, outro, null};
+        Random r = new Random(31);
+        List<Medicamento> meds = new ArrayList<>();
+        for (int i = 0; i < 400; i++) {
+            Medicamento m = medicamento(String.format("M%05d", i), BigDecimal.valueOf(r.nextInt(5_000), 2),
+                    r.nextInt(40));
+            m.setDataValidade(LocalDate.of(2030, 1, 1).plusDays(r.nextInt(60)));
+            m.setPrincipioAtivo("principio " + r.nextInt(9));
+            m.setControlado(r.nextInt(5) == 0);
+            m.setFornecedor(fornecedores[r.nextInt(3)]);
+            meds.add(m);
+        }
+        for (String codigo : List.of("SOME001", "SOME002")) {
+            Medicamento m = medicamento(codigo, 7);
+            m.setFornecedor(some);
+            meds.add(m);
+        }
+        CatalogoMedicamentos emLote = new CatalogoMedicamentos(), umAUm = new CatalogoMedicamentos();
+        emLote.substituirTodos(meds.stream().map(Medicamento::new).toList());
+        for (Medicamento m : meds) umAUm.adicionar(new Medicamento(m));
+        assertTrue(emLote.indicesAdiados());
+        assertFalse(umAUm.indicesAdiados());
+
+        // alterações antes de qualquer leitura por índice, como o journal reaplicado na carga
+        for (CatalogoMedicamentos c : List.of(emLote, umAUm)) {
+            c.remover("M00010");
+            c.atualizarQuantidade("M00020", 3);
+            c.atualizarPreco("M00030", new BigDecimal("1.00"));
+            c.somarQuantidade("M00040", 0, -5);
+            c.adicionar(medicamento("NOVO001", 1));
+            c.registrarFornecedor(new Fornecedor(CNPJ, "Distribuidora Nova", "", "", "", "RJ"));
+            c.remover("SOME001");
+            c.remover("SOME002");
+        }
+        assertTrue(emLote.indicesAdiados());
+        assertEquals(umAUm.todos(), emLote.todos());
+        Fornecedor novo = emLote.fornecedores().buscar(CNPJ).orElseThrow();
+        assertEquals("Distribuidora Nova", novo.getRazaoSocial());
+        for (Medicamento m : emLote.todos()) {
+            if (m.getFornecedor() != null && CNPJ.equals(m.getFornecedor().getCnpj())) {
+                assertSame(novo, m.getFornecedor());
+            }
+        }
+
+        assertEquals(umAUm.valorEstoquePorFornecedor(), emLote.valorEstoquePorFornecedor());
+        assertFalse(emLote.indicesAdiados());
+        assertFalse(emLote.valorEstoquePorFornecedor().containsKey(some.getCnpj()));
+        assertEquals(umAUm.doFornecedor(CNPJ), emLote.doFornecedor(CNPJ));
+        assertEquals(umAUm.comPrincipioAtivo("principio 3"), emLote.comPrincipioAtivo("principio 3"));
+        assertEquals(umAUm.vencendoEntre(LocalDate.of(2030, 1, 10), LocalDate.of(2030, 1, 20)),
+                emLote.vencendoEntre(LocalDate.of(2030, 1, 10), LocalDate.of(2030, 1, 20)));
+        assertEquals(umAUm.controlados(true), emLote.controlados(true));
+        assertEquals(umAUm.pesquisarComTotal("medicamento", 1_000), emLote.pesquisarComTotal("medicamento", 1_000));
+        // no mesmo balde de quantidade, um item alterado vai para o fim só no catálogo montado item a item
+        assertEquals(Set.copyOf(umAUm.estoqueAbaixoDe(10)), Set.copyOf(emLote.estoqueAbaixoDe(10)));
+        Consulta c = new Consulta().fornecedores(List.of(CNPJ)).agruparPor(Consulta.Agrupamento.MES_VALIDADE);
+        assertEquals(umAUm.consultar(c).grupos(), emLote.consultar(c).grupos());
+    }
+
+    // controlado, para conferir que o índice de controlados também não muda
+    private static Medicamento caro(int quantidade) {
+        Medicamento m = medicamento("CARO001", CARO, quantidade);
+        m.setControlado(true);
+        return m;
+    }
+}
@@ -0,0 +1,164 @@
+package org.provapoo3.catalogo;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.provapoo3.model.Fornecedor;
+import org.provapoo3.model.Medicamento;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.function.Predicate;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConsultaTest {
+
+    private static final LocalDate HOJE = LocalDate.of(2030, 1, 1);
+
+    private final Fornecedor sp = new Fornecedor("11111111000111", "Paulista", "", "", "Campinas", "SP");
+    private final Fornecedor rj = new Fornecedor("22222222000122", "Carioca", "", "", "Niterói", " rj ");
+    private final Fornecedor mg = new Fornecedor("33333333000133", "Mineira", "", "", "BH", "MG");
+    private CatalogoMedicamentos catalogo;
+    private List<Medicamento> todos;
+
+    @BeforeEach
+    void preparar() {
+        catalogo = new CatalogoMedicamentos();
+        Fornecedor[] fornecedores = {sp, rj, mg, mg, mg, mg, mg, mg, mg, mg};
+        for (int i = 0; i < 1_000; i++) {
+            catalogo.adicionar(new Medicamento(String.format("M%06d", i), "Item " + (i * 7919 % 1_000), "", "p",
+                    i % 50 == 0 ? null : HOJE.plusDays(i % 365), i % 40, i % 33 == 0 ? null : BigDecimal.valueOf(i, 1),
+                    i % 25 == 0, fornecedores[i % fornecedores.length]));
+        }
+        todos = List.copyOf(catalogo.todos());
+    }
+
+    @Test
+    void semFiltroComIndiceVarreOCatalogo() {
+        Consulta.Resultado r = catalogo.consultar(new Consulta().precoEntre(new BigDecimal("10"), null));
+        assertEquals(Consulta.Acesso.VARREDURA, r.acesso());
+        assertEquals(todos.size(), r.examinados());
+        assertEquals(filtrar(m -> m.getPreco() != null && m.getPreco().compareTo(BigDecimal.TEN) >= 0), r.medicamentos());
+    }
+
+    @Test
+    void planejadorComecaPeloIndiceMaisSeletivo() {
+        // fornecedor: 100 itens; controlados: 40; o plano começa pelos controlados
+        Consulta c = new Consulta().fornecedores(List.of(sp.getCnpj())).controlado(true);
+        Consulta.Resultado r = catalogo.consultar(c);
+        assertEquals(Consulta.Acesso.CONTROLADOS, r.acesso());
+        assertEquals(40, r.examinados());
+        assertEquals(filtrar(m -> m.isControlado() && m.getFornecedor() == sp), r.medicamentos());
+
+        // faixa de validade de 3 dias: ~8 itens, menos que os controlados
+        c = new Consulta().controlado(true).validadeEntre(HOJE.plusDays(10), HOJE.plusDays(12));
+        r = catalogo.consultar(c);
+        assertEquals(Consulta.Acesso.VALIDADE, r.acesso());
+        assertEquals(todos.stream().filter(m -> emFaixa(m, 10, 12)).count(), r.examinados());
+
+        r = catalogo.consultar(new Consulta().estados(List.of("RJ")).quantidadeEntre(0, 39));
+        assertEquals(Consulta.Acesso.ESTADO, r.acesso());
+        assertEquals(100, r.examinados());
+        assertEquals(filtrar(m -> m.getFornecedor() == rj), r.medicamentos());
+
+        r = catalogo.consultar(new Consulta().quantidadeEntre(3, 3));
+        assertEquals(Consulta.Acesso.QUANTIDADE, r.acesso());
+        assertEquals(25, r.examinados());
+    }
+
+    @Test
+    void resultadoIgualAoDaVarreduraQualquerQueSejaOPlano() {
+        Random aleatorio = new Random(7);
+        for (int rodada = 0; rodada < 300; rodada++) {
+            Consulta c = aleatoria(aleatorio);
+            Consulta.Resultado r = catalogo.consultar(c);
+            Consulta.Resultado varredura = catalogo.versao().consultar(c);
+            assertEquals(Consulta.Acesso.VARREDURA, varredura.acesso());
+            assertEquals(codigos(varredura.medicamentos()), codigos(r.medicamentos()), "plano " + r.acesso());
+            assertEquals(esperado(c), codigos(r.medicamentos()), "plano " + r.acesso());
+        }
+    }
+
+    @Test
+    void semOrdemOLimiteCortaPorCodigoEmQualquerPlano() {
+        Consulta c = new Consulta().estados(List.of("mg")).quantidadeEntre(5, 30).limite(7);
+        Consulta.Resultado r = catalogo.consultar(c);
+        assertNotEquals(Consulta.Acesso.VARREDURA, r.acesso());
+        List<String> primeiros = filtrar(c::aceita).stream().map(Medicamento::getCodigo).sorted().limit(7).toList();
+        assertEquals(primeiros, codigos(r.medicamentos()));
+        assertEquals(primeiros, codigos(catalogo.versao().consultar(c).medicamentos()));
+    }
+
+    @Test
+    void leituraParaNoBaldeQueCompletaOLimiteQuandoOIndiceJaEntregaNaOrdem() {
+        Consulta c = new Consulta().validadeEntre(HOJE, HOJE.plusDays(400))
+                .ordenarPor(Consulta.Ordem.VALIDADE, false).limite(4);
+        Consulta.Resultado r = catalogo.consultar(c);
+        assertEquals(Consulta.Acesso.VALIDADE, r.acesso());
+        // o 4º item vence no dia 1: lê os dias 0 e 1 inteiros, e o empate do dia 1 sai por código
+        assertEquals(todos.stream().filter(m -> emFaixa(m, 0, 1)).count(), r.examinados());
+        assertEquals(esperado(c), codigos(r.medicamentos()));
+        assertEquals(List.of("M000365", "M000730", "M000001", "M000366"), codigos(r.medicamentos()));
+    }
+
+    @Test
+    void gruposSomamTodosOsQuePassaramAntesDoLimite() {
+        Consulta c = new Consulta().controlado(true).agruparPor(Consulta.Agrupamento.ESTADO).limite(3);
+        Consulta.Resultado r = catalogo.consultar(c);
+        assertEquals(3, r.medicamentos().size());
+        assertEquals(List.of("MG", "SP"), r.grupos().stream().map(Consulta.Grupo::chave).toList());
+        assertEquals(40, r.grupos().stream().mapToInt(Consulta.Grupo::itens).sum());
+        long valor = 0;
+        for (Medicamento m : filtrar(Medicamento::isControlado)) {
+            valor += CatalogoMedicamentos.centavos(m.getPreco()) * m.getQuantidadeEstoque();
+        }
+        assertEquals(valor, r.grupos().stream().mapToLong(Consulta.Grupo::valorCentavos).sum());
+    }
+
+    @Test
+    void faixasVaziasOuInvertidasNaoDevolvemNada() {
+        assertTrue(catalogo.consultar(new Consulta().quantidadeEntre(10, 2)).medicamentos().isEmpty());
+        assertTrue(catalogo.consultar(new Consulta().validadeEntre(HOJE.plusDays(5), HOJE)).medicamentos().isEmpty());
+        assertTrue(catalogo.consultar(new Consulta().fornecedores(List.of("00000000000000"))).medicamentos().isEmpty());
+        assertThrows(IllegalArgumentException.class, () -> new Consulta().limite(0));
+    }
+
+    private Consulta aleatoria(Random r) {
+        Consulta c = new Consulta();
+        if (r.nextInt(3) == 0) c.controlado(r.nextBoolean());
+        if (r.nextInt(3) == 0) {
+            int de = r.nextInt(365);
+            c.validadeEntre(r.nextBoolean() ? null : HOJE.plusDays(de), HOJE.plusDays(de + r.nextInt(60)));
+        }
+        if (r.nextInt(3) == 0) c.quantidadeEntre(r.nextInt(20), r.nextBoolean() ? null : 20 + r.nextInt(20));
+        if (r.nextInt(4) == 0) c.precoEntre(BigDecimal.valueOf(r.nextInt(50)), null);
+        if (r.nextInt(3) == 0) c.fornecedores(List.of(r.nextBoolean() ? sp.getCnpj() : rj.getCnpj()));
+        if (r.nextInt(3) == 0) c.estados(List.of(r.nextBoolean() ? "mg" : "RJ"));
+        if (r.nextBoolean()) c.ordenarPor(Consulta.Ordem.values()[r.nextInt(Consulta.Ordem.values().length)], r.nextBoolean());
+        if (r.nextBoolean()) c.limite(1 + r.nextInt(30));
+        return c;
+    }
+
+    private static List<String> codigos(List<Medicamento> meds) {
+        return meds.stream().map(Medicamento::getCodigo).toList();
+    }
+
+    // a definição: filtra tudo, ordena (empate por código) e corta
+    private List<String> esperado(Consulta c) {
+        List<Medicamento> meds = filtrar(c::aceita);
+        meds.sort(c.comparador());
+        return codigos(meds.subList(0, Math.min(meds.size(), c.limite)));
+    }
+
+    private List<Medicamento> filtrar(Predicate<Medicamento> p) {
+        List<Medicamento> meds = new ArrayList<>();
+        for (Medicamento m : todos) if (p.test(m)) meds.add(m);
+        return meds;
+    }
+
+    private static boolean emFaixa(Medicamento m, int de, int ate) {
+        return m.getDataValidade() != null && !m.getDataValidade().isBefore(HOJE.plusDays(de))
+                && !m.getDataValidade().isAfter(HOJE.plusDays(ate));
+    }
+}
@@ -0,0 +1,80 @@
+package org.provapoo3.catalogo;
+
+import org.junit.jupiter.api.Test;
+import org.provapoo3.model.FonteDescricoes;
+import org.provapoo3.model.Medicamento;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.provapoo3.Amostras.item;
+
+class IndiceTextoTest {
+
+    // descrições como as da cópia binária: guardadas fora do objeto, contando cada decodificação
+    private static final class Fonte implements FonteDescricoes {
+        final List<String> textos = new ArrayList<>();
+        int lidas;
+
+        long guardar(String texto) {
+            textos.add(texto);
+            return textos.size() - 1;
+        }
+
+        @Override public String descricao(long referencia) {
+            return lerSemGuardar(referencia);
+        }
+
+        @Override public String lerSemGuardar(long referencia) {
+            lidas++;
+            return textos.get((int) referencia);
+        }
+    }
+
+    @Test
+    void descricoesSoSaoLidasNaPrimeiraPesquisaEUmaVezSo() {
+        Fonte fonte = new Fonte();
+        IndiceTexto indice = new IndiceTexto();
+        for (int i = 0; i < 500; i++) indice.adicionar(medicamento(fonte, "M" + i, "Item " + i, "texto comum " + i));
+        Medicamento excluido = medicamento(fonte, "X1", "Excluido", "texto comum");
+        indice.adicionar(excluido);
+        indice.remover(excluido);
+
+        assertEquals(0, fonte.lidas);
+        assertEquals(List.of("M42"), codigos(indice.pesquisar("comum 42", 1).itens())); // exata antes de 420..429
+        assertEquals(500, fonte.lidas); // o excluído antes da pesquisa não é lido
+        assertEquals(List.of("M7"), codigos(indice.pesquisar("item 7", 1).itens()));
+        assertEquals(500, fonte.lidas);
+
+        indice.adicionar(medicamento(fonte, "N1", "Novo", "raridade"));
+        assertEquals(List.of("N1"), codigos(indice.pesquisar("rarid", 10).itens()));
+        assertEquals(501, fonte.lidas);
+    }
+
+    @Test
+    void palavraNoNomeENaDescricaoValeComoNome() {
+        Fonte fonte = new Fonte();
+        IndiceTexto indice = new IndiceTexto();
+        indice.adicionar(medicamento(fonte, "A", "Dipirona", "dipirona sodica"));
+        indice.adicionar(medicamento(fonte, "B", "Analgesico", "dipirona"));
+        indice.adicionar(medicamento(fonte, "C", "Dipirona Gotas", "outro"));
+
+        // A e C pelo nome (empate: ordem de nome), B só pela descrição
+        assertEquals(List.of("A", "C", "B"), codigos(indice.pesquisar("dipirona", 10).itens()));
+        assertEquals(List.of("A"), codigos(indice.pesquisar("dipirona sodica", 10).itens()));
+        assertEquals(List.of("A"), codigos(indice.pesquisar("dipirona", 1).itens()));
+        assertEquals(3, indice.pesquisar("dipirona", 1).total()); // o total não para no limite
+    }
+
+    private static Medicamento medicamento(Fonte fonte, String codigo, String nome, String descricao) {
+        Medicamento m = item(codigo);
+        m.setNome(nome);
+        m.setDescricao(fonte, fonte.guardar(descricao));
+        return m;
+    }
+
+    private static List<String> codigos(List<Medicamento> meds) {
+        return meds.stream().map(Medicamento::getCodigo).toList();
+    }
+}
@@ -0,0 +1,117 @@
+package org.provapoo3.catalogo;
+
+import org.junit.jupiter.api.Test;
+import org.provapoo3.model.Medicamento;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.provapoo3.Amostras.item;
+
+class ListaPorInclusaoTest {
+
+    @Test
+    void operacoesAleatoriasBatemComListaOrdenadaPelaInclusao() {
+        Random r = new Random(3);
+        ListaPorInclusao lista = ListaPorInclusao.VAZIA;
+        TreeMap<Long, Medicamento> modelo = new TreeMap<>();
+        Object dono = new Object();
+        long proxima = 0;
+        for (int passo = 0; passo < 20_000; passo++) {
+            int op = r.nextInt(10);
+            if (op < 5 || modelo.isEmpty()) {
+                // inclusão no fim; às vezes com um salto grande (exclusões em massa deixam buracos)
+                proxima += r.nextInt(20) == 0 ? 1 + r.nextInt(5_000) : 1;
+                Medicamento m = item("I" + proxima);
+                lista = lista.com(proxima, m, dono);
+                modelo.put(proxima, m);
+            } else if (op < 7) {
+                long existente = existente(r, modelo);
+                Medicamento m = item("T" + passo); // troca no lugar (cópia com outra quantidade)
+                lista = lista.com(existente, m, dono);
+                modelo.put(existente, m);
+            } else {
+                long alvo = r.nextBoolean() ? existente(r, modelo) : r.nextInt((int) proxima + 10);
+                lista = lista.sem(alvo, dono);
+                modelo.remove(alvo);
+            }
+            if (r.nextInt(40) == 0) dono = new Object();
+            if (passo % 499 == 0) conferir(lista, modelo);
+        }
+        conferir(lista, modelo);
+    }
+
+    @Test
+    void raizSobeNiveisComInclusoesAlemDe32ElevadoAK() {
+        ListaPorInclusao lista = ListaPorInclusao.VAZIA;
+        TreeMap<Long, Medicamento> modelo = new TreeMap<>();
+        long[] numeros = {0, 31, 32, 1023, 1024, 32_767, 32_768, 1L << 20, (1L << 25) + 7, 1L << 35, (1L << 40) - 1};
+        for (long n : numeros) {
+            Medicamento m = item("N" + n);
+            lista = lista.com(n, m, new Object());
+            modelo.put(n, m);
+            conferir(lista, modelo);
+        }
+        assertSame(lista, lista.sem(1L << 50, new Object())); // além da raiz: nada muda
+        assertSame(lista, lista.sem(5, new Object()));        // buraco: nada muda
+        for (long n : numeros) {
+            lista = lista.sem(n, new Object());
+            modelo.remove(n);
+            conferir(lista, modelo);
+        }
+        assertSame(ListaPorInclusao.VAZIA, lista);
+    }
+
+    @Test
+    void versoesAnterioresNaoMudam() {
+        Random r = new Random(9);
+        ListaPorInclusao lista = ListaPorInclusao.VAZIA;
+        TreeMap<Long, Medicamento> modelo = new TreeMap<>();
+        List<ListaPorInclusao> fixadas = new ArrayList<>();
+        List<List<Medicamento>> esperadas = new ArrayList<>();
+        Object dono = new Object();
+        long proxima = 0;
+        for (int passo = 0; passo < 6_000; passo++) {
+            if (r.nextInt(3) > 0 || modelo.isEmpty()) {
+                proxima += 1 + r.nextInt(3);
+                Medicamento m = item("I" + proxima);
+                lista = lista.com(proxima, m, dono);
+                modelo.put(proxima, m);
+            } else if (r.nextBoolean()) {
+                long alvo = existente(r, modelo);
+                Medicamento m = item("T" + passo);
+                lista = lista.com(alvo, m, dono);
+                modelo.put(alvo, m);
+            } else {
+                long alvo = existente(r, modelo);
+                lista = lista.sem(alvo, dono);
+                modelo.remove(alvo);
+            }
+            if (passo % 150 == 0) {
+                fixadas.add(lista);
+                esperadas.add(new ArrayList<>(modelo.values()));
+                dono = new Object();
+            }
+        }
+        for (int i = 0; i < fixadas.size(); i++) {
+            assertEquals(esperadas.get(i), new ArrayList<>(fixadas.get(i)), "versão " + i);
+        }
+    }
+
+    private static void conferir(ListaPorInclusao lista, TreeMap<Long, Medicamento> modelo) {
+        List<Medicamento> esperado = new ArrayList<>(modelo.values());
+        assertEquals(esperado.size(), lista.size());
+        List<Medicamento> percorrido = new ArrayList<>(lista.size());
+        for (Medicamento m : lista) percorrido.add(m);
+        assertEquals(esperado, percorrido);
+        for (int i = 0; i < esperado.size(); i += Math.max(1, esperado.size() / 50)) {
+            assertSame(esperado.get(i), lista.get(i), "posição " + i);
+        }
+        if (!esperado.isEmpty()) assertSame(esperado.get(esperado.size() - 1), lista.get(esperado.size() - 1));
+        assertThrows(IndexOutOfBoundsException.class, () -> lista.get(esperado.size()));
+    }
+
+    private static long existente(Random r, TreeMap<Long, Medicamento> modelo) {
+        return modelo.ceilingKey((long) r.nextInt(modelo.lastKey().intValue() + 1));
+    }
+}
@@ -0,0 +1,147 @@
+package org.provapoo3.catalogo;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.provapoo3.Amostras.item;
+
+class MapaPorCodigoTest {
+
+    // "Aa" e "BB" têm o mesmo hashCode: as combinações caem todas no mesmo nó de colisão
+    private static final List<String> COLIDENTES = List.of("AaAaAa", "AaAaBB", "AaBBAa", "AaBBBB",
+            "BBAaAa", "BBAaBB", "BBBBAa", "BBBBBB");
+
+    @Test
+    void operacoesAleatoriasBatemComHashMap() {
+        Random r = new Random(11);
+        List<String> universo = universo(r, 3_000);
+        MapaPorCodigo mapa = MapaPorCodigo.VAZIO;
+        Map<String, MapaPorCodigo.Entrada> modelo = new HashMap<>();
+        Object dono = new Object();
+        long inclusao = 0;
+        for (int passo = 0; passo < 40_000; passo++) {
+            String codigo = universo.get(r.nextInt(universo.size()));
+            if (r.nextInt(3) == 0) {
+                mapa = mapa.sem(codigo, dono);
+                modelo.remove(codigo);
+            } else {
+                MapaPorCodigo.Entrada e = new MapaPorCodigo.Entrada(inclusao++, item(codigo));
+                mapa = mapa.com(e, dono); // inclui ou troca
+                modelo.put(codigo, e);
+            }
+            if (r.nextInt(50) == 0) dono = new Object(); // como uma publicação do catálogo
+            if (passo % 997 == 0) conferir(mapa, modelo, universo);
+        }
+        conferir(mapa, modelo, universo);
+    }
+
+    @Test
+    void versoesAnterioresNaoMudam() {
+        Random r = new Random(5);
+        List<String> universo = universo(r, 500);
+        MapaPorCodigo mapa = MapaPorCodigo.VAZIO;
+        Map<String, MapaPorCodigo.Entrada> modelo = new HashMap<>();
+        List<MapaPorCodigo> fixados = new ArrayList<>();
+        List<Map<String, MapaPorCodigo.Entrada>> esperados = new ArrayList<>();
+        Object dono = new Object();
+        for (int passo = 0; passo < 5_000; passo++) {
+            String codigo = universo.get(r.nextInt(universo.size()));
+            if (r.nextInt(3) == 0) {
+                mapa = mapa.sem(codigo, dono);
+                modelo.remove(codigo);
+            } else {
+                MapaPorCodigo.Entrada e = new MapaPorCodigo.Entrada(passo, item(codigo));
+                mapa = mapa.com(e, dono);
+                modelo.put(codigo, e);
+            }
+            if (passo % 100 == 0) {
+                // fixado: a edição seguinte tem outro dono e não pode mais alterar estes nós
+                fixados.add(mapa);
+                esperados.add(new HashMap<>(modelo));
+                dono = new Object();
+            }
+        }
+        for (int i = 0; i < fixados.size(); i++) conferir(fixados.get(i), esperados.get(i), universo);
+    }
+
+    @Test
+    void colisaoDeHashInteiroGuardaTodosERemoveUmAUm() {
+        assertEquals(COLIDENTES.get(0).hashCode(), COLIDENTES.get(7).hashCode());
+        MapaPorCodigo mapa = MapaPorCodigo.VAZIO;
+        Map<String, MapaPorCodigo.Entrada> modelo = new HashMap<>();
+        for (String c : COLIDENTES) {
+            MapaPorCodigo.Entrada e = new MapaPorCodigo.Entrada(modelo.size(), item(c));
+            mapa = mapa.com(e, new Object());
+            modelo.put(c, e);
+        }
+        MapaPorCodigo.Entrada trocada = new MapaPorCodigo.Entrada(99, item("BBAaBB"));
+        mapa = mapa.com(trocada, new Object());
+        modelo.put("BBAaBB", trocada);
+        conferir(mapa, modelo, COLIDENTES);
+        assertNull(mapa.buscar("CCCCCC"));
+        assertSame(mapa, mapa.sem("AaAaCC", new Object())); // ausente: nada muda
+
+        for (String c : COLIDENTES) {
+            mapa = mapa.sem(c, new Object());
+            modelo.remove(c);
+            conferir(mapa, modelo, COLIDENTES);
+        }
+        assertSame(MapaPorCodigo.VAZIO, mapa);
+    }
+
+    @Test
+    void remocaoRecolheRamosFundosAteFicarVazio() {
+        // pares com o mesmo hash nos 25 bits de baixo: cada par desce junto por 5 níveis antes de separar
+        List<String> fundos = new ArrayList<>();
+        Map<Integer, String> porHash = new HashMap<>();
+        for (int i = 0; fundos.size() < 6; i++) {
+            String c = "C" + i;
+            String outro = porHash.putIfAbsent(c.hashCode() & ((1 << 25) - 1), c);
+            if (outro != null) {
+                fundos.add(outro);
+                fundos.add(c);
+                porHash.remove(c.hashCode() & ((1 << 25) - 1));
+            }
+        }
+        recolher(fundos, false);
+        recolher(fundos, true);
+    }
+
+    // mesmoDono: tudo numa edição só, com os nós alterados no lugar
+    private static void recolher(List<String> codigos, boolean mesmoDono) {
+        Object dono = new Object();
+        MapaPorCodigo mapa = MapaPorCodigo.VAZIO;
+        Map<String, MapaPorCodigo.Entrada> modelo = new HashMap<>();
+        for (String c : codigos) {
+            MapaPorCodigo.Entrada e = new MapaPorCodigo.Entrada(modelo.size(), item(c));
+            mapa = mapa.com(e, mesmoDono ? dono : new Object());
+            modelo.put(c, e);
+        }
+        MapaPorCodigo cheio = mapa;
+        Map<String, MapaPorCodigo.Entrada> todos = new HashMap<>(modelo);
+        for (String c : codigos) {
+            mapa = mapa.sem(c, mesmoDono ? dono : new Object());
+            modelo.remove(c);
+            conferir(mapa, modelo, codigos);
+        }
+        assertSame(MapaPorCodigo.VAZIO, mapa);
+        if (!mesmoDono) conferir(cheio, todos, codigos);
+    }
+
+    private static void conferir(MapaPorCodigo mapa, Map<String, MapaPorCodigo.Entrada> modelo, List<String> universo) {
+        for (String c : universo) assertSame(modelo.get(c), mapa.buscar(c), c);
+    }
+
+    // códigos de 7 caracteres de um alfabeto pequeno (muitos ramos em comum) mais os de hash igual
+    private static List<String> universo(Random r, int n) {
+        Set<String> codigos = new LinkedHashSet<>(COLIDENTES);
+        while (codigos.size() < n) {
+            char[] c = new char[7];
+            for (int i = 0; i < 7; i++) c[i] = "ABC0123".charAt(r.nextInt(7));
+            codigos.add(new String(c));
+        }
+        return new ArrayList<>(codigos);
+    }
+}
@@ -0,0 +1,209 @@
+package org.provapoo3.catalogo;
+
+import org.junit.jupiter.api.Test;
+import org.provapoo3.model.FonteDescricoes;
+import org.provapoo3.model.Fornecedor;
+import org.provapoo3.model.Medicamento;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.provapoo3.Amostras.*;
+
+class VersaoTest {
+
+    @Test
+    void versaoFixadaNaoVeAsAlteracoesSeguintes() {
+        Random r = new Random(17);
+        CatalogoMedicamentos catalogo = new CatalogoMedicamentos();
+        // código -> quantidade, na ordem de inclusão (trocar = excluir + incluir: vai para o fim)
+        LinkedHashMap<String, Integer> modelo = new LinkedHashMap<>();
+        List<Versao> fixadas = new ArrayList<>();
+        List<List<String>> esperadas = new ArrayList<>();
+        for (int passo = 0; passo < 4_000; passo++) {
+            String codigo = String.format("V%06d", r.nextInt(600));
+            Medicamento atual = catalogo.buscarPorCodigo(codigo).orElse(null);
+            switch (r.nextInt(4)) {
+                case 0 -> {
+                    int q = r.nextInt(100);
+                    Medicamento m = item(codigo, q);
+                    assertEquals(atual == null, catalogo.adicionar(m));
+                    modelo.putIfAbsent(codigo, q);
+                }
+                case 1 -> {
+                    int q = r.nextInt(100);
+                    catalogo.substituir(item(codigo, q));
+                    modelo.remove(codigo);
+                    modelo.put(codigo, q);
+                }
+                case 2 -> {
+                    assertEquals(atual != null, catalogo.remover(codigo).isPresent());
+                    modelo.remove(codigo);
+                }
+                default -> {
+                    int q = r.nextInt(100);
+                    catalogo.atualizarQuantidade(codigo, q); // cópia no mesmo lugar da ordem
+                    modelo.computeIfPresent(codigo, (k, v) -> q);
+                }
+            }
+            if (passo % 40 == 0) {
+                fixadas.add(catalogo.versao());
+                esperadas.add(descrever(modelo));
+            }
+        }
+        assertEquals(descrever(modelo), descrever(catalogo.versao()));
+        for (int i = 0; i < fixadas.size(); i++) {
+            Versao v = fixadas.get(i);
+            assertEquals(esperadas.get(i), descrever(v), "versão " + v.numero());
+            for (String linha : esperadas.get(i)) {
+                String codigo = linha.substring(0, linha.indexOf('='));
+                assertEquals(linha, codigo + "=" + v.buscar(codigo).orElseThrow().getQuantidadeEstoque());
+            }
+        }
+        for (int i = 1; i < fixadas.size(); i++) assertTrue(fixadas.get(i).numero() > fixadas.get(i - 1).numero());
+    }
+
+    @Test
+    void buscaPorCodigoNuncaEstaAFrenteDaVersaoPublicada() throws InterruptedException {
+        CatalogoMedicamentos catalogo = new CatalogoMedicamentos();
+        AtomicBoolean fim = new AtomicBoolean();
+        AtomicReference<String> erro = new AtomicReference<>();
+        Thread leitor = new Thread(() -> {
+            while (!fim.get()) {
+                // o último código do lote: se a busca o vê, o lote inteiro já está numa versão publicada
+                for (int lote = 0; lote < 200; lote++) {
+                    if (catalogo.buscarPorCodigo(codigo(lote, 49)).isEmpty()) continue;
+                    Versao v = catalogo.versao();
+                    if (!v.contem(codigo(lote, 0)) || !v.contem(codigo(lote, 49))) erro.set("lote " + lote);
+                }
+            }
+        });
+        leitor.start();
+        for (int lote = 0; lote < 200; lote++) {
+            List<Medicamento> meds = new ArrayList<>();
+            for (int i = 0; i < 50; i++) meds.add(item(codigo(lote, i), i));
+            catalogo.adicionarTodos(meds); // uma versão publicada por lote
+        }
+        fim.set(true);
+        leitor.join();
+        assertNull(erro.get());
+        assertEquals(10_000, catalogo.versao().tamanho());
+        assertTrue(catalogo.contem(codigo(199, 49)));
+        assertEquals(catalogo.versao().inclusao(codigo(7, 3)), catalogo.inclusao(codigo(7, 3)));
+    }
+
+    @Test
+    void relatoriosDaVersaoSaemDasColunasComOsPropriosItens() {
+        Fornecedor sp = new Fornecedor("11111111000111", "Paulista", "", "", "", "SP");
+        Fornecedor rj = new Fornecedor("22222222000122", "Carioca", "", "", "", "RJ");
+        Fornecedor[] fornecedores = {sp, rj, null};
+        int[] lidas = {0};
+        FonteDescricoes fonte = new FonteDescricoes() {
+            @Override public String descricao(long referencia) { return lerSemGuardar(referencia); }
+            @Override public String lerSemGuardar(long referencia) { lidas[0]++; return "descrição " + referencia; }
+        };
+        CatalogoMedicamentos catalogo = new CatalogoMedicamentos();
+        Random r = new Random(23);
+        for (int i = 0; i < 2_000; i++) {
+            Medicamento m = new Medicamento(String.format("C%05d", r.nextInt(5_000)), "Item " + i, null, "",
+                    r.nextInt(20) == 0 ? null : LocalDate.of(2030, 1, 1).plusDays(r.nextInt(400)), r.nextInt(60),
+                    r.nextInt(15) == 0 ? null : BigDecimal.valueOf(r.nextInt(10_000), 2), r.nextInt(7) == 0,
+                    fornecedores[r.nextInt(3)]);
+            m.setDescricao(fonte, i);
+            catalogo.adicionar(m);
+        }
+        catalogo.definirLimiteEstoque(sp.getCnpj(), 30);
+        catalogo.definirLimiteEstoque("", 5);
+
+        Versao v = catalogo.versao();
+        assertSame(v.colunas(), v.colunas());
+        assertSame(v.colunas(), catalogo.colunas());
+        Set<Medicamento> publicados = Collections.newSetFromMap(new IdentityHashMap<>());
+        publicados.addAll(v.todos());
+
+        List<Medicamento> baixo = v.estoqueBaixo(10);
+        assertEquals(catalogo.estoqueBaixo(10).stream().map(Medicamento::getCodigo).sorted().toList(),
+                baixo.stream().map(Medicamento::getCodigo).sorted().toList());
+        for (int i = 1; i < baixo.size(); i++) {
+            assertTrue(baixo.get(i - 1).getQuantidadeEstoque() <= baixo.get(i).getQuantidadeEstoque());
+        }
+        assertTrue(publicados.containsAll(baixo));
+        assertEquals(catalogo.valorEstoquePorFornecedor(), v.valorEstoquePorFornecedor());
+
+        Consulta c = new Consulta().estados(List.of("sp")).validadeEntre(LocalDate.of(2030, 3, 1), null)
+                .precoEntre(null, new BigDecimal("60")).ordenarPor(Consulta.Ordem.VALIDADE, true)
+                .agruparPor(Consulta.Agrupamento.MES_VALIDADE);
+        Consulta.Resultado daVersao = v.consultar(c), doCatalogo = catalogo.consultar(c);
+        assertEquals(doCatalogo.medicamentos(), daVersao.medicamentos());
+        assertEquals(doCatalogo.grupos(), daVersao.grupos());
+        assertTrue(publicados.containsAll(daVersao.medicamentos()));
+        assertEquals(0, lidas[0]); // as colunas de uma versão não copiam as descrições
+    }
+
+    @Test
+    void lotesDaVersaoSaemNaOrdemDosRelatoriosEmVariasPassadas() {
+        CatalogoMedicamentos catalogo = new CatalogoMedicamentos();
+        Random r = new Random(29);
+        LocalDate hoje = LocalDate.of(2030, 1, 1);
+        for (int i = 0; i < 150_000; i++) { // mais de duas passadas de 65.536 linhas
+            catalogo.adicionar(new Medicamento(String.format("P%06d", i), "Item " + i, "", "",
+                    r.nextInt(50) == 0 ? null : hoje.plusDays(r.nextInt(200) - 100), r.nextInt(40),
+                    null, false, null));
+        }
+        Versao v = catalogo.versao();
+        catalogo.remover("P000000"); // depois de fixada, a versão não muda
+        TabelaColunar t = v.colunas();
+
+        List<Medicamento> vencendo = juntar(v.lotesVencendoEntre(hoje, hoje.plusDays(60), 1_000));
+        assertEquals(t.medicamentos(t.linhasVencendoEntre(hoje, hoje.plusDays(60))), vencendo);
+        List<Medicamento> vencidos = juntar(v.lotesVencidosAntesDe(hoje, 1_000));
+        assertEquals(t.medicamentos(t.linhasVencidosAntesDe(hoje)), vencidos);
+        assertTrue(vencidos.size() > 65_536);
+        assertEquals(v.estoqueBaixo(35), juntar(v.lotesEstoqueBaixo(35, 777)));
+        assertFalse(v.lotesVencendoEntre(hoje.plusDays(500), hoje.plusDays(600), 10).hasNext());
+    }
+
+    private static List<Medicamento> juntar(CatalogoMedicamentos.Lotes lotes) {
+        int estimativa = lotes.estimativa();
+        List<Medicamento> meds = new ArrayList<>();
+        while (lotes.hasNext()) meds.addAll(lotes.next());
+        assertEquals(estimativa, meds.size());
+        return meds;
+    }
+
+    private static String codigo(int lote, int i) {
+        return String.format("L%03d%03d", lote, i);
+    }
+
+    private static List<String> descrever(Map<String, Integer> modelo) {
+        List<String> linhas = new ArrayList<>();
+        modelo.forEach((c, q) -> linhas.add(c + "=" + q));
+        return linhas;
+    }
+
+    private static List<String> descrever(Versao v) {
+        List<String> linhas = new ArrayList<>();
+        for (Medicamento m : v.todos()) linhas.add(m.getCodigo() + "=" + m.getQuantidadeEstoque());
+        return linhas;
+    }
+
+    @Test
+    void colunasConferemOValorDoItemComoOCatalogo() {
+        Medicamento precoGrande = item("P00001", 1);
+        precoGrande.setPreco(new BigDecimal("1e17")); // os centavos já não cabem num long
+        Medicamento produtoGrande = item("P00002", Integer.MAX_VALUE);
+        produtoGrande.setPreco(new BigDecimal("1e10"));
+        assertThrows(IllegalArgumentException.class, () -> TabelaColunar.de(List.of(precoGrande)));
+        assertThrows(IllegalArgumentException.class, () -> TabelaColunar.de(List.of(produtoGrande)));
+
+        Medicamento negativo = item("P00003", -4);
+        negativo.setPreco(new BigDecimal("2.50"));
+        negativo.setFornecedor(FORNECEDOR);
+        assertEquals(Map.of(CNPJ, -1_000L),
+                TabelaColunar.de(List.of(negativo)).valorEstoquePorFornecedor());
+    }
+}
@@ -0,0 +1,217 @@
+package org.provapoo3.persistencia;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.provapoo3.catalogo.CatalogoMedicamentos;
+import org.provapoo3.catalogo.RegistroFornecedores;
+import org.provapoo3.model.Fornecedor;
+import org.provapoo3.model.Medicamento;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.provapoo3.Amostras.*;
+
+class CarregadorCSVTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void carregaFormatoNormalizadoComFornecedorDoRegistro() throws IOException {
+        Path csv = csv(RepositorioCSV.HEADER_MED,
+                "AAA0001;Dipirona;Analgésico;dipirona;2030-05-01;12;8.90;false;" + CNPJ + ";3",
+                "AAA0002;Rivotril;;clonazepam;;0;;true;;0");
+
+        CarregadorCSV.Carga carga = carregar(csv);
+
+        assertTrue(carga.rejeitadas().isEmpty());
+        assertEquals(2, carga.medicamentos().size());
+        Medicamento m = carga.medicamentos().get(0);
+        assertEquals("AAA0001", m.getCodigo());
+        assertEquals("Analgésico", m.getDescricao());
+        assertEquals(LocalDate.of(2030, 5, 1), m.getDataValidade());
+        assertEquals(12, m.getQuantidadeEstoque());
+        assertEquals(new BigDecimal("8.90"), m.getPreco());
+        assertEquals(3, m.getVersao());
+        assertSame(FORNECEDOR, m.getFornecedor());
+
+        Medicamento semCampos = carga.medicamentos().get(1);
+        assertNull(semCampos.getDataValidade());
+        assertNull(semCampos.getPreco());
+        assertTrue(semCampos.isControlado());
+        assertEquals("", semCampos.getFornecedor().getCnpj());
+    }
+
+    @Test
+    void carregaArquivoSemVersaoELegadoComFornecedorNaLinha() throws IOException {
+        Path semVersao = csv("codigo;nome;descricao;principioAtivo;dataValidade;quantidadeEstoque;preco;controlado;forn_cnpj",
+                "AAA0001;Dipirona;;dipirona;2030-05-01;1;1.00;false;" + CNPJ);
+        Medicamento m = carregar(semVersao).medicamentos().get(0);
+        assertEquals(0, m.getVersao());
+        assertSame(FORNECEDOR, m.getFornecedor());
+
+        Path legado = dir.resolve("legado.csv");
+        Files.writeString(legado, String.join("\n",
+                "codigo;nome;descricao;principioAtivo;dataValidade;quantidadeEstoque;preco;controlado;"
+                        + "forn_cnpj;forn_razao;forn_telefone;forn_email;forn_cidade;forn_estado",
+                "AAA0003;Amoxil;;amoxicilina;2031-01-01;4;20.00;false;99888777000166;Lab X;11;x@x.com;Recife;PE"),
+                StandardCharsets.UTF_8);
+        Medicamento l = carregar(legado).medicamentos().get(0);
+        assertEquals("Lab X", l.getFornecedor().getRazaoSocial());
+        assertEquals("PE", l.getFornecedor().getEstado());
+    }
+
+    @Test
+    void linhasInvalidasVaoParaRejeitadasComNumeroEMotivo() throws IOException {
+        Path csv = csv(RepositorioCSV.HEADER_MED,
+                "AAA0001;Dipirona;;dipirona;2030-05-01;12;8.90;false;" + CNPJ + ";0",
+                "curto;Sem colunas",
+                "",
+                "AAA0002;Data ruim;;x;2030-13-45;1;1.00;false;;0",
+                "AAA0003;Quantidade;;x;2030-01-01;muitos;1.00;false;;0",
+                "AAA0004;Preço;;x;2030-01-01;1;-2.00;false;;0",
+                "AAA0005;CNPJ;;x;2030-01-01;1;1.00;false;123;0",
+                "AAA0006;Versão;;x;2030-01-01;1;1.00;false;;v2",
+                "AAA0007;Boa;;x;2030-01-01;1;1.00;false;;0");
+
+        CarregadorCSV.Carga carga = carregar(csv);
+
+        assertEquals(List.of("AAA0001", "AAA0007"), codigos(carga.medicamentos()));
+        List<CarregadorCSV.Rejeicao> r = carga.rejeitadas();
+        assertEquals(List.of(3L, 5L, 6L, 7L, 8L, 9L), r.stream().map(CarregadorCSV.Rejeicao::linha).toList());
+        assertTrue(r.get(0).motivo().contains("colunas"));
+        assertTrue(r.get(1).motivo().contains("Data"));
+        assertTrue(r.get(2).motivo().contains("Quantidade"));
+        assertTrue(r.get(3).motivo().contains("Preço"));
+        assertTrue(r.get(4).motivo().contains("CNPJ"));
+        assertTrue(r.get(5).motivo().contains("Versão"));
+        assertEquals("curto;Sem colunas", r.get(0).conteudo());
+    }
+
+    @Test
+    void versaoAcimaDeIntCarregaEColunaAMaisERejeitada() throws IOException {
+        Path csv = csv(RepositorioCSV.HEADER_MED,
+                "AAA0001;Dipirona;;dipirona;2030-05-01;12;8.90;false;" + CNPJ + ";" + (Integer.MAX_VALUE + 10L),
+                "AAA0002;Nome;com ponto e vírgula;;x;2030-01-01;1;1.00;false;;0",
+                "AAA0003;Versão;;x;2030-01-01;1;1.00;false;;99999999999999999999");
+
+        CarregadorCSV.Carga carga = carregar(csv);
+
+        assertEquals(List.of("AAA0001"), codigos(carga.medicamentos()));
+        assertEquals(Integer.MAX_VALUE + 10L, carga.medicamentos().get(0).getVersao());
+        assertEquals("Linha com 11 colunas (esperado 10).", carga.rejeitadas().get(0).motivo());
+        assertTrue(carga.rejeitadas().get(1).motivo().contains("Versão"));
+    }
+
+    @Test
+    void precoEQuantidadeForaDaFaixaDoCatalogoSaoRejeitados() throws IOException {
+        Path csv = csv(RepositorioCSV.HEADER_MED,
+                "AAA0001;Negativa;;x;2030-01-01;-3;1.00;false;;0",
+                "AAA0002;Expoente;;x;2030-01-01;1;1e2;false;;0",
+                "AAA0003;Longo;;x;2030-01-01;1;1234567890123456789.00;false;;0",
+                "AAA0004;Estouro;;x;2030-01-01;100000;10000000000000.00;false;;0",
+                "AAA0005;Sinal;;x;2030-01-01;1;+1.00;false;;0",
+                "AAA0006;Limite;;x;2030-01-01;1;10000000000000.00;false;;0");
+
+        CarregadorCSV.Carga carga = carregar(csv);
+
+        assertEquals(List.of("AAA0006"), codigos(carga.medicamentos()));
+        List<String> motivos = carga.rejeitadas().stream().map(CarregadorCSV.Rejeicao::motivo).toList();
+        assertEquals("Quantidade negativa.", motivos.get(0));
+        assertEquals("Preço inválido.", motivos.get(1));
+        assertEquals("Preço inválido.", motivos.get(2));
+        assertTrue(motivos.get(3).contains("fora do limite"), motivos.get(3));
+        assertEquals("Preço inválido.", motivos.get(4));
+        assertThrows(IllegalArgumentException.class, () -> RepositorioCSV.parseMedicamento(
+                "AAA0001;A;;x;2030-01-01;100000;10000000000000.00;false;;0", new RegistroFornecedores()));
+    }
+
+    @Test
+    void cnpjPontuadoConfereSoOsDigitos() throws IOException {
+        Path csv = csv(RepositorioCSV.HEADER_MED,
+                "AAA0001;Pontuado;;x;2030-01-01;1;1.00;false;" + CNPJ_PONTUADO + ";0",
+                "AAA0002;Curto;;x;2030-01-01;1;1.00;false;11.222.333/0001-8;0");
+
+        CarregadorCSV.Carga carga = carregar(csv);
+
+        assertEquals(List.of("AAA0001"), codigos(carga.medicamentos()));
+        Fornecedor f = carga.medicamentos().get(0).getFornecedor();
+        assertEquals(CNPJ_PONTUADO, f.getCnpj()); // fica como está no arquivo; o limite usa só os dígitos
+        assertEquals(CNPJ, CatalogoMedicamentos.digitosCnpj(f.getCnpj()));
+        assertEquals(List.of(3L), carga.rejeitadas().stream().map(CarregadorCSV.Rejeicao::linha).toList());
+        assertTrue(carga.rejeitadas().get(0).motivo().contains("CNPJ"));
+    }
+
+    @Test
+    void textoComSeparadorGravadoPeloRepositorioVoltaNasMesmasColunas() throws IOException {
+        Medicamento m = new Medicamento("AAA0001", "Soro; 500 ml", "linha 1\nlinha 2", "cloreto;sódio",
+                LocalDate.of(2030, 1, 1), 3, new BigDecimal("4.50"), true, FORNECEDOR);
+        m.setVersao(7);
+
+        Medicamento lido = carregar(csv(RepositorioCSV.HEADER_MED, RepositorioCSV.linhaMedicamento(m)))
+                .medicamentos().get(0);
+
+        assertEquals("Soro, 500 ml", lido.getNome());
+        assertEquals("linha 1 linha 2", lido.getDescricao());
+        assertEquals("cloreto,sódio", lido.getPrincipioAtivo());
+        assertEquals(3, lido.getQuantidadeEstoque());
+        assertEquals(7, lido.getVersao());
+        assertSame(FORNECEDOR, lido.getFornecedor());
+        assertThrows(IllegalArgumentException.class,
+                () -> RepositorioCSV.parseMedicamento("AAA0001;A;B;;c;2030-01-01;1;1.00;false;;0", null));
+    }
+
+    @Test
+    void arquivoEmVariosBlocosMantemOrdemENumeroDasLinhas() throws IOException {
+        List<String> linhas = new ArrayList<>();
+        linhas.add(RepositorioCSV.HEADER_MED);
+        int n = 40_000; // ~3 MB: mais de um bloco de 1 MB
+        for (int i = 0; i < n; i++) {
+            linhas.add(String.format("C%06d;Medicamento %d;descrição longa o bastante para encher o bloco;principio;"
+                    + "2030-01-01;%d;1.50;false;%s;0", i, i, i, CNPJ));
+        }
+        linhas.set(n - 5, "C_ruim;linha quebrada");
+        Path csv = dir.resolve("grande.csv");
+        Files.write(csv, linhas, StandardCharsets.UTF_8);
+        List<Double> progresso = new ArrayList<>();
+
+        CarregadorCSV.Carga carga = CarregadorCSV.carregar(csv, Map.of(CNPJ, FORNECEDOR)::get, progresso::add);
+
+        assertEquals(n - 1, carga.medicamentos().size());
+        for (int i = 0, j = 0; i < n; i++) {
+            if (i == n - 6) continue; // a linha trocada (a primeira de dados é a 2)
+            assertEquals(String.format("C%06d", i), carga.medicamentos().get(j++).getCodigo());
+        }
+        assertEquals(1, carga.rejeitadas().size());
+        assertEquals(n - 4, carga.rejeitadas().get(0).linha());
+        assertEquals(1.0, progresso.stream().mapToDouble(Double::doubleValue).max().orElse(0), 1e-9);
+    }
+
+    @Test
+    void arquivoSoComCabecalhoCarregaVazio() throws IOException {
+        assertTrue(carregar(csv(RepositorioCSV.HEADER_MED)).medicamentos().isEmpty());
+    }
+
+    private Path csv(String... linhas) throws IOException {
+        Path csv = dir.resolve("medicamentos.csv");
+        Files.writeString(csv, String.join("\r\n", linhas) + "\r\n", StandardCharsets.UTF_8);
+        return csv;
+    }
+
+    private static CarregadorCSV.Carga carregar(Path csv) throws IOException {
+        return CarregadorCSV.carregar(csv, Map.of(CNPJ, FORNECEDOR)::get, p -> {});
+    }
+
+    private static List<String> codigos(List<Medicamento> meds) {
+        return meds.stream().map(Medicamento::getCodigo).toList();
+    }
+}
@@ -0,0 +1,145 @@
+package org.provapoo3.persistencia;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.provapoo3.catalogo.RegistroFornecedores;
+import org.provapoo3.model.Medicamento;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.provapoo3.Amostras.FORNECEDOR;
+
+class PartesCSVTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void primeiraGravacaoCriaTodasAsPartesEOManifesto() throws IOException {
+        List<Medicamento> meds = medicamentos(200);
+
+        PartesCSV.Gravacao g = PartesCSV.gravar(dir, null, meds, null, 4, 123);
+
+        assertEquals(PartesCSV.PARTES_PADRAO, g.partes());
+        assertEquals(200, g.itens());
+        PartesCSV.Manifesto m = PartesCSV.lerManifesto(dir);
+        assertEquals(0, m.serie());
+        assertEquals(4, m.geracao());
+        assertEquals(123, m.fimJournal());
+        assertEquals(PartesCSV.PARTES_PADRAO, m.partes());
+        assertEquals(200, m.total());
+        for (int i = 0; i < m.partes(); i++) {
+            assertEquals(String.format("parte-%02d.0.csv", i), m.arquivos().get(i));
+        }
+    }
+
+    @Test
+    void cargaLePelasCopiasBinariasEIntercalaPorNome() throws IOException {
+        List<Medicamento> meds = medicamentos(200);
+        PartesCSV.gravar(dir, null, meds, null, 0, -1);
+
+        PartesCSV.Carga carga = carregar();
+
+        List<Medicamento> esperado = new ArrayList<>(meds);
+        esperado.sort(RepositorioCSV.ORDEM_ARQUIVO);
+        assertEquals(linhas(esperado), linhas(carga.medicamentos()));
+        assertTrue(carga.regravar().isEmpty());
+        assertTrue(carga.rejeitadas().isEmpty());
+    }
+
+    @Test
+    void regravacaoTrocaSoAsPartesAlteradasEApagaAsAntigas() throws IOException {
+        List<Medicamento> meds = medicamentos(200);
+        PartesCSV.gravar(dir, null, meds, null, 0, -1);
+        PartesCSV.Manifesto antes = PartesCSV.lerManifesto(dir);
+        Medicamento alterado = meds.get(17);
+        alterado.setQuantidadeEstoque(999);
+        int parte = PartesCSV.parte(alterado.getCodigo(), antes.partes());
+        BitSet alteradas = new BitSet();
+        alteradas.set(parte);
+
+        PartesCSV.Gravacao g = PartesCSV.gravar(dir, antes, meds, alteradas, 1, 50);
+
+        assertEquals(1, g.partes());
+        PartesCSV.Manifesto depois = PartesCSV.lerManifesto(dir);
+        assertEquals(1, depois.serie());
+        for (int i = 0; i < depois.partes(); i++) {
+            String esperado = i == parte ? String.format("parte-%02d.1.csv", i) : antes.arquivos().get(i);
+            assertEquals(esperado, depois.arquivos().get(i));
+        }
+        assertTrue(Files.notExists(dir.resolve(antes.arquivos().get(parte))));
+        try (Stream<Path> s = Files.list(dir)) {
+            assertEquals(2 * depois.partes() + 1, s.count()); // CSV e cópia de cada parte + manifesto
+        }
+        Medicamento lido = carregar().medicamentos().stream()
+                .filter(m -> m.getCodigo().equals(alterado.getCodigo())).findFirst().orElseThrow();
+        assertEquals(999, lido.getQuantidadeEstoque());
+    }
+
+    @Test
+    void parteEditadaAMaoCarregaDoCsvEMarcaRegravacao() throws IOException {
+        List<Medicamento> meds = medicamentos(200);
+        PartesCSV.gravar(dir, null, meds, null, 0, -1);
+        PartesCSV.Manifesto m = PartesCSV.lerManifesto(dir);
+        // um item da parte 5 anotado na parte 2, mais uma linha inválida
+        Medicamento deOutraParte = meds.stream().filter(x -> PartesCSV.parte(x.getCodigo(), m.partes()) == 5)
+                .findFirst().orElseThrow();
+        Path csv2 = dir.resolve(m.arquivos().get(2));
+        Files.writeString(csv2, RepositorioCSV.linhaMedicamento(deOutraParte).replace("Medicamento", "Editado")
+                + "\nlinha;quebrada\n", StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+
+        PartesCSV.Carga carga = carregar();
+
+        assertEquals(Set.of(2, 5), bits(carga.regravar()));
+        assertEquals(List.of(PartesCSV.DIRETORIO + "/" + m.arquivos().get(2)), List.copyOf(carga.rejeitadas().keySet()));
+        assertEquals(201, carga.medicamentos().size()); // o repetido fica para a carga do catálogo resolver
+    }
+
+    @Test
+    void manifestoInvalidoOuParteFaltandoFalhamNaCarga() throws IOException {
+        PartesCSV.gravar(dir, null, medicamentos(20), null, 0, -1);
+        PartesCSV.Manifesto m = PartesCSV.lerManifesto(dir);
+        Files.delete(dir.resolve(m.arquivos().get(3)));
+        assertThrows(NoSuchFileException.class, this::carregar);
+
+        Files.writeString(dir.resolve(PartesCSV.MANIFESTO), "serie;x\n", StandardCharsets.UTF_8);
+        assertThrows(IOException.class, () -> PartesCSV.lerManifesto(dir));
+        assertNull(PartesCSV.lerManifesto(dir.resolve("vazio")));
+    }
+
+    private PartesCSV.Carga carregar() throws IOException {
+        RegistroFornecedores registro = new RegistroFornecedores();
+        registro.registrar(FORNECEDOR);
+        return PartesCSV.carregar(dir, PartesCSV.lerManifesto(dir), registro, p -> {});
+    }
+
+    private static List<Medicamento> medicamentos(int n) {
+        List<Medicamento> meds = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            meds.add(new Medicamento(String.format("M%06d", i), "Medicamento " + (n - i), "descrição " + i,
+                    "principio", LocalDate.of(2030, 1, 1).plusDays(i), i, BigDecimal.valueOf(100 + i, 2),
+                    i % 7 == 0, FORNECEDOR));
+        }
+        return meds;
+    }
+
+    private static List<String> linhas(List<Medicamento> meds) {
+        return meds.stream().map(RepositorioCSV::linhaMedicamento).toList();
+    }
+
+    private static Set<Integer> bits(BitSet b) {
+        Set<Integer> s = new HashSet<>();
+        b.stream().forEach(s::add);
+        return s;
+    }
+}
@@ -0,0 +1,242 @@
+package org.provapoo3.persistencia;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.provapoo3.catalogo.CatalogoMedicamentos;
+import org.provapoo3.model.Medicamento;
+import org.provapoo3.model.Movimentacao;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.provapoo3.Amostras.FORNECEDOR;
+import static org.provapoo3.Amostras.medicamento;
+
+/** Duas estações (dois repositórios) sobre o mesmo diretório, como duas máquinas num compartilhamento. */
+class RepositorioCSVTest {
+
+    @TempDir
+    Path dir;
+
+    private RepositorioCSV a, b;
+    private CatalogoMedicamentos catalogoA, catalogoB;
+
+    @BeforeEach
+    void abrir() throws IOException {
+        try (RepositorioCSV base = new RepositorioCSV(dir)) {
+            base.salvarTudo(List.of(medicamento("BASE001", 100)), List.of(FORNECEDOR));
+        }
+        a = new RepositorioCSV(dir);
+        b = new RepositorioCSV(dir);
+        catalogoA = a.carregar();
+        catalogoB = b.carregar();
+    }
+
+    @AfterEach
+    void fechar() throws IOException {
+        a.close();
+        b.close();
+    }
+
+    @Test
+    void inclusoesConcorrentesChegamAsDuasEstacoesEAoDisco() throws Exception {
+        ExecutorService estacoes = Executors.newFixedThreadPool(2);
+        try {
+            Future<?> fa = estacoes.submit(() -> incluir(a, catalogoA, "A"));
+            Future<?> fb = estacoes.submit(() -> incluir(b, catalogoB, "B"));
+            fa.get(30, TimeUnit.SECONDS);
+            fb.get(30, TimeUnit.SECONDS);
+        } finally {
+            estacoes.shutdown();
+        }
+        a.sincronizar(catalogoA);
+        b.sincronizar(catalogoB);
+
+        assertEquals(201, catalogoA.tamanho());
+        assertEquals(codigos(catalogoA), codigos(catalogoB));
+        try (RepositorioCSV c = new RepositorioCSV(dir)) {
+            CatalogoMedicamentos lido = c.carregar();
+            assertEquals(codigos(catalogoA), codigos(lido));
+            for (Medicamento m : lido.todos()) assertEquals(0, m.getVersao(), m.getCodigo());
+        }
+    }
+
+    @Test
+    void vendasConcorrentesDoMesmoItemSomamNasDuasEstacoes() throws Exception {
+        ExecutorService estacoes = Executors.newFixedThreadPool(2);
+        try {
+            Future<Integer> fa = estacoes.submit(() -> vender(a, catalogoA));
+            Future<Integer> fb = estacoes.submit(() -> vender(b, catalogoB));
+            assertEquals(30, fa.get(30, TimeUnit.SECONDS) + fb.get(30, TimeUnit.SECONDS));
+        } finally {
+            estacoes.shutdown();
+        }
+        a.sincronizar(catalogoA);
+        b.sincronizar(catalogoB);
+
+        assertEquals(70, quantidade(catalogoA, "BASE001"));
+        assertEquals(70, quantidade(catalogoB, "BASE001"));
+        try (RepositorioCSV c = new RepositorioCSV(dir)) {
+            assertEquals(70, quantidade(c.carregar(), "BASE001"));
+        }
+        assertEquals(30, a.movimentacoes("BASE001").size());
+    }
+
+    @Test
+    void exclusaoDeItemJaExcluidoPelaOutraViraConflito() throws IOException {
+        Medicamento excluidoEmA = catalogoA.remover("BASE001").orElseThrow();
+        assertTrue(a.gravar(List.of(RepositorioCSV.registroExclusao(excluidoEmA)), catalogoA).conflitos().isEmpty());
+
+        // B ainda não leu a exclusão de A: a sua parte da versão 0, que não é mais a do disco
+        Medicamento excluidoEmB = catalogoB.remover("BASE001").orElseThrow();
+        RepositorioCSV.Registro exclusao = RepositorioCSV.registroExclusao(excluidoEmB);
+        RepositorioCSV.Sincronizacao s = b.gravar(List.of(exclusao), catalogoB);
+
+        assertEquals(List.of(exclusao), s.conflitos());
+        assertEquals(0, s.gravados());
+        assertFalse(catalogoB.contem("BASE001"));
+        // uma nova inclusão parte do código ausente e é aceita
+        Medicamento novo = medicamento("BASE001", 5);
+        catalogoB.adicionar(novo);
+        assertTrue(b.gravar(List.of(RepositorioCSV.registroInsercao(novo)), catalogoB).conflitos().isEmpty());
+        assertEquals(List.of(novo.getCodigo()), codigos(a.sincronizar(catalogoA).incluidos()));
+        try (RepositorioCSV c = new RepositorioCSV(dir)) {
+            assertEquals(5, quantidade(c.carregar(), "BASE001"));
+        }
+    }
+
+    @Test
+    void compactacaoDeUmaEstacaoEContinuadaPelaOutra() throws IOException {
+        Medicamento m = medicamento("A000001", 1);
+        catalogoA.adicionar(m);
+        a.gravar(List.of(RepositorioCSV.registroInsercao(m)), catalogoA);
+        b.sincronizar(catalogoB);
+        a.compactar(catalogoA);
+
+        // B já tinha lido tudo o que a compactação incorporou: continua no journal novo, sem reler
+        RepositorioCSV.Sincronizacao s = b.sincronizar(catalogoB);
+        assertNull(s.recarregado());
+        Medicamento n = medicamento("B000001", 1);
+        catalogoB.adicionar(n);
+        b.gravar(List.of(RepositorioCSV.registroInsercao(n)), catalogoB);
+
+        assertEquals(List.of("B000001"), codigos(a.sincronizar(catalogoA).incluidos()));
+        assertEquals(codigos(catalogoA), codigos(catalogoB));
+    }
+
+    @Test
+    void linhaInvalidaDeUmaParteVaiParaAQuarentenaNaCompactacao() throws IOException {
+        PartesCSV.Manifesto m = PartesCSV.lerManifesto(dir.resolve(PartesCSV.DIRETORIO));
+        Path parte = dir.resolve(PartesCSV.DIRETORIO).resolve(m.arquivos().get(0));
+        Files.writeString(parte, "XYZ0001;sem;colunas\n", StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+
+        try (RepositorioCSV c = new RepositorioCSV(dir)) {
+            CatalogoMedicamentos lido = c.carregar();
+            assertEquals(1, c.rejeitadasNaCarga().size());
+            assertTrue(c.precisaCompactar());
+            c.compactar(lido);
+
+            List<String> quarentena = Files.readAllLines(c.arquivoQuarentena(), StandardCharsets.UTF_8);
+            assertEquals(RepositorioCSV.HEADER_QUARENTENA, quarentena.get(0));
+            assertEquals(2, quarentena.size());
+            assertTrue(quarentena.get(1).endsWith("XYZ0001;sem;colunas"), quarentena.get(1));
+            PartesCSV.Manifesto depois = PartesCSV.lerManifesto(dir.resolve(PartesCSV.DIRETORIO));
+            assertFalse(Files.readString(dir.resolve(PartesCSV.DIRETORIO).resolve(depois.arquivos().get(0)),
+                    StandardCharsets.UTF_8).contains("XYZ0001"));
+        }
+    }
+
+    @Test
+    void linhaComValorForaDoLimiteNaoDerrubaACarga() throws IOException {
+        PartesCSV.Manifesto m = PartesCSV.lerManifesto(dir.resolve(PartesCSV.DIRETORIO));
+        Path parte = dir.resolve(PartesCSV.DIRETORIO).resolve(m.arquivos().get(0));
+        Files.writeString(parte, "CARO001;Caro;;x;2030-01-01;100000;10000000000000.00;false;;0\n"
+                + "NEGA001;Negativa;;x;2030-01-01;-1;1.00;false;;0\n", StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+
+        try (RepositorioCSV c = new RepositorioCSV(dir)) {
+            CatalogoMedicamentos lido = c.carregar();
+            assertEquals(Set.of("BASE001"), codigos(lido));
+            assertEquals(2, c.rejeitadasNaCarga().size());
+            c.compactar(lido);
+
+            List<String> quarentena = Files.readAllLines(c.arquivoQuarentena(), StandardCharsets.UTF_8);
+            assertEquals(3, quarentena.size());
+            assertTrue(quarentena.get(1).contains("fora do limite") && quarentena.get(1).endsWith("false;;0"),
+                    quarentena.get(1));
+            assertTrue(quarentena.get(2).contains("Quantidade negativa"), quarentena.get(2));
+        }
+    }
+
+    @Test
+    void limiteDeFornecedorSobreviveARecargaEACompactacao() throws IOException {
+        catalogoA.definirLimiteEstoque("11.222.333/0001-81", 150);
+        a.gravar(List.of(RepositorioCSV.registroLimite("11.222.333/0001-81", 150)), catalogoA);
+        Map<String, Integer> esperado = Map.of("11222333000181", 150);
+        assertEquals(esperado, catalogoA.limitesEstoque());
+        assertEquals(List.of("BASE001"), codigos(catalogoA.estoqueBaixo(10)));
+
+        b.sincronizar(catalogoB);
+        assertEquals(esperado, catalogoB.limitesEstoque());
+        try (RepositorioCSV c = new RepositorioCSV(dir)) {
+            assertEquals(esperado, c.carregar().limitesEstoque());
+        }
+
+        a.compactar(catalogoA);
+        try (RepositorioCSV c = new RepositorioCSV(dir)) {
+            CatalogoMedicamentos lido = c.carregar();
+            assertEquals(esperado, lido.limitesEstoque());
+            assertEquals(List.of("BASE001"), codigos(lido.versao().estoqueBaixo(10)));
+        }
+
+        catalogoA.definirLimiteEstoque("11222333000181", null);
+        a.gravar(List.of(RepositorioCSV.registroLimite("11222333000181", null)), catalogoA);
+        try (RepositorioCSV c = new RepositorioCSV(dir)) {
+            assertEquals(Map.of(), c.carregar().limitesEstoque());
+        }
+    }
+
+    private static Void incluir(RepositorioCSV repo, CatalogoMedicamentos catalogo, String estacao) throws IOException {
+        for (int lote = 0; lote < 25; lote++) {
+            List<RepositorioCSV.Registro> registros = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                Medicamento m = medicamento(String.format("%s%06d", estacao, lote * 4 + i), i);
+                catalogo.adicionar(m);
+                registros.add(RepositorioCSV.registroInsercao(m));
+            }
+            assertTrue(repo.gravar(registros, catalogo).conflitos().isEmpty());
+        }
+        return null;
+    }
+
+    private static int vender(RepositorioCSV repo, CatalogoMedicamentos catalogo) throws IOException {
+        int gravadas = 0;
+        for (int i = 0; i < 15; i++) {
+            Movimentacao mv = Movimentacao.saida("BASE001", 1, "cupom " + i);
+            CatalogoMedicamentos.Saldo saldo = catalogo.movimentar(List.of(mv))[0];
+            gravadas += repo.gravar(List.of(RepositorioCSV.registroMovimentacao(saldo, mv, Instant.now())), catalogo)
+                    .gravados();
+        }
+        return gravadas;
+    }
+
+    private static int quantidade(CatalogoMedicamentos c, String codigo) {
+        return c.buscarPorCodigo(codigo).orElseThrow().getQuantidadeEstoque();
+    }
+
+    private static Set<String> codigos(CatalogoMedicamentos c) {
+        return new TreeSet<>(codigos(c.todos()));
+    }
+
+    private static List<String> codigos(Collection<Medicamento> meds) {
+        return meds.stream().map(Medicamento::getCodigo).toList();
+    }
+}
@@ -0,0 +1,132 @@
+package org.provapoo3.persistencia;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.provapoo3.catalogo.RegistroFornecedores;
+import org.provapoo3.model.Fornecedor;
+import org.provapoo3.model.Medicamento;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SnapshotBinarioTest {
+
+    @TempDir
+    Path dir;
+
+    private final Fornecedor sp = new Fornecedor("12345678000199", "Distribuidora", "1133334444",
+            "contato@dist.com", "Campinas", "SP");
+
+    @Test
+    void idaEVoltaPreservaTodosOsCampos() throws IOException {
+        List<Medicamento> meds = medicamentos();
+        Path bin = gravar(meds);
+
+        RegistroFornecedores registro = new RegistroFornecedores();
+        Optional<List<Medicamento>> lidos = SnapshotBinario.carregar(bin, assinatura(), registro, p -> {});
+
+        assertTrue(lidos.isPresent());
+        assertEquals(linhas(meds), linhas(lidos.get()));
+        assertEquals("Analgésico e antitérmico ✓", lidos.get().get(0).getDescricao());
+        assertEquals("", lidos.get().get(1).getDescricao());
+        // fornecedor desconhecido do registro entra nele
+        assertSame(registro.buscar(sp.getCnpj()).orElseThrow(), lidos.get().get(0).getFornecedor());
+    }
+
+    @Test
+    void fornecedorJaRegistradoUsaAInstanciaDoRegistro() throws IOException {
+        Path bin = gravar(medicamentos());
+        RegistroFornecedores registro = new RegistroFornecedores();
+        Fornecedor doCsv = registro.registrar(new Fornecedor(sp.getCnpj(), "Razão nova", "", "", "", "RJ"));
+
+        List<Medicamento> lidos = SnapshotBinario.carregar(bin, assinatura(), registro, p -> {}).orElseThrow();
+
+        assertSame(doCsv, lidos.get(0).getFornecedor());
+        assertEquals("RJ", lidos.get(0).getFornecedor().getEstado());
+    }
+
+    @Test
+    void assinaturaDiferenteDescartaACopia() throws IOException {
+        Path bin = gravar(medicamentos());
+        SnapshotBinario.Assinatura outra = new SnapshotBinario.Assinatura(1, 2, 3, 5);
+
+        assertTrue(SnapshotBinario.carregar(bin, outra, new RegistroFornecedores(), p -> {}).isEmpty());
+    }
+
+    @Test
+    void conteudoCorrompidoFalhaNoCrcSemTocarNoRegistro() throws IOException {
+        Path bin = gravar(medicamentos());
+        try (FileChannel canal = FileChannel.open(bin, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long meio = canal.size() / 2;
+            ByteBuffer b = ByteBuffer.allocate(1);
+            canal.read(b, meio);
+            b.put(0, (byte) (b.get(0) ^ 0x5A));
+            b.rewind();
+            canal.write(b, meio);
+        }
+        RegistroFornecedores registro = new RegistroFornecedores();
+
+        assertTrue(SnapshotBinario.carregar(bin, assinatura(), registro, p -> {}).isEmpty());
+        assertEquals(0, registro.tamanho());
+    }
+
+    @Test
+    void arquivoTruncadoOuAusenteVoltaAoCsv() throws IOException {
+        Path bin = gravar(medicamentos());
+        Files.write(bin, Arrays.copyOf(Files.readAllBytes(bin), 20));
+
+        assertTrue(SnapshotBinario.carregar(bin, assinatura(), new RegistroFornecedores(), p -> {}).isEmpty());
+        assertTrue(SnapshotBinario.carregar(dir.resolve("nao-existe.bin"), assinatura(),
+                new RegistroFornecedores(), p -> {}).isEmpty());
+    }
+
+    @Test
+    void descricoesContinuamLegiveisDepoisDeOArquivoSerSubstituido() throws IOException {
+        Path bin = gravar(medicamentos());
+        List<Medicamento> lidos = SnapshotBinario.carregar(bin, assinatura(), new RegistroFornecedores(), p -> {})
+                .orElseThrow();
+
+        // como numa compactação de outra estação: outro arquivo toma o nome do mapeado
+        Medicamento outro = new Medicamento("BBB0001", "Outro", "Texto de outra gravação", "", null, 1, null, false,
+                null);
+        SnapshotBinario.gravar(bin, List.of(outro), List.of(), assinatura());
+
+        assertEquals("Analgésico e antitérmico ✓", lidos.get(0).lerDescricao());
+        assertEquals("Analgésico e antitérmico ✓", lidos.get(0).getDescricao());
+        assertEquals("", lidos.get(1).getDescricao());
+    }
+
+    private Path gravar(List<Medicamento> meds) throws IOException {
+        Path bin = dir.resolve("medicamentos.bin");
+        SnapshotBinario.gravar(bin, meds, List.of(), assinatura());
+        return bin;
+    }
+
+    private static SnapshotBinario.Assinatura assinatura() {
+        return new SnapshotBinario.Assinatura(100, 200, -1, -1);
+    }
+
+    private List<Medicamento> medicamentos() {
+        Medicamento a = new Medicamento("AAA0001", "Dipirona", "Analgésico e antitérmico ✓", "dipirona",
+                LocalDate.of(2030, 5, 1), 12, new BigDecimal("8.90"), false, sp);
+        a.setVersao(7);
+        Medicamento b = new Medicamento("AAA0002", "Rivotril", "", "clonazepam",
+                null, 0, null, true, null);
+        return List.of(a, b);
+    }
+
+    private static List<String> linhas(List<Medicamento> meds) {
+        return meds.stream().map(RepositorioCSV::linhaMedicamento).toList();
+    }
+}
@@ -0,0 +1,101 @@
+package org.provapoo3.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.provapoo3.model.Medicamento;
+import org.provapoo3.persistencia.RepositorioCSV;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.provapoo3.Amostras.medicamento;
+
+/** Duas estações (dois serviços) sobre o mesmo diretório, com a gravação e a sincronização em segundo plano. */
+class GravadorAssincronoTest {
+
+    @TempDir
+    Path dir;
+
+    private MedicamentoService a, b;
+    private final BlockingQueue<String> alteradosEmB = new LinkedBlockingQueue<>();
+    private final BlockingQueue<RepositorioCSV.Registro> conflitos = new LinkedBlockingQueue<>();
+
+    @BeforeEach
+    void abrir() throws IOException {
+        a = abrirEstacao();
+        a.cadastrar(medicamento("BASE001"));
+        a.salvarTudo();
+        b = abrirEstacao();
+        b.setOuvinteGravacao(new GravadorAssincrono.Ouvinte() {
+            @Override public void alterado(List<Medicamento> incluidos, List<Medicamento> removidos) {
+                for (Medicamento m : incluidos) alteradosEmB.add(m.getCodigo());
+            }
+            @Override public void conflito(RepositorioCSV.Registro descartado) {
+                conflitos.add(descartado);
+            }
+        });
+        a.setOuvinteGravacao(new GravadorAssincrono.Ouvinte() {
+            @Override public void conflito(RepositorioCSV.Registro descartado) {
+                conflitos.add(descartado);
+            }
+        });
+    }
+
+    @AfterEach
+    void fechar() throws IOException {
+        a.close();
+        b.close();
+    }
+
+    @Test
+    void inclusaoDeOutraEstacaoChegaSemNenhumaGravacaoLocal() throws Exception {
+        b.acompanharAlteracoesExternas();
+
+        a.cadastrar(medicamento("NOVO001"));
+
+        // pelo aviso do sistema de arquivos ou, no máximo, pela releitura periódica
+        assertEquals("NOVO001", alteradosEmB.poll(10, TimeUnit.SECONDS));
+        assertTrue(b.buscar("NOVO001").isPresent());
+    }
+
+    @Test
+    void exclusaoDasDuasEstacoesDescartaASegundaEAvisaOOuvinte() throws Exception {
+        a.excluir("BASE001");
+        b.excluir("BASE001");
+
+        RepositorioCSV.Registro descartado = conflitos.poll(10, TimeUnit.SECONDS);
+        assertNotNull(descartado);
+        assertEquals("BASE001", descartado.codigo());
+        assertTrue(descartado.exclusao());
+        assertNull(conflitos.poll(GravadorAssincrono.ATRASO_MS * 4, TimeUnit.MILLISECONDS));
+        assertFalse(a.buscar("BASE001").isPresent());
+        assertFalse(b.buscar("BASE001").isPresent());
+    }
+
+    @Test
+    void cadastroRecusadoNaoVaiParaOJournal() throws Exception {
+        b.acompanharAlteracoesExternas();
+
+        assertThrows(IllegalArgumentException.class, () -> a.cadastrar(medicamento("NEGA001", -1)));
+        assertThrows(IllegalArgumentException.class,
+                () -> a.cadastrar(medicamento("ENOR001", new BigDecimal("1e17"), 1))); // centavos fora do long
+        a.cadastrar(medicamento("NOVO001"));
+
+        // o journal é lido em ordem: o primeiro aviso já é o do cadastro aceito
+        assertEquals("NOVO001", alteradosEmB.poll(10, TimeUnit.SECONDS));
+        assertFalse(a.buscar("NEGA001").isPresent());
+        assertFalse(b.buscar("ENOR001").isPresent());
+    }
+
+    private MedicamentoService abrirEstacao() throws IOException {
+        MedicamentoService s = new MedicamentoService(dir);
+        s.carregar(p -> {});
+        return s;
+    }
+}